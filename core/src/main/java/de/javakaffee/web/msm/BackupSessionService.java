@@ -96,6 +96,16 @@ public class BackupSessionService {
         _executorService.shutdown();
     }
 
+    /**
+     * Waits until the backups that were submitted before {@link #shutdown()} are finished.
+     *
+     * @param timeoutMillis the max time to wait in millis.
+     * @return <code>true</code> if all backups are finished.
+     */
+    public boolean awaitTermination( final long timeoutMillis ) throws InterruptedException {
+        return _executorService.awaitTermination( timeoutMillis, TimeUnit.MILLISECONDS );
+    }
+
     /**
      * Update the expiration for the session associated with this {@link BackupSessionService}
      * in memcached, so that the session will expire in
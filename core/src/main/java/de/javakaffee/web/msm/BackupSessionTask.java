@@ -39,6 +39,8 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 
 import de.javakaffee.web.msm.BackupSessionTask.BackupResult;
+import de.javakaffee.web.msm.SessionEvents.SessionEvent;
+import de.javakaffee.web.msm.storage.ItemTooLargeException;
 import de.javakaffee.web.msm.storage.StorageClient;
 
 /**
@@ -104,6 +106,7 @@ public class BackupSessionTask implements Callable<BackupResult> {
         try {
 
             final long startBackup = System.currentTimeMillis();
+            final SessionEvent backupEvent = SessionEvents.begin( SessionEvents.Type.BACKUP ).session( _session.getId() );
 
             final ConcurrentMap<String, Object> attributes = _session.getAttributesFiltered();
             final byte[] attributesData = serializeAttributes( _session, attributes );
@@ -119,6 +122,8 @@ public class BackupSessionTask implements Callable<BackupResult> {
                 result = doBackupSession( _session, data, attributesData );
                 if ( result.isSuccess() ) {
                     _session.setDataHashCode( hashCode );
+                    _session.setDataSize( attributesData.length );
+                    _session.incrementVersion();
                 }
             } else {
                 result = new BackupResult( BackupResultStatus.SKIPPED );
@@ -139,6 +144,7 @@ public class BackupSessionTask implements Callable<BackupResult> {
                     _session.backupFinished();
                     break;
             }
+            backupEvent.bytes( result.getData() != null ? result.getData().length : 0 ).result( result.getStatus().name() ).commit();
 
             if ( _log.isDebugEnabled() ) {
                 _log.debug( "Finished for session id " + _session.getId() +
@@ -165,7 +171,9 @@ public class BackupSessionTask implements Callable<BackupResult> {
                     _log.debug( "Releasing lock for session " + _session.getIdInternal() );
                 }
                 final long start = System.currentTimeMillis();
+                final SessionEvent event = SessionEvents.begin( SessionEvents.Type.LOCK_RELEASE ).session( _session.getIdInternal() );
                 _storage.delete( _memcachedNodesManager.getSessionIdFormat().createLockName( _session.getIdInternal() ) ).get();
+                event.commit();
                 _statistics.registerSince( RELEASE_LOCK, start );
                 _session.releaseLock();
             } catch( final Exception e ) {
@@ -176,7 +184,9 @@ public class BackupSessionTask implements Callable<BackupResult> {
 
     private byte[] serializeAttributes( final MemcachedBackupSession session, final ConcurrentMap<String, Object> attributes ) {
         final long start = System.currentTimeMillis();
+        final SessionEvent event = SessionEvents.begin( SessionEvents.Type.SERIALIZATION ).session( session.getId() );
         final byte[] attributesData = _transcoderService.serializeAttributes( session, attributes );
+        event.bytes( attributesData.length ).commit();
         _statistics.registerSince( ATTRIBUTES_SERIALIZATION, start );
         return attributesData;
     }
@@ -198,15 +208,22 @@ public class BackupSessionTask implements Callable<BackupResult> {
             storeSessionInMemcached( session, data );
             return new BackupResult( BackupResultStatus.SUCCESS, data, attributesData );
         } catch (final ExecutionException e) {
-            handleException(session, e);
+            handleException(session, data, e);
             return new BackupResult(BackupResultStatus.FAILURE, data, null);
         } catch (final TimeoutException e) {
-            handleException(session, e);
+            handleException(session, data, e);
             return new BackupResult(BackupResultStatus.FAILURE, data, null);
         }
     }
 
-    private void handleException(final MemcachedBackupSession session, final Exception e) {
+    private void handleException(final MemcachedBackupSession session, final byte[] data, final Exception e) {
+        if ( isItemTooLarge( e ) ) {
+            // the node is fine, only this session cannot be stored
+            _log.warn( "Could not store session " + session.getId() + " in memcached, the session (" + data.length +
+                    " bytes) exceeds the item size limit (consider setting storageChunkSize): " + e.getCause() );
+            _statistics.sessionRejectedAsTooLarge();
+            return;
+        }
         //if ( _log.isWarnEnabled() ) {
             String msg = "Could not store session " + session.getId() + " in memcached.";
             if ( _force ) {
@@ -218,6 +235,19 @@ public class BackupSessionTask implements Callable<BackupResult> {
         _memcachedNodesManager.setNodeAvailableForSessionId(session.getId(), false);
     }
 
+    /**
+     * Determines if the given exception was caused by the rejection of an item that exceeds the item size limit,
+     * which the storage clients signal with an {@link ItemTooLargeException}.
+     */
+    static boolean isItemTooLarge( final Throwable e ) {
+        for ( Throwable t = e; t != null; t = t.getCause() ) {
+            if ( t instanceof ItemTooLargeException ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void storeSessionInMemcached( final MemcachedBackupSession session, final byte[] data) throws InterruptedException, ExecutionException, TimeoutException {
 
         /* calculate the expiration time (instead of using just maxInactiveInterval), as
@@ -233,6 +263,7 @@ public class BackupSessionTask implements Callable<BackupResult> {
                     toMemcachedExpiration(expirationTime), data );
             if ( !_sessionBackupAsync ) {
                 future.get( _sessionBackupTimeout, TimeUnit.MILLISECONDS );
+                _memcachedNodesManager.registerLatency( session.getId(), System.currentTimeMillis() - start );
                 session.setLastMemcachedExpirationTime( expirationTime );
                 session.setLastBackupTime( System.currentTimeMillis() );
             }
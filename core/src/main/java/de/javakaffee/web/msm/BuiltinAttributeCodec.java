@@ -0,0 +1,390 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A compact binary encoding for the value types that are most common in sessions: {@link String}s,
+ * boxed primitives, <code>byte[]</code>, {@link Date}s and small collections ({@link ArrayList},
+ * {@link LinkedList}, {@link HashSet}, {@link LinkedHashSet}) of these. Each value is written as a type
+ * tag followed by the value, integral numbers and lengths are written as zigzag varints.
+ * <p>
+ * Only the exact classes are supported (e.g. a {@link java.sql.Timestamp} is not handled by this codec),
+ * so that values are deserialized with the same class they were serialized with.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+final class BuiltinAttributeCodec {
+
+    /**
+     * The max number of elements a collection may have to be encoded by this codec.
+     */
+    static final int MAX_COLLECTION_SIZE = 64;
+
+    private static final int NULL = 0;
+    private static final int STRING = 1;
+    private static final int TRUE = 2;
+    private static final int FALSE = 3;
+    private static final int BYTE = 4;
+    private static final int SHORT = 5;
+    private static final int INT = 6;
+    private static final int LONG = 7;
+    private static final int FLOAT = 8;
+    private static final int DOUBLE = 9;
+    private static final int CHAR = 10;
+    private static final int BYTES = 11;
+    private static final int DATE = 12;
+    private static final int ARRAY_LIST = 13;
+    private static final int LINKED_LIST = 14;
+    private static final int HASH_SET = 15;
+    private static final int LINKED_HASH_SET = 16;
+
+    private BuiltinAttributeCodec() {
+    }
+
+    /**
+     * Writes the given value to the given output, if it's supported by this codec.
+     *
+     * @return <code>true</code> if the value was written, otherwise <code>false</code>. In this
+     *  case the output may contain partially written data and must be reset by the caller.
+     */
+    static boolean write( @Nonnull final Output out, final Object value ) {
+        return write( out, value, true );
+    }
+
+    private static boolean write( final Output out, final Object value, final boolean allowCollection ) {
+        if ( value == null ) {
+            out.writeByte( NULL );
+            return true;
+        }
+        final Class<?> clazz = value.getClass();
+        if ( clazz == String.class ) {
+            out.writeByte( STRING );
+            out.writeString( (String) value );
+        } else if ( clazz == Boolean.class ) {
+            out.writeByte( ( (Boolean) value ).booleanValue() ? TRUE : FALSE );
+        } else if ( clazz == Integer.class ) {
+            out.writeByte( INT );
+            out.writeVarLong( ( (Integer) value ).intValue() );
+        } else if ( clazz == Long.class ) {
+            out.writeByte( LONG );
+            out.writeVarLong( ( (Long) value ).longValue() );
+        } else if ( clazz == Byte.class ) {
+            out.writeByte( BYTE );
+            out.writeByte( ( (Byte) value ).byteValue() );
+        } else if ( clazz == Short.class ) {
+            out.writeByte( SHORT );
+            out.writeVarLong( ( (Short) value ).shortValue() );
+        } else if ( clazz == Character.class ) {
+            out.writeByte( CHAR );
+            out.writeVarLong( ( (Character) value ).charValue() );
+        } else if ( clazz == Float.class ) {
+            out.writeByte( FLOAT );
+            out.writeFixed( Float.floatToIntBits( ( (Float) value ).floatValue() ), 4 );
+        } else if ( clazz == Double.class ) {
+            out.writeByte( DOUBLE );
+            out.writeFixed( Double.doubleToLongBits( ( (Double) value ).doubleValue() ), 8 );
+        } else if ( clazz == byte[].class ) {
+            final byte[] bytes = (byte[]) value;
+            out.writeByte( BYTES );
+            out.writeVarLong( bytes.length );
+            out.writeBytes( bytes, 0, bytes.length );
+        } else if ( clazz == Date.class ) {
+            out.writeByte( DATE );
+            out.writeVarLong( ( (Date) value ).getTime() );
+        } else if ( allowCollection && isSupportedCollection( clazz ) ) {
+            return writeCollection( out, (Collection<?>) value, clazz );
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isSupportedCollection( final Class<?> clazz ) {
+        return clazz == ArrayList.class || clazz == LinkedList.class || clazz == HashSet.class || clazz == LinkedHashSet.class;
+    }
+
+    private static boolean writeCollection( final Output out, final Collection<?> collection, final Class<?> clazz ) {
+        if ( collection.size() > MAX_COLLECTION_SIZE ) {
+            return false;
+        }
+        out.writeByte( clazz == ArrayList.class ? ARRAY_LIST
+            : clazz == LinkedList.class ? LINKED_LIST
+            : clazz == HashSet.class ? HASH_SET
+            : LINKED_HASH_SET );
+        // the collection might be modified concurrently, therefore the count is written after the elements
+        final int countIdx = out.reserve( 1 );
+        int count = 0;
+        for ( final Object element : collection ) {
+            if ( ++count > MAX_COLLECTION_SIZE || !write( out, element, false ) ) {
+                return false;
+            }
+        }
+        out.set( countIdx, count );
+        return true;
+    }
+
+    /**
+     * Reads a value written by {@link #write(Output, Object)}.
+     */
+    static Object read( @Nonnull final Input in ) {
+        final int tag = in.readByte();
+        switch ( tag ) {
+            case NULL:
+                return null;
+            case STRING:
+                return in.readString();
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case BYTE:
+                return Byte.valueOf( (byte) in.readByte() );
+            case SHORT:
+                return Short.valueOf( (short) in.readVarLong() );
+            case INT:
+                return Integer.valueOf( (int) in.readVarLong() );
+            case LONG:
+                return Long.valueOf( in.readVarLong() );
+            case FLOAT:
+                return Float.valueOf( Float.intBitsToFloat( (int) in.readFixed( 4 ) ) );
+            case DOUBLE:
+                return Double.valueOf( Double.longBitsToDouble( in.readFixed( 8 ) ) );
+            case CHAR:
+                return Character.valueOf( (char) in.readVarLong() );
+            case BYTES:
+                return in.readBytes( (int) in.readVarLong() );
+            case DATE:
+                return new Date( in.readVarLong() );
+            case ARRAY_LIST:
+            case LINKED_LIST:
+            case HASH_SET:
+            case LINKED_HASH_SET:
+                return readCollection( in, tag );
+            default:
+                throw new TranscoderDeserializationException( "Unknown type tag " + tag );
+        }
+    }
+
+    private static Collection<Object> readCollection( final Input in, final int tag ) {
+        final int count = in.readByte();
+        final Collection<Object> result = tag == ARRAY_LIST ? new ArrayList<Object>( count )
+            : tag == LINKED_LIST ? new LinkedList<Object>()
+            : tag == HASH_SET ? new HashSet<Object>( count * 2 )
+            : new LinkedHashSet<Object>( count * 2 );
+        for ( int i = 0; i < count; i++ ) {
+            result.add( read( in ) );
+        }
+        return result;
+    }
+
+    /**
+     * A growable byte buffer.
+     */
+    static final class Output {
+
+        private byte[] _buf;
+        private int _pos;
+
+        Output( final int initialCapacity ) {
+            _buf = new byte[initialCapacity];
+        }
+
+        int position() {
+            return _pos;
+        }
+
+        void reset( final int position ) {
+            _pos = position;
+        }
+
+        byte[] toByteArray() {
+            final byte[] result = new byte[_pos];
+            System.arraycopy( _buf, 0, result, 0, _pos );
+            return result;
+        }
+
+        int reserve( final int length ) {
+            ensureCapacity( length );
+            final int result = _pos;
+            _pos += length;
+            return result;
+        }
+
+        void set( final int idx, final int b ) {
+            _buf[idx] = (byte) b;
+        }
+
+        void writeByte( final int b ) {
+            ensureCapacity( 1 );
+            _buf[_pos++] = (byte) b;
+        }
+
+        void writeFixed( final long value, final int length ) {
+            ensureCapacity( length );
+            _pos = TranscoderService.encodeNum( value, _buf, _pos, length );
+        }
+
+        void writeVarLong( final long value ) {
+            ensureCapacity( 10 );
+            long v = ( value << 1 ) ^ ( value >> 63 );
+            while ( ( v & ~0x7FL ) != 0 ) {
+                _buf[_pos++] = (byte) ( ( v & 0x7F ) | 0x80 );
+                v >>>= 7;
+            }
+            _buf[_pos++] = (byte) v;
+        }
+
+        void writeBytes( final byte[] bytes, final int offset, final int length ) {
+            ensureCapacity( length );
+            System.arraycopy( bytes, offset, _buf, _pos, length );
+            _pos += length;
+        }
+
+        void writeString( final String s ) {
+            final int length = s.length();
+            // fast path for ascii strings, which is what most ids are
+            ensureCapacity( 10 + length );
+            final int start = _pos;
+            writeVarLong( length );
+            int i = 0;
+            while ( i < length ) {
+                final char c = s.charAt( i );
+                if ( c >= 0x80 ) {
+                    break;
+                }
+                _buf[_pos++] = (byte) c;
+                i++;
+            }
+            if ( i < length ) {
+                _pos = start;
+                writeVarLong( -1 );
+                final byte[] bytes = encodeUTF8( s );
+                writeVarLong( bytes.length );
+                writeBytes( bytes, 0, bytes.length );
+            }
+        }
+
+        private void ensureCapacity( final int length ) {
+            if ( _pos + length > _buf.length ) {
+                final byte[] buf = new byte[Math.max( _buf.length * 2, _pos + length )];
+                System.arraycopy( _buf, 0, buf, 0, _pos );
+                _buf = buf;
+            }
+        }
+
+    }
+
+    /**
+     * Reads from a byte array.
+     */
+    static final class Input {
+
+        private final byte[] _data;
+        private final int _end;
+        private int _pos;
+
+        Input( final byte[] data, final int offset, final int length ) {
+            _data = data;
+            _pos = offset;
+            _end = offset + length;
+        }
+
+        int position() {
+            return _pos;
+        }
+
+        int readByte() {
+            checkAvailable( 1 );
+            return _data[_pos++] & 0xff;
+        }
+
+        long readFixed( final int length ) {
+            checkAvailable( length );
+            final long result = TranscoderService.decodeNum( _data, _pos, length );
+            _pos += length;
+            return result;
+        }
+
+        long readVarLong() {
+            long v = 0;
+            for ( int shift = 0; shift < 64; shift += 7 ) {
+                final int b = readByte();
+                v |= (long) ( b & 0x7F ) << shift;
+                if ( ( b & 0x80 ) == 0 ) {
+                    return ( v >>> 1 ) ^ -( v & 1 );
+                }
+            }
+            throw new TranscoderDeserializationException( "Invalid varint at " + _pos );
+        }
+
+        byte[] readBytes( final int length ) {
+            checkAvailable( length );
+            final byte[] result = new byte[length];
+            System.arraycopy( _data, _pos, result, 0, length );
+            _pos += length;
+            return result;
+        }
+
+        String readString() {
+            final int length = (int) readVarLong();
+            if ( length >= 0 ) {
+                checkAvailable( length );
+                final char[] chars = new char[length];
+                for ( int i = 0; i < length; i++ ) {
+                    chars[i] = (char) _data[_pos++];
+                }
+                return new String( chars );
+            }
+            final int byteLength = (int) readVarLong();
+            checkAvailable( byteLength );
+            try {
+                final String result = new String( _data, _pos, byteLength, "UTF-8" );
+                _pos += byteLength;
+                return result;
+            } catch ( final UnsupportedEncodingException e ) {
+                throw new RuntimeException( e );
+            }
+        }
+
+        private void checkAvailable( final int length ) {
+            if ( length < 0 || _pos + length > _end ) {
+                throw new TranscoderDeserializationException( "Unexpected end of data at " + _pos + ", required " + length + " bytes." );
+            }
+        }
+
+    }
+
+    private static byte[] encodeUTF8( final String s ) {
+        try {
+            return s.getBytes( "UTF-8" );
+        } catch ( final UnsupportedEncodingException e ) {
+            throw new RuntimeException( e );
+        }
+    }
+
+}
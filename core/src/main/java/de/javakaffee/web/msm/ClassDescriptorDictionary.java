@@ -0,0 +1,434 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * A dictionary of java serialization class descriptors ({@link ObjectStreamClass}es), that's shared by all
+ * tomcats of a webapp (via the {@link SharedStorage}), so that the {@link JavaSerializationTranscoder} can write
+ * the id of a class descriptor instead of the descriptor (class name, serialVersionUID and fields).
+ * <p>
+ * Ids are assigned to the serialized form of a descriptor, so that a new version of a class (with a
+ * different serialVersionUID or different fields) gets a new id and data written with the old version
+ * can still be read. Ids are assigned via {@link SharedStorage#assignId(String, byte[], long)}: they're taken
+ * from a counter and never reused, so that an id is never bound to another descriptor, also not after the entry
+ * of an id was evicted. Additionally the id is stored with the digest of the descriptor, so that other nodes find
+ * the id assigned for a descriptor.
+ * </p>
+ * <p>
+ * Entries can still be evicted, then data using their ids can only be read by tomcats that know them locally.
+ * Therefore the locally known entries are re-seeded (added where they're missing) when the dictionary is loaded,
+ * and in the background when an id is not found in the storage or while locally known ids are used.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class ClassDescriptorDictionary {
+
+    private static final Log LOG = LogFactory.getLog( ClassDescriptorDictionary.class );
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+    private static final String KEY_PREFIX = "msmJavaClass_";
+    private static final String DIGEST_KEY_PREFIX = "msmJavaClassDigest_";
+    private static final long RETRY_AFTER_FAILURE_MILLIS = 10000;
+    private static final long RESEED_INTERVAL_MILLIS = 60000;
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private final SharedStorage _storage;
+    private final ConcurrentMap<ObjectStreamClass, Integer> _ids = new ConcurrentHashMap<ObjectStreamClass, Integer>();
+    private final ConcurrentMap<Integer, ObjectStreamClass> _descriptors = new ConcurrentHashMap<Integer, ObjectStreamClass>();
+    private final ConcurrentMap<ObjectStreamClass, FutureTask<Integer>> _assignments = new ConcurrentHashMap<ObjectStreamClass, FutureTask<Integer>>();
+    /** the serialized descriptors of the locally known ids, that are re-seeded */
+    private final ConcurrentMap<Integer, byte[]> _data = new ConcurrentHashMap<Integer, byte[]>();
+    private final AtomicInteger _maxId = new AtomicInteger( -1 );
+    private final AtomicLong _lastReseed = new AtomicLong();
+    private volatile long _unavailableUntil;
+
+    /**
+     * Creates a new dictionary.
+     *
+     * @param storage the storage the descriptors are read from and written to.
+     */
+    public ClassDescriptorDictionary( @Nonnull final SharedStorage storage ) {
+        _storage = storage;
+    }
+
+    /**
+     * Loads the descriptors stored so far and re-seeds the locally known ones that are missing.
+     *
+     * @return the number of descriptors loaded.
+     */
+    public int load() {
+        final long lastId = _storage.getLastId( KEY_PREFIX );
+        final List<String> names = new ArrayList<String>();
+        for ( int from = 0; from <= lastId; from += LOAD_BATCH_SIZE ) {
+            names.clear();
+            for ( long id = from; id <= Math.min( lastId, (long) from + LOAD_BATCH_SIZE - 1 ); id++ ) {
+                if ( !_descriptors.containsKey( (int) id ) ) {
+                    names.add( KEY_PREFIX + id );
+                }
+            }
+            for ( final Map.Entry<String, byte[]> entry : _storage.getMulti( names ).entrySet() ) {
+                final int id = Integer.parseInt( entry.getKey().substring( KEY_PREFIX.length() ) );
+                try {
+                    putDescriptor( id, deserialize( entry.getValue() ), entry.getValue() );
+                } catch ( final IOException e ) {
+                    LOG.warn( "Could not read class descriptor " + id, e );
+                }
+            }
+        }
+        LOG.info( "Loaded " + _descriptors.size() + " class descriptors." );
+        reseed();
+        return _descriptors.size();
+    }
+
+    /**
+     * Adds the locally known descriptors to the storage where they're missing (e.g. evicted), so that other
+     * tomcats can still read data using their ids.
+     *
+     * @return the number of re-seeded descriptors, or <code>-1</code> if the storage is not available.
+     */
+    int reseed() {
+        _lastReseed.set( System.currentTimeMillis() );
+        final Map<String, byte[]> entries = new HashMap<String, byte[]>( _data.size() * 2 );
+        for ( final Map.Entry<Integer, byte[]> entry : _data.entrySet() ) {
+            entries.put( KEY_PREFIX + entry.getKey(), entry.getValue() );
+        }
+        return _storage.reseed( entries );
+    }
+
+    /**
+     * Re-seeds the locally known descriptors in the background, when an id was not found in the storage or a locally
+     * known id is used. This is done at most every {@link #RESEED_INTERVAL_MILLIS}.
+     */
+    private void reseedInBackground() {
+        final long lastReseed = _lastReseed.get();
+        if ( System.currentTimeMillis() - lastReseed < RESEED_INTERVAL_MILLIS
+                || !_lastReseed.compareAndSet( lastReseed, System.currentTimeMillis() ) ) {
+            return;
+        }
+        _storage.execute( new Runnable() {
+            @Override
+            public void run() {
+                reseed();
+            }
+        } );
+    }
+
+    /**
+     * Returns the id of the given class descriptor, if necessary a new id is assigned.
+     *
+     * @param desc the class descriptor of a local class.
+     * @return the id or <code>null</code> if no id could be assigned because the storage is not available.
+     */
+    @CheckForNull
+    public Integer getOrAssignId( @Nonnull final ObjectStreamClass desc ) {
+        final Integer result = _ids.get( desc );
+        if ( result != null ) {
+            reseedInBackground();
+            return result;
+        }
+        if ( System.currentTimeMillis() < _unavailableUntil ) {
+            return null;
+        }
+        // a descriptor is assigned by one thread only, without blocking the assignment of other descriptors
+        final FutureTask<Integer> task = new FutureTask<Integer>( new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return assignId( desc );
+            }
+        } );
+        final FutureTask<Integer> running = _assignments.putIfAbsent( desc, task );
+        if ( running == null ) {
+            try {
+                task.run();
+            } finally {
+                _assignments.remove( desc, task );
+            }
+        }
+        try {
+            return ( running != null ? running : task ).get();
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch ( final ExecutionException e ) {
+            LOG.warn( "Could not assign an id for class " + desc.getName(), e.getCause() );
+            return null;
+        }
+    }
+
+    private Integer assignId( final ObjectStreamClass desc ) throws IOException {
+        Integer result = _ids.get( desc );
+        if ( result != null ) {
+            return result;
+        }
+
+        final byte[] data = serialize( desc );
+        final String digestKey = DIGEST_KEY_PREFIX + digest( data );
+        final byte[] assigned = _storage.get( digestKey );
+        if ( assigned != null ) {
+            result = Integer.valueOf( new String( assigned, UTF_8 ) );
+            // the digest is only a hint, the descriptor stored for the id is authoritative
+            if ( Arrays.equals( _storage.get( KEY_PREFIX + result ), data ) ) {
+                put( result, desc, data );
+                return result;
+            }
+        }
+
+        final long id = _storage.assignId( KEY_PREFIX, data, _maxId.get() + 1 );
+        if ( id < 0 || id > Integer.MAX_VALUE ) {
+            LOG.warn( "Could not assign an id for class " + desc.getName() + ", the storage seems not to be available." );
+            _unavailableUntil = System.currentTimeMillis() + RETRY_AFTER_FAILURE_MILLIS;
+            return null;
+        }
+        result = (int) id;
+        // if another node assigned an id for the same descriptor concurrently both ids are valid
+        _storage.putIfAbsent( digestKey, String.valueOf( result ).getBytes( UTF_8 ) );
+        put( result, desc, data );
+        return result;
+    }
+
+    /**
+     * Returns the class descriptor for the given id, if it's not known locally it's read from the storage.
+     * If it's not found the locally known descriptors are re-seeded in the background.
+     * The returned descriptor is not bound to a local class, like descriptors read via
+     * {@link ObjectInputStream#readClassDescriptor()}.
+     *
+     * @param id the descriptor id
+     * @return the descriptor or <code>null</code> if the id is not assigned.
+     * @throws IOException if the stored descriptor could not be read.
+     */
+    @CheckForNull
+    public ObjectStreamClass getDescriptor( final int id ) throws IOException {
+        ObjectStreamClass result = _descriptors.get( id );
+        if ( result == null ) {
+            final byte[] data = _storage.get( KEY_PREFIX + id );
+            if ( data != null ) {
+                result = deserialize( data );
+                putDescriptor( id, result, data );
+            } else {
+                reseedInBackground();
+            }
+        }
+        return result;
+    }
+
+    private void put( final int id, final ObjectStreamClass desc, final byte[] data ) {
+        _ids.put( desc, id );
+        _data.put( id, data );
+        updateMaxId( id );
+    }
+
+    private void putDescriptor( final int id, final ObjectStreamClass desc, final byte[] data ) {
+        _descriptors.put( id, desc );
+        _data.put( id, data );
+        updateMaxId( id );
+    }
+
+    private void updateMaxId( final int id ) {
+        int maxId;
+        while ( id > ( maxId = _maxId.get() ) && !_maxId.compareAndSet( maxId, id ) ) {
+        }
+    }
+
+    /**
+     * The number of locally known descriptor ids.
+     */
+    public int size() {
+        return _ids.size();
+    }
+
+    static byte[] serialize( final ObjectStreamClass desc ) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final DescriptorOutputStream out = new DescriptorOutputStream( bos );
+        out.writeDescriptor( desc );
+        out.close();
+        return bos.toByteArray();
+    }
+
+    static ObjectStreamClass deserialize( final byte[] data ) throws IOException {
+        final DescriptorInputStream in = new DescriptorInputStream( new ByteArrayInputStream( data ) );
+        try {
+            return in.readDescriptor();
+        } catch ( final ClassNotFoundException e ) {
+            // not expected, as the descriptor is not resolved
+            throw new InvalidClassException( e.getMessage() );
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String digest( final byte[] data ) {
+        try {
+            final byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( data );
+            final StringBuilder sb = new StringBuilder( digest.length * 2 );
+            for ( final byte b : digest ) {
+                sb.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+            }
+            return sb.toString();
+        } catch ( final NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( "SHA-1 not supported", e );
+        }
+    }
+
+    /**
+     * An {@link ObjectOutputStream} that writes class descriptors as ids of the dictionary
+     * (a varint of the id + 1). If no id can be assigned <code>0</code> is written followed by the descriptor.
+     */
+    static class DictionaryObjectOutputStream extends ObjectOutputStream {
+
+        private final ClassDescriptorDictionary _dictionary;
+
+        DictionaryObjectOutputStream( final OutputStream out, final ClassDescriptorDictionary dictionary ) throws IOException {
+            super( out );
+            _dictionary = dictionary;
+        }
+
+        @Override
+        protected void writeClassDescriptor( final ObjectStreamClass desc ) throws IOException {
+            final Integer id = _dictionary.getOrAssignId( desc );
+            if ( id == null ) {
+                write( 0 );
+                super.writeClassDescriptor( desc );
+                return;
+            }
+            int value = id.intValue() + 1;
+            while ( ( value & ~0x7f ) != 0 ) {
+                write( ( value & 0x7f ) | 0x80 );
+                value >>>= 7;
+            }
+            write( value );
+        }
+
+    }
+
+    /**
+     * An {@link ObjectInputStream} that reads class descriptors written by the {@link DictionaryObjectOutputStream}
+     * and resolves classes with the given class loader (like tomcat's {@link org.apache.catalina.util.CustomObjectInputStream}).
+     */
+    static class DictionaryObjectInputStream extends ObjectInputStream {
+
+        private final ClassLoader _classLoader;
+        private final ClassDescriptorDictionary _dictionary;
+
+        DictionaryObjectInputStream( final InputStream in, final ClassLoader classLoader,
+                final ClassDescriptorDictionary dictionary ) throws IOException {
+            super( in );
+            _classLoader = classLoader;
+            _dictionary = dictionary;
+        }
+
+        @Override
+        protected Class<?> resolveClass( final ObjectStreamClass desc ) throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName( desc.getName(), false, _classLoader );
+            } catch ( final ClassNotFoundException e ) {
+                // e.g. primitive types
+                return super.resolveClass( desc );
+            }
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass( final String[] interfaces ) throws IOException, ClassNotFoundException {
+            final Class<?>[] classes = new Class<?>[interfaces.length];
+            for ( int i = 0; i < interfaces.length; i++ ) {
+                classes[i] = Class.forName( interfaces[i], false, _classLoader );
+            }
+            return Proxy.getProxyClass( _classLoader, classes );
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            int value = 0;
+            for ( int shift = 0; ; shift += 7 ) {
+                final int b = readUnsignedByte();
+                value |= ( b & 0x7f ) << shift;
+                if ( ( b & 0x80 ) == 0 ) {
+                    break;
+                }
+                if ( shift > 28 ) {
+                    throw new InvalidClassException( "Malformed class descriptor id" );
+                }
+            }
+            if ( value == 0 ) {
+                return super.readClassDescriptor();
+            }
+            final ObjectStreamClass result = _dictionary.getDescriptor( value - 1 );
+            if ( result == null ) {
+                throw new InvalidClassException( "Class descriptor id " + ( value - 1 ) + " not found in dictionary." );
+            }
+            return result;
+        }
+
+    }
+
+    private static class DescriptorOutputStream extends ObjectOutputStream {
+
+        DescriptorOutputStream( final OutputStream out ) throws IOException {
+            super( out );
+        }
+
+        void writeDescriptor( final ObjectStreamClass desc ) throws IOException {
+            writeClassDescriptor( desc );
+        }
+
+    }
+
+    private static class DescriptorInputStream extends ObjectInputStream {
+
+        DescriptorInputStream( final InputStream in ) throws IOException {
+            super( in );
+        }
+
+        ObjectStreamClass readDescriptor() throws IOException, ClassNotFoundException {
+            return readClassDescriptor();
+        }
+
+    }
+
+}
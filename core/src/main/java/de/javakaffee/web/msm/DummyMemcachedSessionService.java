@@ -136,6 +136,10 @@ public class DummyMemcachedSessionService<T extends MemcachedSessionService.Sess
     protected void updateExpirationInMemcached() {
     }
 
+    @Override
+    protected void offloadIdleSessions() {
+    }
+
     private final class SessionDeserialization implements Callable<Void> {
 
         private final String _id;
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Performs hedged reads: if the primary read does not answer within an adaptive threshold
+ * (the 95th percentile of the latencies of recent primary reads), a second read (e.g. of
+ * the secondary session backup) is issued in parallel and the first valid answer is taken.
+ * <p>
+ * The primary read is authoritative: its answer is taken even if it's <code>null</code>, while
+ * a <code>null</code> answer of the hedged read is ignored. The number of hedged reads is limited
+ * to <code>maxHedgedPercent</code> percent of all reads (per second), so that hedging does not
+ * amplify the load of the storage.
+ * </p>
+ * <p>
+ * Both reads are asynchronous storage operations, the calling thread waits for their answers. Therefore
+ * no threads are needed to perform the reads, and hedging is not limited by the size of a thread pool.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class HedgedReader {
+
+    static final int LATENCY_SAMPLES = 128;
+    static final long MIN_THRESHOLD = 2;
+    private static final long WINDOW = 1000;
+    /**
+     * The interval in millis to check the hedged read while waiting for the primary read.
+     */
+    private static final long POLL_INTERVAL = 1;
+
+    private final Statistics _statistics;
+    private final int _maxHedgedPercent;
+
+    private final long[] _latencies = new long[LATENCY_SAMPLES];
+    private int _numLatencies;
+    private volatile long _threshold = MIN_THRESHOLD;
+
+    private long _windowStart;
+    private int _reads;
+    private int _hedgedReads;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param statistics the statistics to report hedged reads to.
+     * @param maxHedgedPercent the max percentage of hedged reads.
+     */
+    public HedgedReader( @Nonnull final Statistics statistics, final int maxHedgedPercent ) {
+        _statistics = statistics;
+        _maxHedgedPercent = maxHedgedPercent;
+    }
+
+    /**
+     * The hedged read, that is only issued if the primary read is slow.
+     */
+    public static interface HedgedRead<T> {
+
+        /**
+         * Issues the hedged read.
+         *
+         * @return the future providing the answer, or <code>null</code> if there's no valid answer.
+         */
+        @Nonnull
+        Future<T> issue();
+
+    }
+
+    /**
+     * Waits for the given primary read, and issues the hedged read if the primary read takes longer than the threshold.
+     *
+     * @param primary the already issued primary read.
+     * @param hedged the hedged read, which answers <code>null</code> if it does not provide a valid answer.
+     * @param timeoutMillis the max time to wait for an answer.
+     * @return the answer of the primary read or the hedged read.
+     * @throws ExecutionException if the primary read failed and the hedged read gave no answer.
+     * @throws TimeoutException if no answer arrived within the timeout.
+     */
+    @CheckForNull
+    public <T> T read( @Nonnull final Future<T> primary, @Nonnull final HedgedRead<T> hedged, final long timeoutMillis )
+            throws InterruptedException, ExecutionException, TimeoutException {
+        final long start = System.currentTimeMillis();
+        final long deadline = start + timeoutMillis;
+        countRead( start );
+        Future<T> hedgedFuture = null;
+        try {
+            try {
+                return getPrimary( primary, Math.min( _threshold, timeoutMillis ), start );
+            } catch ( final TimeoutException e ) {
+                if ( acquireHedge() ) {
+                    hedgedFuture = hedged.issue();
+                    _statistics.hedgedReadIssued();
+                }
+            }
+            while ( true ) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if ( remaining <= 0 ) {
+                    throw new TimeoutException( "No answer within " + timeoutMillis + " millis." );
+                }
+                try {
+                    return getPrimary( primary, hedgedFuture != null ? Math.min( POLL_INTERVAL, remaining ) : remaining, start );
+                } catch ( final TimeoutException e ) {
+                    // check the hedged read
+                } catch ( final ExecutionException e ) {
+                    final T result = hedgedFuture != null ? getQuietly( hedgedFuture, deadline ) : null;
+                    if ( result == null ) {
+                        throw e;
+                    }
+                    _statistics.hedgedReadWon();
+                    return result;
+                }
+                if ( hedgedFuture != null && hedgedFuture.isDone() ) {
+                    final T result = getQuietly( hedgedFuture, deadline );
+                    if ( result != null ) {
+                        _statistics.hedgedReadWon();
+                        return result;
+                    }
+                    // no valid answer, wait for the primary read only
+                    hedgedFuture = null;
+                }
+            }
+        } finally {
+            primary.cancel( false );
+            if ( hedgedFuture != null ) {
+                hedgedFuture.cancel( false );
+            }
+        }
+    }
+
+    /**
+     * The current threshold in millis after that a hedged read is issued.
+     */
+    public long getThreshold() {
+        return _threshold;
+    }
+
+    @CheckForNull
+    private <T> T getPrimary( final Future<T> primary, final long timeoutMillis, final long start )
+            throws InterruptedException, ExecutionException, TimeoutException {
+        final T result = primary.get( timeoutMillis, TimeUnit.MILLISECONDS );
+        registerLatency( System.currentTimeMillis() - start );
+        return result;
+    }
+
+    private synchronized void countRead( final long now ) {
+        if ( now - _windowStart >= WINDOW ) {
+            _windowStart = now;
+            _reads = 0;
+            _hedgedReads = 0;
+        }
+        _reads++;
+    }
+
+    private synchronized boolean acquireHedge() {
+        if ( ( _hedgedReads + 1 ) * 100L > _reads * (long) _maxHedgedPercent ) {
+            return false;
+        }
+        _hedgedReads++;
+        return true;
+    }
+
+    synchronized void registerLatency( final long latencyInMillis ) {
+        _latencies[_numLatencies++ % LATENCY_SAMPLES] = latencyInMillis;
+        if ( _numLatencies % ( LATENCY_SAMPLES / 4 ) == 0 ) {
+            final long[] sorted = Arrays.copyOf( _latencies, Math.min( _numLatencies, LATENCY_SAMPLES ) );
+            Arrays.sort( sorted );
+            _threshold = Math.max( MIN_THRESHOLD, sorted[(int) ( sorted.length * 0.95 )] );
+        }
+        if ( _numLatencies >= 2 * LATENCY_SAMPLES ) {
+            _numLatencies -= LATENCY_SAMPLES;
+        }
+    }
+
+    @CheckForNull
+    private static <T> T getQuietly( final Future<T> future, final long deadline ) throws InterruptedException {
+        try {
+            return future.get( Math.max( 0, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+        } catch ( final ExecutionException e ) {
+            return null;
+        } catch ( final TimeoutException e ) {
+            return null;
+        }
+    }
+
+}
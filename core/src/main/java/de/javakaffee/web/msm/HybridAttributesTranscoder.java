@@ -0,0 +1,288 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import de.javakaffee.web.msm.BuiltinAttributeCodec.Input;
+import de.javakaffee.web.msm.BuiltinAttributeCodec.Output;
+
+/**
+ * A {@link SessionAttributesTranscoder} that chooses the codec per attribute: values of the types supported
+ * by the {@link BuiltinAttributeCodec} (strings, boxed primitives, <code>byte[]</code>, dates and small collections
+ * of these) are written with this compact encoding, all other attributes are serialized together by the configured
+ * transcoder. Via a routing table single attributes can be assigned to a specific {@link Codec}, e.g. to
+ * serialize an attribute with java serialization that's not supported by the configured transcoder.
+ * <p>
+ * The format is <code>magic (4 bytes), version (1 byte), number of builtin attributes (4 bytes)</code>,
+ * followed by <code>name length (2 bytes), name (UTF-8), value</code> for each builtin attribute, followed by
+ * <code>length (4 bytes), data</code> for the attributes serialized by the configured transcoder and
+ * the java serialization transcoder (a length of 0 means there are no such attributes).
+ * </p>
+ * <p>
+ * Data not written in this format is passed to the configured transcoder. Data in this format is always read,
+ * even if writing it is disabled (see {@link #HybridAttributesTranscoder(SessionAttributesTranscoder, SessionAttributesTranscoder, Map, boolean)}),
+ * so that this format can be enabled and disabled in a running cluster.
+ * </p>
+ * <p>
+ * The builtin attributes and the attributes of each other codec are serialized separately, so that objects
+ * shared between attributes of different codecs are separate copies once the attributes are deserialized.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class HybridAttributesTranscoder implements SessionAttributesTranscoder {
+
+    static final byte[] MAGIC = new byte[] { (byte) 0xff, 'M', 'S', 'H' };
+    static final int VERSION = 1;
+
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 4;
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    /**
+     * The codecs an attribute can be routed to.
+     */
+    public static enum Codec {
+        /**
+         * The {@link BuiltinAttributeCodec}, attributes with unsupported values are serialized by the configured transcoder.
+         */
+        BUILTIN,
+        /**
+         * The configured transcoder.
+         */
+        TRANSCODER,
+        /**
+         * The {@link JavaSerializationTranscoder}.
+         */
+        JAVA
+    }
+
+    private final SessionAttributesTranscoder _delegate;
+    private final SessionAttributesTranscoder _javaTranscoder;
+    private final Map<String, Codec> _routing;
+    private final boolean _encode;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param delegate the configured transcoder, used for attributes not supported by the builtin codec.
+     * @param javaTranscoder the transcoder for attributes routed to {@link Codec#JAVA}, may only be <code>null</code>
+     *  if no attribute is routed to {@link Codec#JAVA}.
+     * @param routing the codecs for specific attribute names, may be <code>null</code>.
+     */
+    public HybridAttributesTranscoder( @Nonnull final SessionAttributesTranscoder delegate,
+            @Nullable final SessionAttributesTranscoder javaTranscoder,
+            @Nullable final Map<String, Codec> routing ) {
+        this( delegate, javaTranscoder, routing, true );
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param delegate the configured transcoder, used for attributes not supported by the builtin codec.
+     * @param javaTranscoder the transcoder for attributes routed to {@link Codec#JAVA}, may only be <code>null</code>
+     *  if no attribute is routed to {@link Codec#JAVA}.
+     * @param routing the codecs for specific attribute names, may be <code>null</code>.
+     * @param encode <code>false</code> if attributes shall be serialized by the configured transcoder only, data in this
+     *  format is still read.
+     */
+    public HybridAttributesTranscoder( @Nonnull final SessionAttributesTranscoder delegate,
+            @Nullable final SessionAttributesTranscoder javaTranscoder,
+            @Nullable final Map<String, Codec> routing, final boolean encode ) {
+        if ( javaTranscoder == null && routing != null && routing.containsValue( Codec.JAVA ) ) {
+            throw new IllegalArgumentException( "A java transcoder is required for routing " + routing );
+        }
+        _delegate = delegate;
+        _javaTranscoder = javaTranscoder;
+        _routing = routing != null ? new HashMap<String, Codec>( routing ) : Collections.<String, Codec>emptyMap();
+        _encode = encode;
+    }
+
+    /**
+     * Parses the given routing table, which is a comma separated list of <code>name=codec</code>
+     * entries, where codec is one of <code>builtin</code>, <code>transcoder</code> or <code>java</code>
+     * (e.g. <code>userId=builtin, cart=java</code>).
+     *
+     * @param routing the routing table, may be <code>null</code>.
+     * @return the codecs by attribute name.
+     * @throws IllegalArgumentException if the routing table is invalid.
+     */
+    @Nonnull
+    public static Map<String, Codec> parseRouting( @CheckForNull final String routing ) {
+        final Map<String, Codec> result = new HashMap<String, Codec>();
+        if ( routing == null || routing.trim().isEmpty() ) {
+            return result;
+        }
+        for ( final String entry : routing.split( ",\\s*" ) ) {
+            final int idx = entry.indexOf( '=' );
+            if ( idx < 1 ) {
+                throw new IllegalArgumentException( "Invalid routing entry '" + entry + "', expected name=codec." );
+            }
+            final String codec = entry.substring( idx + 1 ).trim().toUpperCase();
+            try {
+                result.put( entry.substring( 0, idx ).trim(), Codec.valueOf( codec ) );
+            } catch ( final IllegalArgumentException e ) {
+                throw new IllegalArgumentException( "Invalid codec in routing entry '" + entry + "', supported are builtin, transcoder and java." );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serializeAttributes( final MemcachedBackupSession session, final ConcurrentMap<String, Object> attributes ) {
+        if ( !_encode ) {
+            return _delegate.serializeAttributes( session, attributes );
+        }
+        final Output out = new Output( 64 + attributes.size() * 32 );
+        out.writeBytes( MAGIC, 0, MAGIC.length );
+        out.writeByte( VERSION );
+        final int countIdx = out.reserve( 4 );
+
+        ConcurrentMap<String, Object> delegateAttributes = null;
+        ConcurrentMap<String, Object> javaAttributes = null;
+        int count = 0;
+        // sorted by name so that unmodified attributes produce the same bytes (and don't look modified)
+        final String[] names = attributes.keySet().toArray( new String[attributes.size()] );
+        Arrays.sort( names );
+        for ( final String name : names ) {
+            final Object value = attributes.get( name );
+            if ( value == null || session.exclude( name, value ) ) {
+                continue;
+            }
+            final Codec codec = _routing.get( name );
+            if ( ( codec == null || codec == Codec.BUILTIN ) && writeBuiltin( out, name, value ) ) {
+                count++;
+            }
+            else if ( codec == Codec.JAVA ) {
+                javaAttributes = put( javaAttributes, name, value );
+            }
+            else {
+                delegateAttributes = put( delegateAttributes, name, value );
+            }
+        }
+
+        final int end = out.position();
+        out.reset( countIdx );
+        out.writeFixed( count, 4 );
+        out.reset( end );
+
+        writeSerialized( out, _delegate, session, delegateAttributes );
+        writeSerialized( out, _javaTranscoder, session, javaAttributes );
+        return out.toByteArray();
+    }
+
+    private static boolean writeBuiltin( final Output out, final String name, final Object value ) {
+        final int start = out.position();
+        final byte[] nameData = name.getBytes( UTF_8 );
+        if ( nameData.length > 0xffff ) {
+            return false;
+        }
+        out.writeFixed( nameData.length, 2 );
+        out.writeBytes( nameData, 0, nameData.length );
+        if ( !BuiltinAttributeCodec.write( out, value ) ) {
+            out.reset( start );
+            return false;
+        }
+        return true;
+    }
+
+    private static ConcurrentMap<String, Object> put( final ConcurrentMap<String, Object> map, final String name, final Object value ) {
+        final ConcurrentMap<String, Object> result = map != null ? map : new ConcurrentHashMap<String, Object>();
+        result.put( name, value );
+        return result;
+    }
+
+    private static void writeSerialized( final Output out, final SessionAttributesTranscoder transcoder,
+            final MemcachedBackupSession session, final ConcurrentMap<String, Object> attributes ) {
+        if ( attributes == null ) {
+            out.writeFixed( 0, 4 );
+        }
+        else {
+            final byte[] data = transcoder.serializeAttributes( session, attributes );
+            out.writeFixed( data.length, 4 );
+            out.writeBytes( data, 0, data.length );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ConcurrentMap<String, Object> deserializeAttributes( final byte[] data ) {
+        if ( !isHybrid( data ) ) {
+            return _delegate.deserializeAttributes( data );
+        }
+
+        final Input in = new Input( data, MAGIC.length, data.length - MAGIC.length );
+        final int version = in.readByte();
+        if ( version != VERSION ) {
+            throw new TranscoderDeserializationException( "Unsupported version " + version + " of hybrid session attributes." );
+        }
+        final int count = (int) in.readFixed( 4 );
+        final ConcurrentMap<String, Object> result = new ConcurrentHashMap<String, Object>( Math.max( 16, count * 2 ) );
+        for ( int i = 0; i < count; i++ ) {
+            final String name = new String( in.readBytes( (int) in.readFixed( 2 ) ), UTF_8 );
+            final Object value = BuiltinAttributeCodec.read( in );
+            if ( value != null ) {
+                result.put( name, value );
+            }
+        }
+
+        readSerialized( in, _delegate, result );
+        readSerialized( in, _javaTranscoder, result );
+        return result;
+    }
+
+    private static void readSerialized( final Input in, final SessionAttributesTranscoder transcoder,
+            final ConcurrentMap<String, Object> result ) {
+        final int length = (int) in.readFixed( 4 );
+        if ( length > 0 ) {
+            if ( transcoder == null ) {
+                throw new TranscoderDeserializationException( "No transcoder available for " + length + " bytes of attributes data." );
+            }
+            result.putAll( transcoder.deserializeAttributes( in.readBytes( length ) ) );
+        }
+    }
+
+    /**
+     * Determines if the given data was written by this transcoder.
+     */
+    static boolean isHybrid( @CheckForNull final byte[] data ) {
+        if ( data == null || data.length < HEADER_LENGTH ) {
+            return false;
+        }
+        for ( int i = 0; i < MAGIC.length; i++ ) {
+            if ( data[i] != MAGIC[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
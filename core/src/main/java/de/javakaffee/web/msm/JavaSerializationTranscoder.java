@@ -31,6 +31,8 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import javax.annotation.Nullable;
+
 import org.apache.catalina.session.StandardSession;
 import org.apache.catalina.util.CustomObjectInputStream;
 import org.apache.juli.logging.Log;
@@ -44,6 +46,11 @@ import de.javakaffee.web.msm.MemcachedSessionService.SessionManager;
  * java serialization (and the serialization logic of {@link StandardSession} as
  * found in {@link StandardSession#writeObjectData(ObjectOutputStream)} and
  * {@link StandardSession#readObjectData(ObjectInputStream)}).
+ * <p>
+ * If a {@link ClassDescriptorDictionary} is given, class descriptors are written as ids of the
+ * dictionary. Such data starts with {@link #DICTIONARY_MAGIC} and can only be read if the
+ * dictionary is given as well, data without dictionary ids is always readable.
+ * </p>
  *
  * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
  * @version $Id$
@@ -60,7 +67,11 @@ public class JavaSerializationTranscoder implements SessionAttributesTranscoder
      */
     protected static final String NOT_SERIALIZED = "___NOT_SERIALIZABLE_EXCEPTION___";
 
+    static final byte[] DICTIONARY_MAGIC = { (byte) 0xff, 'M', 'S', 'D' };
+    static final int DICTIONARY_VERSION = 1;
+
     private final SessionManager _manager;
+    private final ClassDescriptorDictionary _dictionary;
 
     /**
      * Constructor.
@@ -79,7 +90,20 @@ public class JavaSerializationTranscoder implements SessionAttributesTranscoder
      *            the manager
      */
     public JavaSerializationTranscoder( final SessionManager manager ) {
+        this( manager, null );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param manager
+     *            the manager
+     * @param dictionary
+     *            the dictionary for class descriptors, may be <code>null</code>.
+     */
+    public JavaSerializationTranscoder( final SessionManager manager, @Nullable final ClassDescriptorDictionary dictionary ) {
         _manager = manager;
+        _dictionary = dictionary;
     }
 
     /**
@@ -95,7 +119,13 @@ public class JavaSerializationTranscoder implements SessionAttributesTranscoder
         ObjectOutputStream oos = null;
         try {
             bos = new ByteArrayOutputStream();
-            oos = new ObjectOutputStream( bos );
+            if ( _dictionary != null ) {
+                bos.write( DICTIONARY_MAGIC );
+                bos.write( DICTIONARY_VERSION );
+                oos = new ClassDescriptorDictionary.DictionaryObjectOutputStream( bos, _dictionary );
+            } else {
+                oos = new ObjectOutputStream( bos );
+            }
 
             writeAttributes( session, attributes, oos );
 
@@ -164,7 +194,7 @@ public class JavaSerializationTranscoder implements SessionAttributesTranscoder
         ObjectInputStream ois = null;
         try {
             bis = new ByteArrayInputStream( in );
-            ois = createObjectInputStream( bis );
+            ois = isDictionaryData( in ) ? createDictionaryObjectInputStream( bis ) : createObjectInputStream( bis );
 
             final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
             final int n = ( (Integer) ois.readObject() ).intValue();
@@ -193,6 +223,40 @@ public class JavaSerializationTranscoder implements SessionAttributesTranscoder
         }
     }
 
+    private static boolean isDictionaryData( final byte[] in ) {
+        if ( in.length <= DICTIONARY_MAGIC.length ) {
+            return false;
+        }
+        for ( int i = 0; i < DICTIONARY_MAGIC.length; i++ ) {
+            if ( in[i] != DICTIONARY_MAGIC[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ObjectInputStream createDictionaryObjectInputStream( final ByteArrayInputStream bis ) throws IOException {
+        if ( _dictionary == null ) {
+            throw new IOException( "The data was written with a class descriptor dictionary, which is not enabled." );
+        }
+        bis.skip( DICTIONARY_MAGIC.length );
+        final int version = bis.read();
+        if ( version != DICTIONARY_VERSION ) {
+            throw new IOException( "Unsupported class descriptor dictionary version " + version );
+        }
+        ClassLoader classLoader = null;
+        if ( _manager != null && _manager.getContext() != null ) {
+            classLoader = _manager.getContainerClassLoader();
+        }
+        if ( classLoader == null ) {
+            classLoader = Thread.currentThread().getContextClassLoader();
+        }
+        if ( classLoader == null ) {
+            classLoader = getClass().getClassLoader();
+        }
+        return new ClassDescriptorDictionary.DictionaryObjectInputStream( bis, classLoader, _dictionary );
+    }
+
     private ObjectInputStream createObjectInputStream( final ByteArrayInputStream bis ) throws IOException {
         final ObjectInputStream ois;
         ClassLoader classLoader = null;
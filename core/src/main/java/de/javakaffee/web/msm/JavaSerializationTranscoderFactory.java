@@ -31,7 +31,7 @@ public class JavaSerializationTranscoderFactory implements TranscoderFactory {
      */
     @Override
     public SessionAttributesTranscoder createTranscoder( final SessionManager manager ) {
-        return new JavaSerializationTranscoder( manager );
+        return new JavaSerializationTranscoder( manager, manager.getMemcachedSessionService().getClassDescriptorDictionary() );
     }
 
     /**
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * The session attributes map used for lazily deserialized sessions (see {@link LazyAttributesTranscoder}).
+ * Attribute names are known up front, the values are kept as {@link SerializedValue}s
+ * (a reference to the serialized session data plus offset and length) until they're accessed
+ * for the first time. Attributes that were never accessed can be written back with their
+ * original bytes (see {@link #getSerializedValue(String)}).
+ * <p>
+ * Note that all methods that expose values (like {@link #values()} or {@link #entrySet()})
+ * deserialize the affected values.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class LazyAttributesMap extends AbstractMap<String, Object> implements ConcurrentMap<String, Object> {
+
+    /*
+     * Set while the session is activated/passivated: StandardSession then checks all attributes
+     * for HttpSessionActivationListeners, values that are known to be no such listener don't have
+     * to be deserialized for this.
+     */
+    private static final ThreadLocal<Boolean> ACTIVATION_LISTENERS_ONLY = new ThreadLocal<Boolean>();
+
+    private final ConcurrentMap<String, Object> _map;
+    private final SessionAttributesTranscoder _transcoder;
+    private transient Set<Entry<String, Object>> _entrySet;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param transcoder the transcoder used to deserialize single values.
+     * @param initialCapacity the initial capacity of this map.
+     */
+    public LazyAttributesMap( @Nonnull final SessionAttributesTranscoder transcoder, final int initialCapacity ) {
+        _transcoder = transcoder;
+        _map = new ConcurrentHashMap<String, Object>( initialCapacity );
+    }
+
+    /**
+     * Adds the given serialized attribute value, which will be deserialized on first access.
+     */
+    void putSerialized( @Nonnull final SerializedValue value ) {
+        _map.put( value.getName(), value );
+    }
+
+    /**
+     * Returns the serialized value for the given attribute name, if the attribute was not accessed since it was loaded.
+     *
+     * @param name the attribute name
+     * @return the serialized value or <code>null</code> if this attribute was already deserialized or does not exist.
+     */
+    @CheckForNull
+    SerializedValue getSerializedValue( @Nonnull final String name ) {
+        final Object value = _map.get( name );
+        return value instanceof SerializedValue ? (SerializedValue) value : null;
+    }
+
+    /**
+     * Returns the number of attributes that were not yet deserialized.
+     */
+    int getNumSerializedValues() {
+        int result = 0;
+        for ( final Object value : _map.values() ) {
+            if ( value instanceof SerializedValue ) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a new map only containing attributes with a name matching the given pattern, the
+     * attributes are not deserialized for this.
+     */
+    @Nonnull
+    LazyAttributesMap filter( @Nonnull final Pattern pattern ) {
+        final LazyAttributesMap result = new LazyAttributesMap( _transcoder, _map.size() );
+        for ( final Map.Entry<String, Object> entry : _map.entrySet() ) {
+            if ( pattern.matcher( entry.getKey() ).matches() ) {
+                result._map.put( entry.getKey(), entry.getValue() );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Specifies, if (for the current thread) only attribute values shall be deserialized that are
+     * {@link javax.servlet.http.HttpSessionActivationListener}s, for other non deserialized values
+     * {@link #get(Object)} then returns <code>null</code>. This must be reset after session activation/passivation.
+     */
+    static void setActivationListenersOnly( final boolean activationListenersOnly ) {
+        if ( activationListenersOnly ) {
+            ACTIVATION_LISTENERS_ONLY.set( Boolean.TRUE );
+        }
+        else {
+            ACTIVATION_LISTENERS_ONLY.remove();
+        }
+    }
+
+    @Override
+    public Object get( final Object key ) {
+        final Object value = _map.get( key );
+        if ( value instanceof SerializedValue ) {
+            if ( ACTIVATION_LISTENERS_ONLY.get() != null && !( (SerializedValue) value ).isActivationListener() ) {
+                return null;
+            }
+            return materialize( (String) key, value );
+        }
+        return value;
+    }
+
+    @Override
+    public boolean containsKey( final Object key ) {
+        return _map.containsKey( key );
+    }
+
+    @Override
+    public Object put( final String key, final Object value ) {
+        return deserializeIfRequired( _map.put( key, value ) );
+    }
+
+    @Override
+    public Object remove( final Object key ) {
+        return deserializeIfRequired( _map.remove( key ) );
+    }
+
+    @Override
+    public Object putIfAbsent( final String key, final Object value ) {
+        final Object previous = _map.putIfAbsent( key, value );
+        return previous instanceof SerializedValue ? materialize( key, previous ) : previous;
+    }
+
+    @Override
+    public boolean remove( final Object key, final Object value ) {
+        final Object current = get( key );
+        return current != null && current.equals( value ) && _map.remove( key, current );
+    }
+
+    @Override
+    public boolean replace( final String key, final Object oldValue, final Object newValue ) {
+        final Object current = get( key );
+        return current != null && current.equals( oldValue ) && _map.replace( key, current, newValue );
+    }
+
+    @Override
+    public Object replace( final String key, final Object value ) {
+        return deserializeIfRequired( _map.replace( key, value ) );
+    }
+
+    @Override
+    public int size() {
+        return _map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return _map.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        _map.clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return _map.keySet();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if ( _entrySet == null ) {
+            _entrySet = new EntrySet();
+        }
+        return _entrySet;
+    }
+
+    /**
+     * Replaces the given serialized value by the deserialized one, if the attribute was not changed in the meantime.
+     * @return the current value of the attribute.
+     */
+    private Object materialize( final String key, final Object serialized ) {
+        Object current = serialized;
+        while ( current instanceof SerializedValue ) {
+            final Object value = ( (SerializedValue) current ).deserialize( _transcoder );
+            if ( value == null ? _map.remove( key, current ) : _map.replace( key, current, value ) ) {
+                return value;
+            }
+            // someone else changed or deserialized this attribute in the meantime
+            current = _map.get( key );
+        }
+        return current;
+    }
+
+    private Object deserializeIfRequired( final Object value ) {
+        return value instanceof SerializedValue ? ( (SerializedValue) value ).deserialize( _transcoder ) : value;
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            final Iterator<Entry<String, Object>> iter = _map.entrySet().iterator();
+            return new Iterator<Entry<String, Object>>() {
+
+                @Override
+                public boolean hasNext() {
+                    return iter.hasNext();
+                }
+
+                @Override
+                public Entry<String, Object> next() {
+                    final Entry<String, Object> entry = iter.next();
+                    return new LazyEntry( entry.getKey(), entry.getValue() );
+                }
+
+                @Override
+                public void remove() {
+                    iter.remove();
+                }
+
+            };
+        }
+
+        @Override
+        public int size() {
+            return _map.size();
+        }
+
+        @Override
+        public void clear() {
+            _map.clear();
+        }
+
+    }
+
+    private final class LazyEntry extends SimpleEntry<String, Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        LazyEntry( final String key, final Object value ) {
+            super( key, value );
+        }
+
+        @Override
+        public Object getValue() {
+            final Object value = super.getValue();
+            if ( value instanceof SerializedValue ) {
+                final Object result = materialize( getKey(), value );
+                super.setValue( result );
+                return result;
+            }
+            return value;
+        }
+
+        @Override
+        public Object setValue( final Object value ) {
+            final Object previous = getValue();
+            super.setValue( value );
+            _map.put( getKey(), value );
+            return previous;
+        }
+
+    }
+
+    /**
+     * A serialized attribute value, referencing the serialized session data.
+     */
+    static final class SerializedValue {
+
+        private final String _name;
+        private final byte[] _data;
+        private final int _offset;
+        private final int _length;
+        private final boolean _activationListener;
+
+        SerializedValue( @Nonnull final String name, @Nonnull final byte[] data, final int offset, final int length,
+                final boolean activationListener ) {
+            _name = name;
+            _data = data;
+            _offset = offset;
+            _length = length;
+            _activationListener = activationListener;
+        }
+
+        String getName() {
+            return _name;
+        }
+
+        boolean isActivationListener() {
+            return _activationListener;
+        }
+
+        int getLength() {
+            return _length;
+        }
+
+        /**
+         * Copies the serialized value to the given array.
+         * @return the next index to write to.
+         */
+        int copyTo( final byte[] dest, final int destBeginIndex ) {
+            System.arraycopy( _data, _offset, dest, destBeginIndex, _length );
+            return destBeginIndex + _length;
+        }
+
+        @CheckForNull
+        Object deserialize( @Nonnull final SessionAttributesTranscoder transcoder ) {
+            final byte[] data = new byte[_length];
+            System.arraycopy( _data, _offset, data, 0, _length );
+            final Map<String, Object> attributes = transcoder.deserializeAttributes( data );
+            // the transcoder may have skipped the value, e.g. because it was not serializable
+            return attributes != null ? attributes.get( _name ) : null;
+        }
+
+    }
+
+}
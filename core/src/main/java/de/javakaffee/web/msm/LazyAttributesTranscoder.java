@@ -0,0 +1,232 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static de.javakaffee.web.msm.TranscoderService.decodeNum;
+import static de.javakaffee.web.msm.TranscoderService.encodeNum;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.servlet.http.HttpSessionActivationListener;
+
+import de.javakaffee.web.msm.LazyAttributesMap.SerializedValue;
+
+/**
+ * A {@link SessionAttributesTranscoder} that serializes each session attribute separately (using the
+ * wrapped transcoder) and frames them, so that on deserialization only the attribute names
+ * are decoded up front while the values are deserialized when they're accessed for the first
+ * time (see {@link LazyAttributesMap}). Attributes that were not accessed are written back with
+ * their original bytes.
+ * <p>
+ * The framed format is
+ * <code>magic (4 bytes), version (1 byte), number of attributes (4 bytes)</code> followed by
+ * <code>flags (1 byte), name length (2 bytes), name (UTF-8), value length (4 bytes), value</code>
+ * for each attribute (sorted by name so that unmodified attributes produce the same bytes).
+ * The value is what the wrapped transcoder produces for a map only containing this attribute.
+ * </p>
+ * <p>
+ * Data that was not written in the framed format is passed to the wrapped transcoder, data written in the framed
+ * format is read even if framing is disabled (the attributes are deserialized eagerly then), so that lazy
+ * deserialization can be enabled/disabled in a running cluster.
+ * </p>
+ * <p>
+ * Objects shared between attributes are serialized with each of these attributes, so that they're
+ * separate copies once the attributes are deserialized.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class LazyAttributesTranscoder implements SessionAttributesTranscoder {
+
+    static final byte[] MAGIC = new byte[] { (byte) 0xff, 'M', 'S', 'A' };
+    static final int VERSION = 1;
+
+    private static final int FLAG_ACTIVATION_LISTENER = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 4;
+
+    private final SessionAttributesTranscoder _delegate;
+    private final boolean _lazy;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param delegate the transcoder used to serialize/deserialize single attributes or (if not lazy) the attributes map.
+     * @param lazy specifies if attributes shall be written in the framed format and deserialized lazily.
+     */
+    public LazyAttributesTranscoder( @Nonnull final SessionAttributesTranscoder delegate, final boolean lazy ) {
+        _delegate = delegate;
+        _lazy = lazy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serializeAttributes( final MemcachedBackupSession session, final ConcurrentMap<String, Object> attributes ) {
+        if ( !_lazy ) {
+            // don't pass our own map implementation to the wrapped transcoder
+            return _delegate.serializeAttributes( session, attributes instanceof LazyAttributesMap
+                ? new ConcurrentHashMap<String, Object>( attributes )
+                : attributes );
+        }
+
+        final LazyAttributesMap lazyAttributes = attributes instanceof LazyAttributesMap ? (LazyAttributesMap) attributes : null;
+        final List<String> names = new ArrayList<String>( attributes.keySet() );
+        Collections.sort( names );
+
+        final List<Frame> frames = new ArrayList<Frame>( names.size() );
+        int length = HEADER_LENGTH;
+        for ( final String name : names ) {
+            final Frame frame = createFrame( session, name, attributes, lazyAttributes );
+            if ( frame != null ) {
+                frames.add( frame );
+                length += 1 + 2 + frame.nameData.length + 4 + frame.valueLength();
+            }
+        }
+
+        final byte[] result = new byte[length];
+        int idx = TranscoderService.copy( MAGIC, result, 0 );
+        idx = encodeNum( VERSION, result, idx, 1 );
+        idx = encodeNum( frames.size(), result, idx, 4 );
+        for ( final Frame frame : frames ) {
+            idx = encodeNum( frame.activationListener ? FLAG_ACTIVATION_LISTENER : 0, result, idx, 1 );
+            idx = encodeNum( frame.nameData.length, result, idx, 2 );
+            idx = TranscoderService.copy( frame.nameData, result, idx );
+            idx = encodeNum( frame.valueLength(), result, idx, 4 );
+            idx = frame.serialized != null
+                ? frame.serialized.copyTo( result, idx )
+                : TranscoderService.copy( frame.valueData, result, idx );
+        }
+        return result;
+    }
+
+    private Frame createFrame( final MemcachedBackupSession session, final String name,
+            final ConcurrentMap<String, Object> attributes, final LazyAttributesMap lazyAttributes ) {
+        if ( lazyAttributes != null ) {
+            final SerializedValue serialized = lazyAttributes.getSerializedValue( name );
+            if ( serialized != null ) {
+                return new Frame( name, serialized.isActivationListener(), serialized, null );
+            }
+        }
+        final Object value = attributes.get( name );
+        if ( value == null || session.exclude( name, value ) ) {
+            // removed in the meantime or excluded from serialization
+            return null;
+        }
+        final ConcurrentMap<String, Object> single = new ConcurrentHashMap<String, Object>( 2 );
+        single.put( name, value );
+        final byte[] valueData = _delegate.serializeAttributes( session, single );
+        return new Frame( name, value instanceof HttpSessionActivationListener, null, valueData );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ConcurrentMap<String, Object> deserializeAttributes( final byte[] data ) {
+        if ( !isFramed( data ) ) {
+            return _delegate.deserializeAttributes( data );
+        }
+
+        final int version = (int) decodeNum( data, MAGIC.length, 1 );
+        if ( version != VERSION ) {
+            throw new TranscoderDeserializationException( "Unsupported version " + version + " of framed session attributes." );
+        }
+        final int count = (int) decodeNum( data, MAGIC.length + 1, 4 );
+        final LazyAttributesMap result = new LazyAttributesMap( _delegate, Math.max( 16, count * 2 ) );
+        int idx = HEADER_LENGTH;
+        for ( int i = 0; i < count; i++ ) {
+            final int flags = (int) decodeNum( data, idx, 1 );
+            final int nameLength = (int) decodeNum( data, idx + 1, 2 );
+            final String name = decodeString( data, idx + 3, nameLength );
+            idx += 3 + nameLength;
+            final int valueLength = (int) decodeNum( data, idx, 4 );
+            idx += 4;
+            if ( idx + valueLength > data.length ) {
+                throw new TranscoderDeserializationException( "Invalid length " + valueLength + " for attribute " + name );
+            }
+            result.putSerialized( new SerializedValue( name, data, idx, valueLength, ( flags & FLAG_ACTIVATION_LISTENER ) != 0 ) );
+            idx += valueLength;
+        }
+
+        return _lazy ? result : new ConcurrentHashMap<String, Object>( result );
+    }
+
+    /**
+     * Determines if the given data was written in the framed format.
+     */
+    static boolean isFramed( final byte[] data ) {
+        if ( data == null || data.length < HEADER_LENGTH ) {
+            return false;
+        }
+        for ( int i = 0; i < MAGIC.length; i++ ) {
+            if ( data[i] != MAGIC[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] encodeString( final String s ) {
+        try {
+            return s.getBytes( "UTF-8" );
+        } catch ( final UnsupportedEncodingException e ) {
+            throw new RuntimeException( e );
+        }
+    }
+
+    private static String decodeString( final byte[] data, final int beginIndex, final int length ) {
+        try {
+            return new String( data, beginIndex, length, "UTF-8" );
+        } catch ( final UnsupportedEncodingException e ) {
+            throw new RuntimeException( e );
+        }
+    }
+
+    private static final class Frame {
+        final byte[] nameData;
+        final boolean activationListener;
+        final SerializedValue serialized;
+        final byte[] valueData;
+
+        Frame( final String name, final boolean activationListener, final SerializedValue serialized, final byte[] valueData ) {
+            this.nameData = encodeString( name );
+            this.activationListener = activationListener;
+            this.serialized = serialized;
+            this.valueData = valueData;
+        }
+
+        int valueLength() {
+            return serialized != null ? serialized.getLength() : valueData.length;
+        }
+    }
+
+    /**
+     * The wrapped transcoder.
+     */
+    @Nonnull
+    SessionAttributesTranscoder getDelegate() {
+        return _delegate;
+    }
+
+}
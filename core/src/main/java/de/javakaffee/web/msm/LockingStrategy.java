@@ -20,6 +20,7 @@ import static de.javakaffee.web.msm.MemcachedUtil.toMemcachedExpiration;
 import static de.javakaffee.web.msm.SessionValidityInfo.decode;
 import static de.javakaffee.web.msm.SessionValidityInfo.encode;
 import static de.javakaffee.web.msm.Statistics.StatsType.*;
+import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static java.lang.Thread.sleep;
 
@@ -41,6 +42,8 @@ import org.apache.juli.logging.LogFactory;
 
 import de.javakaffee.web.msm.BackupSessionTask.BackupResult;
 import de.javakaffee.web.msm.MemcachedSessionService.LockStatus;
+import de.javakaffee.web.msm.SessionEvents.SessionEvent;
+import de.javakaffee.web.msm.storage.Lease;
 import de.javakaffee.web.msm.storage.StorageClient;
 
 /**
@@ -63,7 +66,6 @@ public abstract class LockingStrategy {
         URI_PATTERN
     }
 
-    protected static final byte[] LOCK_VALUE = new byte[] { 'l', 'o', 'c', 'k', 'e', 'd' };
     protected static final byte[] BYTE_1 = new byte[] { 1 };
     protected static final int LOCK_RETRY_INTERVAL = 10;
     protected static final int LOCK_MAX_RETRY_INTERVAL = 500;
@@ -76,9 +78,11 @@ public abstract class LockingStrategy {
     protected final SessionIdFormat _sessionIdFormat;
     private final ExecutorService _executor;
     private final boolean _storeSecondaryBackup;
+    private final SecondaryBackupReplicator _replicator;
     protected final Statistics _stats;
     protected final CurrentRequest _currentRequest;
     protected final StorageKeyFormat _storageKeyFormat;
+    private final MemcachedNodesManager _memcachedNodesManager;
 
     protected LockingStrategy( @Nonnull final MemcachedSessionService manager,
             @Nonnull final MemcachedNodesManager memcachedNodesManager,
@@ -94,7 +98,12 @@ public abstract class LockingStrategy {
         _stats = stats;
         _currentRequest = currentRequest;
         _storageKeyFormat = memcachedNodesManager.getStorageKeyFormat();
+        _memcachedNodesManager = memcachedNodesManager;
         _executor = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(), new NamedThreadFactory("msm-2ndary-backup") );
+        _replicator = storeSecondaryBackup
+            ? new SecondaryBackupReplicator( storage, memcachedNodesManager, stats, _executor, manager.getOperationTimeout(),
+                    SecondaryBackupReplicator.DEFAULT_MAX_QUEUE_SIZE )
+            : null;
     }
 
     /**
@@ -132,6 +141,16 @@ public abstract class LockingStrategy {
         _executor.shutdown();
     }
 
+    /**
+     * Waits until the tasks that were submitted before {@link #shutdown()} are finished.
+     *
+     * @param timeoutMillis the max time to wait in millis.
+     * @return <code>true</code> if all tasks are finished.
+     */
+    public boolean awaitTermination( final long timeoutMillis ) throws InterruptedException {
+        return _executor.awaitTermination( timeoutMillis, TimeUnit.MILLISECONDS );
+    }
+
     protected LockStatus lock( final String sessionId ) {
         return lock( sessionId, _manager.getOperationTimeout(), TimeUnit.MILLISECONDS );
     }
@@ -141,6 +160,7 @@ public abstract class LockingStrategy {
             _log.debug( "Locking session " + sessionId );
         }
         final long start = System.currentTimeMillis();
+        final SessionEvent event = SessionEvents.begin( SessionEvents.Type.LOCK_ACQUISITION ).session( sessionId );
         try {
             acquireLock( sessionId, LOCK_RETRY_INTERVAL, LOCK_MAX_RETRY_INTERVAL, timeUnit.toMillis( timeout ),
                     System.currentTimeMillis() );
@@ -148,11 +168,13 @@ public abstract class LockingStrategy {
             if ( _log.isDebugEnabled() ) {
                 _log.debug( "Locked session " + sessionId );
             }
+            event.result( LockStatus.LOCKED.name() );
             return LockStatus.LOCKED;
         } catch ( final TimeoutException e ) {
             _log.warn( "Reached timeout when trying to aquire lock for session " + sessionId
                     + ". Will use this session without this lock." );
             _stats.registerSince( ACQUIRE_LOCK_FAILURE, start );
+            event.result( LockStatus.COULD_NOT_AQUIRE_LOCK.name() );
             return LockStatus.COULD_NOT_AQUIRE_LOCK;
         } catch ( final InterruptedException e ) {
             Thread.currentThread().interrupt();
@@ -160,16 +182,27 @@ public abstract class LockingStrategy {
         } catch ( final ExecutionException e ) {
             _log.warn( "An exception occurred when trying to aquire lock for session " + sessionId );
             _stats.registerSince( ACQUIRE_LOCK_FAILURE, start );
+            event.result( LockStatus.COULD_NOT_AQUIRE_LOCK.name() );
             return LockStatus.COULD_NOT_AQUIRE_LOCK;
+        } finally {
+            event.commit();
         }
     }
 
     protected void acquireLock( @Nonnull final String sessionId, final long retryInterval, final long maxRetryInterval,
             final long timeout, final long start ) throws InterruptedException, ExecutionException, TimeoutException {
-        final Future<Boolean> result = _storage.add( _sessionIdFormat.createLockName( sessionId ), _manager.getLockExpiration(), LOCK_VALUE );
-        if ( result.get().booleanValue() ) {
+        final Future<Lease> result = _storage.lease( _sessionIdFormat.createLockName( sessionId ), _manager.getLockExpiration() );
+        Lease lease;
+        try {
+            lease = getLockResult( sessionId, result, timeout - ( System.currentTimeMillis() - start ) );
+        } catch ( final TimeoutException e ) {
+            // retry within the remaining time, the node might just be slow
+            abandonLockAttempt( sessionId, result );
+            lease = null;
+        }
+        if ( lease != null && lease.isWon() ) {
             if ( _log.isDebugEnabled() ) {
-                _log.debug( "Locked session " + sessionId );
+                _log.debug( "Locked session " + sessionId + ( lease.isStale() ? " (the lock was marked stale)" : "" ) );
             }
             return;
         }
@@ -179,6 +212,48 @@ public abstract class LockingStrategy {
         }
     }
 
+    /**
+     * Waits for the result of the lock operation, with the adaptive timeout of the session's node if configured
+     * (see {@link NodeTimeoutController}), but not longer than the remaining time to acquire the lock.
+     */
+    private Lease getLockResult( @Nonnull final String sessionId, @Nonnull final Future<Lease> result,
+            final long remainingTimeout ) throws InterruptedException, ExecutionException, TimeoutException {
+        if ( _memcachedNodesManager.getNodeTimeoutController() == null ) {
+            return result.get();
+        }
+        final long start = System.currentTimeMillis();
+        final long timeout = min( _memcachedNodesManager.getOperationTimeout( sessionId, _manager.getOperationTimeout() ),
+                max( remainingTimeout, 1 ) );
+        try {
+            final Lease locked = result.get( timeout, TimeUnit.MILLISECONDS );
+            _memcachedNodesManager.onOperationCompleted( sessionId, System.currentTimeMillis() - start );
+            return locked;
+        } catch ( final TimeoutException e ) {
+            _memcachedNodesManager.onOperationTimeout( sessionId );
+            throw e;
+        }
+    }
+
+    /**
+     * Cancels the lock operation that timed out. If the lock was added nevertheless (the operation completed
+     * in the meantime) it's deleted again, so that it doesn't block other requests until it expires.
+     */
+    private void abandonLockAttempt( @Nonnull final String sessionId, @Nonnull final Future<Lease> result ) {
+        if ( result.cancel( false ) ) {
+            return;
+        }
+        try {
+            final Lease lease = result.get();
+            if ( lease != null && lease.isWon() ) {
+                _storage.delete( _sessionIdFormat.createLockName( sessionId ) ).get( _manager.getOperationTimeout(), TimeUnit.MILLISECONDS );
+            }
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } catch ( final Exception e ) {
+            _log.warn( "Could not delete lock of session " + sessionId + " after the lock operation timed out", e );
+        }
+    }
+
     protected void checkTimeoutAndWait( @Nonnull final String sessionId, final long timeToWait,
             final long timeout, final long start ) throws TimeoutException,
             InterruptedException {
@@ -188,7 +263,9 @@ public abstract class LockingStrategy {
         if ( _log.isDebugEnabled() ) {
             _log.debug( "Could not aquire lock for session " + sessionId + ", waiting " + timeToWait + " millis now..." );
         }
+        final SessionEvent event = SessionEvents.begin( SessionEvents.Type.LOCK_WAIT ).session( sessionId );
         sleep( timeToWait );
+        event.commit();
     }
 
     protected void releaseLock( @Nonnull final String sessionId ) {
@@ -197,7 +274,9 @@ public abstract class LockingStrategy {
                 _log.debug( "Releasing lock for session " + sessionId );
             }
             final long start = System.currentTimeMillis();
+            final SessionEvent event = SessionEvents.begin( SessionEvents.Type.LOCK_RELEASE ).session( sessionId );
             _storage.delete( _sessionIdFormat.createLockName( sessionId ) ).get();
+            event.commit();
             _stats.registerSince( RELEASE_LOCK, start );
         } catch ( final Exception e ) {
             _log.warn( "Caught exception when trying to release lock for session " + sessionId, e );
@@ -236,7 +315,7 @@ public abstract class LockingStrategy {
 
             final int maxInactiveInterval = validityInfo.getMaxInactiveInterval();
             final byte[] validityData = encode( maxInactiveInterval, System.currentTimeMillis(),
-                    System.currentTimeMillis() );
+                    System.currentTimeMillis(), validityInfo.getVersion() );
             // fix for #88, along with the change in session.getMemcachedExpirationTimeToSet
             final int expiration = maxInactiveInterval <= 0 ? 0 : maxInactiveInterval;
             final Future<Boolean> validityResult = _storage.set( validityKey, toMemcachedExpiration(expiration), validityData );
@@ -246,11 +325,10 @@ public abstract class LockingStrategy {
 
             /*
              * - ping session
-             * - ping session backup
-             * - save validity backup
+             * - refresh session backup (if due)
              */
             final Callable<?> backupSessionTask = new OnBackupWithoutLoadedSessionTask( sessionId,
-                    _storeSecondaryBackup, validityKey, validityData, maxInactiveInterval );
+                    validityData, maxInactiveInterval );
             _executor.submit( backupSessionTask );
 
             if ( _log.isDebugEnabled() ) {
@@ -282,8 +360,10 @@ public abstract class LockingStrategy {
             final long start = System.currentTimeMillis();
 
             final int maxInactiveInterval = session.getMaxInactiveInterval();
+            // with async session backup the version might be incremented later, then the validity info is updated afterwards
+            final long version = session.getVersion();
             final byte[] validityData = encode( maxInactiveInterval, session.getLastAccessedTimeInternal(),
-                    session.getThisAccessedTimeInternal() );
+                    session.getThisAccessedTimeInternal(), version );
             final String validityKey = _sessionIdFormat.createValidityInfoKeyName( session.getIdInternal() );
             // fix for #88, along with the change in session.getMemcachedExpirationTimeToSet
             final int expiration = maxInactiveInterval <= 0 ? 0 : maxInactiveInterval;
@@ -302,16 +382,16 @@ public abstract class LockingStrategy {
 
             /* The following task are performed outside of the request thread (includes waiting for the backup result):
              * - ping session if the backup was skipped (depends on the backup result)
-             * - save secondary session backup if session was modified (backup not skipped)
-             * - ping secondary session backup if the backup was skipped
-             * - save secondary validity backup
+             * - update the validity info if the session version was incremented by an async backup
+             * - replicate the session to the secondary backup if it was modified (backup not skipped)
+             * - refresh the secondary backup if the backup was skipped (if due)
              */
             final boolean pingSessionIfBackupWasSkipped = !backupWasForced;
             final boolean performAsyncTasks = pingSessionIfBackupWasSkipped || _storeSecondaryBackup;
 
             if ( performAsyncTasks ) {
                 final Callable<?> backupSessionTask = new OnAfterBackupSessionTask( session, result,
-                        pingSessionIfBackupWasSkipped, backupSessionService, _storeSecondaryBackup, validityKey, validityData );
+                        pingSessionIfBackupWasSkipped, backupSessionService, validityKey, validityData, version );
                 _executor.submit( backupSessionTask );
             }
 
@@ -330,7 +410,17 @@ public abstract class LockingStrategy {
 
     @CheckForNull
     protected SessionValidityInfo loadSessionValidityInfoForValidityKey( @Nonnull final String validityInfoKey ) {
-        final byte[] validityInfo = _storage.get( validityInfoKey );
+        return loadSessionValidityInfoForValidityKey( validityInfoKey, -1 );
+    }
+
+    /**
+     * Loads the validity info and updates its expiration in the same operation, if the given expiration
+     * is not negative (see {@link StorageClient#getItem(String, int)}).
+     */
+    @CheckForNull
+    protected SessionValidityInfo loadSessionValidityInfoForValidityKey( @Nonnull final String validityInfoKey,
+            final int touchExpiration ) {
+        final byte[] validityInfo = _storage.getItem( validityInfoKey, touchExpiration ).getValue();
         return validityInfo != null ? decode( validityInfo ) : null;
     }
 
@@ -360,11 +450,20 @@ public abstract class LockingStrategy {
         session.setLockStatus( lockStatus );
 
         final long start = System.currentTimeMillis();
-        final SessionValidityInfo info = loadSessionValidityInfo( session.getIdInternal() );
+        // touch the validity info on read, so that it does not expire before the session if the backup fails
+        final int expiration = session.getMaxInactiveInterval() <= 0 ? 0 : session.getMaxInactiveInterval();
+        final SessionValidityInfo info = loadSessionValidityInfoForValidityKey(
+                _sessionIdFormat.createValidityInfoKeyName( session.getIdInternal() ), toMemcachedExpiration( expiration ) );
         if ( info != null ) {
             _stats.registerSince( NON_STICKY_AFTER_LOAD_FROM_MEMCACHED, start );
             session.setLastAccessedTimeInternal( info.getLastAccessedTime() );
             session.setThisAccessedTimeInternal( info.getThisAccessedTime() );
+            session.setVersion( info.getVersion() );
+            if ( _replicator != null ) {
+                // repair the secondary backup if it's missing or has a different version
+                _replicator.verify( session.getIdInternal(), encode( info.getMaxInactiveInterval(), info.getLastAccessedTime(),
+                        info.getThisAccessedTime(), info.getVersion() ), info.getVersion(), info.getMaxInactiveInterval() );
+            }
         }
         else {
             _log.warn( "No validity info available for session " + session.getIdInternal() );
@@ -444,23 +543,23 @@ public abstract class LockingStrategy {
         private final MemcachedBackupSession _session;
         private final Future<BackupResult> _result;
         private final boolean _pingSessionIfBackupWasSkipped;
-        private final boolean _storeSecondaryBackup;
         private final BackupSessionService _backupSessionService;
         private final String _validityKey;
         private final byte[] _validityData;
+        private final long _version;
 
         private OnAfterBackupSessionTask( @Nonnull final MemcachedBackupSession session, @Nonnull final Future<BackupResult> result,
                 final boolean pingSessionIfBackupWasSkipped,
                 @Nonnull final BackupSessionService backupSessionService,
-                final boolean storeSecondaryBackup,
                 @Nonnull final String validityKey,
-                @Nonnull final byte[] validityData ) {
+                @Nonnull final byte[] validityData,
+                final long version ) {
             _session = session;
             _result = result;
             _pingSessionIfBackupWasSkipped = pingSessionIfBackupWasSkipped;
-            _storeSecondaryBackup = storeSecondaryBackup;
             _validityKey = validityKey;
             _validityData = validityData;
+            _version = version;
             _backupSessionService = backupSessionService;
         }
 
@@ -475,104 +574,62 @@ public abstract class LockingStrategy {
                 }
             }
 
+            final byte[] validityData = backupResult.getStatus() == BackupResultStatus.SUCCESS
+                ? updateValidityVersion()
+                : _validityData;
+
             /*
              * For non-sticky sessions we store a backup of the session in a secondary memcached node (under a special key
              * that's resolved by the SuffixBasedNodeLocator), but only when we have more than 1 memcached node configured...
              */
-            if ( _storeSecondaryBackup ) {
-                try {
-                    if ( _log.isDebugEnabled() ) {
-                        _log.debug( "Storing backup in secondary memcached for non-sticky session " + _session.getId() );
-                    }
-                    if ( backupResult.getStatus() == BackupResultStatus.SKIPPED ) {
-                        pingSessionBackup( _session );
-                    }
-                    else {
-                        saveSessionBackupFromResult( backupResult );
-                    }
-
-                    saveValidityBackup();
-                } catch( final RuntimeException e ) {
-                    _log.info( "Could not store secondary backup of session " + _session.getIdInternal(), e );
+            if ( _replicator != null ) {
+                final int maxInactiveInterval = _session.getMaxInactiveInterval();
+                switch ( backupResult.getStatus() ) {
+                    case SUCCESS:
+                        if ( _log.isDebugEnabled() ) {
+                            _log.debug( "Replicating modified non-sticky session " + _session.getId() + " to secondary memcached" );
+                        }
+                        _replicator.replicate( _session.getIdInternal(), backupResult.getData(), validityData, maxInactiveInterval );
+                        break;
+                    case SKIPPED:
+                        _replicator.refresh( _session.getIdInternal(), validityData, maxInactiveInterval );
+                        break;
+                    default:
+                        _log.debug( "Not storing secondary backup of session " + _session.getIdInternal() + " as the backup failed." );
                 }
-
             }
 
             return null;
         }
 
-        public void saveSessionBackupFromResult( final BackupResult backupResult ) {
-            final byte[] data = backupResult.getData();
-            if ( data != null ) {
-                final String key = _sessionIdFormat.createBackupKey( _session.getId() );
-                _storage.set( key, toMemcachedExpiration(_session.getMemcachedExpirationTimeToSet()), data );
-            }
-            else {
-                _log.warn( "No data set for backupResultStatus " + backupResult.getStatus() + " for sessionId "
-                        + _session.getIdInternal() + ", skipping backup"
-                        + " of non-sticky session in secondary memcached." );
+        /**
+         * Updates the validity info if the session version was incremented by the (async) backup after
+         * the validity info was stored.
+         */
+        private byte[] updateValidityVersion() {
+            final long version = _session.getVersion();
+            if ( version == _version ) {
+                return _validityData;
             }
-        }
-
-        public void saveValidityBackup() {
-            final String backupValidityKey = _sessionIdFormat.createBackupKey( _validityKey );
-            final int maxInactiveInterval = _session.getMaxInactiveInterval();
+            final SessionValidityInfo info = decode( _validityData );
+            final byte[] result = encode( info.getMaxInactiveInterval(), info.getLastAccessedTime(), info.getThisAccessedTime(), version );
             // fix for #88, along with the change in session.getMemcachedExpirationTimeToSet
-            final int expiration = maxInactiveInterval <= 0 ? 0 : maxInactiveInterval;
-            _storage.set( backupValidityKey, toMemcachedExpiration(expiration), _validityData );
-        }
-
-        private void pingSessionBackup( @Nonnull final MemcachedBackupSession session ) throws InterruptedException {
-            final String key = _sessionIdFormat.createBackupKey( session.getId() );
-            final Future<Boolean> touchResultFuture = _storage.add( key, 5, BYTE_1 );
-            try {
-                final boolean touchResult = touchResultFuture.get(_manager.getOperationTimeout(), TimeUnit.MILLISECONDS);
-                if ( touchResult ) {
-                    _log.warn( "The secondary backup for session " + session.getIdInternal()
-                            + " should be touched in memcached, but it seemed to be"
-                            + " not existing. Will store in memcached again." );
-                    saveSessionBackup( session, key );
-                }
-                else
-                    _log.debug( "The secondary session backup was ping'ed successfully." );
-            } catch ( final TimeoutException e ) {
-                _log.warn( "The secondary backup for session " + session.getIdInternal()
-                		+ " could not be completed within " + _manager.getOperationTimeout() + " millis, was cancelled now." );
-            } catch ( final ExecutionException e ) {
-                _log.warn( "An exception occurred when trying to ping session " + session.getIdInternal(), e );
-            }
-        }
-
-        public void saveSessionBackup( @Nonnull final MemcachedBackupSession session, @Nonnull final String key )
-                throws InterruptedException {
-            try {
-                final byte[] data = _manager.serialize( session );
-                final Future<Boolean> backupResult = _storage.set( key, toMemcachedExpiration(session.getMemcachedExpirationTimeToSet()), data );
-                if ( !backupResult.get().booleanValue() ) {
-                    _log.warn( "Update for secondary backup of session "+ session.getIdInternal() +" (after unsuccessful ping) did not return sucess." );
-                }
-            } catch ( final ExecutionException e ) {
-                _log.warn( "An exception occurred when trying to update secondary session backup for " + session.getIdInternal(), e );
-            }
+            final int expiration = info.getMaxInactiveInterval() <= 0 ? 0 : info.getMaxInactiveInterval();
+            _storage.set( _validityKey, toMemcachedExpiration(expiration), result );
+            return result;
         }
     }
 
     private final class OnBackupWithoutLoadedSessionTask implements Callable<Void> {
 
         private final String _sessionId;
-        private final boolean _storeSecondaryBackup;
-        private final String _validityKey;
         private final byte[] _validityData;
         private final int _maxInactiveInterval;
 
         private OnBackupWithoutLoadedSessionTask( @Nonnull final String sessionId,
-                final boolean storeSecondaryBackup,
-                @Nonnull final String validityKey,
                 @Nonnull final byte[] validityData,
                 final int maxInactiveInterval ) {
             _sessionId = sessionId;
-            _storeSecondaryBackup = storeSecondaryBackup;
-            _validityKey = validityKey;
             _validityData = validityData;
             _maxInactiveInterval = maxInactiveInterval;
         }
@@ -583,50 +640,15 @@ public abstract class LockingStrategy {
             pingSession( _sessionId );
 
             /*
-             * For non-sticky sessions we store/ping a backup of the session in a secondary memcached node (under a special key
+             * For non-sticky sessions we refresh the backup of the session in a secondary memcached node (under a special key
              * that's resolved by the SuffixBasedNodeLocator), but only when we have more than 1 memcached node configured...
              */
-            if ( _storeSecondaryBackup ) {
-                try {
-
-                    pingSessionBackup( _sessionId );
-
-                    final String backupValidityKey = _sessionIdFormat.createBackupKey( _validityKey );
-                    // fix for #88, along with the change in session.getMemcachedExpirationTimeToSet
-                    final int expiration = _maxInactiveInterval <= 0 ? 0 : _maxInactiveInterval;
-                    _storage.set( backupValidityKey, toMemcachedExpiration(expiration), _validityData );
-
-                } catch( final RuntimeException e ) {
-                    _log.info( "Could not store secondary backup of session " + _sessionId, e );
-                }
-
+            if ( _replicator != null ) {
+                _replicator.refresh( _sessionId, _validityData, _maxInactiveInterval );
             }
 
             return null;
         }
-
-        private boolean pingSessionBackup( @Nonnull final String sessionId ) throws InterruptedException {
-            final String key = _sessionIdFormat.createBackupKey( sessionId );
-            final Future<Boolean> touchResultFuture = _storage.add( key, 1, BYTE_1 );
-            try {
-                final boolean touchResult = touchResultFuture.get(200, TimeUnit.MILLISECONDS);
-                if ( touchResult ) {
-                    _log.warn( "The secondary backup for session " + sessionId
-                            + " should be touched in memcached, but it seemed to be"
-                            + " not existing." );
-                    return false;
-                }
-                _log.debug( "The secondary session backup was ping'ed successfully." );
-                return true;
-            } catch ( final TimeoutException e ) {
-                _log.warn( "The secondary backup for session " + sessionId
-                        + " could not be completed within 200 millis, was cancelled now." );
-                return false;
-            } catch ( final ExecutionException e ) {
-                _log.warn( "An exception occurred when trying to ping session " + sessionId, e );
-                return false;
-            }
-        }
     }
 
     // ---------------- for testing
@@ -636,4 +658,9 @@ public abstract class LockingStrategy {
         return _executor;
     }
 
+    @CheckForNull
+    SecondaryBackupReplicator getSecondaryBackupReplicator() {
+        return _replicator;
+    }
+
 }
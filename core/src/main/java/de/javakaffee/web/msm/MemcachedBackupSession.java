@@ -128,6 +128,19 @@ public class MemcachedBackupSession extends StandardSession {
      */
     private transient int _dataHashCode;
 
+    /*
+     * The size of the serialized attributes, used as estimate of the
+     * heap used by this session.
+     */
+    private transient int _dataSize;
+
+    /*
+     * The version of the session data, incremented whenever the session
+     * is stored because it was modified. For non-sticky sessions it's
+     * stored in the session validity info.
+     */
+    private transient volatile long _version;
+
     /*
      * Used to determine, if the session was #accessed since it was
      * last backup'ed (or checked if it needs to be backup'ed)
@@ -240,11 +253,47 @@ public class MemcachedBackupSession extends StandardSession {
         super.removeAttribute(name);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Lazily deserialized attributes (see {@link LazyAttributesMap}) are only deserialized
+     * if they're {@link javax.servlet.http.HttpSessionActivationListener}s.
+     * </p>
+     */
+    @Override
+    public void activate() {
+        LazyAttributesMap.setActivationListenersOnly( true );
+        try {
+            super.activate();
+        } finally {
+            LazyAttributesMap.setActivationListenersOnly( false );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Lazily deserialized attributes (see {@link LazyAttributesMap}) are only deserialized
+     * if they're {@link javax.servlet.http.HttpSessionActivationListener}s.
+     * </p>
+     */
+    @Override
+    public void passivate() {
+        LazyAttributesMap.setActivationListenersOnly( true );
+        try {
+            super.passivate();
+        } finally {
+            LazyAttributesMap.setActivationListenersOnly( false );
+        }
+    }
+
     @Override
     public void recycle() {
         super.recycle();
         _attributesAccessed = false;
         _dataHashCode = 0;
+        _dataSize = 0;
+        _version = 0;
         _expirationUpdateRunning = false;
         _backupRunning = false;
         _lockStatus = null;
@@ -525,6 +574,46 @@ public class MemcachedBackupSession extends StandardSession {
         _dataHashCode = attributesDataHashCode;
     }
 
+    /**
+     * The size of the serialized attributes of the last backup (or of the data loaded
+     * from memcached), which is used as estimate of the heap used by this session.
+     * @return the size in bytes
+     */
+    int getDataSize() {
+        return _dataSize;
+    }
+
+    /**
+     * Set the size of the serialized session attributes.
+     *
+     * @param dataSize the size of the serialized byte[].
+     */
+    void setDataSize( final int dataSize ) {
+        _dataSize = dataSize;
+    }
+
+    /**
+     * The version of the session data, that is incremented each time the session
+     * is stored because it was modified.
+     */
+    long getVersion() {
+        return _version;
+    }
+
+    /**
+     * Set the version of the session data, e.g. as read from the session validity info.
+     */
+    void setVersion( final long version ) {
+        _version = version;
+    }
+
+    /**
+     * Increments the version of the session data after the modified session was stored.
+     */
+    void incrementVersion() {
+        _version++;
+    }
+
     @Override
     public long getCreationTimeInternal() {
         return this.creationTime;
@@ -597,6 +686,10 @@ public class MemcachedBackupSession extends StandardSession {
         if ( pattern == null ) {
             return attributes;
         }
+        if ( attributes instanceof LazyAttributesMap ) {
+            // don't deserialize attributes just for filtering
+            return ( (LazyAttributesMap) attributes ).filter( pattern );
+        }
         final ConcurrentMap<String, Object> result = new ConcurrentHashMap<String, Object>( attributes.size() );
         for ( final Map.Entry<String, Object> entry: attributes.entrySet() ) {
             if ( pattern.matcher(entry.getKey()).matches() ) {
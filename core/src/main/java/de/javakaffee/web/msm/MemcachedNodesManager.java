@@ -23,9 +23,12 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -83,6 +86,9 @@ public class MemcachedNodesManager {
     private final StorageKeyFormat _storageKeyFormat;
     @Nullable
 	private NodeIdService _nodeIdService;
+	private volatile NodeLoadTracker _nodeLoadTracker;
+	private volatile NodeTimeoutController _nodeTimeoutController;
+	private volatile Set<String> _drainingNodeIds = Collections.emptySet();
 	private SessionIdFormat _sessionIdFormat;
 
     /**
@@ -367,7 +373,7 @@ public class MemcachedNodesManager {
 	        if(result != null && result.equals(nodeId)) {
 	            result = null;
 	        }
-	    } while(result != null && !isNodeAvailable(result));
+	    } while(result != null && (!isNodeAvailable(result) || isNodeDraining(result)));
 	    return result;
 	}
 
@@ -459,6 +465,156 @@ public class MemcachedNodesManager {
 		return true;
 	}
 
+	/**
+	 * Sets the tracker used for load aware selection of the node for new sessions,
+	 * <code>null</code> means that nodes are selected randomly.
+	 */
+	public void setNodeLoadTracker(@Nullable final NodeLoadTracker nodeLoadTracker) {
+		_nodeLoadTracker = nodeLoadTracker;
+		if ( _nodeIdService != null ) {
+			_nodeIdService.setNodeLoadTracker(nodeLoadTracker);
+		}
+	}
+
+	/**
+	 * Sets the ids of the nodes that are draining (being retired), as whitespace or comma separated list. Sessions are
+	 * still loaded from draining nodes, but new sessions and secondary backups are not stored on them, and sessions
+	 * hosted there are migrated to other nodes (see {@link SessionMigrator}).
+	 *
+	 * @param drainingNodes the draining node ids, may be <code>null</code>.
+	 * @throws IllegalArgumentException if a node id is not a primary node id, or if all primary nodes would be draining.
+	 */
+	public void setDrainingNodes(@Nullable final String drainingNodes) throws IllegalArgumentException {
+		final Set<String> drainingNodeIds = new LinkedHashSet<String>();
+		if ( drainingNodes != null && drainingNodes.trim().length() != 0 ) {
+			for ( final String nodeId : drainingNodes.trim().split( "[\\s,]+" ) ) {
+				if ( !_primaryNodeIds.contains( nodeId ) ) {
+					throw new IllegalArgumentException( "Invalid draining node id " + nodeId + ": "
+							+ "not existing in the primary node ids '" + _primaryNodeIds + "'." );
+				}
+				drainingNodeIds.add( nodeId );
+			}
+			if ( drainingNodeIds.size() >= _primaryNodeIds.size() ) {
+				throw new IllegalArgumentException( "All primary nodes are configured as draining nodes, there's no node left for new sessions." );
+			}
+		}
+		_drainingNodeIds = Collections.unmodifiableSet( drainingNodeIds );
+		if ( _nodeIdService != null ) {
+			_nodeIdService.setDrainingNodeIds( _drainingNodeIds );
+		}
+	}
+
+	/**
+	 * The ids of the draining nodes.
+	 * @see #setDrainingNodes(String)
+	 */
+	@Nonnull
+	public Set<String> getDrainingNodeIds() {
+		return _drainingNodeIds;
+	}
+
+	/**
+	 * Determines, if the given node is draining.
+	 * @see #setDrainingNodes(String)
+	 */
+	public boolean isNodeDraining(@Nullable final String nodeId) {
+		return nodeId != null && _drainingNodeIds.contains(nodeId);
+	}
+
+	/**
+	 * Determines, if the session with the given id is stored on a draining node.
+	 * @see #setDrainingNodes(String)
+	 */
+	public boolean isSessionOnDrainingNode(@Nonnull final String sessionId) {
+		return _encodeNodeIdInSessionId && !_drainingNodeIds.isEmpty()
+				&& isNodeDraining(_sessionIdFormat.extractMemcachedId(sessionId));
+	}
+
+	/**
+	 * Returns the id of an available node that is not draining, that sessions of the given (draining) node can be
+	 * migrated to, or <code>null</code> if there's no such node.
+	 */
+	@CheckForNull
+	public String getMigrationNodeId(@Nonnull final String nodeId) {
+		return _nodeIdService != null ? _nodeIdService.getAvailableNodeId(nodeId) : null;
+	}
+
+	/**
+	 * Registers the latency of a request for the given session at the node of this session
+	 * (if load aware node selection is used).
+	 */
+	public void registerLatency(@Nonnull final String sessionId, final long latencyInMillis) {
+		final NodeLoadTracker nodeLoadTracker = _nodeLoadTracker;
+		if ( nodeLoadTracker != null && _encodeNodeIdInSessionId ) {
+			final String nodeId = _sessionIdFormat.extractMemcachedId(sessionId);
+			if ( nodeId != null ) {
+				nodeLoadTracker.registerLatency(nodeId, latencyInMillis);
+			}
+		}
+	}
+
+	/**
+	 * Sets the controller of adaptive operation timeouts and circuit breakers per node,
+	 * <code>null</code> means that the operation timeout is used for all nodes.
+	 */
+	public void setNodeTimeoutController(@Nullable final NodeTimeoutController nodeTimeoutController) {
+		_nodeTimeoutController = nodeTimeoutController;
+	}
+
+	@CheckForNull
+	public NodeTimeoutController getNodeTimeoutController() {
+		return _nodeTimeoutController;
+	}
+
+	/**
+	 * Returns the timeout for operations at the node of the given session, which is the given default timeout
+	 * if adaptive timeouts are not used.
+	 */
+	public long getOperationTimeout(@Nonnull final String sessionId, final long defaultTimeout) {
+		final NodeTimeoutController nodeTimeoutController = _nodeTimeoutController;
+		final String nodeId = nodeTimeoutController != null ? extractNodeId(sessionId) : null;
+		return nodeId != null ? nodeTimeoutController.getTimeout(nodeId) : defaultTimeout;
+	}
+
+	/**
+	 * Determines if a request to the node of the given session is allowed, i.e. if the circuit breaker of the node
+	 * is not open.
+	 */
+	public boolean isRequestAllowed(@Nonnull final String sessionId) {
+		final NodeTimeoutController nodeTimeoutController = _nodeTimeoutController;
+		final String nodeId = nodeTimeoutController != null ? extractNodeId(sessionId) : null;
+		return nodeId == null || nodeTimeoutController.allowRequest(nodeId, System.currentTimeMillis());
+	}
+
+	/**
+	 * Registers an operation at the node of the given session that completed within the timeout. If this
+	 * closes the circuit breaker of the node, the node is marked as available.
+	 */
+	public void onOperationCompleted(@Nonnull final String sessionId, final long latencyInMillis) {
+		final NodeTimeoutController nodeTimeoutController = _nodeTimeoutController;
+		final String nodeId = nodeTimeoutController != null ? extractNodeId(sessionId) : null;
+		if ( nodeId != null && nodeTimeoutController.onSuccess(nodeId, latencyInMillis) ) {
+			setNodeAvailable(nodeId, true);
+		}
+	}
+
+	/**
+	 * Registers an operation at the node of the given session that timed out. If this opens the circuit breaker
+	 * of the node, the node is marked as unavailable so that the failover handling takes over.
+	 */
+	public void onOperationTimeout(@Nonnull final String sessionId) {
+		final NodeTimeoutController nodeTimeoutController = _nodeTimeoutController;
+		final String nodeId = nodeTimeoutController != null ? extractNodeId(sessionId) : null;
+		if ( nodeId != null && nodeTimeoutController.onTimeout(nodeId, System.currentTimeMillis()) ) {
+			setNodeAvailable(nodeId, false);
+		}
+	}
+
+	@CheckForNull
+	private String extractNodeId(@Nonnull final String sessionId) {
+		return _encodeNodeIdInSessionId ? _sessionIdFormat.extractMemcachedId(sessionId) : null;
+	}
+
 	public void onLoadFromMemcachedSuccess(final String sessionId) {
 		setNodeAvailableForSessionId(sessionId, true);
 	}
@@ -25,10 +25,14 @@ import static de.javakaffee.web.msm.Statistics.StatsType.SESSION_DESERIALIZATION
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
 import java.security.Principal;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
@@ -48,8 +52,10 @@ import org.apache.juli.logging.LogFactory;
 
 import de.javakaffee.web.msm.BackupSessionService.SimpleFuture;
 import de.javakaffee.web.msm.BackupSessionTask.BackupResult;
+import de.javakaffee.web.msm.HedgedReader.HedgedRead;
 import de.javakaffee.web.msm.LockingStrategy.LockingMode;
 import de.javakaffee.web.msm.MemcachedNodesManager.StorageClientCallback;
+import de.javakaffee.web.msm.SessionEvents.SessionEvent;
 import de.javakaffee.web.msm.storage.StorageClient;
 
 /**
@@ -77,6 +83,7 @@ public class MemcachedSessionService {
 
     public static final String PROTOCOL_TEXT = "text";
     public static final String PROTOCOL_BINARY = "binary";
+    public static final String PROTOCOL_META = "meta";
 
     protected static final String NODE_FAILURE = "node.failure";
     /**
@@ -89,6 +96,11 @@ public class MemcachedSessionService {
      */
     protected static final String NEW_SESSION_ID = "msm.session.id";
 
+    /**
+     * The interval in millis of updating the load of memcached nodes from their stats.
+     */
+    static final long NODE_STATS_INTERVAL = 10000;
+
     protected final Log _log = LogFactory.getLog( getClass() );
 
     // -------------------- configuration properties --------------------
@@ -178,6 +190,30 @@ public class MemcachedSessionService {
      */
     private boolean _copyCollectionsForSerialization = false;
 
+    /**
+     * Specifies, if session attributes shall be serialized separately and only be deserialized
+     * when they're accessed (see {@link LazyAttributesTranscoder}).
+     */
+    private boolean _lazyAttributesDeserialization = false;
+
+    /**
+     * Specifies, if attributes with simple values (strings, boxed primitives etc.) shall be serialized
+     * with a builtin encoding and only the remaining attributes by the configured transcoder
+     * (see {@link HybridAttributesTranscoder}).
+     */
+    private boolean _hybridAttributesTranscoding = false;
+
+    /**
+     * The codecs for specific attribute names, used if {@link #_hybridAttributesTranscoding} is enabled.
+     */
+    private String _attributeCodecRouting;
+
+    /**
+     * Specifies, if java serialization shall write class descriptors as ids of a
+     * {@link ClassDescriptorDictionary} shared by all tomcats.
+     */
+    private boolean _javaSerializationClassDictionary = false;
+
     private String _customConverterClassNames;
 
     private boolean _enableStatistics = true;
@@ -193,14 +229,150 @@ public class MemcachedSessionService {
 
     private String _storageKeyPrefix = StorageKeyFormat.WEBAPP_VERSION;
 
+    /**
+     * The number of session ids not found in memcached that are expected per quarter of
+     * {@link #_missingSessionsFilterTtl}, used to size the {@link TimeSlicedBloomFilter}.
+     * <code>0</code> (default) disables the filter.
+     */
+    private int _missingSessionsFilterCapacity = 0;
+
+    /**
+     * The time in seconds that session ids not found in memcached are remembered by the
+     * missing sessions filter.
+     */
+    private int _missingSessionsFilterTtl = 60;
+
+    /**
+     * The number of storage misses per second a client (remote address) may cause before
+     * further lookups of unknown session ids of this client are rejected without hitting memcached.
+     * <code>0</code> (default) disables the limit.
+     */
+    private int _maxStorageMissesPerClient = 0;
+
+    /**
+     * The number of session ids created or loaded by this tomcat that are expected per quarter of the
+     * session timeout, used to size the known sessions filter of the storage miss limit.
+     */
+    private int _knownSessionsFilterCapacity = 10000;
+
+    /**
+     * The time in seconds after that an idle session is offloaded in sticky mode, i.e. removed from the
+     * local session map so that it only lives in memcached until it's accessed again.
+     * <code>0</code> (default) disables offloading idle sessions.
+     */
+    private int _sessionOffloadIdleTime = 0;
+
+    /**
+     * The max estimated heap (in bytes) used by the local sessions in sticky mode, if this is exceeded the least
+     * recently accessed sessions are offloaded. <code>0</code> (default) disables the limit.
+     */
+    private long _sessionOffloadHeapBudget = 0;
+
+    /**
+     * The capacity (in bytes) of the off-heap memory used to store offloaded sessions, so that they can be
+     * deserialized locally instead of being loaded from memcached. <code>0</code> (default) disables this.
+     */
+    private long _sessionOffHeapCapacity = 0;
+
+    /**
+     * The max number of sessions that are recorded on shutdown and prefetched on startup in sticky mode.
+     * <code>0</code> (default) disables the session warm-up.
+     */
+    private int _sessionWarmupMaxSessions = 0;
+
+    /**
+     * The max number of sessions prefetched per second by the session warm-up, <code>0</code> means no limit.
+     */
+    private int _sessionWarmupRate = 1000;
+
+    /**
+     * The max number of bytes of sessions prefetched by the session warm-up.
+     */
+    private long _sessionWarmupMaxBytes = 64 * 1024 * 1024;
+
+    /**
+     * The max time in millis to wait for modified sessions being stored when tomcat is stopped in sticky mode.
+     * <code>0</code> (default) disables the flush on shutdown.
+     */
+    private long _shutdownFlushTimeout = 0;
+
+    /**
+     * Specifies if new sessions shall be assigned to the less loaded of two randomly chosen memcached nodes,
+     * instead of a randomly chosen node.
+     */
+    private boolean _loadAwareNodeSelection = false;
+
+    /**
+     * The weights of memcached nodes used for load aware node selection, e.g. <code>n1:2,n2:1</code>.
+     */
+    private String _nodeWeights;
+
+    /**
+     * Specifies if reads of non-sticky sessions shall be hedged with a read of the secondary session backup
+     * if the primary read is slow.
+     */
+    private boolean _hedgedReads = false;
+
+    /**
+     * The max percentage of reads that are hedged.
+     */
+    private int _hedgedReadsMaxPercent = 10;
+
+    /**
+     * The ids of memcached nodes that are draining (being retired), separated by whitespace or comma.
+     */
+    private String _drainingNodes;
+
+    /**
+     * The max number of sessions per second that are migrated from draining nodes.
+     */
+    private int _sessionMigrationRate = 100;
+
+    /**
+     * The number of independent memcached clients (each with its own I/O thread and connection per node).
+     */
+    private int _memcachedConnectionsPerNode = 1;
+
+    /**
+     * Specifies if lock and validity info operations shall use a separate memcached client.
+     */
+    private boolean _memcachedControlConnection = false;
+
+    /**
+     * Specifies if redis stores the data and the validity info of a session in a single hash.
+     */
+    private boolean _redisHashLayout = false;
+
+    /**
+     * Values larger than this are stored in parts of this size, 0 means disabled.
+     */
+    private int _storageChunkSize = 0;
+
+    /**
+     * Specifies if the timeout of storage operations is derived from the latencies of each memcached node,
+     * and if requests to nodes with consecutive timeouts fail fast (circuit breaker).
+     */
+    private boolean _adaptiveOperationTimeout = false;
+
+    /**
+     * The min timeout in millis of storage operations if adaptive operation timeouts are used.
+     */
+    private long _minOperationTimeout = 50;
+
+    /**
+     * The number of consecutive timeouts after which the circuit breaker of a memcached node opens.
+     */
+    private int _circuitBreakerThreshold = 5;
+
     // -------------------- END configuration properties --------------------
 
     protected Statistics _statistics;
 
     /*
-     * the storage client (typically talks to a memcached server, but e.g. Redis is also supported)
+     * the storage client (typically talks to a memcached server, but e.g. Redis is also supported) and the
+     * services depending on it, replaced together when the memcached configuration is reloaded
      */
-    private StorageClient _storage;
+    private volatile StorageServices _services = StorageServices.EMPTY;
 
     /*
      * findSession may be often called in one request. If a session is requested
@@ -215,19 +387,72 @@ public class MemcachedSessionService {
      */
     private final LRUCache<String, Boolean> _invalidSessionsCache = new LRUCache<String, Boolean>( 2000, 500 );
 
-	private MemcachedNodesManager _memcachedNodesManager;
+    /*
+     * The _invalidSessionsCache is too small for crawlers or attackers sending lots of random or expired
+     * session ids, therefore session ids not found in memcached can additionally be tracked by
+     * this bloom filter (if configured) so that they're rejected without hitting memcached again.
+     */
+    private TimeSlicedBloomFilter _missingSessionsFilter;
+
+    /*
+     * Session ids not found in memcached once. A single miss might be transient (e.g. the backup of a new
+     * session created by another tomcat was not yet finished), therefore session ids are only added to the
+     * _missingSessionsFilter when they're not found again.
+     */
+    private TimeSlicedBloomFilter _missedOnceSessionsFilter;
+
+    /*
+     * Limits the number of storage misses per client, if configured.
+     */
+    private StorageMissRateLimiter _storageMissRateLimiter;
+
+    /*
+     * Session ids created or found in memcached by this tomcat, these are looked up also for clients
+     * that exceeded the max storage misses, so that only lookups of unknown session ids are limited.
+     */
+    private TimeSlicedBloomFilter _knownSessionsFilter;
+
+    /*
+     * Offloads idle sessions in sticky mode and keeps track of them, if configured.
+     */
+    private SessionOffloader _sessionOffloader;
+
+    /*
+     * Keeps offloaded sessions serialized in off-heap memory, if configured.
+     */
+    private OffHeapSessionStore _offHeapSessionStore;
+
+    /*
+     * Records sessions on shutdown and prefetches them on startup, if configured.
+     */
+    private SessionWarmup _sessionWarmup;
+
+    /*
+     * The time until the shutdown waits for running backups, set by the flush on shutdown.
+     */
+    private long _shutdownFlushDeadline;
+
+    /*
+     * Tracks the load of memcached nodes for load aware node selection, if configured.
+     */
+    private NodeLoadTracker _nodeLoadTracker;
+    private long _nextNodeStatsUpdate;
+
+    /*
+     * Hedges reads of non-sticky sessions with reads of the secondary backup, if configured.
+     */
+    private HedgedReader _hedgedReader;
 
     //private LRUCache<String, String> _relocatedSessions;
 
     protected TranscoderService _transcoderService;
 
     private TranscoderFactory _transcoderFactory;
+    private ClassDescriptorDictionary _classDescriptorDictionary;
 
-    private BackupSessionService _backupSessionService;
 
     private boolean _sticky = true;
     private String _lockingMode;
-    private LockingStrategy _lockingStrategy;
     private long _operationTimeout = 1000;
     private int _lockExpiration = 5;
 
@@ -395,18 +620,41 @@ public class MemcachedSessionService {
 
     public void shutdown() {
         _log.info( "Stopping services." );
+        if ( _sessionWarmup != null ) {
+            _sessionWarmup.stop();
+            _sessionWarmup = null;
+        }
         _manager.getContext().getParent().getPipeline().removeValve(_trackingHostValve);
         _manager.getContext().getPipeline().removeValve(_trackingContextValve);
-        _backupSessionService.shutdown();
-        if ( _lockingStrategy != null ) {
-            _lockingStrategy.shutdown();
+        _services.getBackupSessionService().shutdown();
+        awaitRunningBackups();
+        _hedgedReader = null;
+        final StorageServices services = _services;
+        if ( services.getSessionMigrator() != null ) {
+            services.getSessionMigrator().stop();
+        }
+        if ( services.getLockingStrategy() != null ) {
+            services.getLockingStrategy().shutdown();
         }
-        if ( _storage != null ) {
-            _storage.shutdown();
-            _storage = null;
+        if ( services.getStorage() != null ) {
+            services.getStorage().shutdown();
         }
+        _services = services.withSessionMigrator( null ).withStorage( null );
         _transcoderFactory = null;
+        _classDescriptorDictionary = null;
         _invalidSessionsCache.clear();
+        _missingSessionsFilter = null;
+        _missedOnceSessionsFilter = null;
+        _storageMissRateLimiter = null;
+        _knownSessionsFilter = null;
+        if ( _sessionOffloader != null ) {
+            _sessionOffloader.clear();
+            _sessionOffloader = null;
+        }
+        if ( _offHeapSessionStore != null ) {
+            _offHeapSessionStore.clear();
+            _offHeapSessionStore = null;
+        }
     }
 
     /**
@@ -417,10 +665,7 @@ public class MemcachedSessionService {
      * @param storage the storage client to use, for normal operations this should be <code>null</code>.
      */
     void startInternal( final StorageClient storage ) throws LifecycleException {
-        if (storage == null)
-            _storage = null;
-        else
-            _storage = storage;
+        _services = _services.withStorage( storage );
         
         startInternal();
     }
@@ -434,11 +679,44 @@ public class MemcachedSessionService {
 
         _statistics = Statistics.create( _enableStatistics );
 
-        _memcachedNodesManager = createMemcachedNodesManager( _memcachedNodes, _failoverNodes);
-
-        if(_storage == null) {
-            _storage = createStorageClient( _memcachedNodesManager, _statistics );
-        }
+        final MemcachedNodesManager memcachedNodesManager = createMemcachedNodesManager( _memcachedNodes, _failoverNodes);
+        _nodeLoadTracker = _loadAwareNodeSelection
+            ? new NodeLoadTracker( NodeLoadTracker.parseWeights( _nodeWeights ) )
+            : null;
+        memcachedNodesManager.setNodeLoadTracker( _nodeLoadTracker );
+        memcachedNodesManager.setNodeTimeoutController( _adaptiveOperationTimeout
+            ? new NodeTimeoutController( Math.min( _minOperationTimeout, _operationTimeout ), _operationTimeout,
+                    _circuitBreakerThreshold, _statistics )
+            : null );
+        memcachedNodesManager.setDrainingNodes( _drainingNodes );
+
+        _missingSessionsFilter = _missingSessionsFilterCapacity > 0
+            ? new TimeSlicedBloomFilter( _missingSessionsFilterCapacity, _missingSessionsFilterTtl * 1000L )
+            : null;
+        _missedOnceSessionsFilter = _missingSessionsFilterCapacity > 0
+            ? new TimeSlicedBloomFilter( _missingSessionsFilterCapacity, _missingSessionsFilterTtl * 1000L )
+            : null;
+        _storageMissRateLimiter = _maxStorageMissesPerClient > 0
+            ? new StorageMissRateLimiter( _maxStorageMissesPerClient )
+            : null;
+        _knownSessionsFilter = _maxStorageMissesPerClient > 0
+            ? new TimeSlicedBloomFilter( _knownSessionsFilterCapacity, getSessionTimeout() * 1000L )
+            : null;
+        _sessionOffloader = _sticky && ( _sessionOffloadIdleTime > 0 || _sessionOffloadHeapBudget > 0 )
+            ? new SessionOffloader( _sessionOffloadIdleTime, _sessionOffloadHeapBudget )
+            : null;
+        _offHeapSessionStore = _sessionOffloader != null && _sessionOffHeapCapacity > 0
+            ? new OffHeapSessionStore( _sessionOffHeapCapacity, _statistics )
+            : null;
+
+        final StorageClient storage = _services.getStorage() != null
+            ? _services.getStorage()
+            : createStorageClient( memcachedNodesManager, _statistics );
+
+        _hedgedReader = _hedgedReads && !_sticky && memcachedNodesManager.isEncodeNodeIdInSessionId()
+                && memcachedNodesManager.getCountNodes() > 1 && !memcachedNodesManager.isCouchbaseBucketConfig()
+            ? new HedgedReader( _statistics, _hedgedReadsMaxPercent )
+            : null;
 
         final String sessionCookieName = _manager.getSessionCookieName();
         _currentRequest = new CurrentRequest();
@@ -448,24 +726,59 @@ public class MemcachedSessionService {
         _trackingContextValve = createRequestTrackingContextValve(sessionCookieName);
         context.getPipeline().addValve( _trackingContextValve );
 
-        initNonStickyLockingMode( _memcachedNodesManager );
+        final LockingStrategy lockingStrategy = createNonStickyLockingStrategy( storage, memcachedNodesManager );
 
         _transcoderService = createTranscoderService( _statistics );
 
-        _backupSessionService = new BackupSessionService( _transcoderService, _sessionBackupAsync, _sessionBackupTimeout,
-                _backupThreadCount, _storage, _memcachedNodesManager, _statistics );
+        final BackupSessionService backupSessionService = new BackupSessionService( _transcoderService, _sessionBackupAsync,
+                _sessionBackupTimeout, _backupThreadCount, storage, memcachedNodesManager, _statistics );
+
+        _services = new StorageServices( memcachedNodesManager, storage, backupSessionService,
+                createSessionMigrator( storage, memcachedNodesManager ), lockingStrategy );
+
+        if ( _sticky && _sessionWarmupMaxSessions > 0 && storage != null ) {
+            _sessionWarmup = new SessionWarmup( getSharedStorage(), storage, memcachedNodesManager, _statistics,
+                    _sessionWarmupMaxSessions, _sessionWarmupRate, _sessionWarmupMaxBytes );
+            _sessionWarmup.start( _manager.getJvmRoute(), getSessionTimeout() * 1000L );
+        }
 
         _log.info( "--------\n- " + getClass().getSimpleName() + " finished initialization:" +
                 "\n- sticky: "+ _sticky +
                 "\n- operation timeout: " + _operationTimeout +
-                "\n- node ids: " + _memcachedNodesManager.getPrimaryNodeIds() +
-                "\n- failover node ids: " + _memcachedNodesManager.getFailoverNodeIds() +
-                "\n- storage key prefix: " + _memcachedNodesManager.getStorageKeyFormat().prefix +
+                ( _memcachedConnectionsPerNode > 1 || _memcachedControlConnection ? "\n- memcached connections per node: "
+                        + _memcachedConnectionsPerNode + ( _memcachedControlConnection ? " (+1 for locks/validity info)" : "" ) : "" ) +
+                ( _storageChunkSize > 0 ? "\n- storage chunk size: " + _storageChunkSize : "" ) +
+                ( _adaptiveOperationTimeout ? "\n- adaptive operation timeout: min " + _minOperationTimeout
+                        + " ms, circuit breaker after " + _circuitBreakerThreshold + " timeouts" : "" ) +
+                "\n- node ids: " + memcachedNodesManager.getPrimaryNodeIds() +
+                "\n- failover node ids: " + memcachedNodesManager.getFailoverNodeIds() +
+                ( !memcachedNodesManager.getDrainingNodeIds().isEmpty()
+                        ? "\n- draining node ids: " + memcachedNodesManager.getDrainingNodeIds() : "" ) +
+                "\n- storage key prefix: " + memcachedNodesManager.getStorageKeyFormat().prefix +
                 "\n- locking mode: " + _lockingMode + " (expiration: " + _lockExpiration + "s)" +
+                ( _missingSessionsFilter != null ? "\n- missing sessions filter: "
+                        + ( _missingSessionsFilter.getSizeInBytes() + _missedOnceSessionsFilter.getSizeInBytes() ) + " bytes" : "" ) +
+                ( _storageMissRateLimiter != null ? "\n- max storage misses per client: " + _maxStorageMissesPerClient + "/s" : "" ) +
+                ( _sessionOffloader != null ? "\n- session offloading: after " + _sessionOffloadIdleTime + "s idle, heap budget "
+                        + _sessionOffloadHeapBudget + " bytes" : "" ) +
+                ( _offHeapSessionStore != null ? "\n- off-heap session store: " + _offHeapSessionStore.getCapacity() + " bytes" : "" ) +
+                ( _sessionWarmup != null ? "\n- session warm-up: max " + _sessionWarmupMaxSessions + " sessions" : "" ) +
                 "\n--------");
 
     }
 
+    /**
+     * Creates the migrator for sessions stored on draining nodes, if node ids are encoded in session ids.
+     */
+    @CheckForNull
+    private SessionMigrator createSessionMigrator( @Nullable final StorageClient storage,
+            @Nonnull final MemcachedNodesManager memcachedNodesManager ) {
+        return storage != null && memcachedNodesManager.isEncodeNodeIdInSessionId()
+            ? new SessionMigrator( storage, memcachedNodesManager, _statistics, _sticky, _sessionMigrationRate,
+                    getOperationTimeout(), SessionMigrator.DEFAULT_MAX_QUEUE_SIZE )
+            : null;
+    }
+
     protected RequestTrackingContextValve createRequestTrackingContextValve(final String sessionCookieName) {
         return new RequestTrackingContextValve(sessionCookieName, this);
     }
@@ -483,7 +796,8 @@ public class MemcachedSessionService {
 		return new StorageClientCallback() {
 			@Override
 			public byte[] get(final String key) {
-				return _storage.get(_memcachedNodesManager.getStorageKeyFormat().format( key ));
+				final StorageServices services = _services;
+				return services.getStorage().get(services.getMemcachedNodesManager().getStorageKeyFormat().format( key ));
 			}
 		};
 	}
@@ -496,7 +810,31 @@ public class MemcachedSessionService {
 	}
 
     private TranscoderService createTranscoderService( final Statistics statistics ) {
-        return new TranscoderService( getTranscoderFactory().createTranscoder( _manager ) );
+        // the hybrid format is always read, so that it can be enabled and disabled in a running cluster
+        final Map<String, HybridAttributesTranscoder.Codec> routing = _hybridAttributesTranscoding
+            ? HybridAttributesTranscoder.parseRouting( _attributeCodecRouting )
+            : null;
+        if ( routing != null && !routing.isEmpty() ) {
+            _log.info( "Using attribute codec routing " + routing );
+        }
+        final SessionAttributesTranscoder transcoder = new HybridAttributesTranscoder( getTranscoderFactory().createTranscoder( _manager ),
+                new JavaSerializationTranscoder( _manager, getClassDescriptorDictionary() ), routing, _hybridAttributesTranscoding );
+        return new TranscoderService( new LazyAttributesTranscoder( transcoder, _lazyAttributesDeserialization ) );
+    }
+
+    /**
+     * Returns the dictionary for java serialization class descriptors, if enabled via
+     * {@link #setJavaSerializationClassDictionary(boolean)}.
+     *
+     * @return the dictionary or <code>null</code> if not enabled.
+     */
+    @CheckForNull
+    public synchronized ClassDescriptorDictionary getClassDescriptorDictionary() {
+        if ( _javaSerializationClassDictionary && _classDescriptorDictionary == null ) {
+            _classDescriptorDictionary = new ClassDescriptorDictionary( getSharedStorage() );
+            _classDescriptorDictionary.load();
+        }
+        return _classDescriptorDictionary;
     }
 
     protected TranscoderFactory getTranscoderFactory() {
@@ -518,7 +856,8 @@ public class MemcachedSessionService {
 
         final long maxReconnectDelay = getSystemProperty(MAX_RECONNECT_DELAY_KEY, 30);
         return new StorageClientFactory().createStorageClient(memcachedNodesManager, _memcachedProtocol, _username, _password, _operationTimeout,
-                maxReconnectDelay, statistics);
+                maxReconnectDelay, statistics, _memcachedConnectionsPerNode, _memcachedControlConnection, _redisHashLayout,
+                _storageChunkSize);
     }
 
     private TranscoderFactory createTranscoderFactory() throws InstantiationException, IllegalAccessException, ClassNotFoundException {
@@ -550,7 +889,7 @@ public class MemcachedSessionService {
      * {@inheritDoc}
      */
     public String newSessionId( @Nonnull final String sessionId ) {
-        return _memcachedNodesManager.createSessionId( sessionId );
+        return _services.getMemcachedNodesManager().createSessionId( sessionId );
     }
 
     /**
@@ -584,7 +923,7 @@ public class MemcachedSessionService {
                 }
             }
         }
-        else if ( canHitMemcached( id ) && _invalidSessionsCache.get( id ) == null ) {
+        else if ( canHitMemcached( id ) && ( isOffloaded( id ) || !isKnownMissing( id ) ) ) {
 
             // If no current request is set (RequestTrackerHostValve was not passed) we got invoked
             // by CoyoteAdapter.parseSessionCookiesId - here we can just return null, the requestedSessionId
@@ -601,8 +940,17 @@ public class MemcachedSessionService {
                 return null;
             }
 
-            // else load the session from memcached
-            result = loadFromMemcached( id );
+            // else load the session from memcached (or from local memory, if it was prefetched or offloaded)
+            result = _sessionWarmup != null ? loadFromWarmup( id ) : null;
+            if ( result == null && _offHeapSessionStore != null ) {
+                result = loadFromOffHeap( id );
+            }
+            if ( result == null ) {
+                result = loadFromMemcached( id );
+            }
+            if ( _sessionOffloader != null ) {
+                rehydrated( id, result );
+            }
             // checking valid() would expire() the session if it's not valid!
             if ( result != null && result.isValid() ) {
                 if(!_sticky) {
@@ -630,6 +978,61 @@ public class MemcachedSessionService {
         return result;
     }
 
+    private boolean isOffloaded( @Nonnull final String sessionId ) {
+        return _sessionOffloader != null && _sessionOffloader.isOffloaded( sessionId );
+    }
+
+    @CheckForNull
+    private MemcachedBackupSession loadFromOffHeap( @Nonnull final String sessionId ) {
+        final byte[] data = _offHeapSessionStore.take( sessionId );
+        if ( data == null ) {
+            if ( isOffloaded( sessionId ) ) {
+                _statistics.offHeapSessionMiss();
+            }
+            return null;
+        }
+        _statistics.offHeapSessionHit();
+        return deserializeLocally( sessionId, data, "off-heap memory" );
+    }
+
+    @CheckForNull
+    private MemcachedBackupSession loadFromWarmup( @Nonnull final String sessionId ) {
+        final byte[] data = _sessionWarmup.take( sessionId );
+        if ( data == null ) {
+            return null;
+        }
+        _statistics.sessionWarmupHit();
+        return deserializeLocally( sessionId, data, "prefetched sessions" );
+    }
+
+    @CheckForNull
+    private MemcachedBackupSession deserializeLocally( @Nonnull final String sessionId, @Nonnull final byte[] data, final String source ) {
+        try {
+            final long start = System.currentTimeMillis();
+            final MemcachedBackupSession result = _transcoderService.deserialize( data, _manager );
+            _statistics.registerSince( SESSION_DESERIALIZATION, start );
+            if ( result != null ) {
+                result.setSticky( _sticky );
+            }
+            return result;
+        } catch ( final RuntimeException e ) {
+            _log.warn( "Could not deserialize session with id " + sessionId + " from " + source + ", loading it from memcached.", e );
+            return null;
+        }
+    }
+
+    private void rehydrated( @Nonnull final String sessionId, @CheckForNull final MemcachedBackupSession session ) {
+        final SessionOffloader.Stub stub = _sessionOffloader.remove( sessionId );
+        if ( stub != null ) {
+            if ( session != null ) {
+                _statistics.sessionRehydrated();
+            }
+            else {
+                _log.info( "Offloaded session " + sessionId + " could not be loaded from memcached node " + stub.getMemcachedNodeId() );
+            }
+        }
+    }
+
     /**
      * Is used to determine if this thread / the current request already hit the application or if this method
      * invocation comes from the container.
@@ -694,11 +1097,16 @@ public class MemcachedSessionService {
                 ? _manager.getMaxInactiveInterval()
                 : _manager.getContext().getSessionTimeout() * 60 );
 
-        if ( sessionId == null || !_memcachedNodesManager.canHitMemcached( sessionId ) ) {
+        if ( sessionId == null || !_services.getMemcachedNodesManager().canHitMemcached( sessionId ) ) {
             sessionId = _manager.generateSessionId();
+            // a new session must not be rejected because of a false positive of the missing sessions filter
+            while ( _missingSessionsFilter != null && _missingSessionsFilter.mightContain( sessionId ) ) {
+                sessionId = _manager.generateSessionId();
+            }
         }
 
         session.setId( sessionId );
+        registerKnownSession( sessionId );
 
         final Request request = _currentRequest.get();
         if(request != null) {
@@ -743,7 +1151,7 @@ public class MemcachedSessionService {
     public void sessionRemoved(final MemcachedBackupSession session) {
         if(!_sticky) {
             if(session.isLocked()) {
-                _lockingStrategy.releaseLock(session.getIdInternal());
+                _services.getLockingStrategy().releaseLock(session.getIdInternal());
                 session.releaseLock();
             }
             _invalidSessionsCache.put(session.getIdInternal(), Boolean.TRUE);
@@ -796,7 +1204,7 @@ public class MemcachedSessionService {
             // the session might already be relocated, e.g. if some ajax calls are running concurrently.
             // if we'd run session takeover again, a new empty session would be created.
             // see https://github.com/magro/memcached-session-manager/issues/282
-            final String newSessionId = _memcachedNodesManager.changeSessionIdForTomcatFailover(requestedSessionId, _manager.getJvmRoute());
+            final String newSessionId = _services.getMemcachedNodesManager().changeSessionIdForTomcatFailover(requestedSessionId, _manager.getJvmRoute());
             if (_manager.getSessionInternal(newSessionId) != null) {
                 return newSessionId;
             }
@@ -819,7 +1227,7 @@ public class MemcachedSessionService {
 
     @Nonnull
 	private SessionIdFormat getSessionIdFormat() {
-		return _memcachedNodesManager.getSessionIdFormat();
+		return _services.getMemcachedNodesManager().getSessionIdFormat();
 	}
 
     private String handleSessionTakeOver( final MemcachedBackupSession session ) {
@@ -828,7 +1236,7 @@ public class MemcachedSessionService {
 
         final String origSessionId = session.getIdInternal();
 
-        final String newSessionId = _memcachedNodesManager.changeSessionIdForTomcatFailover(session.getIdInternal(), _manager.getJvmRoute());
+        final String newSessionId = _services.getMemcachedNodesManager().changeSessionIdForTomcatFailover(session.getIdInternal(), _manager.getJvmRoute());
 
         // If this session was already loaded we need to remove it from the session map
         // See http://code.google.com/p/memcached-session-manager/issues/detail?id=92
@@ -852,16 +1260,17 @@ public class MemcachedSessionService {
     }
 
     protected void deleteFromMemcached(final String sessionId) {
-        if ( _enabled.get() && _memcachedNodesManager.isValidForMemcached( sessionId ) ) {
+        final StorageServices services = _services;
+        if ( _enabled.get() && services.getMemcachedNodesManager().isValidForMemcached( sessionId ) ) {
             if ( _log.isDebugEnabled() ) {
                 _log.debug( "Deleting session from memcached: " + sessionId );
             }
             try {
                 final long start = System.currentTimeMillis();
-                _storage.delete( _memcachedNodesManager.getStorageKeyFormat().format(sessionId) ).get();
+                services.getStorage().delete( services.getMemcachedNodesManager().getStorageKeyFormat().format(sessionId) ).get();
                 _statistics.registerSince( DELETE_FROM_MEMCACHED, start );
                 if ( !_sticky ) {
-                    _lockingStrategy.onAfterDeleteFromMemcached( sessionId );
+                    services.getLockingStrategy().onAfterDeleteFromMemcached( sessionId );
                 }
             } catch ( final Throwable e ) {
                 _log.info( "Could not delete session from memcached.", e );
@@ -885,7 +1294,7 @@ public class MemcachedSessionService {
      */
     public String changeSessionIdOnMemcachedFailover( final String requestedSessionId ) {
 
-    	if ( !_memcachedNodesManager.isEncodeNodeIdInSessionId() ) {
+    	if ( !_services.getMemcachedNodesManager().isEncodeNodeIdInSessionId() ) {
     		return null;
     	}
 
@@ -898,9 +1307,15 @@ public class MemcachedSessionService {
                 final MemcachedBackupSession session = _manager.getSessionInternal( requestedSessionId );
 
                 if ( session != null && session.isValid() ) {
-                	final String newSessionId = _memcachedNodesManager.getNewSessionIdIfNodeFromSessionIdUnavailable( session.getId() );
+                    final String migratedSessionId = getMigratedSessionId( requestedSessionId, session.getVersion() );
+                    if ( migratedSessionId != null ) {
+                        session.setIdForRelocate( migratedSessionId );
+                        return migratedSessionId;
+                    }
+                	final String newSessionId = _services.getMemcachedNodesManager().getNewSessionIdIfNodeFromSessionIdUnavailable( session.getId() );
                     if ( newSessionId != null ) {
                         _log.debug( "Session needs to be relocated, setting new id on session..." );
+                        SessionEvents.sessionRelocated( session.getId(), newSessionId );
                         session.setIdForRelocate( newSessionId );
                         _statistics.requestWithMemcachedFailover();
                         return newSessionId;
@@ -911,15 +1326,19 @@ public class MemcachedSessionService {
                 /* for non-sticky sessions we check the validity info
                  */
                 final String nodeId = getSessionIdFormat().extractMemcachedId( requestedSessionId );
-                if ( nodeId == null || _memcachedNodesManager.isNodeAvailable( nodeId ) ) {
+                if ( nodeId == null ) {
                     return null;
                 }
+                if ( _services.getMemcachedNodesManager().isNodeAvailable( nodeId ) ) {
+                    return getMigratedSessionId( requestedSessionId );
+                }
 
                 _log.info( "Session needs to be relocated as node "+ nodeId +" is not available, loading backup session for " + requestedSessionId );
                 final MemcachedBackupSession backupSession = loadBackupSession( requestedSessionId );
                 if ( backupSession != null ) {
                     _log.debug( "Loaded backup session for " + requestedSessionId + ", adding locally with "+ backupSession.getIdInternal() +"." );
                     addValidLoadedSession( backupSession, true );
+                    SessionEvents.sessionRelocated( requestedSessionId, backupSession.getId() );
                     _statistics.requestWithMemcachedFailover();
                     return backupSession.getId();
                 }
@@ -931,6 +1350,51 @@ public class MemcachedSessionService {
         return null;
     }
 
+    /**
+     * Returns the id of the migrated copy of the given non-sticky session stored on a draining node, if the session
+     * was not modified since it was migrated (see {@link SessionMigrator}).
+     */
+    @CheckForNull
+    private String getMigratedSessionId( @Nonnull final String requestedSessionId ) {
+        final StorageServices services = _services;
+        final SessionMigrator sessionMigrator = services.getSessionMigrator();
+        if ( sessionMigrator == null || !services.getMemcachedNodesManager().isSessionOnDrainingNode( requestedSessionId )
+                || !sessionMigrator.isMigrated( requestedSessionId ) ) {
+            return null;
+        }
+        final SessionValidityInfo validityInfo = services.getLockingStrategy().loadSessionValidityInfo( requestedSessionId );
+        return validityInfo != null && validityInfo.isValid()
+            ? getMigratedSessionId( requestedSessionId, validityInfo.getVersion() )
+            : null;
+    }
+
+    @CheckForNull
+    private String getMigratedSessionId( @Nonnull final String sessionId, final long version ) {
+        final StorageServices services = _services;
+        final SessionMigrator sessionMigrator = services.getSessionMigrator();
+        final String result = sessionMigrator != null && services.getMemcachedNodesManager().isSessionOnDrainingNode( sessionId )
+            ? sessionMigrator.getMigratedSessionId( sessionId, version )
+            : null;
+        if ( result != null ) {
+            if ( _log.isDebugEnabled() ) {
+                _log.debug( "Session " + sessionId + " is stored on a draining node, changing id to migrated " + result );
+            }
+            _statistics.sessionIdChangedForMigration();
+        }
+        return result;
+    }
+
+    /**
+     * Registers the given session for migration, if it's stored on a draining node.
+     */
+    private void registerForMigration( @Nonnull final MemcachedBackupSession session ) {
+        final StorageServices services = _services;
+        final SessionMigrator sessionMigrator = services.getSessionMigrator();
+        if ( sessionMigrator != null && services.getMemcachedNodesManager().isSessionOnDrainingNode( session.getIdInternal() ) ) {
+            sessionMigrator.register( session.getIdInternal(), session.getVersion(), session.getMemcachedExpirationTimeToSet() );
+        }
+    }
+
     @CheckForNull
     private MemcachedBackupSession loadBackupSession( @Nonnull final String requestedSessionId ) {
 
@@ -940,7 +1404,7 @@ public class MemcachedSessionService {
             return null;
         }
 
-        final String newNodeId = _memcachedNodesManager.getNextAvailableNodeId(nodeId);
+        final String newNodeId = _services.getMemcachedNodesManager().getNextAvailableNodeId(nodeId);
         if ( newNodeId == null ) {
             _log.info( "No next available node found for nodeId "+ nodeId );
             return null;
@@ -952,7 +1416,7 @@ public class MemcachedSessionService {
         // to see if the backup is there. For this we have to fake the session id so that
         // the SuffixBasedNodeLocator selects another backup node.
         while(result == null
-                && (nextNodeId = _memcachedNodesManager.getNextAvailableNodeId(nextNodeId)) != null
+                && (nextNodeId = _services.getMemcachedNodesManager().getNextAvailableNodeId(nextNodeId)) != null
                 && !nextNodeId.equals(nodeId)) {
             final String newSessionId = getSessionIdFormat().createNewSessionId(requestedSessionId, nextNodeId);
             result = loadBackupSession(newSessionId, newNodeId);
@@ -968,14 +1432,14 @@ public class MemcachedSessionService {
 
     private MemcachedBackupSession loadBackupSession(final String requestedSessionId, final String newNodeId) {
         try {
-            final SessionValidityInfo validityInfo = _lockingStrategy.loadBackupSessionValidityInfo( requestedSessionId );
+            final SessionValidityInfo validityInfo = _services.getLockingStrategy().loadBackupSessionValidityInfo( requestedSessionId );
             if ( validityInfo == null || !validityInfo.isValid() ) {
                 if(_log.isDebugEnabled())
                     _log.debug( "No validity info (or no valid one) found for sessionId " + requestedSessionId );
                 return null;
             }
 
-            final byte[] obj = _storage.get( getSessionIdFormat().createBackupKey( requestedSessionId ) );
+            final byte[] obj = _services.getStorage().get( getSessionIdFormat().createBackupKey( requestedSessionId ) );
             if ( obj == null ) {
                 if(_log.isDebugEnabled())
                     _log.debug( "No backup found for sessionId " + requestedSessionId );
@@ -1033,9 +1497,9 @@ public class MemcachedSessionService {
             }
 
             if(msmSession.isLocked()) {
-                _lockingStrategy.releaseLock(sessionId);
+                _services.getLockingStrategy().releaseLock(sessionId);
                 msmSession.releaseLock();
-                _lockingStrategy.registerReadonlyRequest(requestId);
+                _services.getLockingStrategy().registerReadonlyRequest(requestId);
             }
 
         }
@@ -1056,6 +1520,7 @@ public class MemcachedSessionService {
      * @return a {@link Future} providing the {@link BackupResultStatus}.
      */
     public Future<BackupResult> backupSession( final String sessionId, final boolean sessionIdChanged, final String requestId ) {
+        final StorageServices services = _services;
         if ( !_enabled.get() ) {
             return new SimpleFuture<BackupResult>( BackupResult.SKIPPED );
         }
@@ -1067,7 +1532,7 @@ public class MemcachedSessionService {
             if ( !_sticky ) {
                 // Issue 116/137: Only notify the lockingStrategy if the session was loaded and has not been removed/invalidated
                 if(!_invalidSessionsCache.containsKey(sessionId)) {
-                    _lockingStrategy.onBackupWithoutLoadedSession( sessionId, requestId, _backupSessionService );
+                    services.getLockingStrategy().onBackupWithoutLoadedSession( sessionId, requestId, services.getBackupSessionService() );
                 }
             }
             return new SimpleFuture<BackupResult>( BackupResult.SKIPPED );
@@ -1094,11 +1559,13 @@ public class MemcachedSessionService {
             }
         }
 
-        final boolean force = sessionIdChanged || msmSession.isSessionIdChanged() || !_sticky && (msmSession.getSecondsSinceLastBackup() >= msmSession.getMaxInactiveInterval());
-        final Future<BackupResult> result = _backupSessionService.backupSession( msmSession, force );
+        // a session id changed to the id of a migrated copy does not require the session to be stored again
+        final boolean idChanged = sessionIdChanged && ( services.getSessionMigrator() == null || !services.getSessionMigrator().isMigratedSessionId( sessionId ) );
+        final boolean force = idChanged || msmSession.isSessionIdChanged() || !_sticky && (msmSession.getSecondsSinceLastBackup() >= msmSession.getMaxInactiveInterval());
+        final Future<BackupResult> result = services.getBackupSessionService().backupSession( msmSession, force );
 
         if ( !_sticky ) {
-            _lockingStrategy.onAfterBackupSession( msmSession, force, result, requestId, _backupSessionService );
+            services.getLockingStrategy().onAfterBackupSession( msmSession, force, result, requestId, services.getBackupSessionService() );
         }
 
         return result;
@@ -1110,24 +1577,90 @@ public class MemcachedSessionService {
     }
 
     protected MemcachedBackupSession loadFromMemcachedWithCheck( final String sessionId ) {
-        if ( !canHitMemcached( sessionId ) || _invalidSessionsCache.get( sessionId ) != null ) {
+        if ( !canHitMemcached( sessionId ) || isKnownMissing( sessionId ) ) {
             return null;
         }
         return loadFromMemcached( sessionId );
     }
 
+    /**
+     * Determines if the given session id is known to be not existing in memcached (or got invalidated),
+     * or if it must not be loaded because the client of the current request caused too many storage misses.
+     */
+    private boolean isKnownMissing( @Nonnull final String sessionId ) {
+        if ( _invalidSessionsCache.get( sessionId ) != null ) {
+            return true;
+        }
+        if ( _missingSessionsFilter != null && _missingSessionsFilter.mightContain( sessionId ) ) {
+            _statistics.storageLookupRejected();
+            if ( _log.isDebugEnabled() ) {
+                _log.debug( "Session id " + sessionId + " was not found in memcached recently, not looking it up again." );
+            }
+            return true;
+        }
+        if ( _storageMissRateLimiter != null && !_knownSessionsFilter.mightContain( sessionId ) ) {
+            final String client = getCurrentClient();
+            if ( client != null && _storageMissRateLimiter.isLimited( client ) ) {
+                _statistics.storageLookupRejected();
+                if ( _log.isDebugEnabled() ) {
+                    _log.debug( "Client " + client + " exceeded the max storage misses, not looking up session id " + sessionId );
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registers the given session id as not existing in memcached. It's added to the missing sessions filter
+     * only if it was not found before (within the ttl of the filter).
+     */
+    private void registerMissingSession( @Nonnull final String sessionId ) {
+        _invalidSessionsCache.put( sessionId, Boolean.TRUE );
+        if ( _missingSessionsFilter != null ) {
+            if ( _missedOnceSessionsFilter.mightContain( sessionId ) ) {
+                _missingSessionsFilter.put( sessionId );
+            }
+            else {
+                _missedOnceSessionsFilter.put( sessionId );
+            }
+        }
+        if ( _storageMissRateLimiter != null ) {
+            final String client = getCurrentClient();
+            if ( client != null ) {
+                _storageMissRateLimiter.registerMiss( client );
+            }
+        }
+    }
+
+    /**
+     * Registers the given session id as existing, so that it's not affected by the storage miss limit.
+     */
+    private void registerKnownSession( @Nonnull final String sessionId ) {
+        if ( _knownSessionsFilter != null ) {
+            _knownSessionsFilter.put( sessionId );
+        }
+    }
+
+    @CheckForNull
+    private String getCurrentClient() {
+        final Request request = _currentRequest.get();
+        return request != null ? request.getRemoteAddr() : null;
+    }
+
     /**
      * Checks if this manager {@link #isEnabled()}, if the given sessionId is valid (contains a memcached id)
      * and if this sessionId can access memcached.
      */
     private boolean canHitMemcached( @Nonnull final String sessionId ) {
-        return _enabled.get() && _memcachedNodesManager.canHitMemcached( sessionId );
+        return _enabled.get() && _services.getMemcachedNodesManager().canHitMemcached( sessionId );
     }
 
     /**
      * Assumes that before you checked {@link #canHitMemcached(String)}.
      */
     private MemcachedBackupSession loadFromMemcached( final String sessionId ) {
+        final StorageServices services = _services;
         if ( _log.isDebugEnabled() ) {
             _log.debug( "Loading session from memcached: " + sessionId );
         }
@@ -1135,11 +1668,20 @@ public class MemcachedSessionService {
         LockStatus lockStatus = null;
         try {
 
+            if ( !services.getMemcachedNodesManager().isRequestAllowed( sessionId ) ) {
+                if ( _log.isDebugEnabled() ) {
+                    _log.debug( "Not loading session " + sessionId + ", the circuit breaker of its memcached node is open." );
+                }
+                _statistics.requestFailedFast();
+                return null;
+            }
+
             if ( !_sticky ) {
-                lockStatus = _lockingStrategy.onBeforeLoadFromMemcached( sessionId );
+                lockStatus = services.getLockingStrategy().onBeforeLoadFromMemcached( sessionId );
             }
 
             final long start = System.currentTimeMillis();
+            final SessionEvent loadEvent = SessionEvents.begin( SessionEvents.Type.LOAD ).session( sessionId );
 
             /* In the previous version (<1.2) the session was completely serialized by
              * custom Transcoder implementations.
@@ -1147,20 +1689,42 @@ public class MemcachedSessionService {
              * they get deserialized by BaseSerializingTranscoder.deserialize or the appropriate
              * specializations.
              */
-            final byte[] object = _storage.get( _memcachedNodesManager.getStorageKeyFormat().format( sessionId ) );
-            _memcachedNodesManager.onLoadFromMemcachedSuccess( sessionId );
+            final StoredSession stored = _hedgedReader != null
+                ? readHedged( sessionId )
+                : new StoredSession( readSessionData( sessionId ), null );
+            final byte[] object = stored.data;
+            loadEvent.bytes( object != null ? object.length : 0 ).result( object != null ? "FOUND" : "NOT_FOUND" ).commit();
+            services.getMemcachedNodesManager().onLoadFromMemcachedSuccess( sessionId );
+            services.getMemcachedNodesManager().registerLatency( sessionId, System.currentTimeMillis() - start );
 
             if ( object != null ) {
                 final long startDeserialization = System.currentTimeMillis();
+                final SessionEvent deserializationEvent = SessionEvents.begin( SessionEvents.Type.DESERIALIZATION )
+                        .session( sessionId ).bytes( object.length );
                 final MemcachedBackupSession result = _transcoderService.deserialize( object, _manager );
+                deserializationEvent.commit();
+                if ( !sessionId.equals( result.getIdInternal() ) ) {
+                    // the session was migrated from a draining node and still has its former id
+                    result.setIdInternal( sessionId );
+                }
+                if ( stored.backupValidityInfo != null ) {
+                    // the backup validity info is stored on each request, also if the session backup was skipped
+                    // (see SecondaryBackupReplicator.refresh), so it may have newer access times than the session data
+                    result.setLastAccessedTimeInternal( Math.max( result.getLastAccessedTimeInternal(),
+                            stored.backupValidityInfo.getLastAccessedTime() ) );
+                    result.setThisAccessedTimeInternal( Math.max( result.getThisAccessedTimeInternal(),
+                            stored.backupValidityInfo.getThisAccessedTime() ) );
+                }
                 _statistics.registerSince( SESSION_DESERIALIZATION, startDeserialization );
                 _statistics.registerSince( LOAD_FROM_MEMCACHED, start );
 
                 result.setSticky( _sticky );
                 if ( !_sticky ) {
-                    _lockingStrategy.onAfterLoadFromMemcached( result, lockStatus );
+                    services.getLockingStrategy().onAfterLoadFromMemcached( result, lockStatus );
+                    registerForMigration( result );
                 }
 
+                registerKnownSession( sessionId );
                 if ( _log.isDebugEnabled() ) {
                     _log.debug( "Found session with id " + sessionId );
                 }
@@ -1168,7 +1732,7 @@ public class MemcachedSessionService {
             }
             else {
                 releaseIfLocked( sessionId, lockStatus );
-                _invalidSessionsCache.put( sessionId, Boolean.TRUE );
+                registerMissingSession( sessionId );
                 if ( _log.isDebugEnabled() ) {
                     _log.debug( "Session " + sessionId + " not found in memcached." );
                 }
@@ -1177,8 +1741,8 @@ public class MemcachedSessionService {
         } catch ( final TranscoderDeserializationException e ) {
             _log.warn( "Could not deserialize session with id " + sessionId + " from memcached, session will be purged from storage.", e );
             releaseIfLocked( sessionId, lockStatus );
-            _storage.delete( _memcachedNodesManager.getStorageKeyFormat().format(sessionId) );
-            _invalidSessionsCache.put( sessionId, Boolean.TRUE );
+            services.getStorage().delete( services.getMemcachedNodesManager().getStorageKeyFormat().format(sessionId) );
+            registerMissingSession( sessionId );
         } catch ( final Exception e ) {
             _log.warn( "Could not load session with id " + sessionId + " from memcached.", e );
             releaseIfLocked( sessionId, lockStatus );
@@ -1187,28 +1751,221 @@ public class MemcachedSessionService {
         return null;
     }
 
-    protected void releaseIfLocked( final String sessionId, final LockStatus lockStatus ) {
-        if ( lockStatus == LockStatus.LOCKED ) {
-            _lockingStrategy.releaseLock( sessionId );
+    /**
+     * Reads the session from its memcached node, and additionally the secondary backup if the primary read
+     * is slow (see {@link HedgedReader}). The primary read is waited for by the calling thread, with the adaptive
+     * timeout of the node if configured.
+     */
+    private StoredSession readHedged( @Nonnull final String sessionId ) throws Exception {
+        final StorageServices services = _services;
+        final MemcachedNodesManager memcachedNodesManager = services.getMemcachedNodesManager();
+        final Future<byte[]> primary = services.getStorage().getAsync( memcachedNodesManager.getStorageKeyFormat().format( sessionId ) );
+        final HedgedRead<StoredSession> backup = new HedgedRead<StoredSession>() {
+            @Override
+            public Future<StoredSession> issue() {
+                return readBackup( sessionId );
+            }
+        };
+        final boolean adaptiveTimeout = memcachedNodesManager.getNodeTimeoutController() != null;
+        final long start = System.currentTimeMillis();
+        try {
+            final StoredSession result = _hedgedReader.read( new PrimaryRead( primary ), backup,
+                    adaptiveTimeout ? memcachedNodesManager.getOperationTimeout( sessionId, _operationTimeout ) : getOperationTimeout() );
+            if ( adaptiveTimeout && result.backupValidityInfo == null ) {
+                memcachedNodesManager.onOperationCompleted( sessionId, System.currentTimeMillis() - start );
+            }
+            return result;
+        } catch ( final TimeoutException e ) {
+            if ( adaptiveTimeout ) {
+                memcachedNodesManager.onOperationTimeout( sessionId );
+            }
+            throw e;
+        } catch ( final ExecutionException e ) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
         }
     }
 
     /**
-     * Set the memcached nodes space or comma separated.
-     * <p>
-     * E.g. <code>n1.localhost:11211 n2.localhost:11212</code>
-     * </p>
-     * <p>
-     * When the memcached nodes are set when this manager is already initialized,
-     * the new configuration will be loaded.
-     * </p>
-     *
-     * @param memcachedNodes
-     *            the memcached node definitions, whitespace or comma separated
+     * Reads the secondary backup of the given session, that's provided only if it has (at least) the version
+     * of the primary session (see {@link BackupRead}).
      */
-    public void setMemcachedNodes( final String memcachedNodes ) {
-        if ( _manager.isInitialized() ) {
-            final MemcachedNodesManager config = reloadMemcachedConfig( memcachedNodes, _failoverNodes );
+    @Nonnull
+    Future<StoredSession> readBackup( @Nonnull final String sessionId ) {
+        final StorageServices services = _services;
+        final String validityKey = getSessionIdFormat().createValidityInfoKeyName( sessionId );
+        return new BackupRead( sessionId, services.getStorage().getAsync( validityKey ),
+                services.getStorage().getAsync( getSessionIdFormat().createBackupKey( validityKey ) ),
+                services.getStorage().getAsync( getSessionIdFormat().createBackupKey( sessionId ) ) );
+    }
+
+    /**
+     * Reads the session data from its memcached node, with the adaptive timeout of this node if configured.
+     */
+    @CheckForNull
+    private byte[] readSessionData( @Nonnull final String sessionId ) throws Exception {
+        final StorageServices services = _services;
+        final String key = services.getMemcachedNodesManager().getStorageKeyFormat().format( sessionId );
+        if ( services.getMemcachedNodesManager().getNodeTimeoutController() == null ) {
+            return services.getStorage().get( key );
+        }
+        final long start = System.currentTimeMillis();
+        try {
+            final byte[] result = services.getStorage().getAsync( key ).get(
+                    services.getMemcachedNodesManager().getOperationTimeout( sessionId, _operationTimeout ), TimeUnit.MILLISECONDS );
+            services.getMemcachedNodesManager().onOperationCompleted( sessionId, System.currentTimeMillis() - start );
+            return result;
+        } catch ( final TimeoutException e ) {
+            services.getMemcachedNodesManager().onOperationTimeout( sessionId );
+            throw e;
+        } catch ( final ExecutionException e ) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    static final class StoredSession {
+
+        final byte[] data;
+        final SessionValidityInfo backupValidityInfo;
+
+        StoredSession( @Nullable final byte[] data, @Nullable final SessionValidityInfo backupValidityInfo ) {
+            this.data = data;
+            this.backupValidityInfo = backupValidityInfo;
+        }
+
+    }
+
+    /**
+     * The primary read of a session, provides the session data without backup validity info.
+     */
+    private static final class PrimaryRead implements Future<StoredSession> {
+
+        private final Future<byte[]> _data;
+
+        PrimaryRead( @Nonnull final Future<byte[]> data ) {
+            _data = data;
+        }
+
+        @Override
+        public boolean cancel( final boolean mayInterruptIfRunning ) {
+            return _data.cancel( mayInterruptIfRunning );
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return _data.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return _data.isDone();
+        }
+
+        @Override
+        public StoredSession get() throws InterruptedException, ExecutionException {
+            return new StoredSession( _data.get(), null );
+        }
+
+        @Override
+        public StoredSession get( final long timeout, final TimeUnit unit ) throws InterruptedException, ExecutionException, TimeoutException {
+            return new StoredSession( _data.get( timeout, unit ), null );
+        }
+
+    }
+
+    /**
+     * The read of the secondary backup of a session, together with the validity info of the primary session
+     * (its small key is usually available even if the primary read of the session is slow). All reads are
+     * issued at once, and they're waited for at most until the deadline of the hedged read. The backup is
+     * only provided if it's not older than the primary session, e.g. if its replication is still pending.
+     */
+    private final class BackupRead implements Future<StoredSession> {
+
+        private final String _sessionId;
+        private final Future<byte[]> _primaryValidity;
+        private final Future<byte[]> _backupValidity;
+        private final Future<byte[]> _backupData;
+
+        BackupRead( @Nonnull final String sessionId, @Nonnull final Future<byte[]> primaryValidity,
+                @Nonnull final Future<byte[]> backupValidity, @Nonnull final Future<byte[]> backupData ) {
+            _sessionId = sessionId;
+            _primaryValidity = primaryValidity;
+            _backupValidity = backupValidity;
+            _backupData = backupData;
+        }
+
+        @Override
+        public boolean cancel( final boolean mayInterruptIfRunning ) {
+            _primaryValidity.cancel( mayInterruptIfRunning );
+            _backupValidity.cancel( mayInterruptIfRunning );
+            return _backupData.cancel( mayInterruptIfRunning );
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return _backupData.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return _primaryValidity.isDone() && _backupValidity.isDone() && _backupData.isDone();
+        }
+
+        @Override
+        public StoredSession get() throws InterruptedException, ExecutionException {
+            return get( _primaryValidity.get(), _backupValidity.get(), _backupData.get() );
+        }
+
+        @Override
+        public StoredSession get( final long timeout, final TimeUnit unit ) throws InterruptedException, ExecutionException, TimeoutException {
+            final long deadline = System.currentTimeMillis() + unit.toMillis( timeout );
+            final byte[] backupValidity = _backupValidity.get( timeout, unit );
+            final byte[] backupData = _backupData.get( Math.max( 0, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+            final byte[] primaryValidity = _primaryValidity.get( Math.max( 0, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+            return get( primaryValidity, backupValidity, backupData );
+        }
+
+        @CheckForNull
+        private StoredSession get( @Nullable final byte[] primaryValidity, @Nullable final byte[] backupValidity,
+                @Nullable final byte[] backupData ) {
+            final SessionValidityInfo validityInfo = backupValidity != null ? SessionValidityInfo.decode( backupValidity ) : null;
+            if ( validityInfo == null || !validityInfo.isValid() || backupData == null ) {
+                return null;
+            }
+            if ( primaryValidity == null || SessionValidityInfo.decode( primaryValidity ).getVersion() > validityInfo.getVersion() ) {
+                if ( _log.isDebugEnabled() ) {
+                    _log.debug( "Ignoring secondary backup of session " + _sessionId + ", it's older than the primary session"
+                            + " or the version of the primary session is not known." );
+                }
+                return null;
+            }
+            return new StoredSession( backupData, validityInfo );
+        }
+
+    }
+
+    protected void releaseIfLocked( final String sessionId, final LockStatus lockStatus ) {
+        if ( lockStatus == LockStatus.LOCKED ) {
+            _services.getLockingStrategy().releaseLock( sessionId );
+        }
+    }
+
+    /**
+     * Set the memcached nodes space or comma separated.
+     * <p>
+     * E.g. <code>n1.localhost:11211 n2.localhost:11212</code>
+     * </p>
+     * <p>
+     * When the memcached nodes are set when this manager is already initialized,
+     * the new configuration will be loaded. If the new memcached client cannot connect to all nodes the
+     * former configuration is kept and an {@link IllegalStateException} is thrown.
+     * </p>
+     *
+     * @param memcachedNodes
+     *            the memcached node definitions, whitespace or comma separated
+     */
+    public void setMemcachedNodes( final String memcachedNodes ) {
+        if ( _manager.isInitialized() ) {
+            final MemcachedNodesManager config = reloadMemcachedConfig( memcachedNodes, _failoverNodes );
             _log.info( "Loaded new memcached node configuration." +
                     "\n- Former config: "+ _memcachedNodes +
                     "\n- New config: " + memcachedNodes +
@@ -1229,29 +1986,118 @@ public class MemcachedSessionService {
         return _memcachedNodes;
     }
     
-    private MemcachedNodesManager reloadMemcachedConfig( final String memcachedNodes, final String failoverNodes ) {
+    /**
+     * Reloads the memcached configuration without downtime: the new storage client is connected
+     * before it's used, then the services are swapped at once, and the former services are drained in the
+     * background (pending backups and storage operations are completed) before they're shut down.
+     *
+     * @throws IllegalStateException if the new storage client could not connect to all configured nodes,
+     * then the new storage client is shut down and the former services are kept.
+     */
+    private MemcachedNodesManager reloadMemcachedConfig( final String memcachedNodes, final String failoverNodes ) throws IllegalStateException {
 
-        /* first create all dependent services
+        /* first create all dependent services and connect the new storage client
          */
+        final StorageServices former = _services;
         final MemcachedNodesManager memcachedNodesManager = createMemcachedNodesManager( memcachedNodes, failoverNodes );
+        memcachedNodesManager.setNodeLoadTracker( _nodeLoadTracker );
+        memcachedNodesManager.setNodeTimeoutController( former.getMemcachedNodesManager().getNodeTimeoutController() );
+        memcachedNodesManager.setDrainingNodes( _drainingNodes );
         final StorageClient storage = createStorageClient( memcachedNodesManager, _statistics );
+        if ( storage != null && !connectStorageClient( storage, memcachedNodesManager ) ) {
+            storage.shutdown();
+            throw new IllegalStateException( "The new storage client could not connect to all nodes of '" + memcachedNodes
+                    + "' (failover nodes '" + failoverNodes + "'), keeping the former configuration." );
+        }
         final BackupSessionService backupSessionService = new BackupSessionService( _transcoderService, _sessionBackupAsync,
                 _sessionBackupTimeout, _backupThreadCount, storage, memcachedNodesManager, _statistics );
 
-        /* then assign new services
+        /* then publish the new services at once
          */
-        if ( _storage != null ) {
-            _storage.shutdown();
+        _services = new StorageServices( memcachedNodesManager, storage, backupSessionService,
+                createSessionMigrator( storage, memcachedNodesManager ),
+                createNonStickyLockingStrategy( storage, memcachedNodesManager ) );
+        if ( former.getSessionMigrator() != null ) {
+            former.getSessionMigrator().stop();
+        }
+        final SessionWarmup sessionWarmup = _sessionWarmup;
+        if ( sessionWarmup != null && storage != null ) {
+            sessionWarmup.setStorage( storage, memcachedNodesManager );
         }
-        _storage = storage;
-        _memcachedNodesManager = memcachedNodesManager;
-        _backupSessionService = backupSessionService;
 
-        initNonStickyLockingMode( memcachedNodesManager );
+        /* finally drain and shut down the former services
+         */
+        if ( former.getStorage() != null ) {
+            drain( former.getStorage(), former.getBackupSessionService(), former.getLockingStrategy() );
+        }
 
         return memcachedNodesManager;
     }
 
+    /**
+     * Waits until the given (new) storage client is connected to the storage nodes, at most the operation timeout.
+     *
+     * @return <code>true</code> if the storage client is connected to all configured nodes.
+     */
+    private boolean connectStorageClient( @Nonnull final StorageClient storage, @Nonnull final MemcachedNodesManager memcachedNodesManager ) {
+        final long start = System.currentTimeMillis();
+        final int nodes = memcachedNodesManager.isRedisConfig() ? 1 : memcachedNodesManager.getCountNodes();
+        try {
+            final int connected = storage.connect( getOperationTimeout() );
+            if ( connected < nodes ) {
+                _log.warn( "The new storage client is connected to " + connected + " of " + nodes + " nodes after "
+                        + ( System.currentTimeMillis() - start ) + " ms, the others are not available." );
+                return false;
+            }
+            _log.info( "Connected the new storage client to " + connected + " nodes in "
+                    + ( System.currentTimeMillis() - start ) + " ms." );
+            return true;
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Drains the given former services in the background: requests that still use the former services get some time
+     * to submit their backups, then the pending backups and secondary backups are awaited, and finally the
+     * storage client is shut down after its pending operations are completed.
+     */
+    private void drain( @Nonnull final StorageClient storage, @Nullable final BackupSessionService backupSessionService,
+            @Nullable final LockingStrategy lockingStrategy ) {
+        final long gracePeriod = getOperationTimeout();
+        final long backupTimeout = _sessionBackupTimeout;
+        new NamedThreadFactory( "msm-storage-drain" ).newThread( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep( gracePeriod );
+                    boolean drained = true;
+                    if ( backupSessionService != null ) {
+                        backupSessionService.shutdown();
+                        drained &= backupSessionService.awaitTermination( backupTimeout );
+                    }
+                    if ( lockingStrategy != null ) {
+                        lockingStrategy.shutdown();
+                        drained &= lockingStrategy.awaitTermination( backupTimeout );
+                    }
+                    drained &= storage.shutdown( gracePeriod );
+                    if ( drained ) {
+                        _log.info( "Shut down former storage client after all pending operations were completed." );
+                    }
+                    else {
+                        _log.warn( "Shut down former storage client, not all pending operations were completed in time." );
+                    }
+                } catch ( final InterruptedException e ) {
+                    storage.shutdown();
+                } catch ( final RuntimeException e ) {
+                    _log.warn( "Could not drain former storage client.", e );
+                    storage.shutdown();
+                }
+            }
+        } ).start();
+    }
+
     /**
      * The node ids of memcached nodes, that shall only be used for session
      * backup by this tomcat/manager, if there are no other memcached nodes
@@ -1261,7 +2107,8 @@ public class MemcachedSessionService {
      * </p>
      * <p>
      * When the failover nodes are set when this manager is already initialized,
-     * the new configuration will be loaded.
+     * the new configuration will be loaded. If the new memcached client cannot connect to all nodes the
+     * former configuration is kept and an {@link IllegalStateException} is thrown.
      * </p>
      *
      * @param failoverNodes
@@ -1394,6 +2241,114 @@ public class MemcachedSessionService {
         _copyCollectionsForSerialization = copyCollectionsForSerialization;
     }
 
+    /**
+     * Specifies, if session attributes shall be serialized separately (framed, by the configured transcoder)
+     * so that when a session is loaded only the attribute names are read and each attribute is deserialized
+     * when it's accessed for the first time. Attributes that were not accessed are stored with their
+     * original bytes when the session is stored again. The default value is <code>false</code>.
+     * <p>
+     * This reduces cpu usage and garbage when sessions contain large attributes of that only few are used
+     * per request, but increases the size of the serialized session a bit. Sessions stored in the framed
+     * format can always be read, also if this is disabled (then attributes are deserialized eagerly), so that
+     * this option can be switched in a running cluster.
+     * </p>
+     * <p>
+     * As each attribute is serialized on its own, an object that is referenced by several attributes
+     * (or an attribute that references another attribute) is deserialized as a separate copy per attribute,
+     * i.e. the attributes don't share this object anymore after the session was loaded. Don't enable this
+     * if the application relies on shared references between session attributes.
+     * </p>
+     * <p>
+     * This must be set before the manager is started.
+     * </p>
+     *
+     * @param lazyAttributesDeserialization <code>true</code> if attributes shall be deserialized lazily.
+     */
+    public void setLazyAttributesDeserialization( final boolean lazyAttributesDeserialization ) {
+        _lazyAttributesDeserialization = lazyAttributesDeserialization;
+    }
+
+    public boolean isLazyAttributesDeserialization() {
+        return _lazyAttributesDeserialization;
+    }
+
+    /**
+     * Specifies, if session attributes with values of simple types shall be serialized with a builtin, compact
+     * encoding instead of the configured transcoder. Supported are strings, boxed primitives, <code>byte[]</code>,
+     * {@link java.util.Date}s and small collections of these, all other attributes are serialized by the configured
+     * transcoder (see {@link HybridAttributesTranscoder}). The default value is <code>false</code>.
+     * <p>
+     * Sessions stored in either format are read regardless of this setting, it only determines how sessions are
+     * written. So this can be enabled or disabled in a running cluster without making stored sessions unreadable.
+     * </p>
+     * <p>
+     * Each builtin attribute is written on its own and the remaining attributes are serialized per codec
+     * (see {@link #setAttributeCodecRouting(String)}), so an object that is referenced by attributes that are
+     * serialized separately is deserialized as a separate copy for each of them, i.e. these attributes don't
+     * share the object anymore after the session was loaded. E.g. a list stored in two attributes is restored
+     * as two lists.
+     * </p>
+     * <p>
+     * This must be set before the manager is started.
+     * </p>
+     *
+     * @param hybridAttributesTranscoding <code>true</code> if simple attribute values shall use the builtin encoding.
+     */
+    public void setHybridAttributesTranscoding( final boolean hybridAttributesTranscoding ) {
+        _hybridAttributesTranscoding = hybridAttributesTranscoding;
+    }
+
+    public boolean isHybridAttributesTranscoding() {
+        return _hybridAttributesTranscoding;
+    }
+
+    /**
+     * Sets the codecs to use for specific session attributes, if {@link #setHybridAttributesTranscoding(boolean)}
+     * is enabled. This is a comma separated list of <code>name=codec</code> entries, where codec is
+     * <code>builtin</code> (the default for attributes not listed, values not supported by the builtin
+     * encoding are serialized by the configured transcoder), <code>transcoder</code> (the configured transcoder)
+     * or <code>java</code> (java serialization), e.g. <code>userId=builtin, cart=java</code>.
+     * <p>
+     * Attributes that reference the same objects should use the same codec other than <code>builtin</code>,
+     * otherwise the shared objects are separate copies after deserialization.
+     * </p>
+     * <p>
+     * This must be set before the manager is started.
+     * </p>
+     *
+     * @param attributeCodecRouting the codecs by attribute name.
+     */
+    public void setAttributeCodecRouting( final String attributeCodecRouting ) {
+        _attributeCodecRouting = attributeCodecRouting;
+    }
+
+    public String getAttributeCodecRouting() {
+        return _attributeCodecRouting;
+    }
+
+    /**
+     * Specifies, if java serialization (the {@link JavaSerializationTranscoderFactory} and the <code>java</code>
+     * codec of {@link #setAttributeCodecRouting(String)}) shall write the ids of class descriptors instead of
+     * the descriptors (class names, serialVersionUIDs and fields). The descriptors are stored once in memcached
+     * and shared by all tomcats (see {@link ClassDescriptorDictionary}). The default value is <code>false</code>.
+     * <p>
+     * Sessions stored without the dictionary are still read when this is enabled. Sessions stored with
+     * this option enabled can only be read by nodes that also have this enabled.
+     * </p>
+     * <p>
+     * This must be set before the manager is started.
+     * </p>
+     *
+     * @param javaSerializationClassDictionary <code>true</code> if class descriptors shall be shared via the dictionary.
+     */
+    public void setJavaSerializationClassDictionary( final boolean javaSerializationClassDictionary ) {
+        _javaSerializationClassDictionary = javaSerializationClassDictionary;
+    }
+
+    public boolean isJavaSerializationClassDictionary() {
+        return _javaSerializationClassDictionary;
+    }
+
     /**
      * Custom converter allow you to provide custom serialization of application specific
      * types. Multiple converter classes are separated by comma (with optional space following the comma).
@@ -1438,7 +2393,12 @@ public class MemcachedSessionService {
         if ( oldEnableStatistics != enableStatistics && _manager.isInitialized() ) {
             _log.info( "Changed enableStatistics from " + oldEnableStatistics + " to " + enableStatistics + "." +
             " Reloading configuration..." );
-            reloadMemcachedConfig( _memcachedNodes, _failoverNodes );
+            try {
+                reloadMemcachedConfig( _memcachedNodes, _failoverNodes );
+            } catch ( final IllegalStateException e ) {
+                _enableStatistics = oldEnableStatistics;
+                throw e;
+            }
         }
     }
 
@@ -1454,7 +2414,12 @@ public class MemcachedSessionService {
         if ( _manager.isInitialized() ) {
             _log.info( "Changed backupThreadCount from " + oldBackupThreadCount + " to " + _backupThreadCount + "." +
                     " Reloading configuration..." );
-            reloadMemcachedConfig( _memcachedNodes, _failoverNodes );
+            try {
+                reloadMemcachedConfig( _memcachedNodes, _failoverNodes );
+            } catch ( final IllegalStateException e ) {
+                _backupThreadCount = oldBackupThreadCount;
+                throw e;
+            }
             _log.info( "Finished reloading configuration." );
         }
     }
@@ -1469,13 +2434,17 @@ public class MemcachedSessionService {
     }
 
     /**
-     * Specifies the memcached protocol to use, either "text" (default) or "binary".
+     * Specifies the memcached protocol to use, either "text" (default), "binary" or "meta".
+     * The meta protocol (memcached 1.6+) pipelines the operations of all threads over a single
+     * connection per memcached node and sends writes and deletes in quiet mode (memcached only replies
+     * failures), it does not support SASL authentication.
      *
-     * @param memcachedProtocol one of "text" or "binary".
+     * @param memcachedProtocol one of "text", "binary" or "meta".
      */
     public void setMemcachedProtocol( final String memcachedProtocol ) {
         if ( !PROTOCOL_TEXT.equals( memcachedProtocol )
-                && !PROTOCOL_BINARY.equals( memcachedProtocol ) ) {
+                && !PROTOCOL_BINARY.equals( memcachedProtocol )
+                && !PROTOCOL_META.equals( memcachedProtocol ) ) {
             _log.warn( "Illegal memcachedProtocol " + memcachedProtocol + ", using default (" + _memcachedProtocol + ")." );
             return;
         }
@@ -1495,7 +2464,12 @@ public class MemcachedSessionService {
         }
         final boolean changed = _enabled.compareAndSet( !enabled, enabled );
         if ( changed && _manager.isInitialized() ) {
-            reloadMemcachedConfig( _memcachedNodes, _failoverNodes );
+            try {
+                reloadMemcachedConfig( _memcachedNodes, _failoverNodes );
+            } catch ( final IllegalStateException e ) {
+                _enabled.set( !enabled );
+                throw e;
+            }
             _log.info( "Changed enabled status to " + enabled + "." );
         }
     }
@@ -1520,7 +2494,12 @@ public class MemcachedSessionService {
         _sticky = sticky;
         if ( _manager.isInitialized() ) {
             _log.info( "Changed sticky to " + _sticky + ". Reloading configuration..." );
-            reloadMemcachedConfig( _memcachedNodes, _failoverNodes );
+            try {
+                reloadMemcachedConfig( _memcachedNodes, _failoverNodes );
+            } catch ( final IllegalStateException e ) {
+                _sticky = !sticky;
+                throw e;
+            }
             _log.info( "Finished reloading configuration." );
         }
     }
@@ -1529,6 +2508,15 @@ public class MemcachedSessionService {
         _sticky = sticky;
     }
 
+    /**
+     * Sets the memcached nodes and failover nodes without reloading the configuration, this method is used
+     * in tests that start this service with a storage client mock afterwards.
+     */
+    void setMemcachedNodesInternal( final String memcachedNodes, final String failoverNodes ) {
+        _memcachedNodes = memcachedNodes;
+        _failoverNodes = failoverNodes;
+    }
+
     public boolean isSticky() {
         return _sticky;
     }
@@ -1550,14 +2538,17 @@ public class MemcachedSessionService {
         }
         _lockingMode = lockingMode;
         if ( _manager.isInitialized() ) {
-            initNonStickyLockingMode( createMemcachedNodesManager( _memcachedNodes, _failoverNodes ) );
+            final StorageServices services = _services;
+            _services = services.withLockingStrategy( createNonStickyLockingStrategy( services.getStorage(),
+                    services.getMemcachedNodesManager() ) );
         }
     }
 
-	private void initNonStickyLockingMode( @Nonnull final MemcachedNodesManager config ) {
+    @CheckForNull
+	private LockingStrategy createNonStickyLockingStrategy( @Nullable final StorageClient storage,
+	        @Nonnull final MemcachedNodesManager config ) {
         if ( _sticky ) {
-            setLockingMode( null, null, false );
-            return;
+            return createLockingStrategy( null, null, false, storage, config );
         }
 
         if ( _sessionAttributeFilter != null ) {
@@ -1580,15 +2571,211 @@ public class MemcachedSessionService {
             lockingMode = LockingMode.NONE;
         }
         final boolean storeSecondaryBackup = config.getCountNodes() > 1 && !config.isCouchbaseBucketConfig();
-        setLockingMode( lockingMode, uriPattern, storeSecondaryBackup );
+        return createLockingStrategy( lockingMode, uriPattern, storeSecondaryBackup, storage, config );
     }
 
     public void setLockingMode( @Nullable final LockingMode lockingMode, @Nullable final Pattern uriPattern, final boolean storeSecondaryBackup ) {
+        final StorageServices services = _services;
+        _services = services.withLockingStrategy( createLockingStrategy( lockingMode, uriPattern, storeSecondaryBackup,
+                services.getStorage(), services.getMemcachedNodesManager() ) );
+    }
+
+    @CheckForNull
+    private LockingStrategy createLockingStrategy( @Nullable final LockingMode lockingMode, @Nullable final Pattern uriPattern,
+            final boolean storeSecondaryBackup, @Nullable final StorageClient storage,
+            @Nonnull final MemcachedNodesManager memcachedNodesManager ) {
         _log.info( "Setting lockingMode to " + lockingMode + ( uriPattern != null ? " with pattern " + uriPattern.pattern() : "" ) );
-        _lockingStrategy = LockingStrategy.create( lockingMode, uriPattern, _storage, this, _memcachedNodesManager,
+        return LockingStrategy.create( lockingMode, uriPattern, storage, this, memcachedNodesManager,
                 _invalidSessionsCache, storeSecondaryBackup, _statistics, _currentRequest );
     }
 
+    /**
+     * Performs the periodic tasks of this service, is invoked by the manager's backgroundProcess.
+     */
+    protected void backgroundProcess() {
+        updateExpirationInMemcached();
+        updateNodeLoads();
+        offloadIdleSessions();
+        registerSessionsForMigration();
+        final SessionWarmup sessionWarmup = _sessionWarmup;
+        if ( sessionWarmup != null ) {
+            sessionWarmup.expireStaged( System.currentTimeMillis() );
+        }
+    }
+
+    /**
+     * Registers the local sessions in sticky mode that are stored on draining nodes for migration.
+     */
+    private void registerSessionsForMigration() {
+        final StorageServices services = _services;
+        if ( !_sticky || services.getSessionMigrator() == null || services.getMemcachedNodesManager().getDrainingNodeIds().isEmpty() ) {
+            return;
+        }
+        for ( final Session session : _manager.findSessions() ) {
+            final MemcachedBackupSession msmSession = (MemcachedBackupSession) session;
+            if ( msmSession.isValidInternal() ) {
+                registerForMigration( msmSession );
+            }
+        }
+    }
+
+    /**
+     * Updates the load of the memcached nodes from the memcached <code>stats</code> (if load aware node selection
+     * is enabled), at most every {@link #NODE_STATS_INTERVAL} millis.
+     */
+    private void updateNodeLoads() {
+        final StorageServices services = _services;
+        final NodeLoadTracker nodeLoadTracker = _nodeLoadTracker;
+        final long now = System.currentTimeMillis();
+        if ( nodeLoadTracker == null || services.getStorage() == null || now < _nextNodeStatsUpdate ) {
+            return;
+        }
+        _nextNodeStatsUpdate = now + NODE_STATS_INTERVAL;
+        try {
+            for ( final Map.Entry<InetSocketAddress, Map<String, String>> entry : services.getStorage().getStats().entrySet() ) {
+                nodeLoadTracker.updateStats( services.getMemcachedNodesManager().getNodeId( entry.getKey() ), entry.getValue(), now );
+            }
+        } catch ( final RuntimeException e ) {
+            _log.info( "Could not update the load of memcached nodes: " + e );
+        }
+    }
+
+    /**
+     * Records the ids of the local sessions in sticky mode (if the session warm-up is configured), so that they
+     * get prefetched when this tomcat is started again. Must be invoked by the manager when it's stopped, before
+     * the sessions are removed.
+     */
+    protected void recordSessionsForWarmup() {
+        final SessionWarmup sessionWarmup = _sessionWarmup;
+        if ( !_enabled.get() || sessionWarmup == null ) {
+            return;
+        }
+        try {
+            final int count = sessionWarmup.recordSessions( _manager.getJvmRoute(), _manager.findSessions(), getSessionTimeout() );
+            _log.info( "Recorded " + count + " sessions for the warm-up on the next start." );
+        } catch ( final RuntimeException e ) {
+            _log.warn( "Could not record sessions for warm-up.", e );
+        }
+    }
+
+    /**
+     * Stores all sessions that were modified or accessed since their last backup in sticky mode (if the flush on
+     * shutdown is configured), so that no modifications are lost when this tomcat is stopped. Must be invoked by
+     * the manager when it's stopped, before the sessions are removed.
+     */
+    protected void flushSessions() {
+        final StorageServices services = _services;
+        if ( !_enabled.get() || !_sticky || _shutdownFlushTimeout <= 0 || services.getStorage() == null ) {
+            return;
+        }
+        _shutdownFlushDeadline = System.currentTimeMillis() + _shutdownFlushTimeout;
+        try {
+            final SessionFlusher flusher = new SessionFlusher( _transcoderService, services.getStorage(), services.getMemcachedNodesManager(),
+                    _statistics, _backupThreadCount );
+            final SessionFlusher.Result result = flusher.flush( _manager.findSessions(), _shutdownFlushTimeout );
+            if ( result.getFailed() > 0 || result.isTimedOut() ) {
+                _log.warn( "Flush on shutdown " + result + "." );
+            }
+            else {
+                _log.info( "Flush on shutdown " + result + "." );
+            }
+        } catch ( final InterruptedException e ) {
+            _log.warn( "Flush on shutdown was interrupted." );
+            Thread.currentThread().interrupt();
+        } catch ( final RuntimeException e ) {
+            _log.warn( "Could not flush sessions on shutdown.", e );
+        }
+    }
+
+    private void awaitRunningBackups() {
+        final long timeout = _shutdownFlushDeadline - System.currentTimeMillis();
+        _shutdownFlushDeadline = 0;
+        if ( timeout <= 0 ) {
+            return;
+        }
+        try {
+            if ( !_services.getBackupSessionService().awaitTermination( timeout ) ) {
+                _log.warn( "Running session backups did not finish within the shutdown flush timeout." );
+            }
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int getSessionTimeout() {
+        final int result = _manager.isMaxInactiveIntervalSet()
+            ? _manager.getMaxInactiveInterval()
+            : _manager.getContext().getSessionTimeout() * 60;
+        // sessions that never expire are warmed up if the tomcat is restarted within 30 minutes
+        return result > 0 ? result : 30 * 60;
+    }
+
+    /**
+     * Offloads idle sessions in sticky mode (if configured), so that they only live in memcached until they're
+     * accessed again (then they're loaded via {@link #findSession(String)}). Offloaded sessions are not
+     * expired by tomcat but by memcached, therefore session listeners are not notified when they expire.
+     */
+    protected void offloadIdleSessions() {
+        final SessionOffloader offloader = _sessionOffloader;
+        if ( !_enabled.get() || offloader == null ) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final int expired = offloader.expireStubs( now );
+        if ( _offHeapSessionStore != null ) {
+            _offHeapSessionStore.removeExpired( now );
+        }
+        if ( expired > 0 && _log.isDebugEnabled() ) {
+            _log.debug( "Removed " + expired + " stubs of expired offloaded sessions." );
+        }
+        final long minIdleMillis = _manager.getContext().getBackgroundProcessorDelay() * 1000L;
+        for ( final MemcachedBackupSession session : offloader.selectSessions( _manager.findSessions(), now, minIdleMillis ) ) {
+            try {
+                offloadSession( session, offloader );
+            } catch ( final Exception e ) {
+                _log.info( "Could not offload session " + session.getIdInternal(), e );
+            }
+        }
+    }
+
+    private void offloadSession( final MemcachedBackupSession session, final SessionOffloader offloader ) throws Exception {
+        final String id = session.getIdInternal();
+        byte[] data = null;
+        if ( session.wasAccessedSinceLastBackup() ) {
+            // memcached must have the current access time and expiration, so that the session is valid when loaded
+            final BackupResult result = _services.getBackupSessionService().backupSession( session, true ).get();
+            if ( result.getStatus() != BackupResultStatus.SUCCESS ) {
+                return;
+            }
+            data = result.getData();
+        }
+        final long thisAccessedTime = session.getThisAccessedTimeInternal();
+        final OffHeapSessionStore offHeapStore = _offHeapSessionStore;
+        if ( offHeapStore != null ) {
+            final long expiresAt = session.getMaxInactiveInterval() > 0
+                ? thisAccessedTime + session.getMaxInactiveInterval() * 1000L
+                : Long.MAX_VALUE;
+            offHeapStore.put( id, data != null ? data : _transcoderService.serialize( session ), expiresAt );
+        }
+        offloader.offloaded( session, getSessionIdFormat().extractMemcachedId( id ) );
+        session.passivate();
+        _manager.removeInternal( session, false );
+        if ( session.getThisAccessedTimeInternal() != thisAccessedTime ) {
+            // a request accessed the session in the meantime, so we must keep it
+            offloader.remove( id );
+            if ( offHeapStore != null ) {
+                offHeapStore.remove( id );
+            }
+            _manager.add( session );
+            session.activate();
+            return;
+        }
+        _statistics.sessionOffloaded();
+        if ( _log.isDebugEnabled() ) {
+            _log.debug( "Offloaded session " + id );
+        }
+    }
+
     protected void updateExpirationInMemcached() {
         if ( _enabled.get() && _sticky ) {
             final Session[] sessions = _manager.findSessions();
@@ -1612,7 +2799,7 @@ public class MemcachedSessionService {
                         && session.getMaxInactiveInterval() > 0 // for <= 0 the session was stored in memcached with expiration 0
                         && session.getMemcachedExpirationTime() <= 2 * delay ) {
                     try {
-                        _backupSessionService.updateExpiration( session );
+                        _services.getBackupSessionService().updateExpiration( session );
                     } catch ( final Throwable e ) {
                         _log.info( "Could not update expiration in memcached for session " + session.getId(), e );
                     }
@@ -1640,8 +2827,9 @@ public class MemcachedSessionService {
         _sessionBackupAsync = sessionBackupAsync;
         if ( ( oldSessionBackupAsync != sessionBackupAsync ) && _manager.isInitialized() ) {
             _log.info( "SessionBackupAsync was changed to " + sessionBackupAsync + ", creating new BackupSessionService with new configuration." );
-            _backupSessionService = new BackupSessionService( _transcoderService, _sessionBackupAsync, _sessionBackupTimeout,
-                    _backupThreadCount, _storage, _memcachedNodesManager, _statistics );
+            final StorageServices services = _services;
+            _services = services.withBackupSessionService( new BackupSessionService( _transcoderService, _sessionBackupAsync,
+                    _sessionBackupTimeout, _backupThreadCount, services.getStorage(), services.getMemcachedNodesManager(), _statistics ) );
         }
     }
 
@@ -1722,8 +2910,9 @@ public class MemcachedSessionService {
      */
     void setTranscoderService( final TranscoderService transcoderService ) {
         _transcoderService = transcoderService;
-        _backupSessionService = new BackupSessionService( transcoderService, _sessionBackupAsync, _sessionBackupTimeout,
-                _backupThreadCount, _storage, _memcachedNodesManager, _statistics );
+        final StorageServices services = _services;
+        _services = services.withBackupSessionService( new BackupSessionService( transcoderService, _sessionBackupAsync,
+                _sessionBackupTimeout, _backupThreadCount, services.getStorage(), services.getMemcachedNodesManager(), _statistics ) );
     }
 
     /**
@@ -1731,7 +2920,7 @@ public class MemcachedSessionService {
      */
     @Nonnull
     MemcachedNodesManager getMemcachedNodesManager() {
-        return _memcachedNodesManager;
+        return _services.getMemcachedNodesManager();
     }
 
     /**
@@ -1739,28 +2928,42 @@ public class MemcachedSessionService {
      * @return the list of node ids.
      */
     List<String> getNodeIds() {
-        return _memcachedNodesManager.getPrimaryNodeIds();
+        return _services.getMemcachedNodesManager().getPrimaryNodeIds();
     }
     /**
      * Return the currently configured failover node ids - just for testing.
      * @return the list of failover node ids.
      */
     List<String> getFailoverNodeIds() {
-        return _memcachedNodesManager.getFailoverNodeIds();
+        return _services.getMemcachedNodesManager().getFailoverNodeIds();
     }
 
     /**
      * The storage client, this method is used in tests.
      */
     public StorageClient getStorageClient() {
-        return _storage;
+        return _services.getStorage();
+    }
+
+    /**
+     * Provides access to data shared by all tomcats of this webapp, stored in the session storage.
+     * This is available after the storage client was created in {@link #startInternal()}, so that
+     * it can be used by {@link TranscoderFactory}s. The shared storage always uses the current storage client,
+     * also after the memcached nodes config was reloaded.
+     */
+    @Nonnull
+    public SharedStorage getSharedStorage() {
+        if ( _services.getStorage() == null ) {
+            throw new IllegalStateException( "The storage client is not yet created." );
+        }
+        return new SharedStorage( this );
     }
 
     /**
      * Set the given storage client, this method is used in tests.
      */
     void setStorageClient(final StorageClient storage) {
-        _storage = storage;
+        _services = _services.withStorage( storage );
     }
 
     public RequestTrackingHostValve getTrackingHostValve() {
@@ -1772,7 +2975,7 @@ public class MemcachedSessionService {
      */
     @Nullable
     LockingStrategy getLockingStrategy() {
-        return _lockingStrategy;
+        return _services.getLockingStrategy();
     }
 
     public void setUsername(final String username) {
@@ -1827,4 +3030,475 @@ public class MemcachedSessionService {
         _storageKeyPrefix = storageKeyPrefix;
     }
 
+    public int getMissingSessionsFilterCapacity() {
+        return _missingSessionsFilterCapacity;
+    }
+
+    /**
+     * Enables the missing sessions filter, a {@link TimeSlicedBloomFilter} that remembers session ids not found in
+     * memcached for {@link #setMissingSessionsFilterTtl(int) missingSessionsFilterTtl} seconds, so that requests
+     * with such session ids (e.g. sent by crawlers or attackers) don't hit memcached again.
+     * <p>
+     * A session id is only rejected if it was not found in memcached repeatedly, as a single miss might be
+     * transient (e.g. in non-sticky mode the backup of a new session created by another tomcat was not yet finished).
+     * Therefore the first misses are tracked by a second filter of the same size.
+     * </p>
+     * <p>
+     * The capacity is the number of session ids expected to be not found in memcached per quarter of the
+     * ttl, the filters then use ~3.6 bytes per capacity and quarter. If more ids are added within a quarter the
+     * filters rotate early and forget the oldest ids, so that the false positive rate (0.1% per quarter) stays bounded
+     * and random ids sent by an attacker can't saturate the filter. A false positive means that an
+     * existing session is not loaded from memcached (e.g. after a tomcat failover), therefore the capacity should not be
+     * chosen too small.
+     * </p>
+     * <p>
+     * The default value is <code>0</code>, which disables the filter. This must be set before the manager is started.
+     * </p>
+     *
+     * @param missingSessionsFilterCapacity the number of expected missing session ids per quarter of the ttl.
+     */
+    public void setMissingSessionsFilterCapacity( final int missingSessionsFilterCapacity ) {
+        _missingSessionsFilterCapacity = missingSessionsFilterCapacity;
+    }
+
+    public int getMissingSessionsFilterTtl() {
+        return _missingSessionsFilterTtl;
+    }
+
+    /**
+     * The time in seconds that session ids not found in memcached are remembered by the missing sessions
+     * filter (see {@link #setMissingSessionsFilterCapacity(int)}). Default is <code>60</code>.
+     *
+     * @param missingSessionsFilterTtl the ttl in seconds.
+     */
+    public void setMissingSessionsFilterTtl( final int missingSessionsFilterTtl ) {
+        _missingSessionsFilterTtl = missingSessionsFilterTtl;
+    }
+
+    public int getMaxStorageMissesPerClient() {
+        return _maxStorageMissesPerClient;
+    }
+
+    /**
+     * The max number of storage misses (requested session ids not found in memcached) per second that
+     * a client (identified by its remote address) may cause. If a client exceeds this limit, requested
+     * session ids that are not available locally are not looked up in memcached for this client until it
+     * falls below the limit again. Session ids that were created by this tomcat or that were found in memcached
+     * by this tomcat within the session timeout are always looked up, so that only unknown session ids are rejected.
+     * <p>
+     * The client is identified by {@link Request#getRemoteAddr()}: behind a load balancer or reverse proxy this is
+     * the address of the proxy, and clients behind a NAT share the same address. Then all these clients share
+     * one limit, therefore the RemoteIpValve should be configured so that the client address is taken from the
+     * <code>X-Forwarded-For</code> header set by the trusted proxies.
+     * </p>
+     * <p>
+     * The default value is <code>0</code>, which disables the limit. This must be set before the manager is started.
+     * </p>
+     *
+     * @param maxStorageMissesPerClient the max number of storage misses per client and second.
+     */
+    public void setMaxStorageMissesPerClient( final int maxStorageMissesPerClient ) {
+        _maxStorageMissesPerClient = maxStorageMissesPerClient;
+    }
+
+    public int getKnownSessionsFilterCapacity() {
+        return _knownSessionsFilterCapacity;
+    }
+
+    /**
+     * The capacity of the filter that remembers the session ids created or loaded by this tomcat, which are exempt
+     * from the storage miss limit (see {@link #setMaxStorageMissesPerClient(int)}). This is the number of session ids
+     * expected to be created or loaded per quarter of the session timeout, the filter then uses ~1.8 bytes per
+     * capacity and quarter. If more session ids are created or loaded the oldest ones are forgotten early, so that
+     * they're subject to the storage miss limit again.
+     * <p>
+     * The default value is <code>10000</code>. This must be set before the manager is started.
+     * </p>
+     *
+     * @param knownSessionsFilterCapacity the number of expected created or loaded session ids per quarter of the session timeout.
+     */
+    public void setKnownSessionsFilterCapacity( final int knownSessionsFilterCapacity ) {
+        _knownSessionsFilterCapacity = knownSessionsFilterCapacity;
+    }
+
+    public int getSessionOffloadIdleTime() {
+        return _sessionOffloadIdleTime;
+    }
+
+    /**
+     * The time in seconds after that an idle session is offloaded in sticky mode: the session is removed from
+     * the local session map, so that it only lives in memcached (with a lightweight stub being kept locally)
+     * until it's accessed again. This cuts the heap used by large numbers of idle sessions.
+     * <p>
+     * The default value is <code>0</code>, which disables offloading idle sessions. This must be set before the manager is started.
+     * </p>
+     *
+     * @param sessionOffloadIdleTime the idle time in seconds.
+     */
+    public void setSessionOffloadIdleTime( final int sessionOffloadIdleTime ) {
+        _sessionOffloadIdleTime = sessionOffloadIdleTime;
+    }
+
+    public long getSessionOffloadHeapBudget() {
+        return _sessionOffloadHeapBudget;
+    }
+
+    /**
+     * The max heap (in bytes) that the local sessions may use in sticky mode, estimated by the size of their
+     * serialized attributes. If this is exceeded, the least recently accessed sessions (that are idle for
+     * at least the background processor delay) are offloaded like with {@link #setSessionOffloadIdleTime(int)}.
+     * <p>
+     * The default value is <code>0</code>, which disables the limit. This must be set before the manager is started.
+     * </p>
+     *
+     * @param sessionOffloadHeapBudget the heap budget in bytes.
+     */
+    public void setSessionOffloadHeapBudget( final long sessionOffloadHeapBudget ) {
+        _sessionOffloadHeapBudget = sessionOffloadHeapBudget;
+    }
+
+    public long getSessionOffHeapCapacity() {
+        return _sessionOffHeapCapacity;
+    }
+
+    /**
+     * The capacity (in bytes) of the off-heap memory used to keep offloaded sessions (see
+     * {@link #setSessionOffloadIdleTime(int)} and {@link #setSessionOffloadHeapBudget(long)}) serialized
+     * locally, so that they're deserialized from local memory on the next access instead of being loaded
+     * from memcached. If the capacity is exhausted the least recently offloaded sessions are evicted, these
+     * are loaded from memcached then.
+     * <p>
+     * The default value is <code>0</code>, which disables the off-heap store. This must be set before the manager is started.
+     * </p>
+     *
+     * @param sessionOffHeapCapacity the capacity in bytes.
+     */
+    public void setSessionOffHeapCapacity( final long sessionOffHeapCapacity ) {
+        _sessionOffHeapCapacity = sessionOffHeapCapacity;
+    }
+
+    public int getSessionWarmupMaxSessions() {
+        return _sessionWarmupMaxSessions;
+    }
+
+    /**
+     * The max number of sessions that are warmed up after a restart in sticky mode: when the manager is stopped
+     * the ids of the most recently accessed sessions are recorded in the storage (per jvmRoute), when it's started
+     * again these sessions are prefetched in the background with multi-gets, so that returning users don't
+     * cause single gets for each session. Prefetched sessions are kept serialized until they're requested.
+     * <p>
+     * The default value is <code>0</code>, which disables the session warm-up. This must be set before the manager is started.
+     * </p>
+     *
+     * @param sessionWarmupMaxSessions the max number of sessions to warm up.
+     */
+    public void setSessionWarmupMaxSessions( final int sessionWarmupMaxSessions ) {
+        _sessionWarmupMaxSessions = sessionWarmupMaxSessions;
+    }
+
+    public int getSessionWarmupRate() {
+        return _sessionWarmupRate;
+    }
+
+    /**
+     * The max number of sessions prefetched per second by the session warm-up (see {@link #setSessionWarmupMaxSessions(int)}),
+     * so that the warm-up does not overload memcached. <code>0</code> means no limit, the default is <code>1000</code>.
+     *
+     * @param sessionWarmupRate the max number of sessions per second.
+     */
+    public void setSessionWarmupRate( final int sessionWarmupRate ) {
+        _sessionWarmupRate = sessionWarmupRate;
+    }
+
+    public long getSessionWarmupMaxBytes() {
+        return _sessionWarmupMaxBytes;
+    }
+
+    /**
+     * The max number of bytes of the sessions prefetched by the session warm-up (see {@link #setSessionWarmupMaxSessions(int)}).
+     * The default is 64 MB.
+     *
+     * @param sessionWarmupMaxBytes the max number of bytes.
+     */
+    public void setSessionWarmupMaxBytes( final long sessionWarmupMaxBytes ) {
+        _sessionWarmupMaxBytes = sessionWarmupMaxBytes;
+    }
+
+    public long getShutdownFlushTimeout() {
+        return _shutdownFlushTimeout;
+    }
+
+    /**
+     * The max time in millis to wait for modified sessions being stored when tomcat is stopped in sticky mode:
+     * all sessions that were modified or accessed since their last backup are serialized in parallel and stored
+     * in memcached, and backups still running are awaited. The default is <code>0</code>, which disables the flush.
+     *
+     * @param shutdownFlushTimeout the timeout in millis.
+     */
+    public void setShutdownFlushTimeout( final long shutdownFlushTimeout ) {
+        _shutdownFlushTimeout = shutdownFlushTimeout;
+    }
+
+    public boolean isLoadAwareNodeSelection() {
+        return _loadAwareNodeSelection;
+    }
+
+    /**
+     * Specifies if new sessions shall be assigned to the less loaded of two randomly chosen memcached nodes
+     * (power of two choices). The load of a node is determined by the latency measured by msm, the memory fill
+     * ratio and the eviction rate reported by memcached and the weight of the node (see {@link #setNodeWeights(String)}).
+     * The default is <code>false</code>, so that nodes are chosen randomly.
+     * <p>
+     * The node id is still encoded in the session id, this only changes the node a new session is assigned to.
+     * </p>
+     *
+     * @param loadAwareNodeSelection <code>true</code> for load aware node selection.
+     */
+    public void setLoadAwareNodeSelection( final boolean loadAwareNodeSelection ) {
+        _loadAwareNodeSelection = loadAwareNodeSelection;
+    }
+
+    public String getNodeWeights() {
+        return _nodeWeights;
+    }
+
+    /**
+     * The weights of memcached nodes used for load aware node selection (see {@link #setLoadAwareNodeSelection(boolean)}),
+     * in the format <code>&lt;nodeId&gt;:&lt;weight&gt;</code>, separated by whitespace or comma, e.g. <code>n1:2,n2:1</code>.
+     * Nodes without weight have the weight <code>1</code>, a node with weight <code>2</code> may have twice the load
+     * of a node with weight <code>1</code>.
+     *
+     * @param nodeWeights the node weights.
+     */
+    public void setNodeWeights( final String nodeWeights ) {
+        _nodeWeights = nodeWeights;
+    }
+
+    public boolean isHedgedReads() {
+        return _hedgedReads;
+    }
+
+    /**
+     * Specifies if reads of non-sticky sessions shall be hedged: if the read from the memcached node of the
+     * session does not answer within the 95th percentile of recent reads, the secondary backup of the session
+     * (stored in the next memcached node) is read in parallel and the first valid answer is taken. The backup is
+     * only taken if it's not older than the primary session (according to the version of the validity info
+     * of the primary session). This is only used if more than one memcached node is configured. The default
+     * is <code>false</code>.
+     *
+     * @param hedgedReads <code>true</code> if reads shall be hedged.
+     */
+    public void setHedgedReads( final boolean hedgedReads ) {
+        _hedgedReads = hedgedReads;
+    }
+
+    public int getHedgedReadsMaxPercent() {
+        return _hedgedReadsMaxPercent;
+    }
+
+    /**
+     * The max percentage of reads that are hedged (see {@link #setHedgedReads(boolean)}), so that hedging
+     * does not amplify the load if memcached is slow in general. The default is <code>10</code>.
+     *
+     * @param hedgedReadsMaxPercent the max percentage of hedged reads.
+     */
+    public void setHedgedReadsMaxPercent( final int hedgedReadsMaxPercent ) {
+        _hedgedReadsMaxPercent = hedgedReadsMaxPercent;
+    }
+
+    public String getDrainingNodes() {
+        return _drainingNodes;
+    }
+
+    /**
+     * The ids of memcached nodes that are draining (being retired), separated by whitespace or comma, e.g. <code>n1</code>.
+     * Draining nodes must still be part of the memcachedNodes. Sessions stored on draining nodes are still loaded from
+     * them, but new sessions are not assigned to them. Instead of relocating these sessions one request at a time when
+     * the node is removed, they're copied to other nodes in the background (rate-limited, see
+     * {@link #setSessionMigrationRate(int)}), and the session id is changed to the id of the copy on the next request
+     * without storing the session again. When the draining nodes don't get any requests anymore they can be removed.
+     * <p>
+     * When the draining nodes are set when this manager is already initialized, they're applied immediately.
+     * </p>
+     *
+     * @param drainingNodes the draining node ids, whitespace or comma separated.
+     */
+    public void setDrainingNodes( final String drainingNodes ) {
+        if ( _manager.isInitialized() ) {
+            _services.getMemcachedNodesManager().setDrainingNodes( drainingNodes );
+            _log.info( "Changed draining nodes from " + _drainingNodes + " to " + drainingNodes + "." );
+        }
+        _drainingNodes = drainingNodes;
+    }
+
+    public int getSessionMigrationRate() {
+        return _sessionMigrationRate;
+    }
+
+    /**
+     * The max number of sessions per second that are migrated from draining nodes (see {@link #setDrainingNodes(String)}),
+     * <code>0</code> means no limit. The default is <code>100</code>.
+     *
+     * @param sessionMigrationRate the max number of migrated sessions per second.
+     */
+    public void setSessionMigrationRate( final int sessionMigrationRate ) {
+        _sessionMigrationRate = sessionMigrationRate;
+    }
+
+    public int getMemcachedConnectionsPerNode() {
+        return _memcachedConnectionsPerNode;
+    }
+
+    /**
+     * The number of independent memcached clients that are used, each with its own I/O thread and its own connection
+     * per memcached node (default <code>1</code>). The keys are distributed over the clients by a stable hash of the
+     * session id, so that the operations of a session keep their order. More than one client spreads the memcached
+     * I/O over several threads and reduces head-of-line blocking of small operations by large session writes.
+     * This is not used for couchbase buckets or redis.
+     * <p>
+     * Changes are applied when the memcached client is created the next time (e.g. on start or when the
+     * memcachedNodes are changed).
+     * </p>
+     *
+     * @param memcachedConnectionsPerNode the number of memcached clients/connections per node.
+     */
+    public void setMemcachedConnectionsPerNode( final int memcachedConnectionsPerNode ) {
+        if ( memcachedConnectionsPerNode < 1 ) {
+            throw new IllegalArgumentException( "The memcachedConnectionsPerNode must be at least 1." );
+        }
+        _memcachedConnectionsPerNode = memcachedConnectionsPerNode;
+    }
+
+    public boolean isMemcachedControlConnection() {
+        return _memcachedControlConnection;
+    }
+
+    /**
+     * Specifies if lock and session validity info operations (non-sticky mode) shall use a separate memcached client
+     * with its own connection per node, so that these small operations are not queued behind session data
+     * (default <code>false</code>). See also {@link #setMemcachedConnectionsPerNode(int)}.
+     *
+     * @param memcachedControlConnection <code>true</code> for a separate connection for locks and validity info.
+     */
+    public void setMemcachedControlConnection( final boolean memcachedControlConnection ) {
+        _memcachedControlConnection = memcachedControlConnection;
+    }
+
+    public boolean isRedisHashLayout() {
+        return _redisHashLayout;
+    }
+
+    /**
+     * Specifies if redis shall store the session data and the session validity info (non-sticky mode) as fields
+     * of a single hash per session (default <code>false</code>), so that validity checks read only the small
+     * validity field of the session's key instead of a separate key. This is only used for redis.
+     * <p>
+     * Sessions stored without the hash layout are still read when this is enabled, their keys are converted to
+     * hashes when they're written the next time. The other way round this does not work: after disabling this,
+     * reads of sessions stored as hashes fail (redis answers with <code>WRONGTYPE</code>) until the session is
+     * stored again or expired.
+     * </p>
+     * <p>
+     * Changes are applied when the storage client is created the next time (e.g. on start or when the
+     * memcachedNodes are changed).
+     * </p>
+     *
+     * @param redisHashLayout <code>true</code> to store the keys of a session in a redis hash.
+     */
+    public void setRedisHashLayout( final boolean redisHashLayout ) {
+        _redisHashLayout = redisHashLayout;
+    }
+
+    public int getStorageChunkSize() {
+        return _storageChunkSize;
+    }
+
+    /**
+     * Specifies the max size in bytes of values (serialized sessions) that are stored as a single item, larger values
+     * are split into parts of this size (default <code>0</code>, no chunking). This allows to store sessions larger
+     * than the item size limit of memcached (1MB by default), the chunk size must be smaller than this limit
+     * (e.g. <code>524288</code>). Chunked values can only be read by memcached-session-manager versions that support
+     * chunking.
+     * <p>
+     * Changes are applied when the storage client is created the next time (e.g. on start or when the
+     * memcachedNodes are changed).
+     * </p>
+     *
+     * @param storageChunkSize the chunk size in bytes, <code>0</code> to disable chunking.
+     */
+    public void setStorageChunkSize( final int storageChunkSize ) {
+        if ( storageChunkSize < 0 ) {
+            throw new IllegalArgumentException( "The storageChunkSize must not be negative." );
+        }
+        _storageChunkSize = storageChunkSize;
+    }
+
+    public boolean isAdaptiveOperationTimeout() {
+        return _adaptiveOperationTimeout;
+    }
+
+    /**
+     * Specifies if the timeout of storage operations shall be derived from the recent latencies of each memcached
+     * node (default <code>false</code>): the timeout of a node is twice the 99th percentile of its latencies, but
+     * at least the <code>minOperationTimeout</code> and at most the <code>operationTimeout</code>. After
+     * <code>circuitBreakerThreshold</code> consecutive timeouts the node is marked as unavailable and sessions of
+     * this node are not loaded from it (so that the failover handling takes over), until a trial request after
+     * some seconds succeeds.
+     * <p>
+     * Changes are applied when the manager is started the next time.
+     * </p>
+     *
+     * @param adaptiveOperationTimeout <code>true</code> to use adaptive timeouts and circuit breakers.
+     */
+    public void setAdaptiveOperationTimeout( final boolean adaptiveOperationTimeout ) {
+        _adaptiveOperationTimeout = adaptiveOperationTimeout;
+    }
+
+    public long getMinOperationTimeout() {
+        return _minOperationTimeout;
+    }
+
+    /**
+     * The min timeout in millis of storage operations if adaptive operation timeouts are used
+     * (default <code>50</code>, see {@link #setAdaptiveOperationTimeout(boolean)}).
+     *
+     * @param minOperationTimeout the min timeout in millis.
+     */
+    public void setMinOperationTimeout( final long minOperationTimeout ) {
+        if ( minOperationTimeout < 1 ) {
+            throw new IllegalArgumentException( "The minOperationTimeout must be positive." );
+        }
+        _minOperationTimeout = minOperationTimeout;
+    }
+
+    public int getCircuitBreakerThreshold() {
+        return _circuitBreakerThreshold;
+    }
+
+    /**
+     * The number of consecutive timeouts after which the circuit breaker of a memcached node opens if adaptive
+     * operation timeouts are used (default <code>5</code>, see {@link #setAdaptiveOperationTimeout(boolean)}).
+     *
+     * @param circuitBreakerThreshold the number of consecutive timeouts.
+     */
+    public void setCircuitBreakerThreshold( final int circuitBreakerThreshold ) {
+        if ( circuitBreakerThreshold < 1 ) {
+            throw new IllegalArgumentException( "The circuitBreakerThreshold must be positive." );
+        }
+        _circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    /**
+     * Returns the current operation timeout and the circuit breaker state of the memcached nodes, if adaptive
+     * operation timeouts are used.
+     */
+    @Nonnull
+    public String[] getNodeTimeoutInfo() {
+        final MemcachedNodesManager memcachedNodesManager = _services.getMemcachedNodesManager();
+        final NodeTimeoutController nodeTimeoutController = memcachedNodesManager != null
+            ? memcachedNodesManager.getNodeTimeoutController()
+            : null;
+        return nodeTimeoutController != null ? nodeTimeoutController.getInfo() : new String[0];
+    }
+
 }
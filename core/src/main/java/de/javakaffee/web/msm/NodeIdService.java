@@ -18,6 +18,7 @@ package de.javakaffee.web.msm;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
@@ -57,6 +58,8 @@ public class NodeIdService {
     private final NodeAvailabilityCache<String> _nodeAvailabilityCache;
     private final NodeIdList _nodeIds;
     private final List<String> _failoverNodeIds;
+    private volatile NodeLoadTracker _nodeLoadTracker;
+    private volatile Set<String> _drainingNodeIds = Collections.emptySet();
 
     /**
      * Constructs a new {@link NodeIdService}.
@@ -97,7 +100,10 @@ public class NodeIdService {
      * @param available specifies if the node was abailable or not
      */
     public void setNodeAvailable( final String nodeId, final boolean available ) {
-        _nodeAvailabilityCache.setNodeAvailable( nodeId, available );
+        final Boolean previous = _nodeAvailabilityCache.setNodeAvailable( nodeId, available );
+        if ( previous == null ? !available : previous.booleanValue() != available ) {
+            SessionEvents.nodeAvailabilityChanged( nodeId, available );
+        }
     }
 
     /**
@@ -165,7 +171,7 @@ public class NodeIdService {
 
         while ( !otherNodeIds.isEmpty() ) {
             final String nodeIdToCheck = otherNodeIds.get( _random.nextInt( otherNodeIds.size() ) );
-            if ( isNodeAvailable( nodeIdToCheck ) ) {
+            if ( isNodeSelectable( nodeIdToCheck ) ) {
                 return nodeIdToCheck;
             }
             otherNodeIds.remove( nodeIdToCheck );
@@ -174,14 +180,60 @@ public class NodeIdService {
         return null;
     }
 
+    /**
+     * Sets the tracker used for load aware node selection, <code>null</code> means that
+     * nodes are selected randomly.
+     * @param nodeLoadTracker the node load tracker or <code>null</code>.
+     */
+    public void setNodeLoadTracker( @CheckForNull final NodeLoadTracker nodeLoadTracker ) {
+        _nodeLoadTracker = nodeLoadTracker;
+    }
+
+    /**
+     * Sets the ids of the nodes that are draining (being retired): new sessions are not assigned
+     * to these nodes, and they're not chosen for relocated sessions.
+     * @param drainingNodeIds the draining node ids, may be empty.
+     */
+    public void setDrainingNodeIds( @Nonnull final Set<String> drainingNodeIds ) {
+        _drainingNodeIds = drainingNodeIds;
+    }
+
+    /**
+     * Determines, if the given node is draining.
+     * @param nodeId the node to check.
+     * @return <code>true</code> if the node is draining.
+     * @see #setDrainingNodeIds(Set)
+     */
+    public boolean isNodeDraining( @Nonnull final String nodeId ) {
+        return _drainingNodeIds.contains( nodeId );
+    }
+
     /**
      * Get the next random, available node id. If no node is available, <code>null</code>
      * is returned.
+     * <p>
+     * If a {@link NodeLoadTracker} is set, two distinct nodes are chosen randomly and the
+     * less loaded one is selected (power of two choices), so that nodes with more load
+     * get less new sessions without all new sessions going to the same node.
+     * </p>
      * @return a nodeId or <code>null</code>.
      */
     public String getMemcachedNodeId() {
         final String nodeId = _nodeIds.get( _random.nextInt( _nodeIds.size() ) );
-        return isNodeAvailable( nodeId ) ? nodeId : getAvailableNodeId( nodeId );
+        final NodeLoadTracker nodeLoadTracker = _nodeLoadTracker;
+        if ( nodeLoadTracker != null && _nodeIds.size() > 1 && isNodeSelectable( nodeId ) ) {
+            final int idx = _random.nextInt( _nodeIds.size() - 1 );
+            final String otherNodeId = _nodeIds.get( idx < _nodeIds.indexOf( nodeId ) ? idx : idx + 1 );
+            if ( isNodeSelectable( otherNodeId ) && nodeLoadTracker.getLoad( otherNodeId ) < nodeLoadTracker.getLoad( nodeId ) ) {
+                return otherNodeId;
+            }
+            return nodeId;
+        }
+        return isNodeSelectable( nodeId ) ? nodeId : getAvailableNodeId( nodeId );
+    }
+
+    private boolean isNodeSelectable( final String nodeId ) {
+        return !_drainingNodeIds.contains( nodeId ) && isNodeAvailable( nodeId );
     }
 
     /* Just for testing
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Tracks the load of memcached nodes, so that new sessions can be assigned to less loaded nodes
+ * (see {@link NodeIdService#getMemcachedNodeId()}).
+ * <p>
+ * The load of a node is determined by
+ * <ul>
+ * <li>the latency of requests to this node, as moving average measured by msm. If a node got no requests
+ * between two stats updates (e.g. because it got no new sessions since it was slow), its latency decays towards
+ * the average latency of the other nodes, so that it gets new sessions again and its latency is measured again,</li>
+ * <li>the memory fill ratio (<code>bytes / limit_maxbytes</code>) and the eviction rate, as reported by the
+ * memcached <code>stats</code> command and</li>
+ * <li>the configured weight of the node (default <code>1</code>), the load is divided by the weight.</li>
+ * </ul>
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class NodeLoadTracker {
+
+    private static final Log LOG = LogFactory.getLog( NodeLoadTracker.class );
+
+    /**
+     * The weight of the latest latency in the moving average.
+     */
+    static final double LATENCY_ALPHA = 0.1;
+
+    /**
+     * The fraction by which the latency of a node without requests moves towards the average latency of
+     * the other nodes on each stats update.
+     */
+    static final double LATENCY_DECAY = 0.2;
+
+    private final Map<String, Double> _weights;
+    private final ConcurrentMap<String, NodeLoad> _loads = new ConcurrentHashMap<String, NodeLoad>();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param weights the weights by node id, nodes without weight have weight <code>1</code>.
+     */
+    public NodeLoadTracker( @Nonnull final Map<String, Double> weights ) {
+        _weights = weights;
+    }
+
+    /**
+     * Parses node weights in the format <code>&lt;nodeId&gt;:&lt;weight&gt;(,&lt;nodeId&gt;:&lt;weight&gt;)*</code>,
+     * e.g. <code>n1:2,n2:1</code>.
+     *
+     * @param nodeWeights the weights, may be <code>null</code>.
+     * @return the weights by node id.
+     * @throws IllegalArgumentException if the weights cannot be parsed.
+     */
+    @Nonnull
+    public static Map<String, Double> parseWeights( @CheckForNull final String nodeWeights ) throws IllegalArgumentException {
+        final Map<String, Double> result = new HashMap<String, Double>();
+        if ( nodeWeights == null || nodeWeights.trim().length() == 0 ) {
+            return result;
+        }
+        for ( final String token : nodeWeights.trim().split( "[\\s,]+" ) ) {
+            final int idx = token.lastIndexOf( ':' );
+            if ( idx <= 0 ) {
+                throw new IllegalArgumentException( "Invalid node weight '" + token + "', expected <nodeId>:<weight>." );
+            }
+            final double weight;
+            try {
+                weight = Double.parseDouble( token.substring( idx + 1 ) );
+            } catch ( final NumberFormatException e ) {
+                throw new IllegalArgumentException( "Invalid node weight '" + token + "', expected <nodeId>:<weight>." );
+            }
+            if ( weight <= 0 ) {
+                throw new IllegalArgumentException( "The weight of node " + token.substring( 0, idx ) + " must be positive." );
+            }
+            result.put( token.substring( 0, idx ), weight );
+        }
+        return result;
+    }
+
+    /**
+     * Registers the latency of a request to the given node.
+     *
+     * @param nodeId the node id.
+     * @param latencyInMillis the latency of the request.
+     */
+    public void registerLatency( @Nonnull final String nodeId, final long latencyInMillis ) {
+        getNodeLoad( nodeId ).registerLatency( latencyInMillis );
+    }
+
+    /**
+     * Updates the load of the given node with the result of the memcached <code>stats</code> command.
+     *
+     * @param nodeId the node id.
+     * @param stats the stats of this node.
+     * @param now the current time in millis.
+     */
+    public void updateStats( @Nonnull final String nodeId, @Nonnull final Map<String, String> stats, final long now ) {
+        try {
+            final long bytes = getLong( stats, "bytes" );
+            final long limit = getLong( stats, "limit_maxbytes" );
+            final long evictions = getLong( stats, "evictions" );
+            getNodeLoad( nodeId ).updateStats( limit > 0 ? (double) bytes / limit : 0, evictions, now, getBaselineLatency( nodeId ) );
+        } catch ( final NumberFormatException e ) {
+            LOG.debug( "Could not parse stats of node " + nodeId + ": " + e );
+        }
+    }
+
+    /**
+     * Returns the load of the given node, a lower value means less load.
+     *
+     * @param nodeId the node id.
+     * @return the load, <code>1</code> for an idle node with weight <code>1</code>.
+     */
+    public double getLoad( @Nonnull final String nodeId ) {
+        final NodeLoad nodeLoad = _loads.get( nodeId );
+        final double load = nodeLoad != null ? nodeLoad.getLoad() : 1;
+        final Double weight = _weights.get( nodeId );
+        return weight != null ? load / weight : load;
+    }
+
+    /**
+     * The average latency of the nodes other than the given one.
+     */
+    private double getBaselineLatency( final String nodeId ) {
+        double sum = 0;
+        int count = 0;
+        for ( final Map.Entry<String, NodeLoad> entry : _loads.entrySet() ) {
+            if ( !entry.getKey().equals( nodeId ) ) {
+                sum += entry.getValue().getLatency();
+                count++;
+            }
+        }
+        return count > 0 ? sum / count : 0;
+    }
+
+    private NodeLoad getNodeLoad( final String nodeId ) {
+        NodeLoad result = _loads.get( nodeId );
+        if ( result == null ) {
+            result = new NodeLoad();
+            final NodeLoad existing = _loads.putIfAbsent( nodeId, result );
+            if ( existing != null ) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    private static long getLong( final Map<String, String> stats, final String name ) {
+        final String value = stats.get( name );
+        return value != null ? Long.parseLong( value.trim() ) : 0;
+    }
+
+    private static final class NodeLoad {
+
+        private double _latency;
+        private double _fillRatio;
+        private double _evictionRate;
+        private long _evictions = -1;
+        private long _statsTime;
+        private boolean _latencyRegistered;
+
+        synchronized void registerLatency( final long latencyInMillis ) {
+            _latency += LATENCY_ALPHA * ( latencyInMillis - _latency );
+            _latencyRegistered = true;
+        }
+
+        synchronized double getLatency() {
+            return _latency;
+        }
+
+        synchronized void updateStats( final double fillRatio, final long evictions, final long now, final double baselineLatency ) {
+            if ( !_latencyRegistered ) {
+                _latency += LATENCY_DECAY * ( baselineLatency - _latency );
+            }
+            _latencyRegistered = false;
+            _fillRatio = fillRatio;
+            if ( _evictions >= 0 && now > _statsTime ) {
+                // evictions per second
+                _evictionRate = Math.max( 0, evictions - _evictions ) * 1000d / ( now - _statsTime );
+            }
+            _evictions = evictions;
+            _statsTime = now;
+        }
+
+        synchronized double getLoad() {
+            return ( 1 + _latency ) * ( 1 + _fillRatio ) * ( 1 + _evictionRate );
+        }
+
+    }
+
+}
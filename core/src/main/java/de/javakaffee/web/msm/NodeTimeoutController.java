@@ -0,0 +1,294 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Controls the timeout of storage operations per memcached node and stops requests to a node that
+ * does not answer (circuit breaker), so that requests fail fast instead of waiting for the full operation
+ * timeout on each request.
+ * <p>
+ * The timeout of a node is derived from the recent latencies of this node: it's a multiple of the 99th
+ * percentile of the latest {@link #SAMPLES} operations, but not less than the min timeout and not more than the
+ * max timeout (the configured operation timeout). As long as there are not enough samples the max timeout is used.
+ * Operations that time out are sampled with the timeout as latency (they took at least that long), so that timeouts
+ * raise the derived timeout instead of being ignored by it.
+ * </p>
+ * <p>
+ * A timeout below the max timeout might just mean that the node got slower than its recent latencies, therefore
+ * the timeout of the node is first backed off (multiplied by {@link #TIMEOUT_FACTOR}) towards the max timeout.
+ * Only timeouts with the max timeout count as failures of the circuit breaker:
+ * after a number of consecutive timeouts the circuit breaker of the node opens and requests to this node
+ * are rejected. After {@link #OPEN_DURATION} millis a single trial request is allowed (half open): if it
+ * succeeds the breaker is closed again, if it times out the breaker stays open for another period.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class NodeTimeoutController {
+
+    private static final Log LOG = LogFactory.getLog( NodeTimeoutController.class );
+
+    /**
+     * The number of latencies the timeout is derived from.
+     */
+    static final int SAMPLES = 128;
+
+    /**
+     * The min number of latencies before the timeout is derived from latencies.
+     */
+    static final int MIN_SAMPLES = 20;
+
+    /**
+     * The timeout is the 99th percentile of latencies multiplied with this factor.
+     */
+    static final int TIMEOUT_FACTOR = 2;
+
+    /**
+     * The time in millis the circuit breaker stays open before a trial request is allowed.
+     */
+    static final long OPEN_DURATION = 5000;
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final long _minTimeout;
+    private final long _maxTimeout;
+    private final int _threshold;
+    private final Statistics _statistics;
+    private final ConcurrentMap<String, NodeState> _nodes = new ConcurrentHashMap<String, NodeState>();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param minTimeout the min timeout in millis.
+     * @param maxTimeout the max timeout in millis, usually the operation timeout.
+     * @param threshold the number of consecutive timeouts after which the circuit breaker opens.
+     * @param statistics the statistics that count the openings of circuit breakers.
+     */
+    public NodeTimeoutController( final long minTimeout, final long maxTimeout, final int threshold,
+            @Nonnull final Statistics statistics ) {
+        if ( minTimeout > maxTimeout ) {
+            throw new IllegalArgumentException( "The min timeout (" + minTimeout + ") must not be greater than the max timeout ("
+                    + maxTimeout + ")." );
+        }
+        if ( threshold < 1 ) {
+            throw new IllegalArgumentException( "The circuit breaker threshold must be positive." );
+        }
+        _minTimeout = minTimeout;
+        _maxTimeout = maxTimeout;
+        _threshold = threshold;
+        _statistics = statistics;
+    }
+
+    /**
+     * Returns the current timeout for operations on the given node.
+     *
+     * @param nodeId the node id.
+     * @return the timeout in millis.
+     */
+    public long getTimeout( @Nonnull final String nodeId ) {
+        final NodeState node = _nodes.get( nodeId );
+        return node != null ? node.getTimeout() : _maxTimeout;
+    }
+
+    /**
+     * Determines if a request to the given node is allowed. If the circuit breaker of the node is open and
+     * the open period is over, this request is the trial request.
+     *
+     * @param nodeId the node id.
+     * @param now the current time in millis.
+     * @return <code>false</code> if the request must fail fast.
+     */
+    public boolean allowRequest( @Nonnull final String nodeId, final long now ) {
+        final NodeState node = _nodes.get( nodeId );
+        return node == null || node.allowRequest( now );
+    }
+
+    /**
+     * Registers an operation on the given node that completed (successfully or with an error) within the timeout.
+     *
+     * @param nodeId the node id.
+     * @param latencyInMillis the latency of the operation.
+     * @return <code>true</code> if the circuit breaker of the node was closed by this operation.
+     */
+    public boolean onSuccess( @Nonnull final String nodeId, final long latencyInMillis ) {
+        final boolean closed = getNodeState( nodeId ).onSuccess( latencyInMillis );
+        if ( closed ) {
+            LOG.info( "Closed circuit breaker of memcached node " + nodeId + "." );
+        }
+        return closed;
+    }
+
+    /**
+     * Registers an operation on the given node that timed out. If the timeout of the node is below the max timeout
+     * it's backed off, otherwise the timeout counts as failure of the circuit breaker.
+     *
+     * @param nodeId the node id.
+     * @param now the current time in millis.
+     * @return <code>true</code> if the circuit breaker of the node was opened by this timeout.
+     */
+    public boolean onTimeout( @Nonnull final String nodeId, final long now ) {
+        final boolean opened = getNodeState( nodeId ).onTimeout( now );
+        if ( opened ) {
+            LOG.warn( "Opened circuit breaker of memcached node " + nodeId + " after " + _threshold + " consecutive timeouts." );
+            _statistics.circuitBreakerOpened();
+        }
+        return opened;
+    }
+
+    State getState( @Nonnull final String nodeId ) {
+        final NodeState node = _nodes.get( nodeId );
+        return node != null ? node.getState() : State.CLOSED;
+    }
+
+    /**
+     * Returns the timeout and the circuit breaker state of all nodes that were used so far,
+     * e.g. <code>n1: timeout 12 ms, CLOSED</code>.
+     */
+    @Nonnull
+    public String[] getInfo() {
+        final Map<String, NodeState> nodes = new TreeMap<String, NodeState>( _nodes );
+        final String[] result = new String[nodes.size()];
+        int i = 0;
+        for ( final Map.Entry<String, NodeState> entry : nodes.entrySet() ) {
+            result[i++] = entry.getKey() + ": timeout " + entry.getValue().getTimeout() + " ms, " + entry.getValue().getState();
+        }
+        return result;
+    }
+
+    private NodeState getNodeState( final String nodeId ) {
+        NodeState result = _nodes.get( nodeId );
+        if ( result == null ) {
+            result = new NodeState();
+            final NodeState existing = _nodes.putIfAbsent( nodeId, result );
+            if ( existing != null ) {
+                result = existing;
+            }
+        }
+        return result;
+    }
+
+    private final class NodeState {
+
+        private final long[] _latencies = new long[SAMPLES];
+        /** The position of the next latency in the ring of latencies. */
+        private int _index;
+        /** The number of latencies in the ring, up to {@link #SAMPLES}. */
+        private int _size;
+        /** The number of latencies since the timeout was computed last. */
+        private int _sinceUpdate;
+        private volatile long _timeout = _maxTimeout;
+        private State _state = State.CLOSED;
+        private int _consecutiveTimeouts;
+        private long _openedAt;
+        private long _trialStartedAt;
+
+        long getTimeout() {
+            return _timeout;
+        }
+
+        synchronized State getState() {
+            return _state;
+        }
+
+        synchronized boolean allowRequest( final long now ) {
+            switch ( _state ) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if ( now - _openedAt < OPEN_DURATION ) {
+                        return false;
+                    }
+                    _state = State.HALF_OPEN;
+                    _trialStartedAt = now;
+                    return true;
+                default:
+                    // allow another trial if the former one did neither succeed nor time out (e.g. failed)
+                    if ( now - _trialStartedAt < OPEN_DURATION ) {
+                        return false;
+                    }
+                    _trialStartedAt = now;
+                    return true;
+            }
+        }
+
+        synchronized boolean onSuccess( final long latencyInMillis ) {
+            addLatency( latencyInMillis );
+            _consecutiveTimeouts = 0;
+            if ( _state != State.CLOSED ) {
+                _state = State.CLOSED;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized boolean onTimeout( final long now ) {
+            final long timeout = _timeout;
+            // the operation took at least the timeout
+            addLatency( timeout );
+            if ( _state == State.HALF_OPEN ) {
+                _state = State.OPEN;
+                _openedAt = now;
+                return true;
+            }
+            if ( timeout < _maxTimeout ) {
+                _timeout = Math.max( _timeout, Math.min( _maxTimeout, timeout * TIMEOUT_FACTOR ) );
+                return false;
+            }
+            _consecutiveTimeouts++;
+            if ( _state == State.CLOSED && _consecutiveTimeouts >= _threshold ) {
+                _state = State.OPEN;
+                _openedAt = now;
+                return true;
+            }
+            return false;
+        }
+
+        private void addLatency( final long latencyInMillis ) {
+            _latencies[_index] = latencyInMillis;
+            _index = ( _index + 1 ) % SAMPLES;
+            if ( _size < SAMPLES ) {
+                _size++;
+            }
+            _sinceUpdate++;
+            // once the ring is full the timeout is computed only every few operations
+            if ( _size >= MIN_SAMPLES && ( _size < SAMPLES || _sinceUpdate >= SAMPLES / 8 ) ) {
+                _timeout = computeTimeout();
+                _sinceUpdate = 0;
+            }
+        }
+
+        private long computeTimeout() {
+            final long[] sorted = Arrays.copyOf( _latencies, _size );
+            Arrays.sort( sorted );
+            final long p99 = sorted[(int) Math.ceil( _size * 0.99 ) - 1];
+            return Math.max( _minTimeout, Math.min( _maxTimeout, p99 * TIMEOUT_FACTOR ) );
+        }
+
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Stores serialized sessions outside of the java heap, in direct {@link ByteBuffer}s with a fixed total capacity.
+ * This is used as local tier for sessions that were offloaded (see {@link SessionOffloader}), so that they can be
+ * deserialized from local memory instead of being loaded from memcached.
+ * <p>
+ * The memory is split into blocks of {@link #BLOCK_SIZE} bytes, which are allocated in arenas of up to
+ * {@link #MAX_ARENA_SIZE} bytes. A session is stored in as many (not necessarily adjacent) blocks as it needs,
+ * so that the memory does not fragment. If there are not enough free blocks, the least recently stored sessions
+ * are evicted.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class OffHeapSessionStore {
+
+    static final int BLOCK_SIZE = 4096;
+    static final int MAX_ARENA_SIZE = 64 * 1024 * 1024;
+
+    private final Statistics _statistics;
+    private final int _blockSize;
+    private final int _blocksPerArena;
+    private final ByteBuffer[] _arenas;
+    private final int[] _freeBlocks;
+    private int _freeCount;
+    private long _size;
+    private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<String, Entry>( 16, 0.75f, true );
+
+    /**
+     * Creates a new instance with blocks of {@link #BLOCK_SIZE} bytes.
+     *
+     * @param capacity the max number of bytes to allocate.
+     * @param statistics the statistics to update.
+     */
+    public OffHeapSessionStore( final long capacity, @Nonnull final Statistics statistics ) {
+        this( capacity, BLOCK_SIZE, MAX_ARENA_SIZE, statistics );
+    }
+
+    OffHeapSessionStore( final long capacity, final int blockSize, final int maxArenaSize, @Nonnull final Statistics statistics ) {
+        if ( capacity < blockSize ) {
+            throw new IllegalArgumentException( "The capacity must be at least " + blockSize + " bytes, but was " + capacity );
+        }
+        if ( capacity / blockSize > Integer.MAX_VALUE ) {
+            throw new IllegalArgumentException( "The capacity " + capacity + " is too big." );
+        }
+        _statistics = statistics;
+        _blockSize = blockSize;
+        final int numBlocks = (int) ( capacity / blockSize );
+        _blocksPerArena = Math.min( numBlocks, maxArenaSize / blockSize );
+        _arenas = new ByteBuffer[( numBlocks + _blocksPerArena - 1 ) / _blocksPerArena];
+        for ( int i = 0; i < _arenas.length; i++ ) {
+            final int blocks = Math.min( _blocksPerArena, numBlocks - i * _blocksPerArena );
+            _arenas[i] = ByteBuffer.allocateDirect( blocks * blockSize );
+        }
+        _freeBlocks = new int[numBlocks];
+        for ( int i = 0; i < numBlocks; i++ ) {
+            _freeBlocks[i] = numBlocks - 1 - i;
+        }
+        _freeCount = numBlocks;
+    }
+
+    /**
+     * Stores the given serialized session, if necessary the least recently stored sessions are evicted.
+     *
+     * @param sessionId the session id.
+     * @param data the serialized session.
+     * @param expiresAt the time in millis when the session expires.
+     * @return <code>false</code> if the data is bigger than the capacity and was not stored.
+     */
+    public synchronized boolean put( @Nonnull final String sessionId, @Nonnull final byte[] data, final long expiresAt ) {
+        release( _entries.remove( sessionId ) );
+        final int numBlocks = ( data.length + _blockSize - 1 ) / _blockSize;
+        if ( numBlocks > _freeBlocks.length ) {
+            return false;
+        }
+        for ( final Iterator<Entry> iter = _entries.values().iterator(); _freeCount < numBlocks && iter.hasNext(); ) {
+            final Entry eldest = iter.next();
+            iter.remove();
+            release( eldest );
+            _statistics.offHeapSessionEvicted();
+        }
+        final int[] blocks = new int[numBlocks];
+        for ( int i = 0; i < numBlocks; i++ ) {
+            blocks[i] = _freeBlocks[--_freeCount];
+            final int offset = i * _blockSize;
+            block( blocks[i] ).put( data, offset, Math.min( _blockSize, data.length - offset ) );
+        }
+        _entries.put( sessionId, new Entry( blocks, data.length, expiresAt ) );
+        _size += data.length;
+        _statistics.offHeapSessionBytesChanged( data.length );
+        return true;
+    }
+
+    /**
+     * Removes the given session and returns the serialized session.
+     *
+     * @param sessionId the session id.
+     * @return the serialized session, or <code>null</code> if it's not stored (anymore).
+     */
+    @CheckForNull
+    public synchronized byte[] take( @Nonnull final String sessionId ) {
+        final Entry entry = _entries.remove( sessionId );
+        if ( entry == null ) {
+            return null;
+        }
+        final byte[] result = new byte[entry.length];
+        for ( int i = 0; i < entry.blocks.length; i++ ) {
+            final int offset = i * _blockSize;
+            block( entry.blocks[i] ).get( result, offset, Math.min( _blockSize, entry.length - offset ) );
+        }
+        release( entry );
+        return result;
+    }
+
+    /**
+     * Removes the given session.
+     */
+    public synchronized void remove( @Nonnull final String sessionId ) {
+        release( _entries.remove( sessionId ) );
+    }
+
+    /**
+     * Removes the sessions that are expired.
+     *
+     * @param now the current time in millis.
+     * @return the number of removed sessions.
+     */
+    public synchronized int removeExpired( final long now ) {
+        int result = 0;
+        for ( final Iterator<Entry> iter = _entries.values().iterator(); iter.hasNext(); ) {
+            final Entry entry = iter.next();
+            if ( entry.expiresAt <= now ) {
+                iter.remove();
+                release( entry );
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes all sessions.
+     */
+    public synchronized void clear() {
+        for ( final Iterator<Entry> iter = _entries.values().iterator(); iter.hasNext(); ) {
+            release( iter.next() );
+            iter.remove();
+        }
+    }
+
+    /**
+     * The number of stored sessions.
+     */
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    /**
+     * The number of bytes of the stored sessions.
+     */
+    public synchronized long getSizeInBytes() {
+        return _size;
+    }
+
+    /**
+     * The number of bytes allocated for sessions.
+     */
+    public long getCapacity() {
+        return (long) _freeBlocks.length * _blockSize;
+    }
+
+    private void release( @CheckForNull final Entry entry ) {
+        if ( entry == null ) {
+            return;
+        }
+        for ( final int block : entry.blocks ) {
+            _freeBlocks[_freeCount++] = block;
+        }
+        _size -= entry.length;
+        _statistics.offHeapSessionBytesChanged( -entry.length );
+    }
+
+    private ByteBuffer block( final int block ) {
+        final ByteBuffer result = _arenas[block / _blocksPerArena];
+        result.clear();
+        result.position( ( block % _blocksPerArena ) * _blockSize );
+        return result;
+    }
+
+    private static final class Entry {
+
+        final int[] blocks;
+        final int length;
+        final long expiresAt;
+
+        Entry( final int[] blocks, final int length, final long expiresAt ) {
+            this.blocks = blocks;
+            this.length = length;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+}
@@ -0,0 +1,452 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static de.javakaffee.web.msm.MemcachedUtil.toMemcachedExpiration;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import de.javakaffee.web.msm.storage.StorageClient;
+
+/**
+ * Replicates non-sticky sessions to their secondary backup node (the next available memcached node,
+ * resolved by the {@link SuffixBasedNodeLocator} via the backup key), so that the traffic to the secondary
+ * node is proportional to the session modifications and not to the number of requests:
+ * <ul>
+ * <li>Only modified sessions are {@link #replicate(String, byte[], byte[], int) replicated}. Pending replications
+ * are queued per session, so that only the latest version of a session is written if the session is modified
+ * while its previous version is still being written. The queue is bounded, if it's full the oldest replication
+ * is dropped (the backup is repaired on the next read of the session).</li>
+ * <li>When a session was only accessed, the small validity info of its backup is {@link #refresh(String, byte[], int)
+ * refreshed} on each access, so that the access times restored from the backup are up to date. The backed up session
+ * data is refreshed with a <code>touch</code> at most once per refresh interval, which is a quarter of the max
+ * inactive interval of the session (max. 5 minutes). To account for this lag the backup data expires one refresh
+ * interval after the validity info. Only a backup that has the version of the session is refreshed (the version that
+ * was replicated, or if that's not known the version of the backup's validity info), if the backup does not exist
+ * (anymore) or has another version it's re-seeded from the primary session.</li>
+ * <li>When a session is loaded its version (stored in the session validity info) is
+ * {@link #verify(String, byte[], long, int) compared} with the version of the backup (once per version and
+ * backup node). If they differ, the backup is re-seeded from the primary session.</li>
+ * </ul>
+ * <p>
+ * {@link #replicate(String, byte[], byte[], int)} and {@link #refresh(String, byte[], int)} are meant to be invoked
+ * by threads of the executor that is passed to the constructor (they write the queued backups in the
+ * calling thread), {@link #verify(String, byte[], long, int)} submits the check to this executor.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class SecondaryBackupReplicator {
+
+    private static final Log LOG = LogFactory.getLog( SecondaryBackupReplicator.class );
+
+    static final int DEFAULT_MAX_QUEUE_SIZE = 10000;
+    static final long MIN_REFRESH_INTERVAL = 1000;
+    static final long MAX_REFRESH_INTERVAL = 5 * 60 * 1000;
+    private static final int MAX_TRACKED_SESSIONS = 100000;
+
+    private final StorageClient _storage;
+    private final MemcachedNodesManager _memcachedNodesManager;
+    private final SessionIdFormat _sessionIdFormat;
+    private final Statistics _statistics;
+    private final ExecutorService _executor;
+    private final long _operationTimeout;
+    private final int _maxQueueSize;
+
+    private final LinkedHashMap<String, Entry> _queue = new LinkedHashMap<String, Entry>();
+    private final Set<String> _inFlight = new HashSet<String>();
+    private final LRUCache<String, BackupState> _backups = new LRUCache<String, BackupState>( MAX_TRACKED_SESSIONS );
+
+    /**
+     * Creates a new instance.
+     *
+     * @param storage the storage client.
+     * @param memcachedNodesManager provides the session id format and the node availability.
+     * @param statistics the statistics to report replications to.
+     * @param executor the executor used to verify backups.
+     * @param operationTimeout the timeout in millis to wait for storage operations.
+     * @param maxQueueSize the max number of pending replications.
+     */
+    public SecondaryBackupReplicator( @Nonnull final StorageClient storage, @Nonnull final MemcachedNodesManager memcachedNodesManager,
+            @Nonnull final Statistics statistics, @Nonnull final ExecutorService executor, final long operationTimeout,
+            final int maxQueueSize ) {
+        _storage = storage;
+        _memcachedNodesManager = memcachedNodesManager;
+        _sessionIdFormat = memcachedNodesManager.getSessionIdFormat();
+        _statistics = statistics;
+        _executor = executor;
+        _operationTimeout = operationTimeout;
+        _maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * Replicates the given data of a modified session and its validity info to the secondary backup node.
+     *
+     * @param sessionId the session id.
+     * @param data the serialized session, as stored in the primary node.
+     * @param validityData the encoded {@link SessionValidityInfo}.
+     * @param maxInactiveInterval the max inactive interval of the session in seconds.
+     */
+    public void replicate( @Nonnull final String sessionId, @Nonnull final byte[] data, @Nonnull final byte[] validityData,
+            final int maxInactiveInterval ) {
+        offer( new Entry( sessionId, data, validityData, maxInactiveInterval, false, false ) );
+        drain();
+    }
+
+    /**
+     * Stores the validity info of a session that was accessed but not modified in its secondary backup, and
+     * refreshes the expiration of the backed up session data if it was not refreshed (or replicated) within the
+     * refresh interval. If the backup does not exist it's re-seeded from the primary session.
+     *
+     * @param sessionId the session id.
+     * @param validityData the encoded {@link SessionValidityInfo}.
+     * @param maxInactiveInterval the max inactive interval of the session in seconds.
+     * @return <code>true</code> if the backup data was due to be refreshed.
+     */
+    public boolean refresh( @Nonnull final String sessionId, @Nonnull final byte[] validityData, final int maxInactiveInterval ) {
+        final BackupState state = getBackupState( sessionId );
+        if ( state == null ) {
+            return false;
+        }
+        final long now = System.currentTimeMillis();
+        final boolean touch = now - state.refreshed >= getRefreshInterval( maxInactiveInterval );
+        if ( touch ) {
+            state.refreshed = now;
+        }
+        offer( new Entry( sessionId, null, validityData, maxInactiveInterval, false, touch ) );
+        drain();
+        return touch;
+    }
+
+    /**
+     * Checks asynchronously if the secondary backup of a loaded session has the same version as the
+     * primary session, and re-seeds the backup if this is not the case. The check is only performed once per
+     * version and backup node.
+     *
+     * @param sessionId the session id.
+     * @param validityData the encoded {@link SessionValidityInfo} of the loaded session.
+     * @param version the version of the loaded session.
+     * @param maxInactiveInterval the max inactive interval of the session in seconds.
+     */
+    public void verify( @Nonnull final String sessionId, @Nonnull final byte[] validityData, final long version,
+            final int maxInactiveInterval ) {
+        final BackupState state = getBackupState( sessionId );
+        if ( state == null || state.verifiedVersion == version ) {
+            return;
+        }
+        state.verifiedVersion = version;
+        try {
+            _executor.submit( new Runnable() {
+                @Override
+                public void run() {
+                    if ( !hasBackupVersion( sessionId, version ) ) {
+                        offer( new Entry( sessionId, null, validityData, maxInactiveInterval, true, false ) );
+                        drain();
+                    }
+                }
+            } );
+        } catch ( final RejectedExecutionException e ) {
+            LOG.debug( "Not verifying secondary backup of session " + sessionId + ", the executor is shut down." );
+        }
+    }
+
+    /**
+     * The number of pending replications.
+     */
+    public synchronized int getQueueSize() {
+        return _queue.size();
+    }
+
+    static long getRefreshInterval( final int maxInactiveInterval ) {
+        if ( maxInactiveInterval <= 0 ) {
+            return MAX_REFRESH_INTERVAL;
+        }
+        return Math.max( MIN_REFRESH_INTERVAL, Math.min( MAX_REFRESH_INTERVAL, maxInactiveInterval * 1000L / 4 ) );
+    }
+
+    /**
+     * The expiration of the backed up session data in seconds: the data is touched at most once per refresh
+     * interval, so that it must outlive the validity info (which is stored on each access) by this interval.
+     */
+    static int getDataExpiration( final int maxInactiveInterval ) {
+        if ( maxInactiveInterval <= 0 ) {
+            return 0;
+        }
+        return maxInactiveInterval + (int) ( ( getRefreshInterval( maxInactiveInterval ) + 999 ) / 1000 );
+    }
+
+    private boolean hasBackupVersion( final String sessionId, final long version ) {
+        try {
+            final byte[] backupValidityData = _storage.get( getBackupValidityKey( sessionId ) );
+            if ( backupValidityData == null ) {
+                LOG.info( "Found no secondary backup of session " + sessionId + ", will re-seed it." );
+                return false;
+            }
+            final long backupVersion = SessionValidityInfo.decode( backupValidityData ).getVersion();
+            if ( backupVersion != version ) {
+                LOG.info( "The secondary backup of session " + sessionId + " has version " + backupVersion
+                        + " instead of " + version + ", will re-seed it." );
+                return false;
+            }
+            return true;
+        } catch ( final RuntimeException e ) {
+            LOG.info( "Could not verify secondary backup of session " + sessionId, e );
+            return true;
+        }
+    }
+
+    private synchronized void offer( @Nonnull final Entry entry ) {
+        final Entry pending = _queue.get( entry.sessionId );
+        if ( pending != null ) {
+            _statistics.secondaryBackupCoalesced();
+        }
+        _queue.put( entry.sessionId, pending != null ? pending.merge( entry ) : entry );
+        while ( _queue.size() > _maxQueueSize ) {
+            final Iterator<Entry> iter = _queue.values().iterator();
+            final Entry dropped = iter.next();
+            iter.remove();
+            _statistics.secondaryBackupDropped();
+            // the backup is refreshed and verified again when the session is accessed the next time
+            _backups.remove( dropped.sessionId );
+        }
+    }
+
+    /**
+     * Polls the oldest pending replication of a session that's not currently written by another thread.
+     */
+    @CheckForNull
+    private synchronized Entry poll() {
+        for ( final Iterator<Entry> iter = _queue.values().iterator(); iter.hasNext(); ) {
+            final Entry entry = iter.next();
+            if ( _inFlight.add( entry.sessionId ) ) {
+                iter.remove();
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void done( @Nonnull final Entry entry ) {
+        _inFlight.remove( entry.sessionId );
+    }
+
+    /**
+     * Writes pending replications until the queue is empty (or only contains replications of sessions that are
+     * currently written by other threads, they continue with these replications afterwards).
+     */
+    void drain() {
+        Entry entry;
+        while ( ( entry = poll() ) != null ) {
+            try {
+                write( entry );
+            } finally {
+                done( entry );
+            }
+        }
+    }
+
+    private void write( @Nonnull final Entry entry ) {
+        final String key = _sessionIdFormat.createBackupKey( entry.sessionId );
+        final int expiration = toMemcachedExpiration( entry.maxInactiveInterval <= 0 ? 0 : entry.maxInactiveInterval );
+        final int dataExpiration = toMemcachedExpiration( getDataExpiration( entry.maxInactiveInterval ) );
+        try {
+            final long version = SessionValidityInfo.decode( entry.validityData ).getVersion();
+            final BackupState state = getBackupState( entry.sessionId );
+            byte[] data = entry.data;
+            boolean reseed = entry.reseed;
+            if ( data == null && !reseed ) {
+                // the validity info must not claim a version that's newer than the backed up data
+                if ( !isReplicated( entry.sessionId, state, version ) ) {
+                    reseed = true;
+                }
+                else if ( entry.touch ) {
+                    if ( await( _storage.touch( key, dataExpiration ), entry.sessionId, "touch" ) ) {
+                        _statistics.secondaryBackupRefreshed();
+                    }
+                    else {
+                        LOG.info( "The secondary backup of session " + entry.sessionId + " should be touched, but it"
+                                + " seems to be not existing. Will re-seed it." );
+                        reseed = true;
+                    }
+                }
+            }
+            if ( reseed ) {
+                data = _storage.get( _memcachedNodesManager.getStorageKeyFormat().format( entry.sessionId ) );
+                if ( data == null ) {
+                    LOG.info( "Could not re-seed secondary backup of session " + entry.sessionId + ", the session does not exist." );
+                    return;
+                }
+            }
+            if ( data != null ) {
+                if ( !await( _storage.set( key, dataExpiration, data ), entry.sessionId, "store" ) ) {
+                    return;
+                }
+                if ( reseed ) {
+                    _statistics.secondaryBackupRepaired();
+                }
+                else {
+                    _statistics.secondaryBackupReplicated();
+                }
+            }
+            if ( !await( _storage.set( getBackupValidityKey( entry.sessionId ), expiration, entry.validityData ),
+                    entry.sessionId, "store the validity info of" ) ) {
+                return;
+            }
+
+            if ( state != null ) {
+                if ( data != null || entry.touch ) {
+                    state.refreshed = System.currentTimeMillis();
+                }
+                state.replicatedVersion = version;
+                if ( data != null ) {
+                    state.verifiedVersion = version;
+                }
+            }
+        } catch ( final RuntimeException e ) {
+            LOG.info( "Could not store secondary backup of session " + entry.sessionId, e );
+        }
+    }
+
+    /**
+     * Determines if the secondary backup of the given session has the given version, so that it can be refreshed
+     * by a touch. If the replicated version is not known (e.g. because the replication was dropped or the state
+     * was evicted) the validity info of the backup is read.
+     */
+    private boolean isReplicated( @Nonnull final String sessionId, @CheckForNull final BackupState state, final long version ) {
+        if ( state != null && state.replicatedVersion == version ) {
+            return true;
+        }
+        final byte[] backupValidityData = _storage.get( getBackupValidityKey( sessionId ) );
+        if ( backupValidityData == null || SessionValidityInfo.decode( backupValidityData ).getVersion() != version ) {
+            LOG.info( "The secondary backup of session " + sessionId + " should be touched, but it does not have version "
+                    + version + ". Will re-seed it." );
+            return false;
+        }
+        return true;
+    }
+
+    private boolean await( @Nonnull final Future<Boolean> future, @Nonnull final String sessionId, @Nonnull final String operation ) {
+        try {
+            return future.get( _operationTimeout, TimeUnit.MILLISECONDS ).booleanValue();
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } catch ( final ExecutionException e ) {
+            LOG.info( "Could not " + operation + " secondary backup of session " + sessionId + ": " + e.getCause() );
+        } catch ( final TimeoutException e ) {
+            LOG.info( "Could not " + operation + " secondary backup of session " + sessionId + " within "
+                    + _operationTimeout + " millis." );
+        }
+        return false;
+    }
+
+    @Nonnull
+    private String getBackupValidityKey( @Nonnull final String sessionId ) {
+        return _sessionIdFormat.createBackupKey( _sessionIdFormat.createValidityInfoKeyName( sessionId ) );
+    }
+
+    /**
+     * Returns the state of the backup of the given session on its current backup node. If the backup node
+     * changed (e.g. because the secondary node failed) a new state is returned, so that the backup is re-seeded.
+     * If no backup node is available the state is removed, as the backup node might lose the backup.
+     */
+    @CheckForNull
+    private BackupState getBackupState( @Nonnull final String sessionId ) {
+        final String backupNodeId = getBackupNodeId( sessionId );
+        if ( backupNodeId == null ) {
+            _backups.remove( sessionId );
+            return null;
+        }
+        BackupState result = _backups.get( sessionId );
+        if ( result == null || !result.backupNodeId.equals( backupNodeId ) ) {
+            result = new BackupState( backupNodeId );
+            _backups.put( sessionId, result );
+        }
+        return result;
+    }
+
+    @CheckForNull
+    private String getBackupNodeId( @Nonnull final String sessionId ) {
+        final String nodeId = _sessionIdFormat.extractMemcachedId( sessionId );
+        if ( nodeId == null || !_memcachedNodesManager.getPrimaryNodeIds().contains( nodeId ) ) {
+            // e.g. sessions stored in a failover node
+            return null;
+        }
+        return _memcachedNodesManager.getNextAvailableNodeId( nodeId );
+    }
+
+    private static final class BackupState {
+
+        final String backupNodeId;
+        volatile long refreshed;
+        volatile long verifiedVersion = -1;
+        /** The version of the session that was written to the backup node, only this version may be touched. */
+        volatile long replicatedVersion = -1;
+
+        BackupState( @Nonnull final String backupNodeId ) {
+            this.backupNodeId = backupNodeId;
+        }
+
+    }
+
+    private static final class Entry {
+
+        final String sessionId;
+        final byte[] data;
+        final byte[] validityData;
+        final int maxInactiveInterval;
+        final boolean reseed;
+        /** If the backed up data (without new data) shall be touched, otherwise only the validity info is stored. */
+        final boolean touch;
+
+        Entry( @Nonnull final String sessionId, @Nullable final byte[] data, @Nonnull final byte[] validityData,
+                final int maxInactiveInterval, final boolean reseed, final boolean touch ) {
+            this.sessionId = sessionId;
+            this.data = data;
+            this.validityData = validityData;
+            this.maxInactiveInterval = maxInactiveInterval;
+            this.reseed = reseed;
+            this.touch = touch;
+        }
+
+        /**
+         * Merges the given newer entry into this one: the latest session data and validity info is written.
+         */
+        Entry merge( @Nonnull final Entry newer ) {
+            final byte[] data = newer.data != null ? newer.data : this.data;
+            return new Entry( sessionId, data, newer.validityData, newer.maxInactiveInterval,
+                    data == null && ( reseed || newer.reseed ), data == null && ( touch || newer.touch ) );
+        }
+
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Emits events of session manager operations (session loads, (de)serialization, backups, locking, node availability
+ * changes and relocations) to the JDK Flight Recorder, so that they can be correlated with GC and CPU activity
+ * in a recording.
+ * <p>
+ * The events are only emitted if the <code>msm-jfr-events</code> jar is available next to the session manager
+ * and the JVM provides the Flight Recorder API (<code>jdk.jfr</code>, e.g. JDK 8u262+ or 11+), otherwise this
+ * does nothing. They're enabled and configured (e.g. with a threshold) through the
+ * standard JFR settings, the event names start with <code>de.javakaffee.msm.</code>. If an event is disabled
+ * no event object is created.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public abstract class SessionEvents {
+
+    private static final Log LOG = LogFactory.getLog( SessionEvents.class );
+
+    private static final String FLIGHT_RECORDER_EVENTS_CLASS = "de.javakaffee.web.msm.jfr.FlightRecorderSessionEvents";
+
+    /**
+     * The types of timed events.
+     */
+    public static enum Type {
+        /** The session data is read from memcached. */
+        LOAD,
+        /** The session is deserialized. */
+        DESERIALIZATION,
+        /** The session attributes are serialized. */
+        SERIALIZATION,
+        /** The session is backed up (or the backup is skipped, see the result). */
+        BACKUP,
+        /** The lock of a non-sticky session is acquired (including waits). */
+        LOCK_ACQUISITION,
+        /** A wait for the lock of a session held by another request. */
+        LOCK_WAIT,
+        /** The lock of a session is released. */
+        LOCK_RELEASE
+    }
+
+    /**
+     * A timed event that's started when it's created, the duration ends when it's committed.
+     */
+    public static interface SessionEvent {
+
+        /**
+         * Sets the session of this event, the event contains the hash of the session id and its memcached node id.
+         */
+        @Nonnull
+        SessionEvent session( @Nonnull String sessionId );
+
+        /**
+         * Sets the number of bytes read, written or (de)serialized.
+         */
+        @Nonnull
+        SessionEvent bytes( long bytes );
+
+        /**
+         * Sets the result of the operation, e.g. the {@link BackupResultStatus}.
+         */
+        @Nonnull
+        SessionEvent result( @CheckForNull String result );
+
+        /**
+         * Ends and emits this event.
+         */
+        void commit();
+
+    }
+
+    /**
+     * The event returned if an event type is disabled, it does nothing.
+     */
+    protected static final SessionEvent NO_EVENT = new SessionEvent() {
+
+        @Override
+        public SessionEvent session( final String sessionId ) {
+            return this;
+        }
+
+        @Override
+        public SessionEvent bytes( final long bytes ) {
+            return this;
+        }
+
+        @Override
+        public SessionEvent result( final String result ) {
+            return this;
+        }
+
+        @Override
+        public void commit() {
+        }
+
+    };
+
+    static final SessionEvents DISABLED = new SessionEvents() {
+
+        @Override
+        protected SessionEvent beginEvent( final Type type ) {
+            return NO_EVENT;
+        }
+
+        @Override
+        protected void onNodeAvailabilityChanged( final String nodeId, final boolean available ) {
+        }
+
+        @Override
+        protected void onSessionRelocated( final String sessionId, final String newSessionId ) {
+        }
+
+    };
+
+    private static final SessionEvents INSTANCE = create();
+
+    /**
+     * Starts a timed event of the given type.
+     *
+     * @param type the type of the event.
+     * @return the event, that must be committed when the operation is finished.
+     */
+    @Nonnull
+    public static SessionEvent begin( @Nonnull final Type type ) {
+        return INSTANCE.beginEvent( type );
+    }
+
+    /**
+     * Emits an event for a memcached node that was marked as available or unavailable.
+     */
+    public static void nodeAvailabilityChanged( @Nonnull final String nodeId, final boolean available ) {
+        INSTANCE.onNodeAvailabilityChanged( nodeId, available );
+    }
+
+    /**
+     * Emits an event for a session that's relocated to another memcached node (with a new session id).
+     */
+    public static void sessionRelocated( @Nonnull final String sessionId, @Nonnull final String newSessionId ) {
+        INSTANCE.onSessionRelocated( sessionId, newSessionId );
+    }
+
+    /**
+     * Determines if events are emitted to the Flight Recorder, i.e. if the JVM provides the Flight Recorder API.
+     */
+    public static boolean isFlightRecorderAvailable() {
+        return INSTANCE != DISABLED;
+    }
+
+    @Nonnull
+    protected abstract SessionEvent beginEvent( @Nonnull Type type );
+
+    protected abstract void onNodeAvailabilityChanged( @Nonnull String nodeId, boolean available );
+
+    protected abstract void onSessionRelocated( @Nonnull String sessionId, @Nonnull String newSessionId );
+
+    /**
+     * Creates the events implementation for the Flight Recorder if available. The implementation is provided by
+     * the <code>msm-jfr-events</code> module (compiled for Java 8) and is loaded by name, so that this class can be
+     * loaded on JVMs without the Flight Recorder API.
+     */
+    private static SessionEvents create() {
+        try {
+            Class.forName( "jdk.jfr.Event" );
+        } catch ( final ClassNotFoundException e ) {
+            LOG.debug( "The Flight Recorder API is not available, session events are not recorded." );
+            return DISABLED;
+        }
+        final Class<?> clazz;
+        try {
+            clazz = Class.forName( FLIGHT_RECORDER_EVENTS_CLASS );
+        } catch ( final ClassNotFoundException e ) {
+            LOG.debug( "The msm-jfr-events module is not available, session events are not recorded." );
+            return DISABLED;
+        }
+        try {
+            return (SessionEvents) clazz.newInstance();
+        } catch ( final Throwable e ) {
+            LOG.info( "Could not initialize Flight Recorder events, session events are not recorded: " + e );
+            return DISABLED;
+        }
+    }
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static de.javakaffee.web.msm.MemcachedUtil.toMemcachedExpiration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.Nonnull;
+
+import org.apache.catalina.Session;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import de.javakaffee.web.msm.storage.StorageClient;
+
+/**
+ * Stores all modified sessions in memcached when a sticky tomcat is stopped, so that modifications
+ * that were not yet stored are not lost. The sessions are serialized in parallel (partitioned over
+ * <code>threads</code> threads), and the writes are issued without waiting for each single write, so that
+ * they're pipelined by the storage client (the memcached client queues all writes to a node on the connection
+ * of this node). All writes are awaited with a single overall deadline.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class SessionFlusher {
+
+    private static final Log LOG = LogFactory.getLog( SessionFlusher.class );
+
+    private final TranscoderService _transcoderService;
+    private final StorageClient _storage;
+    private final MemcachedNodesManager _memcachedNodesManager;
+    private final Statistics _statistics;
+    private final int _threads;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param transcoderService the transcoder service used to serialize sessions.
+     * @param storage the storage client.
+     * @param memcachedNodesManager provides the storage key format.
+     * @param statistics the statistics to report the flush to.
+     * @param threads the number of threads used to serialize sessions.
+     */
+    public SessionFlusher( @Nonnull final TranscoderService transcoderService, @Nonnull final StorageClient storage,
+            @Nonnull final MemcachedNodesManager memcachedNodesManager, @Nonnull final Statistics statistics, final int threads ) {
+        _transcoderService = transcoderService;
+        _storage = storage;
+        _memcachedNodesManager = memcachedNodesManager;
+        _statistics = statistics;
+        _threads = Math.max( 1, threads );
+    }
+
+    /**
+     * Stores the given sessions in memcached if they were modified or accessed since they were stored the last time.
+     *
+     * @param sessions the local sessions.
+     * @param timeoutMillis the overall time in millis to wait for the sessions being stored.
+     * @return the result of the flush.
+     */
+    @Nonnull
+    public Result flush( @Nonnull final Session[] sessions, final long timeoutMillis ) throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        final long deadline = start + timeoutMillis;
+
+        final ExecutorService executor = Executors.newFixedThreadPool( _threads, new NamedThreadFactory( "msm-flush" ) );
+        final List<Future<List<PendingWrite>>> serializations = new ArrayList<Future<List<PendingWrite>>>( _threads );
+        try {
+            final int partitionSize = ( sessions.length + _threads - 1 ) / _threads;
+            for ( int i = 0; i < sessions.length; i += partitionSize ) {
+                final List<Session> partition = Arrays.asList( sessions ).subList( i, Math.min( sessions.length, i + partitionSize ) );
+                serializations.add( executor.submit( new Callable<List<PendingWrite>>() {
+                    @Override
+                    public List<PendingWrite> call() {
+                        return write( partition );
+                    }
+                } ) );
+            }
+
+            final Result result = new Result( sessions.length );
+            final List<PendingWrite> writes = new ArrayList<PendingWrite>();
+            for ( final Future<List<PendingWrite>> serialization : serializations ) {
+                try {
+                    writes.addAll( serialization.get( Math.max( 0, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS ) );
+                } catch ( final ExecutionException e ) {
+                    LOG.warn( "Could not flush sessions.", e.getCause() );
+                } catch ( final TimeoutException e ) {
+                    serialization.cancel( true );
+                    result.timedOut = true;
+                }
+            }
+
+            for ( final PendingWrite write : writes ) {
+                if ( write.await( Math.max( 0, deadline - System.currentTimeMillis() ) ) ) {
+                    result.flushed++;
+                }
+                else {
+                    result.failed++;
+                }
+            }
+            result.duration = System.currentTimeMillis() - start;
+            _statistics.shutdownFlushFinished( result.flushed, result.failed, result.duration );
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<PendingWrite> write( final List<Session> sessions ) {
+        final List<PendingWrite> result = new ArrayList<PendingWrite>();
+        for ( final Session s : sessions ) {
+            if ( Thread.currentThread().isInterrupted() ) {
+                break;
+            }
+            final MemcachedBackupSession session = (MemcachedBackupSession) s;
+            if ( !session.isValidInternal() || session.isBackupRunning() ) {
+                // sessions just being stored are awaited with the backup executor
+                continue;
+            }
+            try {
+                final byte[] attributesData = _transcoderService.serializeAttributes( session, session.getAttributesFiltered() );
+                final int hashCode = Arrays.hashCode( attributesData );
+                if ( hashCode == session.getDataHashCode()
+                        && !session.wasAccessedSinceLastBackup()
+                        && !session.authenticationChanged() ) {
+                    continue;
+                }
+                session.setLastBackupTime( System.currentTimeMillis() );
+                final byte[] data = _transcoderService.serialize( session, attributesData );
+                final int expiration = session.getMemcachedExpirationTimeToSet();
+                final String key = _memcachedNodesManager.getStorageKeyFormat().format( session.getIdInternal() );
+                result.add( new PendingWrite( session, hashCode, attributesData.length, expiration,
+                        _storage.set( key, toMemcachedExpiration( expiration ), data ) ) );
+            } catch ( final RuntimeException e ) {
+                LOG.warn( "Could not flush session " + session.getIdInternal(), e );
+                result.add( new PendingWrite( session, 0, 0, 0, null ) );
+            }
+        }
+        return result;
+    }
+
+    private static final class PendingWrite {
+
+        private final MemcachedBackupSession _session;
+        private final int _hashCode;
+        private final int _dataSize;
+        private final int _expiration;
+        private final Future<Boolean> _future;
+
+        PendingWrite( final MemcachedBackupSession session, final int hashCode, final int dataSize, final int expiration,
+                final Future<Boolean> future ) {
+            _session = session;
+            _hashCode = hashCode;
+            _dataSize = dataSize;
+            _expiration = expiration;
+            _future = future;
+        }
+
+        boolean await( final long timeoutMillis ) throws InterruptedException {
+            if ( _future == null ) {
+                return false;
+            }
+            try {
+                if ( _future.get( timeoutMillis, TimeUnit.MILLISECONDS ) ) {
+                    _session.setDataHashCode( _hashCode );
+                    _session.setDataSize( _dataSize );
+                    _session.setLastMemcachedExpirationTime( _expiration );
+                    return true;
+                }
+                LOG.warn( "Could not flush session " + _session.getIdInternal() + ", the storage did not store it." );
+            } catch ( final ExecutionException e ) {
+                LOG.warn( "Could not flush session " + _session.getIdInternal(), e.getCause() );
+            } catch ( final TimeoutException e ) {
+                LOG.warn( "Flushing session " + _session.getIdInternal() + " timed out." );
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * The result of a {@link SessionFlusher#flush(Session[], long)}.
+     */
+    public static final class Result {
+
+        private final int _sessions;
+        int flushed;
+        int failed;
+        boolean timedOut;
+        long duration;
+
+        Result( final int sessions ) {
+            _sessions = sessions;
+        }
+
+        /**
+         * The number of sessions that were checked.
+         */
+        public int getSessions() {
+            return _sessions;
+        }
+
+        /**
+         * The number of sessions that were stored.
+         */
+        public int getFlushed() {
+            return flushed;
+        }
+
+        /**
+         * The number of sessions that could not be stored.
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * Specifies if the deadline passed before all sessions were serialized.
+         */
+        public boolean isTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * The duration of the flush in millis.
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        @Override
+        public String toString() {
+            return "flushed " + flushed + " of " + _sessions + " sessions in " + duration + " ms"
+                    + ( failed > 0 ? ", " + failed + " failed" : "" ) + ( timedOut ? ", the deadline passed" : "" );
+        }
+
+    }
+
+}
@@ -225,6 +225,20 @@ public class SessionIdFormat {
         return "validity:" + _storageKeyFormat.format(origKey);
     }
 
+    /**
+     * Creates the name/key that is used for the id of the migrated copy of a session stored on a draining node
+     * (see {@link SessionMigrator}).
+     * @param sessionId the id of the migrated session.
+     * @return a String.
+     */
+    @Nonnull
+    public String createMigrationKeyName( @Nonnull final String sessionId ) {
+        if ( sessionId == null ) {
+            throw new IllegalArgumentException( "The sessionId must not be null." );
+        }
+        return "migrated:" + _storageKeyFormat.format(sessionId);
+    }
+
     /**
      * Creates the name/key that is used for the data (session or validity info)
      * that is additionally stored in a secondary memcached node for non-sticky sessions.
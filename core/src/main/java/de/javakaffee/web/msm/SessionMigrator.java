@@ -0,0 +1,372 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static de.javakaffee.web.msm.MemcachedUtil.toMemcachedExpiration;
+import static de.javakaffee.web.msm.TranscoderService.decodeNum;
+import static de.javakaffee.web.msm.TranscoderService.encodeNum;
+
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import de.javakaffee.web.msm.storage.StorageClient;
+
+/**
+ * Migrates sessions that are stored on draining memcached nodes (see {@link MemcachedNodesManager#setDrainingNodes(String)})
+ * to other nodes, so that a node can be retired without a burst of memcached failovers:
+ * <ul>
+ * <li>Sessions hosted on a draining node are {@link #register(String, long, int) registered} when they're seen by
+ * this tomcat (in sticky mode the local sessions, in non-sticky mode sessions loaded from memcached).</li>
+ * <li>Registered sessions are copied in the background (rate-limited, <code>maxSessionsPerSecond</code>) to a new
+ * node under the session id with the new node id. The serialized session is copied as is, in non-sticky mode
+ * together with the session validity info. Then the mapping of the session id to the id of the copy (and the
+ * version of the copy) is stored in memcached next to the session (see {@link SessionIdFormat#createMigrationKeyName(String)}),
+ * so that the copy is also found by other tomcats (in non-sticky mode the next request is often served by another tomcat).</li>
+ * <li>When a migrated session is accessed again, the session id is changed to the id of the copy if the session
+ * was not modified since it was copied (see {@link #getMigratedSessionId(String, long)}). As the copy is already
+ * stored the changed session id does not require the session to be stored again
+ * (see {@link #isMigratedSessionId(String)}).</li>
+ * </ul>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class SessionMigrator {
+
+    private static final Log LOG = LogFactory.getLog( SessionMigrator.class );
+
+    static final int DEFAULT_MAX_QUEUE_SIZE = 10000;
+    private static final int MAX_TRACKED_SESSIONS = 100000;
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private final StorageClient _storage;
+    private final MemcachedNodesManager _memcachedNodesManager;
+    private final SessionIdFormat _sessionIdFormat;
+    private final Statistics _statistics;
+    private final boolean _sticky;
+    private final int _maxSessionsPerSecond;
+    private final long _operationTimeout;
+    private final int _maxQueueSize;
+
+    private final LinkedHashMap<String, Candidate> _queue = new LinkedHashMap<String, Candidate>();
+    private final LRUCache<String, Migration> _migrations = new LRUCache<String, Migration>( MAX_TRACKED_SESSIONS );
+    private final LRUCache<String, Boolean> _migratedSessionIds = new LRUCache<String, Boolean>( MAX_TRACKED_SESSIONS );
+    private Thread _thread;
+    private long _nextMigrationTime;
+    private volatile boolean _stopped;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param storage the storage client.
+     * @param memcachedNodesManager provides the draining nodes and the node the sessions are migrated to.
+     * @param statistics the statistics to report migrations to.
+     * @param sticky specifies if sessions are sticky, in non-sticky mode the session validity info is migrated as well.
+     * @param maxSessionsPerSecond the max number of sessions to migrate per second, <code>0</code> means no limit.
+     * @param operationTimeout the timeout in millis to wait for storage operations.
+     * @param maxQueueSize the max number of sessions waiting for migration.
+     */
+    public SessionMigrator( @Nonnull final StorageClient storage, @Nonnull final MemcachedNodesManager memcachedNodesManager,
+            @Nonnull final Statistics statistics, final boolean sticky, final int maxSessionsPerSecond,
+            final long operationTimeout, final int maxQueueSize ) {
+        _storage = storage;
+        _memcachedNodesManager = memcachedNodesManager;
+        _sessionIdFormat = memcachedNodesManager.getSessionIdFormat();
+        _statistics = statistics;
+        _sticky = sticky;
+        _maxSessionsPerSecond = maxSessionsPerSecond;
+        _operationTimeout = operationTimeout;
+        _maxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * Registers the given session for migration if it's stored on a draining node and was not migrated in
+     * this version yet.
+     *
+     * @param sessionId the session id.
+     * @param version the version of the session (see {@link MemcachedBackupSession#getVersion()}).
+     * @param expiration the expiration of the migrated session in seconds.
+     */
+    public void register( @Nonnull final String sessionId, final long version, final int expiration ) {
+        if ( _stopped || !_memcachedNodesManager.isSessionOnDrainingNode( sessionId ) ) {
+            return;
+        }
+        final Migration migration = _migrations.get( sessionId );
+        if ( migration != null && migration.version == version ) {
+            return;
+        }
+        synchronized ( this ) {
+            if ( !_queue.containsKey( sessionId ) && _queue.size() >= _maxQueueSize ) {
+                _statistics.sessionMigrationDropped();
+                return;
+            }
+            _queue.put( sessionId, new Candidate( version, expiration ) );
+            if ( _thread == null ) {
+                _thread = new NamedThreadFactory( "msm-session-migration" ).newThread( new Runnable() {
+                    @Override
+                    public void run() {
+                        migrateQueued();
+                    }
+                } );
+                _thread.start();
+            }
+        }
+    }
+
+    private void migrateQueued() {
+        try {
+            while ( !_stopped ) {
+                final String sessionId;
+                final Candidate candidate;
+                synchronized ( this ) {
+                    final Iterator<Map.Entry<String, Candidate>> iter = _queue.entrySet().iterator();
+                    if ( !iter.hasNext() ) {
+                        _thread = null;
+                        return;
+                    }
+                    final Map.Entry<String, Candidate> entry = iter.next();
+                    iter.remove();
+                    sessionId = entry.getKey();
+                    candidate = entry.getValue();
+                }
+                acquire();
+                migrate( sessionId, candidate.version, candidate.expiration );
+            }
+        } catch ( final InterruptedException e ) {
+            LOG.info( "Session migration was interrupted." );
+        } catch ( final RuntimeException e ) {
+            LOG.warn( "Session migration failed.", e );
+        }
+        synchronized ( this ) {
+            _thread = null;
+        }
+    }
+
+    private void acquire() throws InterruptedException {
+        if ( _maxSessionsPerSecond <= 0 ) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final long next = Math.max( now, _nextMigrationTime );
+        _nextMigrationTime = next + 1000L / _maxSessionsPerSecond;
+        if ( next > now ) {
+            Thread.sleep( next - now );
+        }
+    }
+
+    /**
+     * Copies the given session to a node that is not draining.
+     *
+     * @param sessionId the session id.
+     * @param version the version of the session.
+     * @param expiration the expiration of the copy in seconds.
+     * @return <code>true</code> if the session was migrated.
+     */
+    boolean migrate( @Nonnull final String sessionId, final long version, final int expiration ) {
+        final String nodeId = _sessionIdFormat.extractMemcachedId( sessionId );
+        final String newNodeId = nodeId != null ? _memcachedNodesManager.getMigrationNodeId( nodeId ) : null;
+        if ( newNodeId == null ) {
+            LOG.info( "There's no node available to migrate session " + sessionId + " to." );
+            return false;
+        }
+        final String newSessionId = _sessionIdFormat.createNewSessionId( sessionId, newNodeId );
+        try {
+            byte[] validityData = null;
+            if ( !_sticky ) {
+                // the validity info is read before the session data, so that the data is at least as new as the version
+                validityData = _storage.get( _sessionIdFormat.createValidityInfoKeyName( sessionId ) );
+                if ( validityData == null || SessionValidityInfo.decode( validityData ).getVersion() != version ) {
+                    return false;
+                }
+            }
+            final byte[] data = _storage.get( _memcachedNodesManager.getStorageKeyFormat().format( sessionId ) );
+            if ( data == null ) {
+                return false;
+            }
+
+            final Future<Boolean> dataResult = _storage.set( _memcachedNodesManager.getStorageKeyFormat().format( newSessionId ),
+                    toMemcachedExpiration( expiration ), data );
+            Future<Boolean> validityResult = null;
+            if ( validityData != null ) {
+                final int maxInactiveInterval = SessionValidityInfo.decode( validityData ).getMaxInactiveInterval();
+                validityResult = _storage.set( _sessionIdFormat.createValidityInfoKeyName( newSessionId ),
+                        toMemcachedExpiration( maxInactiveInterval <= 0 ? 0 : maxInactiveInterval ), validityData );
+            }
+            if ( !dataResult.get( _operationTimeout, TimeUnit.MILLISECONDS )
+                    || validityResult != null && !validityResult.get( _operationTimeout, TimeUnit.MILLISECONDS ) ) {
+                LOG.info( "Could not store migrated session " + newSessionId + "." );
+                return false;
+            }
+            // the mapping is stored after the copy, so that the copy exists when the mapping is seen
+            if ( !_storage.set( _sessionIdFormat.createMigrationKeyName( sessionId ), toMemcachedExpiration( expiration ),
+                    encodeMigration( newSessionId, version ) ).get( _operationTimeout, TimeUnit.MILLISECONDS ) ) {
+                LOG.info( "Could not store the mapping of migrated session " + sessionId + " to " + newSessionId + "." );
+            }
+
+            addMigration( sessionId, new Migration( newSessionId, version ) );
+            _statistics.sessionMigrated();
+            if ( LOG.isDebugEnabled() ) {
+                LOG.debug( "Migrated session " + sessionId + " to " + newSessionId );
+            }
+            return true;
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch ( final Exception e ) {
+            LOG.info( "Could not migrate session " + sessionId + ": " + e );
+            return false;
+        }
+    }
+
+    private void addMigration( @Nonnull final String sessionId, @Nonnull final Migration migration ) {
+        _migrations.put( sessionId, migration );
+        _migratedSessionIds.put( migration.newSessionId, Boolean.TRUE );
+    }
+
+    /**
+     * Returns the migration of the given session, if it's not known locally it's loaded from memcached
+     * (the session might have been migrated by another tomcat).
+     */
+    @CheckForNull
+    private Migration getMigration( @Nonnull final String sessionId ) {
+        final Migration migration = _migrations.get( sessionId );
+        if ( migration != null ) {
+            return migration;
+        }
+        try {
+            final byte[] data = _storage.get( _sessionIdFormat.createMigrationKeyName( sessionId ) );
+            if ( data == null ) {
+                return null;
+            }
+            final Migration result = decodeMigration( data );
+            addMigration( sessionId, result );
+            return result;
+        } catch ( final RuntimeException e ) {
+            LOG.info( "Could not load the migration of session " + sessionId + ": " + e );
+            return null;
+        }
+    }
+
+    /**
+     * Determines, if the given session was migrated (in any version), by this or another tomcat.
+     *
+     * @param sessionId the id of the session stored on a draining node.
+     */
+    public boolean isMigrated( @Nonnull final String sessionId ) {
+        return getMigration( sessionId ) != null;
+    }
+
+    /**
+     * Returns the id of the migrated copy of the given session, if the session was migrated in the given version.
+     * If the session was modified since it was migrated the migration is discarded, the session must be
+     * registered again.
+     *
+     * @param sessionId the id of the session stored on a draining node.
+     * @param version the current version of the session.
+     * @return the new session id, or <code>null</code> if there's no copy of this version.
+     */
+    @CheckForNull
+    public String getMigratedSessionId( @Nonnull final String sessionId, final long version ) {
+        final Migration migration = getMigration( sessionId );
+        if ( migration == null ) {
+            return null;
+        }
+        if ( migration.version != version ) {
+            _migrations.remove( sessionId );
+            return null;
+        }
+        return migration.newSessionId;
+    }
+
+    /**
+     * Determines, if the given session id is the id of a migrated copy of a session, that was
+     * migrated or looked up (see {@link #getMigratedSessionId(String, long)}) by this tomcat.
+     *
+     * @param sessionId the (new) session id.
+     */
+    public boolean isMigratedSessionId( @Nonnull final String sessionId ) {
+        return _migratedSessionIds.containsKey( sessionId );
+    }
+
+    /**
+     * The number of sessions waiting for migration.
+     */
+    public synchronized int getQueueSize() {
+        return _queue.size();
+    }
+
+    /**
+     * Stops migrating sessions.
+     */
+    public void stop() {
+        _stopped = true;
+        synchronized ( this ) {
+            _queue.clear();
+            if ( _thread != null ) {
+                _thread.interrupt();
+            }
+        }
+    }
+
+    private static final class Candidate {
+
+        final long version;
+        final int expiration;
+
+        Candidate( final long version, final int expiration ) {
+            this.version = version;
+            this.expiration = expiration;
+        }
+
+    }
+
+    @Nonnull
+    static byte[] encodeMigration( @Nonnull final String newSessionId, final long version ) {
+        final byte[] id = newSessionId.getBytes( UTF_8 );
+        final byte[] data = new byte[ 8 + id.length ];
+        encodeNum( version, data, 0, 8 );
+        System.arraycopy( id, 0, data, 8, id.length );
+        return data;
+    }
+
+    @Nonnull
+    static Migration decodeMigration( @Nonnull final byte[] data ) {
+        return new Migration( new String( data, 8, data.length - 8, UTF_8 ), decodeNum( data, 0, 8 ) );
+    }
+
+    static final class Migration {
+
+        final String newSessionId;
+        final long version;
+
+        Migration( final String newSessionId, final long version ) {
+            this.newSessionId = newSessionId;
+            this.version = version;
+        }
+
+    }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.catalina.Session;
+
+/**
+ * Determines which sessions shall be offloaded in sticky mode, i.e. removed from the local session map so
+ * that they only live in memcached until they're accessed again, and keeps a lightweight {@link Stub} for
+ * each offloaded session.
+ * <p>
+ * A session is offloaded if it's idle for at least <code>idleSeconds</code>. Additionally, if the estimated
+ * heap used by the local sessions (the size of their serialized attributes) exceeds the <code>maxBytes</code>,
+ * the least recently accessed sessions are offloaded until the estimate is below this budget again.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class SessionOffloader {
+
+    private static final Comparator<MemcachedBackupSession> LEAST_RECENTLY_ACCESSED = new Comparator<MemcachedBackupSession>() {
+        @Override
+        public int compare( final MemcachedBackupSession o1, final MemcachedBackupSession o2 ) {
+            final long t1 = o1.getThisAccessedTimeInternal();
+            final long t2 = o2.getThisAccessedTimeInternal();
+            return t1 < t2 ? -1 : ( t1 == t2 ? 0 : 1 );
+        }
+    };
+
+    private final long _idleMillis;
+    private final long _maxBytes;
+    private final ConcurrentMap<String, Stub> _stubs = new ConcurrentHashMap<String, Stub>();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param idleSeconds the time in seconds a session must be idle before it's offloaded, <code>0</code> disables this.
+     * @param maxBytes the max estimated heap in bytes used by the local sessions, <code>0</code> disables this.
+     */
+    public SessionOffloader( final int idleSeconds, final long maxBytes ) {
+        if ( idleSeconds <= 0 && maxBytes <= 0 ) {
+            throw new IllegalArgumentException( "Either idleSeconds or maxBytes must be > 0." );
+        }
+        _idleMillis = idleSeconds * 1000L;
+        _maxBytes = maxBytes;
+    }
+
+    /**
+     * Determines the sessions that shall be offloaded. Only sessions that are valid, that have been stored in
+     * memcached and that are not just being stored are taken into account.
+     *
+     * @param sessions the local sessions.
+     * @param now the current time in millis.
+     * @param minIdleMillis the time a session must be idle at least to be offloaded because of the heap budget.
+     * @return the sessions to offload, the least recently accessed first.
+     */
+    @Nonnull
+    public List<MemcachedBackupSession> selectSessions( @Nonnull final Session[] sessions, final long now, final long minIdleMillis ) {
+        final List<MemcachedBackupSession> result = new ArrayList<MemcachedBackupSession>();
+        final List<MemcachedBackupSession> candidates = new ArrayList<MemcachedBackupSession>();
+        long heapSize = 0;
+        for ( final Session s : sessions ) {
+            final MemcachedBackupSession session = (MemcachedBackupSession) s;
+            if ( !isOffloadable( session ) ) {
+                heapSize += session.getDataSize();
+                continue;
+            }
+            final long idle = now - session.getThisAccessedTimeInternal();
+            if ( _idleMillis > 0 && idle >= _idleMillis ) {
+                result.add( session );
+            }
+            else {
+                heapSize += session.getDataSize();
+                if ( idle >= minIdleMillis ) {
+                    candidates.add( session );
+                }
+            }
+        }
+        if ( _maxBytes > 0 && heapSize > _maxBytes ) {
+            Collections.sort( candidates, LEAST_RECENTLY_ACCESSED );
+            for ( final Iterator<MemcachedBackupSession> iter = candidates.iterator(); iter.hasNext() && heapSize > _maxBytes; ) {
+                final MemcachedBackupSession session = iter.next();
+                heapSize -= session.getDataSize();
+                result.add( session );
+            }
+        }
+        Collections.sort( result, LEAST_RECENTLY_ACCESSED );
+        return result;
+    }
+
+    private boolean isOffloadable( final MemcachedBackupSession session ) {
+        return session.isValidInternal()
+                && !session.isExpiring()
+                && !session.isBackupRunning()
+                && !session.isExpirationUpdateRunning()
+                && session.getDataHashCode() != 0;
+    }
+
+    /**
+     * Registers the given session as offloaded.
+     *
+     * @param session the session that is removed from the local session map.
+     * @param memcachedNodeId the id of the memcached node the session is stored in.
+     */
+    public void offloaded( @Nonnull final MemcachedBackupSession session, @CheckForNull final String memcachedNodeId ) {
+        _stubs.put( session.getIdInternal(), new Stub( session.getIdInternal(), session.getCreationTimeInternal(),
+                session.getThisAccessedTimeInternal(), session.getMaxInactiveInterval(), memcachedNodeId ) );
+    }
+
+    /**
+     * Determines if the session with the given id is offloaded.
+     */
+    public boolean isOffloaded( @Nonnull final String sessionId ) {
+        return _stubs.containsKey( sessionId );
+    }
+
+    /**
+     * Removes the stub of the given session, e.g. because the session was loaded from memcached again.
+     *
+     * @return the stub or <code>null</code> if the session was not offloaded.
+     */
+    @CheckForNull
+    public Stub remove( @Nonnull final String sessionId ) {
+        return _stubs.remove( sessionId );
+    }
+
+    /**
+     * Removes the stubs of sessions that are expired, as memcached will have dropped them as well.
+     *
+     * @param now the current time in millis.
+     * @return the number of removed stubs.
+     */
+    public int expireStubs( final long now ) {
+        int result = 0;
+        for ( final Iterator<Stub> iter = _stubs.values().iterator(); iter.hasNext(); ) {
+            if ( iter.next().isExpired( now ) ) {
+                iter.remove();
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The number of offloaded sessions.
+     */
+    public int size() {
+        return _stubs.size();
+    }
+
+    /**
+     * Removes all stubs.
+     */
+    public void clear() {
+        _stubs.clear();
+    }
+
+    /**
+     * The data kept for an offloaded session.
+     */
+    public static final class Stub {
+
+        private final String _id;
+        private final long _creationTime;
+        private final long _lastAccessedTime;
+        private final int _maxInactiveInterval;
+        private final String _memcachedNodeId;
+
+        Stub( final String id, final long creationTime, final long lastAccessedTime, final int maxInactiveInterval,
+                final String memcachedNodeId ) {
+            _id = id;
+            _creationTime = creationTime;
+            _lastAccessedTime = lastAccessedTime;
+            _maxInactiveInterval = maxInactiveInterval;
+            _memcachedNodeId = memcachedNodeId;
+        }
+
+        public String getId() {
+            return _id;
+        }
+
+        public long getCreationTime() {
+            return _creationTime;
+        }
+
+        public long getLastAccessedTime() {
+            return _lastAccessedTime;
+        }
+
+        public int getMaxInactiveInterval() {
+            return _maxInactiveInterval;
+        }
+
+        @CheckForNull
+        public String getMemcachedNodeId() {
+            return _memcachedNodeId;
+        }
+
+        boolean isExpired( final long now ) {
+            return _maxInactiveInterval > 0 && now - _lastAccessedTime >= _maxInactiveInterval * 1000L;
+        }
+
+    }
+
+}
@@ -31,7 +31,9 @@ import org.apache.juli.logging.LogFactory;
  * <p>
  * The stored information contains the maxInactiveInterval (might be session specific),
  * lastAccessedTime (used by tomcat7 with STRICT_SERVLET_COMPLIANCE/LAST_ACCESS_AT_START) and
- * thisAccessedTime.
+ * thisAccessedTime. Additionally it contains the version of the session data, which is incremented
+ * whenever the session data is stored because it was modified (used to detect a stale secondary backup).
+ * The version was appended to the format later, so that it's ignored by older versions of msm.
  * </p>
  *
  * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
@@ -44,11 +46,18 @@ public class SessionValidityInfo {
     private final int _maxInactiveInterval;
     private final long _lastAccessedTime;
     private final long _thisAccessedTime;
+    private final long _version;
 
     public SessionValidityInfo( final int maxInactiveInterval, final long lastAccessedTime, final long thisAccessedTime ) {
+        this( maxInactiveInterval, lastAccessedTime, thisAccessedTime, 0 );
+    }
+
+    public SessionValidityInfo( final int maxInactiveInterval, final long lastAccessedTime, final long thisAccessedTime,
+            final long version ) {
         _maxInactiveInterval = maxInactiveInterval;
         _lastAccessedTime = lastAccessedTime;
         _thisAccessedTime = thisAccessedTime;
+        _version = version;
     }
 
     /**
@@ -56,16 +65,26 @@ public class SessionValidityInfo {
      */
     @Nonnull
     public static byte[] encode( final long maxInactiveInterval, final long lastAccessedTime, final long thisAccessedTime ) {
+        return encode( maxInactiveInterval, lastAccessedTime, thisAccessedTime, 0 );
+    }
+
+    /**
+     * Encode the given information to a byte[], that can be decoded later via {@link #decode(byte[])}.
+     */
+    @Nonnull
+    public static byte[] encode( final long maxInactiveInterval, final long lastAccessedTime, final long thisAccessedTime,
+            final long version ) {
         int idx = 0;
-        final byte[] data = new byte[ 4 + 2 * 8 ];
+        final byte[] data = new byte[ 4 + 3 * 8 ];
         encodeNum( maxInactiveInterval, data, idx, 4 );
         encodeNum( lastAccessedTime, data, idx += 4, 8 );
         encodeNum( thisAccessedTime, data, idx += 8, 8 );
+        encodeNum( version, data, idx += 8, 8 );
         return data;
     }
 
     /**
-     * Decode the given byte[] that previously was created via {@link #encode(long, long, long)}.
+     * Decode the given byte[] that previously was created via {@link #encode(long, long, long, long)}.
      */
     @Nonnull
     public static SessionValidityInfo decode( @Nonnull final byte[] data ) {
@@ -73,7 +92,9 @@ public class SessionValidityInfo {
         final int maxInactiveInterval = (int) decodeNum( data, idx, 4 );
         final long lastAccessedTime = decodeNum( data, idx += 4, 8 );
         final long thisAccessedTime = decodeNum( data, idx += 8, 8 );
-        return new SessionValidityInfo( maxInactiveInterval, lastAccessedTime, thisAccessedTime );
+        // validity info stored by older versions does not contain the version
+        final long version = data.length >= idx + 16 ? decodeNum( data, idx += 8, 8 ) : 0;
+        return new SessionValidityInfo( maxInactiveInterval, lastAccessedTime, thisAccessedTime, version );
     }
 
     public int getMaxInactiveInterval() {
@@ -88,6 +109,10 @@ public class SessionValidityInfo {
         return _thisAccessedTime;
     }
 
+    public long getVersion() {
+        return _version;
+    }
+
     public boolean isValid() {
         final long timeNow = System.currentTimeMillis();
         final int timeIdle = (int) ((timeNow - _thisAccessedTime) / 1000L);
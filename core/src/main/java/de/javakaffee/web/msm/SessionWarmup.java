@@ -0,0 +1,326 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.catalina.Session;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import de.javakaffee.web.msm.storage.StorageClient;
+
+/**
+ * Warms up the sessions of a sticky tomcat after a restart: when the tomcat is stopped the ids of its sessions are
+ * {@link #recordSessions(String, Session[], int) recorded} in the storage (per jvmRoute), when it's started again
+ * these sessions are {@link #start(String, long) prefetched} in the background with multi-gets and staged as
+ * serialized bytes. When a session is requested it's {@link #take(String) taken} from the staged sessions instead
+ * of being loaded from memcached.
+ * <p>
+ * Prefetching is rate-limited (<code>maxSessionsPerSecond</code>) and the memory used by staged sessions is
+ * bounded (<code>maxBytes</code>). Staged sessions that are not requested are dropped after <code>stageTtlMillis</code>.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class SessionWarmup {
+
+    private static final Log LOG = LogFactory.getLog( SessionWarmup.class );
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+    static final String NAME_PREFIX = "msmWarmup_";
+    static final int BATCH_SIZE = 100;
+    static final int THREADS = 4;
+
+    private static final Comparator<MemcachedBackupSession> MOST_RECENTLY_ACCESSED = new Comparator<MemcachedBackupSession>() {
+        @Override
+        public int compare( final MemcachedBackupSession o1, final MemcachedBackupSession o2 ) {
+            final long t1 = o1.getThisAccessedTimeInternal();
+            final long t2 = o2.getThisAccessedTimeInternal();
+            return t1 > t2 ? -1 : ( t1 == t2 ? 0 : 1 );
+        }
+    };
+
+    private final SharedStorage _sharedStorage;
+    private volatile StorageClient _storage;
+    private volatile MemcachedNodesManager _memcachedNodesManager;
+    private final Statistics _statistics;
+    private final int _maxSessions;
+    private final int _maxSessionsPerSecond;
+    private final long _maxBytes;
+
+    private final ConcurrentMap<String, byte[]> _staged = new ConcurrentHashMap<String, byte[]>();
+    private final AtomicLong _stagedBytes = new AtomicLong();
+    private volatile long _stagedUntil;
+    private long _nextFetchTime;
+    private volatile Thread _thread;
+    private volatile boolean _stopped;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param sharedStorage the storage the session ids are recorded in.
+     * @param storage the storage the sessions are prefetched from.
+     * @param memcachedNodesManager provides the storage key format and the node availability.
+     * @param statistics the statistics to report the warm-up to.
+     * @param maxSessions the max number of sessions to record/prefetch.
+     * @param maxSessionsPerSecond the max number of sessions to prefetch per second, <code>0</code> means no limit.
+     * @param maxBytes the max number of bytes of staged sessions.
+     */
+    public SessionWarmup( @Nonnull final SharedStorage sharedStorage, @Nonnull final StorageClient storage,
+            @Nonnull final MemcachedNodesManager memcachedNodesManager, @Nonnull final Statistics statistics,
+            final int maxSessions, final int maxSessionsPerSecond, final long maxBytes ) {
+        _sharedStorage = sharedStorage;
+        _storage = storage;
+        _memcachedNodesManager = memcachedNodesManager;
+        _statistics = statistics;
+        _maxSessions = maxSessions;
+        _maxSessionsPerSecond = maxSessionsPerSecond;
+        _maxBytes = maxBytes;
+    }
+
+    /**
+     * Sets the storage client and memcached nodes config to use from now on, after the memcached nodes config
+     * was reloaded.
+     *
+     * @param storage the storage the sessions are prefetched from.
+     * @param memcachedNodesManager provides the storage key format and the node availability.
+     */
+    void setStorage( @Nonnull final StorageClient storage, @Nonnull final MemcachedNodesManager memcachedNodesManager ) {
+        _storage = storage;
+        _memcachedNodesManager = memcachedNodesManager;
+    }
+
+    /**
+     * Records the ids of the given sessions, the most recently accessed first and up to <code>maxSessions</code>.
+     *
+     * @param jvmRoute the jvmRoute of this tomcat.
+     * @param sessions the local sessions.
+     * @param expiration the expiration of the record in seconds.
+     * @return the number of recorded session ids.
+     */
+    public int recordSessions( @CheckForNull final String jvmRoute, @Nonnull final Session[] sessions, final int expiration ) {
+        final List<MemcachedBackupSession> valid = new ArrayList<MemcachedBackupSession>( sessions.length );
+        for ( final Session session : sessions ) {
+            final MemcachedBackupSession msmSession = (MemcachedBackupSession) session;
+            if ( msmSession.isValidInternal() && msmSession.getDataHashCode() != 0 ) {
+                valid.add( msmSession );
+            }
+        }
+        Collections.sort( valid, MOST_RECENTLY_ACCESSED );
+        final int count = Math.min( valid.size(), _maxSessions );
+        final StringBuilder sb = new StringBuilder( count * 40 );
+        for ( int i = 0; i < count; i++ ) {
+            if ( i > 0 ) {
+                sb.append( '\n' );
+            }
+            sb.append( valid.get( i ).getIdInternal() );
+        }
+        _sharedStorage.set( getName( jvmRoute ), sb.toString().getBytes( UTF_8 ), expiration );
+        return count;
+    }
+
+    /**
+     * Starts prefetching the sessions recorded for the given jvmRoute in the background.
+     *
+     * @param jvmRoute the jvmRoute of this tomcat.
+     * @param stageTtlMillis the time in millis that prefetched sessions are staged.
+     */
+    public void start( @CheckForNull final String jvmRoute, final long stageTtlMillis ) {
+        _stagedUntil = System.currentTimeMillis() + stageTtlMillis;
+        _thread = new NamedThreadFactory( "msm-warmup" ).newThread( new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prefetch( jvmRoute );
+                } catch ( final InterruptedException e ) {
+                    LOG.info( "Session warm-up was interrupted." );
+                } catch ( final Exception e ) {
+                    LOG.warn( "Session warm-up failed.", e );
+                } finally {
+                    _stagedUntil = System.currentTimeMillis() + stageTtlMillis;
+                    _thread = null;
+                }
+            }
+        } );
+        _thread.start();
+    }
+
+    void prefetch( @CheckForNull final String jvmRoute ) throws InterruptedException, ExecutionException {
+        final long start = System.currentTimeMillis();
+        final String name = getName( jvmRoute );
+        final byte[] data = _sharedStorage.get( name );
+        if ( data == null ) {
+            LOG.info( "No sessions recorded for warm-up." );
+            return;
+        }
+        _sharedStorage.delete( name );
+
+        final MemcachedNodesManager memcachedNodesManager = _memcachedNodesManager;
+        final List<String> ids = new ArrayList<String>();
+        for ( final String id : Arrays.asList( new String( data, UTF_8 ).split( "\n" ) ) ) {
+            if ( ids.size() < _maxSessions && id.length() > 0 && memcachedNodesManager.canHitMemcached( id ) ) {
+                ids.add( id );
+            }
+        }
+
+        final AtomicInteger prefetched = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool( THREADS, new NamedThreadFactory( "msm-warmup-fetch" ) );
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for ( int i = 0; i < ids.size(); i += BATCH_SIZE ) {
+                final List<String> batch = ids.subList( i, Math.min( ids.size(), i + BATCH_SIZE ) );
+                futures.add( executor.submit( new Runnable() {
+                    @Override
+                    public void run() {
+                        fetch( batch, prefetched );
+                    }
+                } ) );
+            }
+            for ( final Future<?> future : futures ) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final long duration = System.currentTimeMillis() - start;
+        _statistics.sessionWarmupFinished( ids.size(), prefetched.get(), duration );
+        LOG.info( "Session warm-up finished in " + duration + " ms: prefetched " + prefetched.get() + " of " + ids.size()
+                + " recorded sessions (hit rate " + ( ids.isEmpty() ? 0 : prefetched.get() * 100 / ids.size() ) + "%, "
+                + _stagedBytes.get() + " bytes staged)." );
+    }
+
+    private void fetch( final List<String> batch, final AtomicInteger prefetched ) {
+        if ( _stopped || _stagedBytes.get() >= _maxBytes ) {
+            return;
+        }
+        try {
+            acquire( batch.size() );
+            final StorageClient storage = _storage;
+            final StorageKeyFormat keyFormat = _memcachedNodesManager.getStorageKeyFormat();
+            final Map<String, String> idsByKey = new HashMap<String, String>( batch.size() * 2 );
+            for ( final String id : batch ) {
+                idsByKey.put( keyFormat.format( id ), id );
+            }
+            for ( final Map.Entry<String, byte[]> entry : storage.getMulti( idsByKey.keySet() ).entrySet() ) {
+                final byte[] data = entry.getValue();
+                if ( _stagedBytes.addAndGet( data.length ) > _maxBytes ) {
+                    _stagedBytes.addAndGet( -data.length );
+                    return;
+                }
+                _staged.put( idsByKey.get( entry.getKey() ), data );
+                prefetched.incrementAndGet();
+            }
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } catch ( final RuntimeException e ) {
+            LOG.info( "Could not prefetch " + batch.size() + " sessions: " + e );
+        }
+    }
+
+    private void acquire( final int permits ) throws InterruptedException {
+        if ( _maxSessionsPerSecond <= 0 ) {
+            return;
+        }
+        final long wait;
+        synchronized ( this ) {
+            final long now = System.currentTimeMillis();
+            final long next = Math.max( now, _nextFetchTime );
+            _nextFetchTime = next + permits * 1000L / _maxSessionsPerSecond;
+            wait = next - now;
+        }
+        if ( wait > 0 ) {
+            Thread.sleep( wait );
+        }
+    }
+
+    /**
+     * Removes and returns the staged session with the given id.
+     *
+     * @param sessionId the session id.
+     * @return the serialized session or <code>null</code> if it's not staged.
+     */
+    @CheckForNull
+    public byte[] take( @Nonnull final String sessionId ) {
+        final byte[] result = _staged.remove( sessionId );
+        if ( result != null ) {
+            _stagedBytes.addAndGet( -result.length );
+        }
+        return result;
+    }
+
+    /**
+     * Drops the staged sessions if they're staged longer than the stage ttl.
+     *
+     * @param now the current time in millis.
+     */
+    public void expireStaged( final long now ) {
+        if ( _thread == null && now > _stagedUntil && !_staged.isEmpty() ) {
+            LOG.info( "Dropping " + _staged.size() + " prefetched sessions that were not requested." );
+            clear();
+        }
+    }
+
+    /**
+     * Stops prefetching and drops the staged sessions.
+     */
+    public void stop() {
+        _stopped = true;
+        final Thread thread = _thread;
+        if ( thread != null ) {
+            thread.interrupt();
+        }
+        clear();
+    }
+
+    /**
+     * The number of staged sessions.
+     */
+    public int size() {
+        return _staged.size();
+    }
+
+    private void clear() {
+        for ( final String id : new ArrayList<String>( _staged.keySet() ) ) {
+            take( id );
+        }
+    }
+
+    private static String getName( @CheckForNull final String jvmRoute ) {
+        return NAME_PREFIX + ( jvmRoute != null ? jvmRoute.replaceAll( "[^A-Za-z0-9_]", "_" ) : "" );
+    }
+
+}
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import de.javakaffee.web.msm.storage.StorageClient;
+
+/**
+ * Provides access to data that is shared by all tomcats of a webapp (e.g. dictionaries used by transcoders),
+ * stored in the session storage. Keys are formatted with the {@link StorageKeyFormat} of the webapp, so that data
+ * is shared per webapp (version).
+ * <p>
+ * If session ids contain the memcached node id, the data is stored on all primary memcached nodes, so that
+ * the data is still available when a node fails. Entries are stored without expiration, but might still be
+ * evicted by memcached if it runs out of memory, or lost if a node is restarted.
+ * </p>
+ * <p>
+ * Dictionaries (that map ids to data) use {@link #assignId(String, byte[], long)}, which takes new ids from a
+ * counter stored on all nodes and checks on all nodes that an id is not taken yet, so that an id is never bound
+ * to different data, also not after an entry was evicted or a node was restarted empty. As entries can be
+ * evicted, dictionaries {@link #reseed(Map) re-seed} the entries they know locally.
+ * </p>
+ * <p>
+ * The storage client and the memcached nodes config are resolved from the session service for each operation,
+ * so that an instance can be kept (e.g. by a transcoder) across a reload of the memcached nodes config.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class SharedStorage {
+
+    private static final Log LOG = LogFactory.getLog( SharedStorage.class );
+
+    private static final Charset ASCII = Charset.forName( "US-ASCII" );
+    private static final String LAST_ID_SUFFIX = "lastId";
+    private static final int MAX_ASSIGN_ATTEMPTS = 100;
+    private static final int MAX_BACKGROUND_TASKS = 100;
+
+    private final MemcachedSessionService _service;
+    private final ExecutorService _executor;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param service the session service that provides the current storage client and memcached nodes config.
+     */
+    public SharedStorage( @Nonnull final MemcachedSessionService service ) {
+        _service = service;
+        // the thread terminates when idle, so that the executor doesn't need to be shut down
+        _executor = new ThreadPoolExecutor( 0, 1, 10, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>( MAX_BACKGROUND_TASKS ), new NamedThreadFactory( "msm-shared-storage" ),
+                new ThreadPoolExecutor.DiscardPolicy() );
+    }
+
+    /**
+     * Runs the given task in the background, e.g. storage operations that shall not block a request.
+     * The task is dropped if too many tasks are pending.
+     *
+     * @param task the task to run.
+     */
+    public void execute( @Nonnull final Runnable task ) {
+        _executor.execute( task );
+    }
+
+    /**
+     * Reads the data stored for the given name.
+     *
+     * @param name the name of the data, must not contain '-' or '.'.
+     * @return the data or <code>null</code> if no data is stored with this name.
+     */
+    @CheckForNull
+    public byte[] get( @Nonnull final String name ) {
+        checkName( name );
+        final StorageClient storage = _service.getStorageClient();
+        for ( final String key : getKeys( name ) ) {
+            try {
+                final byte[] result = storage.get( key );
+                if ( result != null ) {
+                    return result;
+                }
+            } catch ( final RuntimeException e ) {
+                LOG.info( "Could not read shared data " + key + ": " + e );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the data stored for the given names with one multi get.
+     *
+     * @param names the names of the data, must not contain '-' or '.'.
+     * @return the data by name, names without data are not contained.
+     */
+    @Nonnull
+    public Map<String, byte[]> getMulti( @Nonnull final Collection<String> names ) {
+        final Map<String, String> namesByKey = getKeys( names );
+        final Map<String, byte[]> result = new HashMap<String, byte[]>( names.size() * 2 );
+        try {
+            for ( final Map.Entry<String, byte[]> entry : _service.getStorageClient().getMulti( namesByKey.keySet() ).entrySet() ) {
+                final String name = namesByKey.get( entry.getKey() );
+                if ( name != null && !result.containsKey( name ) ) {
+                    result.put( name, entry.getValue() );
+                }
+            }
+        } catch ( final RuntimeException e ) {
+            LOG.info( "Could not read " + names.size() + " shared data entries: " + e );
+        }
+        return result;
+    }
+
+    /**
+     * Stores the given entries on each node that doesn't have them (anymore), e.g. because they were evicted or
+     * the node was restarted. Entries are added, so that data stored concurrently is not overwritten. All keys are
+     * checked with one multi get, only missing entries are written.
+     *
+     * @param entries the data by name, names must not contain '-' or '.'.
+     * @return the number of entries that were stored on at least one node, or <code>-1</code> if the storage
+     *  is not available.
+     */
+    public int reseed( @Nonnull final Map<String, byte[]> entries ) {
+        if ( entries.isEmpty() ) {
+            return 0;
+        }
+        final StorageClient storage = _service.getStorageClient();
+        final long timeout = _service.getOperationTimeout();
+        final Map<String, String> namesByKey = getKeys( entries.keySet() );
+        try {
+            final Map<String, byte[]> stored = storage.getMulti( namesByKey.keySet() );
+            final Map<String, Future<Boolean>> added = new LinkedHashMap<String, Future<Boolean>>();
+            for ( final Map.Entry<String, String> entry : namesByKey.entrySet() ) {
+                final byte[] data = entries.get( entry.getValue() );
+                final byte[] existing = stored.get( entry.getKey() );
+                if ( existing == null ) {
+                    added.put( entry.getKey(), storage.add( entry.getKey(), 0, data ) );
+                } else if ( !Arrays.equals( existing, data ) ) {
+                    LOG.error( "Shared data " + entry.getKey() + " differs from the locally known data." );
+                }
+            }
+            final Collection<String> reseeded = new HashSet<String>();
+            for ( final Map.Entry<String, Future<Boolean>> entry : added.entrySet() ) {
+                if ( entry.getValue().get( timeout, TimeUnit.MILLISECONDS ) ) {
+                    reseeded.add( namesByKey.get( entry.getKey() ) );
+                }
+            }
+            if ( !reseeded.isEmpty() ) {
+                LOG.info( "Re-seeded " + reseeded.size() + " shared data entries that were missing." );
+            }
+            return reseeded.size();
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } catch ( final Exception e ) {
+            LOG.info( "Could not re-seed " + entries.size() + " shared data entries: " + e );
+            return -1;
+        }
+    }
+
+    /**
+     * Stores the given data with the given name on all nodes, if no data is stored with this name on any node.
+     * If there's already data stored on one node, it's also copied to the nodes the given data was added to
+     * before, so that all nodes agree on the data stored with this name.
+     *
+     * @param name the name of the data, must not contain '-' or '.'.
+     * @param data the data to store.
+     * @return the data stored with this name: the given data if it was stored, otherwise the data that
+     *  was already stored; <code>null</code> if a node is not available.
+     */
+    @CheckForNull
+    public byte[] putIfAbsent( @Nonnull final String name, @Nonnull final byte[] data ) {
+        checkName( name );
+        final StorageClient storage = _service.getStorageClient();
+        final long timeout = _service.getOperationTimeout();
+        final List<String> keys = getKeys( name );
+        for ( int i = 0; i < keys.size(); i++ ) {
+            try {
+                if ( storage.add( keys.get( i ), 0, data ).get( timeout, TimeUnit.MILLISECONDS ) ) {
+                    continue;
+                }
+                final byte[] existing = storage.get( keys.get( i ) );
+                if ( existing == null ) {
+                    LOG.info( "Could not add shared data " + keys.get( i ) + ", it was removed concurrently." );
+                    return null;
+                }
+                for ( int j = 0; j < i; j++ ) {
+                    storage.set( keys.get( j ), 0, existing ).get( timeout, TimeUnit.MILLISECONDS );
+                }
+                return existing;
+            } catch ( final Exception e ) {
+                LOG.info( "Could not add shared data " + keys.get( i ) + ": " + e );
+                return null;
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Increments the counter with the given name on all nodes.
+     *
+     * @param name the name of the counter, must not contain '-' or '.'.
+     * @param initial the value of the counter on a node that does not have the counter (yet).
+     * @return the highest value of the counter on all nodes, or <code>-1</code> if the counter could not
+     *  be incremented on all nodes.
+     */
+    public long incrementCounter( @Nonnull final String name, final long initial ) {
+        checkName( name );
+        final StorageClient storage = _service.getStorageClient();
+        long result = -1;
+        for ( final String key : getKeys( name ) ) {
+            try {
+                final long value = storage.incr( key, 1, initial, 0 );
+                if ( value < 0 ) {
+                    LOG.info( "Could not increment shared counter " + key + "." );
+                    return -1;
+                }
+                result = Math.max( result, value );
+            } catch ( final RuntimeException e ) {
+                LOG.info( "Could not increment shared counter " + key + ": " + e );
+                return -1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the counter with the given name.
+     *
+     * @param name the name of the counter, must not contain '-' or '.'.
+     * @return the highest value of the counter on the available nodes, or <code>-1</code> if no
+     *  node has the counter.
+     */
+    public long getCounter( @Nonnull final String name ) {
+        checkName( name );
+        final StorageClient storage = _service.getStorageClient();
+        long result = -1;
+        for ( final String key : getKeys( name ) ) {
+            try {
+                final byte[] value = storage.get( key );
+                if ( value != null ) {
+                    result = Math.max( result, Long.parseLong( new String( value, ASCII ).trim() ) );
+                }
+            } catch ( final RuntimeException e ) {
+                LOG.info( "Could not read shared counter " + key + ": " + e );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Assigns a new id to the given data, the data is stored with the name <code>prefix + id</code>.
+     * Ids are taken from a counter, so that they're never reused: if data is stored already for a new id
+     * (e.g. because the counter was evicted) the next id is taken.
+     *
+     * @param prefix the prefix of the names of the dictionary, must not contain '-' or '.'.
+     * @param data the data to store.
+     * @param minId the min id to assign, should be greater than all ids known locally, so that the counter
+     *  continues after these ids if it was lost.
+     * @return the id, or <code>-1</code> if no id could be assigned because a node is not available.
+     */
+    public long assignId( @Nonnull final String prefix, @Nonnull final byte[] data, final long minId ) {
+        long initial = minId;
+        for ( int i = 0; i < MAX_ASSIGN_ATTEMPTS; i++ ) {
+            final long id = incrementCounter( prefix + LAST_ID_SUFFIX, initial );
+            if ( id < 0 ) {
+                return -1;
+            }
+            final byte[] stored = putIfAbsent( prefix + id, data );
+            if ( stored == null ) {
+                return -1;
+            }
+            if ( Arrays.equals( stored, data ) ) {
+                return id;
+            }
+            initial = id + 1;
+        }
+        LOG.warn( "Could not assign an id with prefix " + prefix + " after " + MAX_ASSIGN_ATTEMPTS + " attempts." );
+        return -1;
+    }
+
+    /**
+     * Returns the last id assigned via {@link #assignId(String, byte[], long)} with the given prefix.
+     *
+     * @param prefix the prefix of the names of the dictionary.
+     * @return the last id, or <code>-1</code> if no id was assigned so far (or the counter was lost).
+     */
+    public long getLastId( @Nonnull final String prefix ) {
+        return getCounter( prefix + LAST_ID_SUFFIX );
+    }
+
+    /**
+     * Stores the given data with the given name, existing data with this name is replaced.
+     *
+     * @param name the name of the data, must not contain '-' or '.'.
+     * @param data the data to store.
+     * @param expiration the expiration in seconds, <code>0</code> means no expiration.
+     */
+    public void set( @Nonnull final String name, @Nonnull final byte[] data, final int expiration ) {
+        checkName( name );
+        final StorageClient storage = _service.getStorageClient();
+        for ( final String key : getKeys( name ) ) {
+            try {
+                storage.set( key, expiration, data );
+            } catch ( final RuntimeException e ) {
+                LOG.info( "Could not set shared data " + key + ": " + e );
+            }
+        }
+    }
+
+    /**
+     * Deletes the data stored with the given name.
+     *
+     * @param name the name of the data, must not contain '-' or '.'.
+     */
+    public void delete( @Nonnull final String name ) {
+        checkName( name );
+        final StorageClient storage = _service.getStorageClient();
+        for ( final String key : getKeys( name ) ) {
+            try {
+                storage.delete( key );
+            } catch ( final RuntimeException e ) {
+                LOG.info( "Could not delete shared data " + key + ": " + e );
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the given names by storage key.
+     */
+    private Map<String, String> getKeys( final Collection<String> names ) {
+        final Map<String, String> result = new LinkedHashMap<String, String>( names.size() * 4 );
+        for ( final String name : names ) {
+            checkName( name );
+            for ( final String key : getKeys( name ) ) {
+                result.put( key, name );
+            }
+        }
+        return result;
+    }
+
+    private List<String> getKeys( final String name ) {
+        final MemcachedNodesManager memcachedNodesManager = _service.getMemcachedNodesManager();
+        final StorageKeyFormat keyFormat = memcachedNodesManager.getStorageKeyFormat();
+        if ( !memcachedNodesManager.isEncodeNodeIdInSessionId() ) {
+            return Collections.singletonList( keyFormat.format( name ) );
+        }
+        final List<String> nodeIds = memcachedNodesManager.getPrimaryNodeIds();
+        final List<String> result = new ArrayList<String>( nodeIds.size() );
+        for ( final String nodeId : nodeIds ) {
+            result.add( keyFormat.format( memcachedNodesManager.getSessionIdFormat().createSessionId( name, nodeId ) ) );
+        }
+        return result;
+    }
+
+    private static void checkName( final String name ) {
+        if ( name.indexOf( '-' ) >= 0 || name.indexOf( '.' ) >= 0 ) {
+            throw new IllegalArgumentException( "The name must not contain '-' or '.': " + name );
+        }
+    }
+
+}
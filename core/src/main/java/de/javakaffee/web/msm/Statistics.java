@@ -38,6 +38,33 @@ public class Statistics {
     private final AtomicLong _numRequestsWithoutSessionModification = new AtomicLong();
     private final AtomicLong _numNonStickySessionsPingFailed = new AtomicLong();
     private final AtomicLong _numNonStickySessionsReadOnlyRequest = new AtomicLong();
+    private final AtomicLong _numStorageLookupsRejected = new AtomicLong();
+    private final AtomicLong _numSessionsOffloaded = new AtomicLong();
+    private final AtomicLong _numSessionsRehydrated = new AtomicLong();
+    private final AtomicLong _offHeapSessionBytes = new AtomicLong();
+    private final AtomicLong _numOffHeapSessionHits = new AtomicLong();
+    private final AtomicLong _numOffHeapSessionMisses = new AtomicLong();
+    private final AtomicLong _numOffHeapSessionEvictions = new AtomicLong();
+    private final AtomicLong _numWarmupSessionsRecorded = new AtomicLong();
+    private final AtomicLong _numWarmupSessionsPrefetched = new AtomicLong();
+    private final AtomicLong _numWarmupSessionHits = new AtomicLong();
+    private final AtomicLong _warmupDuration = new AtomicLong();
+    private final AtomicLong _numShutdownFlushSessionsFlushed = new AtomicLong();
+    private final AtomicLong _numShutdownFlushSessionsFailed = new AtomicLong();
+    private final AtomicLong _shutdownFlushDuration = new AtomicLong();
+    private final AtomicLong _numHedgedReads = new AtomicLong();
+    private final AtomicLong _numHedgedReadsWon = new AtomicLong();
+    private final AtomicLong _numSecondaryBackupsReplicated = new AtomicLong();
+    private final AtomicLong _numSecondaryBackupsRefreshed = new AtomicLong();
+    private final AtomicLong _numSecondaryBackupsCoalesced = new AtomicLong();
+    private final AtomicLong _numSecondaryBackupsDropped = new AtomicLong();
+    private final AtomicLong _numSecondaryBackupsRepaired = new AtomicLong();
+    private final AtomicLong _numSessionsMigrated = new AtomicLong();
+    private final AtomicLong _numSessionIdsChangedForMigration = new AtomicLong();
+    private final AtomicLong _numSessionMigrationsDropped = new AtomicLong();
+    private final AtomicLong _numSessionsRejectedAsTooLarge = new AtomicLong();
+    private final AtomicLong _numCircuitBreakerOpenings = new AtomicLong();
+    private final AtomicLong _numRequestsFailedFast = new AtomicLong();
 
     private final Map<StatsType, MinMaxAvgProbe> _probes;
 
@@ -155,6 +182,261 @@ public class Statistics {
         return _numNonStickySessionsReadOnlyRequest.get();
     }
 
+    /**
+     * A session lookup was rejected without hitting the storage, because the session id is known to be missing
+     * or because the client exceeded the max storage misses.
+     */
+    public void storageLookupRejected() {
+        _numStorageLookupsRejected.incrementAndGet();
+    }
+    public long getStorageLookupsRejected() {
+        return _numStorageLookupsRejected.get();
+    }
+
+    /**
+     * An idle session was removed from the local session map, so that it only lives in memcached.
+     */
+    public void sessionOffloaded() {
+        _numSessionsOffloaded.incrementAndGet();
+    }
+    public long getSessionsOffloaded() {
+        return _numSessionsOffloaded.get();
+    }
+
+    /**
+     * An offloaded session was loaded from memcached again.
+     */
+    public void sessionRehydrated() {
+        _numSessionsRehydrated.incrementAndGet();
+    }
+    public long getSessionsRehydrated() {
+        return _numSessionsRehydrated.get();
+    }
+
+    /**
+     * The number of bytes of sessions stored off-heap changed by the given delta.
+     */
+    public void offHeapSessionBytesChanged( final long delta ) {
+        _offHeapSessionBytes.addAndGet( delta );
+    }
+    public long getOffHeapSessionBytes() {
+        return _offHeapSessionBytes.get();
+    }
+
+    /**
+     * An offloaded session was deserialized from off-heap memory.
+     */
+    public void offHeapSessionHit() {
+        _numOffHeapSessionHits.incrementAndGet();
+    }
+    public long getOffHeapSessionHits() {
+        return _numOffHeapSessionHits.get();
+    }
+
+    /**
+     * An offloaded session was not found in off-heap memory and had to be loaded from memcached.
+     */
+    public void offHeapSessionMiss() {
+        _numOffHeapSessionMisses.incrementAndGet();
+    }
+    public long getOffHeapSessionMisses() {
+        return _numOffHeapSessionMisses.get();
+    }
+
+    /**
+     * A session was evicted from off-heap memory to make room for another session.
+     */
+    public void offHeapSessionEvicted() {
+        _numOffHeapSessionEvictions.incrementAndGet();
+    }
+    public long getOffHeapSessionEvictions() {
+        return _numOffHeapSessionEvictions.get();
+    }
+
+    /**
+     * The session warm-up after startup finished.
+     *
+     * @param recorded the number of sessions recorded on the last shutdown.
+     * @param prefetched the number of sessions that were prefetched.
+     * @param durationInMillis the duration of the warm-up.
+     */
+    public void sessionWarmupFinished( final int recorded, final int prefetched, final long durationInMillis ) {
+        _numWarmupSessionsRecorded.set( recorded );
+        _numWarmupSessionsPrefetched.set( prefetched );
+        _warmupDuration.set( durationInMillis );
+    }
+    public long getWarmupSessionsRecorded() {
+        return _numWarmupSessionsRecorded.get();
+    }
+    public long getWarmupSessionsPrefetched() {
+        return _numWarmupSessionsPrefetched.get();
+    }
+    public long getWarmupDuration() {
+        return _warmupDuration.get();
+    }
+
+    /**
+     * A requested session was taken from the sessions prefetched by the warm-up.
+     */
+    public void sessionWarmupHit() {
+        _numWarmupSessionHits.incrementAndGet();
+    }
+    public long getWarmupSessionHits() {
+        return _numWarmupSessionHits.get();
+    }
+
+    /**
+     * The flush of modified sessions on shutdown finished.
+     *
+     * @param flushed the number of sessions that were stored.
+     * @param failed the number of sessions that could not be stored.
+     * @param durationInMillis the duration of the flush.
+     */
+    public void shutdownFlushFinished( final int flushed, final int failed, final long durationInMillis ) {
+        _numShutdownFlushSessionsFlushed.set( flushed );
+        _numShutdownFlushSessionsFailed.set( failed );
+        _shutdownFlushDuration.set( durationInMillis );
+    }
+    public long getShutdownFlushSessionsFlushed() {
+        return _numShutdownFlushSessionsFlushed.get();
+    }
+    public long getShutdownFlushSessionsFailed() {
+        return _numShutdownFlushSessionsFailed.get();
+    }
+    public long getShutdownFlushDuration() {
+        return _shutdownFlushDuration.get();
+    }
+
+    /**
+     * A hedged read of the secondary session backup was issued, as the primary read was slow.
+     */
+    public void hedgedReadIssued() {
+        _numHedgedReads.incrementAndGet();
+    }
+    public long getHedgedReads() {
+        return _numHedgedReads.get();
+    }
+
+    /**
+     * A hedged read of the secondary session backup answered before the primary read.
+     */
+    public void hedgedReadWon() {
+        _numHedgedReadsWon.incrementAndGet();
+    }
+    public long getHedgedReadsWon() {
+        return _numHedgedReadsWon.get();
+    }
+
+    /**
+     * A modified session was written to its secondary backup node.
+     */
+    public void secondaryBackupReplicated() {
+        _numSecondaryBackupsReplicated.incrementAndGet();
+    }
+    public long getSecondaryBackupsReplicated() {
+        return _numSecondaryBackupsReplicated.get();
+    }
+
+    /**
+     * The expiration of a secondary session backup was refreshed (touched).
+     */
+    public void secondaryBackupRefreshed() {
+        _numSecondaryBackupsRefreshed.incrementAndGet();
+    }
+    public long getSecondaryBackupsRefreshed() {
+        return _numSecondaryBackupsRefreshed.get();
+    }
+
+    /**
+     * A pending secondary backup was superseded by a newer one of the same session.
+     */
+    public void secondaryBackupCoalesced() {
+        _numSecondaryBackupsCoalesced.incrementAndGet();
+    }
+    public long getSecondaryBackupsCoalesced() {
+        return _numSecondaryBackupsCoalesced.get();
+    }
+
+    /**
+     * A pending secondary backup was dropped because the replication queue was full.
+     */
+    public void secondaryBackupDropped() {
+        _numSecondaryBackupsDropped.incrementAndGet();
+    }
+    public long getSecondaryBackupsDropped() {
+        return _numSecondaryBackupsDropped.get();
+    }
+
+    /**
+     * A missing or outdated secondary backup was re-seeded from the primary session.
+     */
+    public void secondaryBackupRepaired() {
+        _numSecondaryBackupsRepaired.incrementAndGet();
+    }
+    public long getSecondaryBackupsRepaired() {
+        return _numSecondaryBackupsRepaired.get();
+    }
+
+    /**
+     * A session stored on a draining node was copied to another node.
+     */
+    public void sessionMigrated() {
+        _numSessionsMigrated.incrementAndGet();
+    }
+    public long getSessionsMigrated() {
+        return _numSessionsMigrated.get();
+    }
+
+    /**
+     * The id of a session stored on a draining node was changed to the id of its migrated copy.
+     */
+    public void sessionIdChangedForMigration() {
+        _numSessionIdsChangedForMigration.incrementAndGet();
+    }
+    public long getSessionIdsChangedForMigration() {
+        return _numSessionIdsChangedForMigration.get();
+    }
+
+    /**
+     * A session stored on a draining node was not registered for migration because the queue was full.
+     */
+    public void sessionMigrationDropped() {
+        _numSessionMigrationsDropped.incrementAndGet();
+    }
+    public long getSessionMigrationsDropped() {
+        return _numSessionMigrationsDropped.get();
+    }
+
+    /**
+     * A session could not be stored because it exceeds the item size limit of the storage.
+     */
+    public void sessionRejectedAsTooLarge() {
+        _numSessionsRejectedAsTooLarge.incrementAndGet();
+    }
+    public long getSessionsRejectedAsTooLarge() {
+        return _numSessionsRejectedAsTooLarge.get();
+    }
+
+    /**
+     * The circuit breaker of a memcached node was opened after consecutive timeouts.
+     */
+    public void circuitBreakerOpened() {
+        _numCircuitBreakerOpenings.incrementAndGet();
+    }
+    public long getCircuitBreakerOpenings() {
+        return _numCircuitBreakerOpenings.get();
+    }
+
+    /**
+     * A session was not loaded because the circuit breaker of its memcached node is open.
+     */
+    public void requestFailedFast() {
+        _numRequestsFailedFast.incrementAndGet();
+    }
+    public long getRequestsFailedFast() {
+        return _numRequestsFailedFast.get();
+    }
+
     public static enum StatsType {
 
         /**
@@ -368,6 +650,98 @@ public class Statistics {
         public void requestWithoutAttributesAccess() {
         }
 
+        @Override
+        public void storageLookupRejected() {
+        }
+
+        @Override
+        public void sessionOffloaded() {
+        }
+
+        @Override
+        public void sessionRehydrated() {
+        }
+
+        @Override
+        public void offHeapSessionBytesChanged( final long delta ) {
+        }
+
+        @Override
+        public void offHeapSessionHit() {
+        }
+
+        @Override
+        public void offHeapSessionMiss() {
+        }
+
+        @Override
+        public void offHeapSessionEvicted() {
+        }
+
+        @Override
+        public void sessionWarmupFinished( final int recorded, final int prefetched, final long durationInMillis ) {
+        }
+
+        @Override
+        public void sessionWarmupHit() {
+        }
+
+        @Override
+        public void shutdownFlushFinished( final int flushed, final int failed, final long durationInMillis ) {
+        }
+
+        @Override
+        public void hedgedReadIssued() {
+        }
+
+        @Override
+        public void hedgedReadWon() {
+        }
+
+        @Override
+        public void secondaryBackupReplicated() {
+        }
+
+        @Override
+        public void secondaryBackupRefreshed() {
+        }
+
+        @Override
+        public void secondaryBackupCoalesced() {
+        }
+
+        @Override
+        public void secondaryBackupDropped() {
+        }
+
+        @Override
+        public void secondaryBackupRepaired() {
+        }
+
+        @Override
+        public void sessionMigrated() {
+        }
+
+        @Override
+        public void sessionIdChangedForMigration() {
+        }
+
+        @Override
+        public void sessionMigrationDropped() {
+        }
+
+        @Override
+        public void sessionRejectedAsTooLarge() {
+        }
+
+        @Override
+        public void circuitBreakerOpened() {
+        }
+
+        @Override
+        public void requestFailedFast() {
+        }
+
     };
 
 }
@@ -15,6 +15,13 @@
  */
 package de.javakaffee.web.msm;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import net.spy.memcached.BinaryConnectionFactory;
 import net.spy.memcached.ConnectionFactory;
 import net.spy.memcached.ConnectionFactoryBuilder;
@@ -23,8 +30,11 @@ import net.spy.memcached.MemcachedClient;
 import net.spy.memcached.auth.AuthDescriptor;
 import net.spy.memcached.auth.PlainCallbackHandler;
 
+import de.javakaffee.web.msm.storage.ChunkedStorageClient;
 import de.javakaffee.web.msm.storage.MemcachedStorageClient;
+import de.javakaffee.web.msm.storage.MetaProtocolStorageClient;
 import de.javakaffee.web.msm.storage.RedisStorageClient;
+import de.javakaffee.web.msm.storage.ShardedStorageClient;
 import de.javakaffee.web.msm.storage.StorageClient;
 
 /**
@@ -36,6 +46,7 @@ import de.javakaffee.web.msm.storage.StorageClient;
 public class StorageClientFactory {
 
     public static final String PROTOCOL_BINARY = "binary";
+    public static final String PROTOCOL_META = "meta";
 
     static interface CouchbaseClientFactory {
         MemcachedClient createCouchbaseClient(MemcachedNodesManager memcachedNodesManager,
@@ -43,30 +54,123 @@ public class StorageClientFactory {
                 long maxReconnectDelay, Statistics statistics );
     }
 
+    /**
+     * Creates the storage client. For memcached (not for couchbase buckets or redis) several independent memcached
+     * clients may be created, each with its own I/O thread and its own connection per memcached node, which are
+     * combined by a {@link ShardedStorageClient}.
+     *
+     * @param connectionsPerNode the number of memcached clients the session keys are distributed over.
+     * @param controlConnection specifies if lock and validity info keys shall use a separate memcached client.
+     * @param redisHashLayout specifies if redis stores the keys of a session in a single hash.
+     * @param chunkSize if positive, values larger than this are stored in parts via a {@link ChunkedStorageClient}.
+     */
     protected StorageClient createStorageClient(final MemcachedNodesManager memcachedNodesManager,
                                                 final String memcachedProtocol, final String username, final String password, final long operationTimeout,
-                                                final long maxReconnectDelay, final Statistics statistics ) {
+                                                final long maxReconnectDelay, final Statistics statistics,
+                                                final int connectionsPerNode, final boolean controlConnection, final boolean redisHashLayout,
+                                                final int chunkSize ) {
+        final StorageClient result = createStorageClient(memcachedNodesManager, memcachedProtocol, username, password, operationTimeout,
+                maxReconnectDelay, statistics, connectionsPerNode, controlConnection, redisHashLayout);
+        return chunkSize > 0 ? new ChunkedStorageClient(result, chunkSize, operationTimeout) : result;
+    }
+
+    private StorageClient createStorageClient(final MemcachedNodesManager memcachedNodesManager,
+                                              final String memcachedProtocol, final String username, final String password, final long operationTimeout,
+                                              final long maxReconnectDelay, final Statistics statistics,
+                                              final int connectionsPerNode, final boolean controlConnection, final boolean redisHashLayout ) {
         try {
             if (memcachedNodesManager.isRedisConfig()) {
-                return new RedisStorageClient(memcachedNodesManager.getMemcachedNodes(), operationTimeout);
+                return new RedisStorageClient(memcachedNodesManager.getMemcachedNodes(), operationTimeout, redisHashLayout);
             }
             final ConnectionType connectionType = ConnectionType.valueOf(memcachedNodesManager.isCouchbaseBucketConfig(), username, password);
             if (connectionType.isCouchbaseBucketConfig()) {
                 return new MemcachedStorageClient(MemcachedHelper.createCouchbaseClient(memcachedNodesManager, memcachedProtocol, username, password,
                         operationTimeout, maxReconnectDelay, statistics));
             }
-            final ConnectionFactory connectionFactory = MemcachedHelper.createConnectionFactory(memcachedNodesManager, connectionType, memcachedProtocol,
+            if (PROTOCOL_META.equals(memcachedProtocol) && connectionType.isSASL()) {
+                throw new IllegalArgumentException("The memcached meta protocol does not support SASL authentication.");
+            }
+            if (connectionsPerNode > 1 || controlConnection) {
+                final List<StorageClient> shards = new ArrayList<StorageClient>(connectionsPerNode);
+                for (int i = 0; i < Math.max(1, connectionsPerNode); i++) {
+                    shards.add(createMemcachedStorageClient(memcachedNodesManager, connectionType, memcachedProtocol,
+                            username, password, operationTimeout, maxReconnectDelay, statistics));
+                }
+                final StorageClient control = controlConnection
+                        ? createMemcachedStorageClient(memcachedNodesManager, connectionType, memcachedProtocol,
+                                username, password, operationTimeout, maxReconnectDelay, statistics)
+                        : null;
+                return new ShardedStorageClient(shards, control);
+            }
+            return createMemcachedStorageClient(memcachedNodesManager, connectionType, memcachedProtocol,
                     username, password, operationTimeout, maxReconnectDelay, statistics);
-            return new MemcachedStorageClient(new MemcachedClient(connectionFactory, memcachedNodesManager.getAllMemcachedAddresses()));
         } catch (final Exception e) {
             throw new RuntimeException("Could not create memcached client", e);
         }
     }
 
+    private StorageClient createMemcachedStorageClient(final MemcachedNodesManager memcachedNodesManager,
+                                                       final ConnectionType connectionType, final String memcachedProtocol, final String username, final String password, final long operationTimeout,
+                                                       final long maxReconnectDelay, final Statistics statistics) throws IOException {
+        if (PROTOCOL_META.equals(memcachedProtocol)) {
+            return new MetaProtocolStorageClient(memcachedNodesManager.getAllMemcachedAddresses(),
+                    new SuffixBasedKeyLocator(memcachedNodesManager), operationTimeout);
+        }
+        return MemcachedHelper.createMemcachedStorageClient(memcachedNodesManager, connectionType, memcachedProtocol,
+                username, password, operationTimeout, maxReconnectDelay, statistics);
+    }
+
+    /**
+     * Locates the memcached node of a key for the {@link MetaProtocolStorageClient} like the
+     * {@link SuffixBasedNodeLocator} does for spymemcached: based on the node id that's part of the session id,
+     * backup keys are stored on the next available node.
+     */
+    static class SuffixBasedKeyLocator implements MetaProtocolStorageClient.KeyLocator {
+
+        private final MemcachedNodesManager _memcachedNodesManager;
+        private final Map<String, InetSocketAddress> _addressesByNodeId = new HashMap<String, InetSocketAddress>();
+        private final InetSocketAddress _singleAddress;
+
+        SuffixBasedKeyLocator(final MemcachedNodesManager memcachedNodesManager) {
+            _memcachedNodesManager = memcachedNodesManager;
+            final List<InetSocketAddress> addresses = memcachedNodesManager.getAllMemcachedAddresses();
+            for (final InetSocketAddress address : addresses) {
+                _addressesByNodeId.put(memcachedNodesManager.getNodeId(address), address);
+            }
+            _singleAddress = memcachedNodesManager.isEncodeNodeIdInSessionId() ? null : addresses.get(0);
+        }
+
+        @Override
+        public InetSocketAddress getAddress(final String key) {
+            if (_singleAddress != null) {
+                return _singleAddress;
+            }
+            final SessionIdFormat sessionIdFormat = _memcachedNodesManager.getSessionIdFormat();
+            String nodeId = sessionIdFormat.extractMemcachedId(key);
+            if (nodeId != null && sessionIdFormat.isBackupKey(key)) {
+                nodeId = _memcachedNodesManager.getNextAvailableNodeId(nodeId);
+            }
+            final InetSocketAddress result = nodeId != null ? _addressesByNodeId.get(nodeId) : null;
+            if (result == null) {
+                throw new IllegalArgumentException("No node found for key " + key + " (nodeId: " + nodeId + ", known nodeIds: " + _addressesByNodeId.keySet() + ")");
+            }
+            return result;
+        }
+
+    }
+
     // keep memcached stuff in it's own class, so that classes from spymemcached are not loaded necessarily and don't
     // cause CNFE if spymemcached is not in the classpath.
     static class MemcachedHelper {
 
+        static StorageClient createMemcachedStorageClient(final MemcachedNodesManager memcachedNodesManager,
+                                                          final ConnectionType connectionType, final String memcachedProtocol, final String username, final String password, final long operationTimeout,
+                                                          final long maxReconnectDelay, final Statistics statistics) throws IOException {
+            final ConnectionFactory connectionFactory = createConnectionFactory(memcachedNodesManager, connectionType, memcachedProtocol,
+                    username, password, operationTimeout, maxReconnectDelay, statistics);
+            return new MemcachedStorageClient(new MemcachedClient(connectionFactory, memcachedNodesManager.getAllMemcachedAddresses()));
+        }
+
         static MemcachedClient createCouchbaseClient(final MemcachedNodesManager memcachedNodesManager,
                                                         final String memcachedProtocol, final String username, final String password, final long operationTimeout,
                                                         final long maxReconnectDelay, final Statistics statistics) {
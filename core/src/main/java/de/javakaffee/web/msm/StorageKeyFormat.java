@@ -41,7 +41,7 @@ public class StorageKeyFormat {
     private final String config;
 
 	private StorageKeyFormat(final String prefix, final String config) {
-	    if("lock:".equals(prefix) || "bak:".equals(prefix) || "validity:".equals(prefix)) {
+	    if("lock:".equals(prefix) || "bak:".equals(prefix) || "validity:".equals(prefix) || "migrated:".equals(prefix)) {
 	        throw new IllegalArgumentException("The storage key prefix contains a reserved word (used for other purposes): " + prefix);
 	    }
 		this.prefix = prefix;
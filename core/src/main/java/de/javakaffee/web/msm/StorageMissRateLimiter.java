@@ -0,0 +1,132 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Limits the number of storage misses (lookups of session ids that are not found in memcached)
+ * per client. Each client (e.g. identified by the remote address) gets a token bucket
+ * that is refilled with <code>maxMissesPerSecond</code> tokens per second and holds up to
+ * <code>maxMissesPerSecond</code> tokens. A miss takes one token, a client without
+ * tokens is considered to be {@link #isLimited(String) limited}.
+ * <p>
+ * The buckets are kept in an {@link LRUCache}, so that the memory used is bounded
+ * by the number of tracked clients.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class StorageMissRateLimiter {
+
+    private static final int DEFAULT_MAX_CLIENTS = 10000;
+
+    private final double _maxMissesPerSecond;
+    private final LRUCache<String, TokenBucket> _buckets;
+
+    /**
+     * Creates a new instance that tracks up to 10000 clients.
+     *
+     * @param maxMissesPerSecond the number of storage misses a client may cause per second.
+     */
+    public StorageMissRateLimiter( final int maxMissesPerSecond ) {
+        this( maxMissesPerSecond, DEFAULT_MAX_CLIENTS );
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxMissesPerSecond the number of storage misses a client may cause per second.
+     * @param maxClients the max number of clients to track.
+     */
+    public StorageMissRateLimiter( final int maxMissesPerSecond, final int maxClients ) {
+        if ( maxMissesPerSecond <= 0 ) {
+            throw new IllegalArgumentException( "The maxMissesPerSecond must be > 0, but was " + maxMissesPerSecond );
+        }
+        _maxMissesPerSecond = maxMissesPerSecond;
+        _buckets = new LRUCache<String, TokenBucket>( maxClients );
+    }
+
+    /**
+     * Registers a storage miss for the given client.
+     *
+     * @param client the client id, e.g. the remote address of the request.
+     */
+    public void registerMiss( @Nonnull final String client ) {
+        TokenBucket bucket = _buckets.get( client );
+        if ( bucket == null ) {
+            bucket = new TokenBucket( _maxMissesPerSecond );
+            final TokenBucket previous = _buckets.put( client, bucket );
+            // another thread might have put a bucket in the meantime, just continue with ours
+            if ( previous != null ) {
+                bucket = previous;
+                _buckets.put( client, previous );
+            }
+        }
+        bucket.take( System.currentTimeMillis() );
+    }
+
+    /**
+     * Determines if the given client has exceeded its storage misses.
+     *
+     * @param client the client id, e.g. the remote address of the request.
+     * @return <code>true</code> if the client must not cause further storage lookups for now.
+     */
+    public boolean isLimited( @Nonnull final String client ) {
+        final TokenBucket bucket = _buckets.get( client );
+        return bucket != null && bucket.isEmpty( System.currentTimeMillis() );
+    }
+
+    /**
+     * Removes all tracked clients.
+     */
+    public void clear() {
+        _buckets.clear();
+    }
+
+    private static final class TokenBucket {
+
+        private final double _capacity;
+        private double _tokens;
+        private long _lastRefill;
+
+        TokenBucket( final double capacity ) {
+            _capacity = capacity;
+            _tokens = capacity;
+            _lastRefill = System.currentTimeMillis();
+        }
+
+        synchronized void take( final long now ) {
+            refill( now );
+            _tokens = Math.max( 0, _tokens - 1 );
+        }
+
+        synchronized boolean isEmpty( final long now ) {
+            refill( now );
+            return _tokens < 1;
+        }
+
+        private void refill( final long now ) {
+            if ( now > _lastRefill ) {
+                _tokens = Math.min( _capacity, _tokens + ( now - _lastRefill ) * _capacity / 1000d );
+                _lastRefill = now;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import de.javakaffee.web.msm.storage.StorageClient;
+
+/**
+ * The services that depend on the memcached/storage configuration. They're replaced together when
+ * the configuration is reloaded, therefore they're kept in one immutable object so that a request
+ * never sees e.g. the new storage client together with the former nodes manager.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+final class StorageServices {
+
+    static final StorageServices EMPTY = new StorageServices( null, null, null, null, null );
+
+    private final MemcachedNodesManager _memcachedNodesManager;
+    private final StorageClient _storage;
+    private final BackupSessionService _backupSessionService;
+    private final SessionMigrator _sessionMigrator;
+    private final LockingStrategy _lockingStrategy;
+
+    StorageServices( @Nullable final MemcachedNodesManager memcachedNodesManager, @Nullable final StorageClient storage,
+            @Nullable final BackupSessionService backupSessionService, @Nullable final SessionMigrator sessionMigrator,
+            @Nullable final LockingStrategy lockingStrategy ) {
+        _memcachedNodesManager = memcachedNodesManager;
+        _storage = storage;
+        _backupSessionService = backupSessionService;
+        _sessionMigrator = sessionMigrator;
+        _lockingStrategy = lockingStrategy;
+    }
+
+    StorageServices withMemcachedNodesManager( @Nullable final MemcachedNodesManager memcachedNodesManager ) {
+        return new StorageServices( memcachedNodesManager, _storage, _backupSessionService, _sessionMigrator, _lockingStrategy );
+    }
+
+    StorageServices withStorage( @Nullable final StorageClient storage ) {
+        return new StorageServices( _memcachedNodesManager, storage, _backupSessionService, _sessionMigrator, _lockingStrategy );
+    }
+
+    StorageServices withBackupSessionService( @Nullable final BackupSessionService backupSessionService ) {
+        return new StorageServices( _memcachedNodesManager, _storage, backupSessionService, _sessionMigrator, _lockingStrategy );
+    }
+
+    StorageServices withSessionMigrator( @Nullable final SessionMigrator sessionMigrator ) {
+        return new StorageServices( _memcachedNodesManager, _storage, _backupSessionService, sessionMigrator, _lockingStrategy );
+    }
+
+    StorageServices withLockingStrategy( @Nullable final LockingStrategy lockingStrategy ) {
+        return new StorageServices( _memcachedNodesManager, _storage, _backupSessionService, _sessionMigrator, lockingStrategy );
+    }
+
+    @CheckForNull
+    MemcachedNodesManager getMemcachedNodesManager() {
+        return _memcachedNodesManager;
+    }
+
+    @CheckForNull
+    StorageClient getStorage() {
+        return _storage;
+    }
+
+    @CheckForNull
+    BackupSessionService getBackupSessionService() {
+        return _backupSessionService;
+    }
+
+    @CheckForNull
+    SessionMigrator getSessionMigrator() {
+        return _sessionMigrator;
+    }
+
+    @CheckForNull
+    LockingStrategy getLockingStrategy() {
+        return _lockingStrategy;
+    }
+
+}
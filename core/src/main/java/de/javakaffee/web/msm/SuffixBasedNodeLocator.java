@@ -30,6 +30,9 @@ import java.util.List;
 import java.util.Map;
 import net.spy.memcached.MemcachedConnection;
 
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
 import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.NodeLocator;
 import net.spy.memcached.ops.Operation;
@@ -42,9 +45,10 @@ import net.spy.memcached.ops.Operation;
  */
 class SuffixBasedNodeLocator implements NodeLocator {
 
-    private final List<MemcachedNode> _nodes;
+    private static final Log LOG = LogFactory.getLog( SuffixBasedNodeLocator.class );
+
+    private volatile Nodes _nodes;
 	private final MemcachedNodesManager _memcachedNodesManager;
-    private final Map<String, MemcachedNode> _nodesMap;
 	private final SessionIdFormat _sessionIdFormat;
 
     /**
@@ -59,7 +63,6 @@ class SuffixBasedNodeLocator implements NodeLocator {
      */
     public SuffixBasedNodeLocator( final List<MemcachedNode> nodes, final MemcachedNodesManager memcachedNodesManager,
     		final SessionIdFormat sessionIdFormat) {
-        _nodes = nodes;
         _memcachedNodesManager = memcachedNodesManager;
 
         final Map<String, MemcachedNode> map = new HashMap<String, MemcachedNode>( nodes.size(), 1 );
@@ -68,18 +71,36 @@ class SuffixBasedNodeLocator implements NodeLocator {
             final String nodeId = memcachedNodesManager.getNodeId( (InetSocketAddress) memcachedNode.getSocketAddress() );
             map.put( nodeId, memcachedNode );
         }
-        _nodesMap = map;
+        _nodes = new Nodes( nodes, map );
 
         _sessionIdFormat = sessionIdFormat;
     }
 
+    /**
+     * Replaces the nodes of this locator, so that keys of added node ids are located to the added nodes
+     * and keys of removed node ids are no longer located. The node ids of the nodes are resolved via the
+     * {@link MemcachedNodesManager}, nodes with an address that's unknown to the memcached nodes manager
+     * are ignored.
+     *
+     * @param nodes the new nodes.
+     */
 	@Override
 	public void updateLocator(final List<MemcachedNode> nodes) {
-		// TODO: how to handle this? When does this happen?
-		// The nodes could be updated like in the constructor, but
-		// then the memcachedNodesManager would have to be able to provide a nodeId to a new
-		// address. Should nodeIds be autogenerated then, e.g. following some pattern?
-		throw new UnsupportedOperationException("Not yet supported.");
+        final List<MemcachedNode> knownNodes = new ArrayList<MemcachedNode>( nodes.size() );
+        final Map<String, MemcachedNode> map = new HashMap<String, MemcachedNode>( nodes.size(), 1 );
+        for ( final MemcachedNode memcachedNode : nodes ) {
+            try {
+                final String nodeId = _memcachedNodesManager.getNodeId( (InetSocketAddress) memcachedNode.getSocketAddress() );
+                map.put( nodeId, memcachedNode );
+                knownNodes.add( memcachedNode );
+            } catch ( final IllegalArgumentException e ) {
+                LOG.warn( "Ignoring memcached node " + memcachedNode.getSocketAddress() + " without node id: " + e.getMessage() );
+            }
+        }
+        if ( LOG.isInfoEnabled() ) {
+            LOG.info( "Updated node ids from " + _nodes.map.keySet() + " to " + map.keySet() );
+        }
+        _nodes = new Nodes( knownNodes, map );
 	}
 
     /**
@@ -87,7 +108,7 @@ class SuffixBasedNodeLocator implements NodeLocator {
      */
     @Override
 	public Collection<MemcachedNode> getAll() {
-        return _nodesMap.values();
+        return _nodes.map.values();
     }
 
     /**
@@ -96,9 +117,10 @@ class SuffixBasedNodeLocator implements NodeLocator {
     @Override
 	public MemcachedNode getPrimary( final String key ) {
         final String nodeId = getNodeId( key );
-        final MemcachedNode result = _nodesMap.get( nodeId );
+        final Map<String, MemcachedNode> nodesMap = _nodes.map;
+        final MemcachedNode result = nodesMap.get( nodeId );
         if ( result == null ) {
-            throw new IllegalArgumentException( "No node found for key " + key + " (nodeId: " + nodeId + ", known nodeIds: " + _nodesMap.keySet() + ")" );
+            throw new IllegalArgumentException( "No node found for key " + key + " (nodeId: " + nodeId + ", known nodeIds: " + nodesMap.keySet() + ")" );
         }
         return result;
     }
@@ -125,12 +147,28 @@ class SuffixBasedNodeLocator implements NodeLocator {
     @Override
 	public NodeLocator getReadonlyCopy() {
         final List<MemcachedNode> nodes = new ArrayList<MemcachedNode>();
-        for ( final MemcachedNode node : _nodes ) {
+        for ( final MemcachedNode node : _nodes.list ) {
             nodes.add( new MyMemcachedNodeROImpl( node ) );
         }
         return new SuffixBasedNodeLocator( nodes, _memcachedNodesManager, _sessionIdFormat );
     }
 
+    /**
+     * The nodes and the nodes by node id, replaced together by {@link SuffixBasedNodeLocator#updateLocator(List)}
+     * so that they're always consistent.
+     */
+    private static final class Nodes {
+
+        final List<MemcachedNode> list;
+        final Map<String, MemcachedNode> map;
+
+        Nodes( final List<MemcachedNode> list, final Map<String, MemcachedNode> map ) {
+            this.list = list;
+            this.map = map;
+        }
+
+    }
+
     /**
      * The class that is used for readonly copies.
      * Basically a copy of net.spy.memcached.MemcachedNodeROImpl (which is not visible).
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A bloom filter for strings whose entries expire after some time. The filter consists
+ * of a ring of bloom filters ("slices"), each one covering <code>ttl / numSlices</code> millis.
+ * Keys are added to the current slice, lookups check all slices. When the current slice
+ * is older than its time span the oldest slice is cleared and becomes the current one, so that
+ * a key is remembered at least <code>ttl * (numSlices - 1) / numSlices</code> and at most
+ * <code>ttl</code> millis.
+ * <p>
+ * The number of keys added to the current slice is counted: when it reaches the expected insertions per slice
+ * the current slice is considered full and the filter rotates early, i.e. the oldest slice is cleared and becomes
+ * the current one. Therefore a slice never contains more keys than it's designed for and the false positive
+ * probability stays bounded even if many more keys are added (e.g. random ids sent by an attacker). In this
+ * case keys are forgotten before the ttl.
+ * </p>
+ * <p>
+ * The memory used by this filter is fixed and only depends on the expected number of insertions
+ * per slice and the false positive probability: with the default probability of 0.1% this are
+ * ~1.8 bytes per expected insertion and slice.
+ * </p>
+ * <p>
+ * As with any bloom filter {@link #mightContain(String)} may return <code>true</code> for keys that
+ * were never added (false positives), but never returns <code>false</code> for keys that were added
+ * within the ttl.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class TimeSlicedBloomFilter {
+
+    public static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.001;
+    public static final int DEFAULT_NUM_SLICES = 4;
+
+    private final AtomicLongArray[] _slices;
+    private final long _bitMask;
+    private final int _numHashes;
+    private final long _sliceMillis;
+    private final int _expectedInsertionsPerSlice;
+    private final AtomicInteger _currentInsertions = new AtomicInteger();
+
+    private volatile int _current;
+    private volatile long _currentSliceStart;
+
+    /**
+     * Creates a new filter with the {@link #DEFAULT_FALSE_POSITIVE_PROBABILITY} and {@link #DEFAULT_NUM_SLICES}.
+     *
+     * @param expectedInsertionsPerSlice the number of keys expected to be added during <code>ttl / numSlices</code>.
+     * @param ttlInMillis the time in millis after that keys are forgotten.
+     */
+    public TimeSlicedBloomFilter( final int expectedInsertionsPerSlice, final long ttlInMillis ) {
+        this( expectedInsertionsPerSlice, DEFAULT_FALSE_POSITIVE_PROBABILITY, DEFAULT_NUM_SLICES, ttlInMillis );
+    }
+
+    /**
+     * Creates a new filter.
+     *
+     * @param expectedInsertionsPerSlice the number of keys expected to be added during <code>ttl / numSlices</code>.
+     * @param falsePositiveProbability the false positive probability of each slice when the expected number of keys was added.
+     * @param numSlices the number of slices, must be at least 2.
+     * @param ttlInMillis the time in millis after that keys are forgotten.
+     */
+    public TimeSlicedBloomFilter( final int expectedInsertionsPerSlice, final double falsePositiveProbability,
+            final int numSlices, final long ttlInMillis ) {
+        if ( expectedInsertionsPerSlice <= 0 ) {
+            throw new IllegalArgumentException( "The expectedInsertionsPerSlice must be > 0, but was " + expectedInsertionsPerSlice );
+        }
+        if ( falsePositiveProbability <= 0 || falsePositiveProbability >= 1 ) {
+            throw new IllegalArgumentException( "The falsePositiveProbability must be in (0, 1), but was " + falsePositiveProbability );
+        }
+        if ( numSlices < 2 ) {
+            throw new IllegalArgumentException( "The numSlices must be >= 2, but was " + numSlices );
+        }
+        if ( ttlInMillis < numSlices ) {
+            throw new IllegalArgumentException( "The ttl must be >= numSlices, but was " + ttlInMillis );
+        }
+
+        // optimal number of bits: m = -n * ln(p) / ln(2)^2, rounded up to a power of two so that we can mask
+        final long optimalBits = (long) Math.ceil( -expectedInsertionsPerSlice * Math.log( falsePositiveProbability )
+                / ( Math.log( 2 ) * Math.log( 2 ) ) );
+        final long numBits = Math.max( 64, Long.highestOneBit( optimalBits - 1 ) << 1 );
+        if ( numBits > Integer.MAX_VALUE * 64L ) {
+            throw new IllegalArgumentException( "The expectedInsertionsPerSlice " + expectedInsertionsPerSlice + " is too large." );
+        }
+        _bitMask = numBits - 1;
+        // optimal number of hash functions: k = m / n * ln(2), computed from the unrounded m
+        _numHashes = Math.max( 1, (int) Math.round( (double) optimalBits / expectedInsertionsPerSlice * Math.log( 2 ) ) );
+        _sliceMillis = ttlInMillis / numSlices;
+        _expectedInsertionsPerSlice = expectedInsertionsPerSlice;
+
+        _slices = new AtomicLongArray[numSlices];
+        for ( int i = 0; i < numSlices; i++ ) {
+            _slices[i] = new AtomicLongArray( (int) ( numBits >>> 6 ) );
+        }
+        _currentSliceStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds the given key to this filter.
+     *
+     * @param key the key to add.
+     */
+    public void put( @Nonnull final String key ) {
+        final long now = System.currentTimeMillis();
+        rotateIfRequired( now );
+        final AtomicLongArray slice = _slices[_current];
+        final long hash = hash( key );
+        final long h1 = hash;
+        final long h2 = ( hash >>> 32 ) | 1;
+        for ( int i = 0; i < _numHashes; i++ ) {
+            final long bit = ( h1 + i * h2 ) & _bitMask;
+            setBit( slice, bit );
+        }
+        if ( _currentInsertions.incrementAndGet() >= _expectedInsertionsPerSlice ) {
+            rotateFullSlice( now );
+        }
+    }
+
+    /**
+     * Determines if the given key might have been added to this filter within the ttl.
+     *
+     * @param key the key to check.
+     * @return <code>false</code> if the key was definitely not added within the ttl, <code>true</code> if it
+     *  was added or if this is a false positive.
+     */
+    public boolean mightContain( @Nonnull final String key ) {
+        rotateIfRequired( System.currentTimeMillis() );
+        final long hash = hash( key );
+        final long h1 = hash;
+        final long h2 = ( hash >>> 32 ) | 1;
+        for ( final AtomicLongArray slice : _slices ) {
+            if ( sliceContains( slice, h1, h2 ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes all keys from this filter.
+     */
+    public synchronized void clear() {
+        for ( final AtomicLongArray slice : _slices ) {
+            clear( slice );
+        }
+        _currentInsertions.set( 0 );
+        _currentSliceStart = System.currentTimeMillis();
+    }
+
+    /**
+     * The number of bytes allocated by the bits of all slices.
+     */
+    public long getSizeInBytes() {
+        return _slices.length * ( _bitMask + 1 ) / 8;
+    }
+
+    int getNumHashes() {
+        return _numHashes;
+    }
+
+    private boolean sliceContains( final AtomicLongArray slice, final long h1, final long h2 ) {
+        for ( int i = 0; i < _numHashes; i++ ) {
+            final long bit = ( h1 + i * h2 ) & _bitMask;
+            if ( ( slice.get( (int) ( bit >>> 6 ) ) & ( 1L << bit ) ) == 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void setBit( final AtomicLongArray slice, final long bit ) {
+        final int idx = (int) ( bit >>> 6 );
+        final long mask = 1L << bit;
+        long current;
+        while ( ( ( current = slice.get( idx ) ) & mask ) == 0 ) {
+            if ( slice.compareAndSet( idx, current, current | mask ) ) {
+                return;
+            }
+        }
+    }
+
+    private void rotateIfRequired( final long now ) {
+        if ( now - _currentSliceStart < _sliceMillis ) {
+            return;
+        }
+        synchronized ( this ) {
+            final long elapsedSlices = ( now - _currentSliceStart ) / _sliceMillis;
+            if ( elapsedSlices < 1 ) {
+                return;
+            }
+            // several slices might have expired since the last access
+            final long slicesToClear = Math.min( elapsedSlices, _slices.length );
+            for ( int i = 0; i < slicesToClear; i++ ) {
+                final int next = ( _current + 1 ) % _slices.length;
+                clear( _slices[next] );
+                _current = next;
+            }
+            _currentInsertions.set( 0 );
+            _currentSliceStart += elapsedSlices * _sliceMillis;
+        }
+    }
+
+    /**
+     * Clears the oldest slice and makes it the current one, as the current slice contains
+     * the expected number of keys.
+     */
+    private synchronized void rotateFullSlice( final long now ) {
+        // another thread might have rotated already
+        if ( _currentInsertions.get() < _expectedInsertionsPerSlice ) {
+            return;
+        }
+        final int next = ( _current + 1 ) % _slices.length;
+        clear( _slices[next] );
+        _current = next;
+        _currentInsertions.set( 0 );
+        _currentSliceStart = now;
+    }
+
+    private static void clear( final AtomicLongArray slice ) {
+        for ( int i = 0; i < slice.length(); i++ ) {
+            slice.set( i, 0 );
+        }
+    }
+
+    /**
+     * A 64 bit hash of the given string (FNV-1a over the chars, finalized with the murmur3 fmix64 step).
+     */
+    static long hash( @Nonnull final String key ) {
+        long h = 0xcbf29ce484222325L;
+        for ( int i = 0; i < key.length(); i++ ) {
+            h ^= key.charAt( i );
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -125,6 +125,7 @@ public class TranscoderService {
             final MemcachedBackupSession session = deserializationResult.getSession();
             session.setAttributesInternal( attributes );
             session.setDataHashCode( Arrays.hashCode( attributesData ) );
+            session.setDataSize( attributesData.length );
             session.setManager( manager );
             session.doAfterDeserialization();
             return session;
@@ -0,0 +1,475 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.storage;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import de.javakaffee.web.msm.LRUCache;
+
+/**
+ * Storage client that stores values larger than the chunk size (e.g. sessions larger than the item size limit
+ * of memcached) in several parts, so that they don't have to be rejected by the storage.
+ * <p>
+ * A large value is split into parts of the chunk size that are stored under keys derived from the key and a
+ * random version (<code>chunk:&lt;version&gt;:&lt;part&gt;:&lt;key&gt;</code>, for backup keys
+ * <code>bak:chunk:&lt;version&gt;:&lt;part&gt;:&lt;key without bak:&gt;</code>, so that the parts are located on
+ * the same node as the key). Once all parts are stored, a small index record with the version, the length and
+ * a checksum is stored under the key itself. Readers read the index and get the parts of this version in one
+ * multi get, so that they never see a mix of the parts of different versions. The parts of a replaced version
+ * are expired after a short grace period, so that concurrent readers of the former version can still finish.
+ * </p>
+ * <p>
+ * Values up to the chunk size are stored as is. Only values that start with the magic bytes of the index
+ * (<code>MSMC</code>) are prefixed with the magic bytes and an escape marker, so that a value is never mistaken
+ * for an index. The parts of recently written or read keys are remembered, so that they're also deleted with the
+ * key. When a key is touched whose parts are not known (e.g. a key written by another tomcat and not read since),
+ * the key is read to find out if it's an index, so that its parts are touched as well.
+ * </p>
+ */
+public class ChunkedStorageClient implements StorageClient {
+
+    private static final Log _log = LogFactory.getLog(ChunkedStorageClient.class);
+
+    private static final int MAGIC = 0x4d534d43; // "MSMC"
+    private static final byte FORMAT_VERSION = 1;
+    private static final byte ESCAPED = 0;
+    private static final int ESCAPE_SIZE = 4 + 1;
+    private static final int INDEX_SIZE = 4 + 1 + 8 + 4 + 4 + 8;
+    private static final String CHUNK_PREFIX = "chunk:";
+    private static final String BACKUP_PREFIX = "bak:";
+    private static final int REPLACED_PARTS_EXPIRATION = 10;
+    private static final int MAX_KNOWN_INDEXES = 10000;
+
+    private final StorageClient _storage;
+    private final int _chunkSize;
+    private final long _operationTimeout;
+    private final Random _random = new Random();
+    private final LRUCache<String, Index> _knownIndexes = new LRUCache<String, Index>(MAX_KNOWN_INDEXES);
+
+    /**
+     * Creates a new instance.
+     *
+     * @param storage the storage client the values and parts are stored with.
+     * @param chunkSize the max size of values that are stored as is, larger values are stored in parts of this size.
+     * @param operationTimeout the timeout in millis to wait for the parts to be stored.
+     */
+    public ChunkedStorageClient(StorageClient storage, int chunkSize, long operationTimeout) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("The chunk size must be positive.");
+        _storage = storage;
+        _chunkSize = chunkSize;
+        _operationTimeout = operationTimeout;
+    }
+
+    @Override
+    public Future<Boolean> add(String key, int exp, byte[] o) {
+        final byte[] value = escape(o);
+        return value.length > _chunkSize ? storeChunked(key, exp, o, true) : _storage.add(key, exp, value);
+    }
+
+    @Override
+    public Future<Boolean> set(String key, int exp, byte[] o) {
+        final byte[] value = escape(o);
+        if (value.length > _chunkSize)
+            return storeChunked(key, exp, o, false);
+        final Index replaced = _knownIndexes.remove(key);
+        final Future<Boolean> result = _storage.set(key, exp, value);
+        if (replaced != null)
+            expireParts(key, replaced);
+        return result;
+    }
+
+    @Override
+    public byte[] get(String key) {
+        return getParts(key, _storage.get(key));
+    }
+
+    @Override
+    public Future<byte[]> getAsync(final String key) {
+        final Future<byte[]> value = _storage.getAsync(key);
+        return new Future<byte[]>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                return value.cancel(mayInterruptIfRunning);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return value.isCancelled();
+            }
+
+            @Override
+            public boolean isDone() {
+                return value.isDone();
+            }
+
+            @Override
+            public byte[] get() throws InterruptedException, ExecutionException {
+                return getParts(key, value.get());
+            }
+
+            @Override
+            public byte[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+                return getParts(key, value.get(timeout, unit));
+            }
+        };
+    }
+
+    /**
+     * Returns the given value, or the value assembled from its parts if it's an index.
+     */
+    private byte[] getParts(String key, byte[] value) {
+        final Index index = Index.decode(value);
+        if (index == null)
+            return unescape(value);
+        final List<String> partKeys = index.getPartKeys(key);
+        return assemble(key, index, partKeys, _storage.getMulti(partKeys));
+    }
+
+    /**
+     * Reads the item with the metadata of the underlying storage, which refers to the index for chunked values.
+     * The chunks of a value are touched together with the index.
+     */
+    @Override
+    public StorageItem getItem(String key, int touchExp) {
+        final StorageItem item = _storage.getItem(key, touchExp);
+        if (item.getValue() == null)
+            return item;
+        if (touchExp >= 0) {
+            final Index index = Index.decode(item.getValue());
+            if (index != null) {
+                for (String partKey : index.getPartKeys(key))
+                    _storage.touch(partKey, touchExp);
+            }
+        }
+        return item.withValue(getParts(key, item.getValue()));
+    }
+
+    @Override
+    public long incr(String key, long by, long def, int exp) {
+        return _storage.incr(key, by, def, exp);
+    }
+
+    @Override
+    public Map<String, byte[]> getMulti(Collection<String> keys) {
+        final Map<String, byte[]> result = _storage.getMulti(keys);
+        Map<String, Index> indexes = null;
+        Map<String, byte[]> unescaped = null;
+        final List<String> partKeys = new ArrayList<String>();
+        for (Map.Entry<String, byte[]> entry : result.entrySet()) {
+            final Index index = Index.decode(entry.getValue());
+            if (index != null) {
+                if (indexes == null)
+                    indexes = new HashMap<String, Index>();
+                indexes.put(entry.getKey(), index);
+                partKeys.addAll(index.getPartKeys(entry.getKey()));
+            } else if (isEscaped(entry.getValue())) {
+                if (unescaped == null)
+                    unescaped = new HashMap<String, byte[]>();
+                unescaped.put(entry.getKey(), unescape(entry.getValue()));
+            }
+        }
+        if (indexes == null && unescaped == null)
+            return result;
+        final Map<String, byte[]> assembled = new HashMap<String, byte[]>(result);
+        if (unescaped != null)
+            assembled.putAll(unescaped);
+        if (indexes == null)
+            return assembled;
+        final Map<String, byte[]> parts = _storage.getMulti(partKeys);
+        for (Map.Entry<String, Index> entry : indexes.entrySet()) {
+            final String key = entry.getKey();
+            final byte[] value = assemble(key, entry.getValue(), entry.getValue().getPartKeys(key), parts);
+            if (value != null)
+                assembled.put(key, value);
+            else
+                assembled.remove(key);
+        }
+        return assembled;
+    }
+
+    @Override
+    public Future<Boolean> delete(String key) {
+        final Index index = _knownIndexes.remove(key);
+        if (index != null) {
+            for (String partKey : index.getPartKeys(key))
+                _storage.delete(partKey);
+        }
+        return _storage.delete(key);
+    }
+
+    @Override
+    public Future<Lease> lease(String key, int exp) {
+        return _storage.lease(key, exp);
+    }
+
+    @Override
+    public Future<Boolean> touch(String key, int exp) {
+        Index index = _knownIndexes.get(key);
+        if (index == null) {
+            // the key might be an index written by another tomcat
+            index = Index.decode(_storage.get(key));
+            if (index != null)
+                _knownIndexes.put(key, index);
+        }
+        if (index != null) {
+            for (String partKey : index.getPartKeys(key))
+                _storage.touch(partKey, exp);
+        }
+        return _storage.touch(key, exp);
+    }
+
+    @Override
+    public Map<InetSocketAddress, Map<String, String>> getStats() {
+        return _storage.getStats();
+    }
+
+    @Override
+    public int connect(long timeoutMillis) throws InterruptedException {
+        return _storage.connect(timeoutMillis);
+    }
+
+    @Override
+    public void shutdown() {
+        _storage.shutdown();
+    }
+
+    @Override
+    public boolean shutdown(long timeoutMillis) throws InterruptedException {
+        return _storage.shutdown(timeoutMillis);
+    }
+
+    /**
+     * The max size of values that are stored as is.
+     */
+    public int getChunkSize() {
+        return _chunkSize;
+    }
+
+    private Future<Boolean> storeChunked(String key, int exp, byte[] o, boolean add) {
+        final CRC32 crc = new CRC32();
+        crc.update(o);
+        final Index index = new Index(_random.nextLong() & Long.MAX_VALUE, o.length, _chunkSize, crc.getValue());
+        final List<String> partKeys = index.getPartKeys(key);
+        try {
+            // the parts are written (pipelined) before the index, so that the index only refers to complete versions
+            final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(partKeys.size());
+            for (int i = 0; i < partKeys.size(); i++) {
+                final int offset = i * _chunkSize;
+                results.add(_storage.set(partKeys.get(i), exp, Arrays.copyOfRange(o, offset, Math.min(o.length, offset + _chunkSize))));
+            }
+            final long deadline = System.currentTimeMillis() + _operationTimeout;
+            for (Future<Boolean> result : results) {
+                if (!result.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    expireParts(key, index);
+                    return new CompletedFuture(false, null);
+                }
+            }
+            final Future<Boolean> indexResult = add ? _storage.add(key, exp, index.encode()) : _storage.set(key, exp, index.encode());
+            if (!indexResult.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                expireParts(key, index);
+                return new CompletedFuture(false, null);
+            }
+            final Index replaced = _knownIndexes.put(key, index);
+            if (replaced != null && replaced.version != index.version)
+                expireParts(key, replaced);
+            if (_log.isDebugEnabled())
+                _log.debug("Stored " + o.length + " bytes of key " + key + " in " + partKeys.size() + " parts.");
+            return new CompletedFuture(true, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new CompletedFuture(false, e);
+        } catch (ExecutionException e) {
+            return new CompletedFuture(false, e.getCause());
+        } catch (TimeoutException e) {
+            return new CompletedFuture(false, e);
+        } catch (RuntimeException e) {
+            return new CompletedFuture(false, e);
+        }
+    }
+
+    private byte[] assemble(String key, Index index, List<String> partKeys, Map<String, byte[]> parts) {
+        final ByteBuffer result = ByteBuffer.allocate(index.length);
+        for (int i = 0; i < partKeys.size(); i++) {
+            final byte[] part = parts.get(partKeys.get(i));
+            if (part == null || part.length != index.getPartLength(i)) {
+                _log.info("Part " + i + " of version " + index.version + " of key " + key + " is missing or incomplete.");
+                return null;
+            }
+            result.put(part);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(result.array());
+        if (crc.getValue() != index.checksum) {
+            _log.warn("The checksum of version " + index.version + " of key " + key + " does not match.");
+            return null;
+        }
+        _knownIndexes.put(key, index);
+        return result.array();
+    }
+
+    private static boolean startsWithMagic(byte[] value) {
+        return value != null && value.length >= 4 && ByteBuffer.wrap(value).getInt() == MAGIC;
+    }
+
+    private static boolean isEscaped(byte[] value) {
+        return startsWithMagic(value) && value.length >= ESCAPE_SIZE && value[4] == ESCAPED;
+    }
+
+    /**
+     * Prefixes the given value with the magic bytes and the escape marker if it starts with the magic bytes,
+     * so that it's not mistaken for an index.
+     */
+    private static byte[] escape(byte[] value) {
+        if (!startsWithMagic(value))
+            return value;
+        return ByteBuffer.allocate(ESCAPE_SIZE + value.length).putInt(MAGIC).put(ESCAPED).put(value).array();
+    }
+
+    private static byte[] unescape(byte[] value) {
+        return isEscaped(value) ? Arrays.copyOfRange(value, ESCAPE_SIZE, value.length) : value;
+    }
+
+    /**
+     * Lets the parts of a replaced version expire soon, not immediately, so that concurrent readers of this
+     * version can still read them.
+     */
+    private void expireParts(String key, Index index) {
+        for (String partKey : index.getPartKeys(key))
+            _storage.touch(partKey, REPLACED_PARTS_EXPIRATION);
+    }
+
+    /**
+     * The index record that's stored under the key of a value that's stored in parts.
+     */
+    static final class Index {
+
+        final long version;
+        final int length;
+        final int chunkSize;
+        final long checksum;
+
+        Index(long version, int length, int chunkSize, long checksum) {
+            this.version = version;
+            this.length = length;
+            this.chunkSize = chunkSize;
+            this.checksum = checksum;
+        }
+
+        int getParts() {
+            return (length + chunkSize - 1) / chunkSize;
+        }
+
+        int getPartLength(int part) {
+            return Math.min(chunkSize, length - part * chunkSize);
+        }
+
+        List<String> getPartKeys(String key) {
+            final String versionPrefix = CHUNK_PREFIX + Long.toHexString(version) + ":";
+            final boolean backup = key.startsWith(BACKUP_PREFIX);
+            final List<String> result = new ArrayList<String>(getParts());
+            for (int i = 0; i < getParts(); i++) {
+                result.add(backup
+                        ? BACKUP_PREFIX + versionPrefix + i + ":" + key.substring(BACKUP_PREFIX.length())
+                        : versionPrefix + i + ":" + key);
+            }
+            return result;
+        }
+
+        byte[] encode() {
+            return ByteBuffer.allocate(INDEX_SIZE).putInt(MAGIC).put(FORMAT_VERSION).putLong(version)
+                    .putInt(length).putInt(chunkSize).putLong(checksum).array();
+        }
+
+        /**
+         * Returns the index stored in the given value, or <code>null</code> if the value is not an index.
+         * Values that start with the magic bytes are escaped when they're stored, so that only an index starts
+         * with the magic bytes followed by the format version.
+         */
+        static Index decode(byte[] value) {
+            if (value == null || value.length != INDEX_SIZE)
+                return null;
+            final ByteBuffer buffer = ByteBuffer.wrap(value);
+            if (buffer.getInt() != MAGIC || buffer.get() != FORMAT_VERSION)
+                return null;
+            final long version = buffer.getLong();
+            final int length = buffer.getInt();
+            final int chunkSize = buffer.getInt();
+            final long checksum = buffer.getLong();
+            if (length < 0 || chunkSize < 1)
+                return null;
+            return new Index(version, length, chunkSize, checksum);
+        }
+
+    }
+
+    private static final class CompletedFuture implements Future<Boolean> {
+
+        private final boolean _result;
+        private final Throwable _exception;
+
+        CompletedFuture(boolean result, Throwable exception) {
+            _result = result;
+            _exception = exception;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public Boolean get() throws ExecutionException {
+            if (_exception != null)
+                throw new ExecutionException(_exception);
+            return _result;
+        }
+
+        @Override
+        public Boolean get(long timeout, TimeUnit unit) throws ExecutionException {
+            return get();
+        }
+
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.storage;
+
+import java.io.IOException;
+
+/**
+ * Signals that the storage rejected a value because it exceeds the item size limit, i.e. memcached replied the
+ * status <code>E2BIG</code> (binary protocol) or <code>SERVER_ERROR object too large for cache</code> (text and
+ * meta protocol). This is the cause of the <code>ExecutionException</code> thrown by the future of the write.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class ItemTooLargeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The reply of memcached's text and meta protocol if an item exceeds the item size limit.
+     */
+    static final String MEMCACHED_REPLY = "SERVER_ERROR object too large for cache";
+
+    public ItemTooLargeException(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.storage;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of {@link StorageClient#lease(String, int)}: whether the requester won the lease, i.e. is the only one
+ * that holds it until the key is deleted or expires.
+ * <p>
+ * With the memcached meta protocol the lease is taken by a single <code>mg</code> with the vivify flag, memcached
+ * replies the flags <code>W</code> (won), <code>Z</code> (another requester already won) and <code>X</code> (the
+ * item was marked stale by an invalidating delete, then the next requester wins it again). Other implementations
+ * take the lease with an add, which cannot report a stale item.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public final class Lease {
+
+    /** The value stored by implementations that take the lease with an add. */
+    static final byte[] LEASED = new byte[] { 'l', 'e', 'a', 's', 'e', 'd' };
+
+    private final boolean _won;
+    private final boolean _stale;
+    private final long _ttl;
+
+    public Lease(boolean won, boolean stale, long ttl) {
+        _won = won;
+        _stale = stale;
+        _ttl = ttl;
+    }
+
+    /**
+     * <code>true</code> if the lease was won by this request.
+     */
+    public boolean isWon() {
+        return _won;
+    }
+
+    /**
+     * <code>true</code> if the lease item was marked stale.
+     */
+    public boolean isStale() {
+        return _stale;
+    }
+
+    /**
+     * The remaining time to live of the lease in seconds, <code>-1</code> if it does not expire, or
+     * {@link StorageItem#UNKNOWN}.
+     */
+    public long getTtl() {
+        return _ttl;
+    }
+
+    @Override
+    public String toString() {
+        return "Lease [won=" + _won + ", stale=" + _stale + ", ttl=" + _ttl + "]";
+    }
+
+    /**
+     * Returns the lease taken by the given add, for implementations without native leases.
+     */
+    static Future<Lease> fromAdd(final Future<Boolean> added) {
+        return new Future<Lease>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                return added.cancel(mayInterruptIfRunning);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return added.isCancelled();
+            }
+
+            @Override
+            public boolean isDone() {
+                return added.isDone();
+            }
+
+            @Override
+            public Lease get() throws InterruptedException, ExecutionException {
+                return toLease(added.get());
+            }
+
+            @Override
+            public Lease get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+                return toLease(added.get(timeout, unit));
+            }
+        };
+    }
+
+    private static Lease toLease(Boolean added) {
+        return new Lease(Boolean.TRUE.equals(added), false, StorageItem.UNKNOWN);
+    }
+
+}
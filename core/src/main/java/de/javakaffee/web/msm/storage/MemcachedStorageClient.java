@@ -16,10 +16,23 @@
  */
 package de.javakaffee.web.msm.storage;
 
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import net.spy.memcached.CachedData;
 import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.ops.OperationErrorType;
+import net.spy.memcached.ops.OperationException;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
 import net.spy.memcached.transcoders.Transcoder;
 
 /**
@@ -49,12 +62,12 @@ public class MemcachedStorageClient implements StorageClient {
 
     @Override
     public Future<Boolean> add(String key, int exp, byte[] o) {
-        return _memcached.add(key, exp, o, ByteArrayTranscoder.INSTANCE);
+        return new StoreFuture(key, _memcached.add(key, exp, o, ByteArrayTranscoder.INSTANCE));
     }
 
     @Override
     public Future<Boolean> set(String key, int exp, byte[] o) {
-        return _memcached.set(key, exp, o, ByteArrayTranscoder.INSTANCE);
+        return new StoreFuture(key, _memcached.set(key, exp, o, ByteArrayTranscoder.INSTANCE));
     }
     
     @Override
@@ -62,16 +75,149 @@ public class MemcachedStorageClient implements StorageClient {
         return _memcached.get(key, ByteArrayTranscoder.INSTANCE);
     }
     
+    @Override
+    public Future<byte[]> getAsync(String key) {
+        return _memcached.asyncGet(key, ByteArrayTranscoder.INSTANCE);
+    }
+
+    /**
+     * Reads the value with a get, the metadata is not provided. The expiration is not updated: memcached's text
+     * protocol has no get and touch, and a separate touch would not be supported by all servers speaking it.
+     */
+    @Override
+    public StorageItem getItem(String key, int touchExp) {
+        return new StorageItem(get(key));
+    }
+
+    @Override
+    public long incr(String key, long by, long def, int exp) {
+        return _memcached.incr(key, by, def, exp);
+    }
+
+    @Override
+    public Map<String, byte[]> getMulti(Collection<String> keys) {
+        return _memcached.getBulk(keys, ByteArrayTranscoder.INSTANCE);
+    }
+
     @Override
     public Future<Boolean> delete(String key) {
         return _memcached.delete(key);
     }
 
+    @Override
+    public Future<Lease> lease(String key, int exp) {
+        return Lease.fromAdd(add(key, exp, Lease.LEASED));
+    }
+
+    @Override
+    public Future<Boolean> touch(String key, int exp) {
+        return _memcached.touch(key, exp);
+    }
+
+    @Override
+    public Map<InetSocketAddress, Map<String, String>> getStats() {
+        final Map<InetSocketAddress, Map<String, String>> result = new HashMap<InetSocketAddress, Map<String, String>>();
+        for (Map.Entry<SocketAddress, Map<String, String>> entry : _memcached.getStats().entrySet()) {
+            if (entry.getKey() instanceof InetSocketAddress)
+                result.put((InetSocketAddress) entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    @Override
+    public int connect(long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        final int nodes = _memcached.getNodeLocator().getAll().size();
+        int available;
+        while ((available = _memcached.getAvailableServers().size()) < nodes && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return available;
+    }
+
     @Override
     public void shutdown() {
         _memcached.shutdown();
     }
 
+    @Override
+    public boolean shutdown(long timeoutMillis) {
+        return _memcached.shutdown(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The result of a write that fails with an {@link ItemTooLargeException} if memcached rejected the value
+     * as too large: with the binary protocol the write returns <code>false</code> with the status
+     * {@link StatusCode#ERR_2BIG}, with the text protocol it fails with the server error reply for too large items.
+     */
+    private static final class StoreFuture implements Future<Boolean> {
+
+        private final String _key;
+        private final OperationFuture<Boolean> _future;
+
+        StoreFuture(String key, OperationFuture<Boolean> future) {
+            _key = key;
+            _future = future;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return _future.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return _future.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return _future.isDone();
+        }
+
+        @Override
+        public Boolean get() throws InterruptedException, ExecutionException {
+            try {
+                return checkStatus(_future.get());
+            } catch (ExecutionException e) {
+                throw checkError(e);
+            }
+        }
+
+        @Override
+        public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            try {
+                return checkStatus(_future.get(timeout, unit));
+            } catch (ExecutionException e) {
+                throw checkError(e);
+            }
+        }
+
+        private Boolean checkStatus(Boolean result) throws ExecutionException {
+            if (result != null && !result) {
+                final OperationStatus status = _future.getStatus();
+                if (status != null && status.getStatusCode() == StatusCode.ERR_2BIG)
+                    throw new ExecutionException(new ItemTooLargeException("Memcached rejected the value of " + _key
+                            + " as too large: " + status.getMessage()));
+            }
+            return result;
+        }
+
+        private ExecutionException checkError(ExecutionException e) {
+            if (e.getCause() instanceof OperationException) {
+                final OperationException cause = (OperationException) e.getCause();
+                if (cause.getType() == OperationErrorType.SERVER && ItemTooLargeException.MEMCACHED_REPLY.equals(cause.getMessage())) {
+                    final ItemTooLargeException tooLarge = new ItemTooLargeException("Memcached rejected the value of " + _key
+                            + " as too large: " + cause.getMessage());
+                    tooLarge.initCause(cause);
+                    return new ExecutionException(tooLarge);
+                }
+            }
+            return e;
+        }
+
+    }
+
     /**
      * Transcoder used by this class to store the byte array data.
      */
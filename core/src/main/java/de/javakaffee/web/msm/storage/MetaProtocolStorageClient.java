@@ -0,0 +1,953 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import de.javakaffee.web.msm.NamedThreadFactory;
+
+/**
+ * Storage client that speaks the memcached meta protocol (<code>mg</code>, <code>ms</code>, <code>md</code>,
+ * <code>ma</code> and <code>mn</code>, available since memcached 1.6).
+ * <p>
+ * Each memcached node is accessed via a single connection. Operations are queued and written by a writer thread,
+ * which pipelines all queued operations into as few packets as possible:
+ * <ul>
+ * <li>Writes (<code>ms</code>, add is a write with mode switch <code>ME</code>) and deletes (<code>md</code>) are
+ * sent in quiet mode, memcached only replies if an operation failed (e.g. <code>NS</code> for an add of an
+ * existing key). A batch that ends with a quiet operation is terminated by a no-op (<code>mn</code>), the reply
+ * of the no-op confirms all preceding quiet operations.</li>
+ * <li>Multi gets are sent as quiet gets, memcached only replies the hits.</li>
+ * <li>Each operation is tagged with an opaque token (<code>O</code> flag) that is echoed by memcached, so that
+ * the replies of failed quiet operations can be assigned to their operations.</li>
+ * <li>{@link #getItem(String, int)} reads the value, CAS, remaining TTL and time since the last access with one
+ * <code>mg</code>, which also touches the item if a new expiration is given. {@link #lease(String, int)} is an
+ * <code>mg</code> with the vivify flag <code>N</code>, memcached creates a missing item and hands out the win
+ * flag <code>W</code> to exactly one requester.</li>
+ * <li>Errors (<code>CLIENT_ERROR</code>, <code>SERVER_ERROR</code>) are not tagged, so the connection is closed
+ * and all operations that are waiting for a reply fail. If memcached rejected an item as too large they fail with
+ * an {@link ItemTooLargeException}, as the node itself is fine.</li>
+ * </ul>
+ * Values are stored with flags <code>0</code> like by the {@link MemcachedStorageClient}, so that both clients can
+ * be used with the same data.
+ * </p>
+ */
+public class MetaProtocolStorageClient implements StorageClient {
+
+    private static final Log _log = LogFactory.getLog(MetaProtocolStorageClient.class);
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final int MAX_BATCH_SIZE = 1024;
+    private static final long RECONNECT_DELAY = 1000;
+
+    /**
+     * Determines the memcached node a key is stored on.
+     */
+    public interface KeyLocator {
+        /**
+         * Returns the address of the memcached node for the given key.
+         *
+         * @throws IllegalArgumentException if there's no node for the given key.
+         */
+        InetSocketAddress getAddress(String key);
+    }
+
+    private final KeyLocator _locator;
+    private final long _operationTimeout;
+    private final Map<InetSocketAddress, Connection> _connections;
+    private final NamedThreadFactory _threadFactory = new NamedThreadFactory("msm-meta-client");
+    private final AtomicInteger _nextOpaque = new AtomicInteger();
+    private volatile boolean _shutdown;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param addresses the addresses of the memcached nodes.
+     * @param locator determines the node of a key, must return one of the given addresses.
+     * @param operationTimeout the timeout in millis for connecting and for synchronous operations.
+     */
+    public MetaProtocolStorageClient(List<InetSocketAddress> addresses, KeyLocator locator, long operationTimeout) {
+        if (addresses == null || addresses.isEmpty())
+            throw new IllegalArgumentException("At least one memcached address is required.");
+        _locator = locator;
+        _operationTimeout = operationTimeout;
+        final Map<InetSocketAddress, Connection> connections = new LinkedHashMap<InetSocketAddress, Connection>();
+        for (InetSocketAddress address : addresses) {
+            connections.put(address, new Connection(address));
+        }
+        _connections = connections;
+    }
+
+    @Override
+    public Future<Boolean> add(String key, int exp, byte[] o) {
+        return submit(key, new StoreOp(key, exp, o, true));
+    }
+
+    @Override
+    public Future<Boolean> set(String key, int exp, byte[] o) {
+        return submit(key, new StoreOp(key, exp, o, false));
+    }
+
+    @Override
+    public byte[] get(String key) {
+        return await(submit(key, new GetOp(key, false)), System.currentTimeMillis() + _operationTimeout);
+    }
+
+    @Override
+    public Future<byte[]> getAsync(String key) {
+        return submit(key, new GetOp(key, false));
+    }
+
+    @Override
+    public StorageItem getItem(String key, int touchExp) {
+        return await(submit(key, new ItemOp(key, touchExp)), System.currentTimeMillis() + _operationTimeout);
+    }
+
+    @Override
+    public long incr(String key, long by, long def, int exp) {
+        return await(submit(key, new IncrOp(key, by, def, exp)), System.currentTimeMillis() + _operationTimeout);
+    }
+
+    @Override
+    public Map<String, byte[]> getMulti(Collection<String> keys) {
+        final Map<Connection, List<Op<?>>> opsByConnection = new HashMap<Connection, List<Op<?>>>();
+        final List<GetOp> ops = new ArrayList<GetOp>(keys.size());
+        for (String key : keys) {
+            final GetOp op = new GetOp(key, true);
+            final Connection connection = getConnection(key);
+            List<Op<?>> connectionOps = opsByConnection.get(connection);
+            if (connectionOps == null) {
+                connectionOps = new ArrayList<Op<?>>();
+                opsByConnection.put(connection, connectionOps);
+            }
+            connectionOps.add(op);
+            ops.add(op);
+        }
+        for (Map.Entry<Connection, List<Op<?>>> entry : opsByConnection.entrySet()) {
+            entry.getKey().submit(entry.getValue());
+        }
+        final long deadline = System.currentTimeMillis() + _operationTimeout;
+        final Map<String, byte[]> result = new HashMap<String, byte[]>(ops.size() * 2);
+        for (GetOp op : ops) {
+            final byte[] value = await(op, deadline);
+            if (value != null)
+                result.put(op._key, value);
+        }
+        return result;
+    }
+
+    @Override
+    public Future<Boolean> delete(String key) {
+        return submit(key, new DeleteOp(key));
+    }
+
+    @Override
+    public Future<Lease> lease(String key, int exp) {
+        return submit(key, new LeaseOp(key, exp));
+    }
+
+    @Override
+    public Future<Boolean> touch(String key, int exp) {
+        return submit(key, new TouchOp(key, exp));
+    }
+
+    @Override
+    public Map<InetSocketAddress, Map<String, String>> getStats() {
+        final Map<InetSocketAddress, StatsOp> ops = new LinkedHashMap<InetSocketAddress, StatsOp>();
+        for (Connection connection : _connections.values()) {
+            final StatsOp op = new StatsOp();
+            connection.submit(Collections.<Op<?>>singletonList(op));
+            ops.put(connection._address, op);
+        }
+        final long deadline = System.currentTimeMillis() + _operationTimeout;
+        final Map<InetSocketAddress, Map<String, String>> result = new LinkedHashMap<InetSocketAddress, Map<String, String>>();
+        for (Map.Entry<InetSocketAddress, StatsOp> entry : ops.entrySet()) {
+            try {
+                result.put(entry.getKey(), await(entry.getValue(), deadline));
+            } catch (RuntimeException e) {
+                _log.info("Could not get stats of memcached node " + entry.getKey() + ": " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int connect(long timeoutMillis) throws InterruptedException {
+        final List<NoopOp> ops = new ArrayList<NoopOp>(_connections.size());
+        for (Connection connection : _connections.values()) {
+            final NoopOp op = new NoopOp();
+            connection.submit(Collections.<Op<?>>singletonList(op));
+            ops.add(op);
+        }
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        int result = 0;
+        for (NoopOp op : ops) {
+            try {
+                op.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                result++;
+            } catch (ExecutionException e) {
+                _log.info("Could not connect to memcached: " + e.getCause());
+            } catch (TimeoutException e) {
+                _log.info("Could not connect to memcached within " + timeoutMillis + " millis");
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void shutdown() {
+        _shutdown = true;
+        for (Connection connection : _connections.values()) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public boolean shutdown(long timeoutMillis) throws InterruptedException {
+        _shutdown = true;
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        boolean result = true;
+        for (Connection connection : _connections.values()) {
+            while (!connection.isIdle()) {
+                if (System.currentTimeMillis() >= deadline) {
+                    result = false;
+                    break;
+                }
+                Thread.sleep(10);
+            }
+        }
+        shutdown();
+        return result;
+    }
+
+    private <T> Op<T> submit(String key, Op<T> op) {
+        getConnection(key).submit(Collections.<Op<?>>singletonList(op));
+        return op;
+    }
+
+    private Connection getConnection(String key) {
+        final InetSocketAddress address = _locator.getAddress(key);
+        final Connection result = _connections.get(address);
+        if (result == null)
+            throw new IllegalArgumentException("No connection found for key " + key + " (address: " + address + ")");
+        return result;
+    }
+
+    private static <T> T await(Op<T> op, long deadline) {
+        try {
+            return op.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for " + op, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Could not execute " + op, e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Timeout waiting for " + op);
+        }
+    }
+
+    /**
+     * The connection to a memcached node. Operations are written by the writer thread, the replies
+     * are read by a reader thread per socket.
+     */
+    private class Connection implements Runnable {
+
+        private final InetSocketAddress _address;
+        private final BlockingQueue<Op<?>> _outbox = new LinkedBlockingQueue<Op<?>>();
+        /** the operations written to the current socket that are waiting for their reply, in the order they were written */
+        private final Queue<Op<?>> _pending = new ConcurrentLinkedQueue<Op<?>>();
+        private final Thread _writer;
+        private Socket _socket;
+        private OutputStream _out;
+        private long _lastConnectFailure;
+        private volatile boolean _closed;
+
+        Connection(InetSocketAddress address) {
+            _address = address;
+            _writer = _threadFactory.newThread(this);
+            _writer.start();
+        }
+
+        void submit(List<Op<?>> ops) {
+            if (_shutdown) {
+                for (Op<?> op : ops)
+                    op.fail(new IllegalStateException("The client is shut down."));
+                return;
+            }
+            _outbox.addAll(ops);
+        }
+
+        boolean isIdle() {
+            return _outbox.isEmpty() && _pending.isEmpty();
+        }
+
+        @Override
+        public void run() {
+            final List<Op<?>> batch = new ArrayList<Op<?>>();
+            try {
+                while (!_closed) {
+                    batch.add(_outbox.take());
+                    _outbox.drainTo(batch, MAX_BATCH_SIZE);
+                    write(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                // closed
+            }
+            failAll(_outbox, new IllegalStateException("The client is shut down."));
+        }
+
+        private void write(List<Op<?>> batch) {
+            final Socket socket;
+            final OutputStream out;
+            try {
+                synchronized (this) {
+                    if (_socket == null)
+                        connect();
+                    socket = _socket;
+                    out = _out;
+                }
+            } catch (IOException e) {
+                failAll(batch, e);
+                return;
+            }
+            // the ops are registered before they're written, so that the reader finds them when the reply arrives
+            _pending.addAll(batch);
+            if (batch.get(batch.size() - 1)._quiet) {
+                final NoopOp noop = new NoopOp();
+                batch.add(noop);
+                _pending.add(noop);
+            }
+            try {
+                for (Op<?> op : batch) {
+                    op.write(out);
+                }
+                out.flush();
+            } catch (IOException e) {
+                disconnect(socket, e);
+                failAll(batch, e);
+            }
+        }
+
+        private void connect() throws IOException {
+            if (_closed)
+                throw new IOException("The connection to " + _address + " is closed.");
+            if (System.currentTimeMillis() - _lastConnectFailure < RECONNECT_DELAY)
+                throw new IOException("Not connected to " + _address);
+            // ops that were written to a former socket won't get a reply anymore
+            failAll(_pending, new IOException("The connection to " + _address + " was lost."));
+            final Socket socket = new Socket();
+            try {
+                socket.connect(_address, (int) _operationTimeout);
+                socket.setTcpNoDelay(true);
+                _out = new BufferedOutputStream(socket.getOutputStream(), 16 * 1024);
+            } catch (IOException e) {
+                _lastConnectFailure = System.currentTimeMillis();
+                closeQuietly(socket);
+                throw e;
+            }
+            _socket = socket;
+            final InputStream in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+            _threadFactory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    read(socket, new DataInputStream(in));
+                }
+            }).start();
+            if (_log.isDebugEnabled())
+                _log.debug("Connected to memcached node " + _address);
+        }
+
+        private void read(Socket socket, DataInputStream in) {
+            try {
+                while (true) {
+                    final String line = readLine(in);
+                    final Response response = new Response(line);
+                    if ("VA".equals(response._code))
+                        response._value = readValue(in, Integer.parseInt(response._tokens[1]));
+                    // memcached does not echo the opaque token of errors, so the failed operation is not known and
+                    // the stream might be out of sync (e.g. if the data of a write was read as a command)
+                    if (response.isError())
+                        throw response.isItemTooLarge()
+                            ? new ItemTooLargeException("Memcached node " + _address + " replied " + line)
+                            : new IOException("Memcached node " + _address + " replied " + line);
+                    final Op<?> op = nextOp(response);
+                    if (op.handle(response)) {
+                        _pending.poll();
+                    }
+                }
+            } catch (IOException e) {
+                disconnect(socket, e);
+            } catch (RuntimeException e) {
+                _log.warn("Could not read reply from memcached node " + _address, e);
+                disconnect(socket, new IOException(e.toString()));
+            }
+        }
+
+        /**
+         * Returns the (still pending) operation the given reply belongs to. Quiet operations that are written before
+         * this operation didn't get a reply, which means that they succeeded.
+         */
+        private Op<?> nextOp(Response response) throws IOException {
+            Op<?> op;
+            while ((op = _pending.peek()) != null) {
+                if (response._opaque != null ? response._opaque.equals(op._token) : !op._quiet) {
+                    return op;
+                }
+                if (!op._quiet)
+                    throw new IOException("Reply " + response._line + " does not match " + op);
+                _pending.poll();
+                op.completeQuiet();
+            }
+            throw new IOException("Unexpected reply " + response._line);
+        }
+
+        private synchronized void disconnect(Socket socket, IOException e) {
+            if (_socket != socket)
+                return;
+            if (!_closed)
+                _log.info("Lost connection to memcached node " + _address + ": " + e);
+            closeQuietly(socket);
+            _socket = null;
+            _out = null;
+            failAll(_pending, e);
+        }
+
+        void close() {
+            _closed = true;
+            _writer.interrupt();
+            synchronized (this) {
+                if (_socket != null)
+                    disconnect(_socket, new IOException("The connection to " + _address + " is closed."));
+            }
+            failAll(_outbox, new IllegalStateException("The client is shut down."));
+        }
+
+    }
+
+    private static void failAll(Collection<Op<?>> ops, Exception e) {
+        Op<?> op;
+        if (ops instanceof Queue) {
+            final Queue<Op<?>> queue = (Queue<Op<?>>) ops;
+            while ((op = queue.poll()) != null)
+                op.fail(e);
+        } else {
+            for (Op<?> o : ops)
+                o.fail(e);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0)
+                throw new EOFException("Connection closed by memcached.");
+            if (b != '\r')
+                line.write(b);
+        }
+        return new String(line.toByteArray(), ASCII);
+    }
+
+    private static byte[] readValue(DataInputStream in, int size) throws IOException {
+        final byte[] result = new byte[size];
+        in.readFully(result);
+        if (in.read() != '\r' || in.read() != '\n')
+            throw new IOException("Value of " + size + " bytes is not terminated by CRLF.");
+        return result;
+    }
+
+    /**
+     * A reply line of memcached: the return code, the flags (opaque token), and the value for <code>VA</code>.
+     */
+    private static final class Response {
+
+        final String _line;
+        final String[] _tokens;
+        final String _code;
+        final String _opaque;
+        byte[] _value;
+
+        Response(String line) {
+            _line = line;
+            _tokens = line.split(" ");
+            _code = _tokens[0];
+            String opaque = null;
+            // only the two letter meta return codes have flags
+            if (_code.length() == 2) {
+                for (int i = "VA".equals(_code) ? 2 : 1; i < _tokens.length; i++) {
+                    if (_tokens[i].startsWith("O"))
+                        opaque = _tokens[i].substring(1);
+                }
+            }
+            _opaque = opaque;
+        }
+
+        /**
+         * Returns the value of the given return flag (e.g. <code>c</code> for the CAS), <code>null</code> if the flag
+         * was not returned.
+         */
+        String getFlag(char flag) {
+            if (_code.length() != 2)
+                return null;
+            for (int i = "VA".equals(_code) ? 2 : 1; i < _tokens.length; i++) {
+                if (_tokens[i].length() > 0 && _tokens[i].charAt(0) == flag)
+                    return _tokens[i].substring(1);
+            }
+            return null;
+        }
+
+        long getLongFlag(char flag) {
+            final String value = getFlag(flag);
+            return value != null && value.length() > 0 ? Long.parseLong(value) : StorageItem.UNKNOWN;
+        }
+
+        boolean isError() {
+            return "ERROR".equals(_code) || "CLIENT_ERROR".equals(_code) || "SERVER_ERROR".equals(_code);
+        }
+
+        boolean isItemTooLarge() {
+            return ItemTooLargeException.MEMCACHED_REPLY.equals(_line);
+        }
+
+    }
+
+    /**
+     * An operation that's also the future of its result.
+     */
+    private abstract class Op<T> implements Future<T> {
+
+        final boolean _quiet;
+        /** the opaque token echoed by memcached, or <code>null</code> for untagged operations */
+        final String _token;
+        private final CountDownLatch _done = new CountDownLatch(1);
+        private volatile T _result;
+        private volatile Exception _exception;
+
+        Op(boolean quiet, boolean tagged) {
+            _quiet = quiet;
+            _token = tagged ? Integer.toString(_nextOpaque.incrementAndGet() & Integer.MAX_VALUE) : null;
+        }
+
+        /**
+         * The command line without the terminating CRLF.
+         */
+        abstract String command();
+
+        void write(OutputStream out) throws IOException {
+            out.write(command().getBytes(ASCII));
+            out.write(CRLF);
+        }
+
+        /**
+         * Handles a reply to this operation.
+         *
+         * @return <code>true</code> if this operation is complete.
+         */
+        boolean handle(Response response) throws IOException {
+            complete(getResult(response));
+            return true;
+        }
+
+        abstract T getResult(Response response) throws IOException;
+
+        /**
+         * Invoked when the quiet operation succeeded without a reply.
+         */
+        void completeQuiet() {
+            throw new IllegalStateException(this + " is not quiet.");
+        }
+
+        void complete(T result) {
+            if (_done.getCount() > 0) {
+                _result = result;
+                _done.countDown();
+            }
+        }
+
+        void fail(Exception e) {
+            if (_done.getCount() > 0) {
+                _exception = e;
+                _done.countDown();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return _done.getCount() == 0;
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            _done.await();
+            return getValue();
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!_done.await(timeout, unit))
+                throw new TimeoutException("Timeout waiting for " + this);
+            return getValue();
+        }
+
+        private T getValue() throws ExecutionException {
+            if (_exception != null)
+                throw new ExecutionException(_exception);
+            return _result;
+        }
+
+        String flags() {
+            return (_quiet ? " q" : "") + (_token != null ? " O" + _token : "");
+        }
+
+        @Override
+        public String toString() {
+            return command();
+        }
+
+    }
+
+    private static IOException unexpected(Op<?> op, Response response) {
+        return new IOException("Unexpected reply to " + op + ": " + response._line);
+    }
+
+    private final class GetOp extends Op<byte[]> {
+
+        final String _key;
+
+        GetOp(String key, boolean quiet) {
+            super(quiet, true);
+            _key = key;
+        }
+
+        @Override
+        String command() {
+            return "mg " + _key + " v" + flags();
+        }
+
+        @Override
+        byte[] getResult(Response response) throws IOException {
+            if ("VA".equals(response._code))
+                return response._value;
+            if ("EN".equals(response._code))
+                return null;
+            throw unexpected(this, response);
+        }
+
+        @Override
+        void completeQuiet() {
+            // misses are not replied in quiet mode
+            complete(null);
+        }
+
+    }
+
+    /**
+     * Gets the value with the CAS (<code>c</code>), the remaining TTL (<code>t</code>) and the seconds since the last
+     * access (<code>l</code>), and touches the item if an expiration is given.
+     */
+    private final class ItemOp extends Op<StorageItem> {
+
+        private final String _key;
+        private final int _touchExp;
+
+        ItemOp(String key, int touchExp) {
+            super(false, true);
+            _key = key;
+            _touchExp = touchExp;
+        }
+
+        @Override
+        String command() {
+            return "mg " + _key + " v c t l" + (_touchExp >= 0 ? " T" + _touchExp : "") + flags();
+        }
+
+        @Override
+        StorageItem getResult(Response response) throws IOException {
+            if ("VA".equals(response._code))
+                return new StorageItem(response._value, response.getLongFlag('c'), response.getLongFlag('t'),
+                        response.getLongFlag('l'));
+            if ("EN".equals(response._code))
+                return new StorageItem(null);
+            throw unexpected(this, response);
+        }
+
+    }
+
+    /**
+     * Takes a lease: memcached creates the item if it's missing (vivify on miss) and returns the win flag
+     * <code>W</code> to the first requester, further requesters get <code>Z</code> until the item is deleted or
+     * expires. An item marked stale (<code>X</code>) by an invalidating delete is won again by one requester.
+     */
+    private final class LeaseOp extends Op<Lease> {
+
+        private final String _key;
+        private final int _exp;
+
+        LeaseOp(String key, int exp) {
+            super(false, true);
+            _key = key;
+            _exp = exp;
+        }
+
+        @Override
+        String command() {
+            return "mg " + _key + " N" + _exp + " t" + flags();
+        }
+
+        @Override
+        Lease getResult(Response response) throws IOException {
+            if ("HD".equals(response._code))
+                return new Lease(response.getFlag('W') != null, response.getFlag('X') != null, response.getLongFlag('t'));
+            throw unexpected(this, response);
+        }
+
+    }
+
+    private final class TouchOp extends Op<Boolean> {
+
+        private final String _key;
+        private final int _exp;
+
+        TouchOp(String key, int exp) {
+            super(false, true);
+            _key = key;
+            _exp = exp;
+        }
+
+        @Override
+        String command() {
+            return "mg " + _key + " T" + _exp + flags();
+        }
+
+        @Override
+        Boolean getResult(Response response) throws IOException {
+            if ("HD".equals(response._code))
+                return Boolean.TRUE;
+            if ("EN".equals(response._code))
+                return Boolean.FALSE;
+            throw unexpected(this, response);
+        }
+
+    }
+
+    private final class StoreOp extends Op<Boolean> {
+
+        private final String _key;
+        private final int _exp;
+        private final byte[] _data;
+        private final boolean _add;
+
+        StoreOp(String key, int exp, byte[] data, boolean add) {
+            super(true, true);
+            _key = key;
+            _exp = exp;
+            _data = data;
+            _add = add;
+        }
+
+        @Override
+        String command() {
+            return "ms " + _key + " " + _data.length + " T" + _exp + (_add ? " ME" : "") + flags();
+        }
+
+        @Override
+        void write(OutputStream out) throws IOException {
+            super.write(out);
+            out.write(_data);
+            out.write(CRLF);
+        }
+
+        @Override
+        Boolean getResult(Response response) throws IOException {
+            if ("HD".equals(response._code))
+                return Boolean.TRUE;
+            if ("NS".equals(response._code) || "EX".equals(response._code) || "NF".equals(response._code))
+                return Boolean.FALSE;
+            throw unexpected(this, response);
+        }
+
+        @Override
+        void completeQuiet() {
+            complete(Boolean.TRUE);
+        }
+
+    }
+
+    private final class DeleteOp extends Op<Boolean> {
+
+        private final String _key;
+
+        DeleteOp(String key) {
+            super(true, true);
+            _key = key;
+        }
+
+        @Override
+        String command() {
+            return "md " + _key + flags();
+        }
+
+        @Override
+        Boolean getResult(Response response) throws IOException {
+            if ("HD".equals(response._code))
+                return Boolean.TRUE;
+            if ("NF".equals(response._code))
+                return Boolean.FALSE;
+            throw unexpected(this, response);
+        }
+
+        @Override
+        void completeQuiet() {
+            complete(Boolean.TRUE);
+        }
+
+    }
+
+    private final class IncrOp extends Op<Long> {
+
+        private final String _key;
+        private final long _by;
+        private final long _def;
+        private final int _exp;
+
+        IncrOp(String key, long by, long def, int exp) {
+            super(false, true);
+            _key = key;
+            _by = by;
+            _def = def;
+            _exp = exp;
+        }
+
+        @Override
+        String command() {
+            // N creates a missing key with the initial value J
+            return "ma " + _key + " N" + _exp + " J" + _def + " D" + _by + " v" + flags();
+        }
+
+        @Override
+        Long getResult(Response response) throws IOException {
+            if ("VA".equals(response._code))
+                return Long.valueOf(new String(response._value, ASCII).trim());
+            if ("NF".equals(response._code) || "NS".equals(response._code))
+                return Long.valueOf(-1);
+            throw unexpected(this, response);
+        }
+
+    }
+
+    private final class NoopOp extends Op<Boolean> {
+
+        NoopOp() {
+            super(false, false);
+        }
+
+        @Override
+        String command() {
+            return "mn";
+        }
+
+        @Override
+        Boolean getResult(Response response) throws IOException {
+            if ("MN".equals(response._code))
+                return Boolean.TRUE;
+            throw unexpected(this, response);
+        }
+
+    }
+
+    private final class StatsOp extends Op<Map<String, String>> {
+
+        private final Map<String, String> _stats = new HashMap<String, String>();
+
+        StatsOp() {
+            super(false, false);
+        }
+
+        @Override
+        String command() {
+            return "stats";
+        }
+
+        @Override
+        boolean handle(Response response) throws IOException {
+            if ("STAT".equals(response._code) && response._tokens.length > 2) {
+                _stats.put(response._tokens[1], response._line.substring(response._code.length() + response._tokens[1].length() + 2));
+                return false;
+            }
+            return super.handle(response);
+        }
+
+        @Override
+        Map<String, String> getResult(Response response) throws IOException {
+            if ("END".equals(response._code))
+                return _stats;
+            throw unexpected(this, response);
+        }
+
+    }
+
+}
@@ -20,27 +20,104 @@ import de.javakaffee.web.msm.NamedThreadFactory;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import redis.clients.jedis.BinaryJedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
 
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static java.lang.String.format;
 
 /**
  * Storage client backed by a Jedis client instance.
+ * <p>
+ * With the hash layout the keys of a session are stored as fields of a single redis hash: the session data
+ * (key <code>&lt;id&gt;</code>) in the field <code>data</code>, the session validity info (key
+ * <code>validity:&lt;id&gt;</code>) in the field <code>validity</code> of the same hash, the same applies to the
+ * backup keys (<code>bak:</code>). Validity checks then read the few bytes of the validity field from the key of
+ * the session, without a lookup of a separate key. The expiration of the hash is the expiration of its data field,
+ * the expiration of the validity field only applies while the hash has no data field. When the data field is
+ * deleted the whole hash is deleted. Lock keys (<code>lock:</code>) are stored as plain keys, as they rely on
+ * expiring independently from the session.
+ * </p>
+ * <p>
+ * Keys stored without the hash layout are still read, deleted and touched as plain keys (redis answers hash commands
+ * on them with <code>WRONGTYPE</code>). When a field is written to such a key, its value is moved to the
+ * <code>data</code> field of the new hash first, so that the keys are converted on their next write.
+ * </p>
  */
 public class RedisStorageClient implements StorageClient {
     protected static final Log _log = LogFactory.getLog(RedisStorageClient.class);
 
+    private static final String LOCK_PREFIX = "lock:";
+    private static final String VALIDITY_PREFIX = "validity:";
+    private static final String BACKUP_PREFIX = "bak:";
+    private static final byte[] DATA_FIELD = keyBytes("data");
+    private static final byte[] VALIDITY_FIELD = keyBytes("validity");
+
+    /**
+     * Sets or adds (ARGV[4] = "1") a hash field. The expiration of the hash is set if the field is the data field
+     * (ARGV[5]) or the hash has no data field. A plain key (stored without the hash layout) is converted to a hash
+     * with its value in the data field first.
+     */
+    private static final byte[] HSET_SCRIPT = keyBytes(
+            "local type = redis.call('TYPE', KEYS[1])['ok'] "
+            + "if type == 'string' then "
+            + "  local value = redis.call('GET', KEYS[1]) "
+            + "  local pttl = redis.call('PTTL', KEYS[1]) "
+            + "  redis.call('DEL', KEYS[1]) "
+            + "  redis.call('HSET', KEYS[1], ARGV[5], value) "
+            + "  if pttl > 0 then redis.call('PEXPIRE', KEYS[1], pttl) end "
+            + "elseif type ~= 'hash' and type ~= 'none' then "
+            + "  redis.call('DEL', KEYS[1]) "
+            + "  type = 'none' "
+            + "end "
+            + "if ARGV[4] == '1' then "
+            + "  if redis.call('HSETNX', KEYS[1], ARGV[1], ARGV[2]) == 0 then return 0 end "
+            + "else "
+            + "  redis.call('HSET', KEYS[1], ARGV[1], ARGV[2]) "
+            + "end "
+            + "if ARGV[1] == ARGV[5] or redis.call('HEXISTS', KEYS[1], ARGV[5]) == 0 then "
+            + "  local exp = tonumber(ARGV[3]) "
+            + "  if exp <= 0 then "
+            + "    redis.call('PERSIST', KEYS[1]) "
+            + "  else "
+            + "    redis.call('EXPIRE', KEYS[1], exp) "
+            + "  end "
+            + "end "
+            + "return 1");
+
+    /**
+     * Deletes a key and returns 1 if it existed. For a hash only the existence of the data field (ARGV[1]) counts.
+     */
+    private static final byte[] DELETE_SCRIPT = keyBytes(
+            "if redis.call('TYPE', KEYS[1])['ok'] ~= 'hash' then return redis.call('DEL', KEYS[1]) end "
+            + "local existed = redis.call('HEXISTS', KEYS[1], ARGV[1]) "
+            + "redis.call('DEL', KEYS[1]) "
+            + "return existed");
+
     private final URI _uri;
     private final int _timeout;
+    private final boolean _hashLayout;
     private final JedisPool _pool = new JedisPool();
     private final ExecutorService _executor = Executors.newCachedThreadPool(new NamedThreadFactory("msm-redis-client"));
 
@@ -51,6 +128,17 @@ public class RedisStorageClient implements StorageClient {
      * @param operationTimeout the timeout to set for connection and socket timeout on the underlying jedis client.
      */
     public RedisStorageClient(String redisUrl, long operationTimeout) {
+        this(redisUrl, operationTimeout, false);
+    }
+
+    /**
+     * Creates a <code>MemcachedStorageClient</code> instance which connects to the given Redis URL.
+     *
+     * @param redisUrl redis URL
+     * @param operationTimeout the timeout to set for connection and socket timeout on the underlying jedis client.
+     * @param hashLayout specifies if the data and the validity info of a session are stored in a single redis hash.
+     */
+    public RedisStorageClient(String redisUrl, long operationTimeout, boolean hashLayout) {
         if (redisUrl == null)
             throw new NullPointerException("Param \"redisUrl\" may not be null");
         
@@ -65,6 +153,7 @@ public class RedisStorageClient implements StorageClient {
 
         // we just expect no practical problem here...
         _timeout = (int)operationTimeout;
+        _hashLayout = hashLayout;
     }
 
     URI createURI(String redisUrl) throws URISyntaxException {
@@ -85,6 +174,9 @@ public class RedisStorageClient implements StorageClient {
             private volatile boolean _setCompleted;
             
             @Override protected Boolean execute(BinaryJedis jedis) throws Exception {
+                final HashField field = getHashField(key);
+                if (field != null)
+                    return hset(jedis, field, exp, o, true);
                 byte[] kb = keyBytes(key);
                 if (_setCompleted || jedis.setnx(kb, o) == 1) {
                     _setCompleted = true; // make sure to not call setnx() a second time if connection fails
@@ -106,6 +198,9 @@ public class RedisStorageClient implements StorageClient {
         
         return _executor.submit(new RedisCommandCallable<Boolean>() {
             @Override protected Boolean execute(BinaryJedis jedis) throws Exception {
+                final HashField field = getHashField(key);
+                if (field != null)
+                    return hset(jedis, field, exp, o, false);
                 if (exp == 0)
                     return jedis.set(keyBytes(key), o).equals("OK");
                 else
@@ -119,12 +214,81 @@ public class RedisStorageClient implements StorageClient {
         if (_log.isDebugEnabled())
             _log.debug(format("Getting key from Redis (key=%s)", key));
         
-        Callable<byte[]> callable = new RedisCommandCallable<byte[]>() {
+        Callable<byte[]> callable = createGetCallable(key);
+        
+        // Execute callable synchronously since we need to wait for the result anyway
+        try {
+            return callable.call();
+        }
+        catch (Exception e) {
+            if (e instanceof RuntimeException)
+                throw (RuntimeException)e;
+            else
+                throw new RuntimeException("Error getting key from Redis", e);
+        }
+    }
+    
+    @Override
+    public Future<byte[]> getAsync(final String key) {
+        if (_log.isDebugEnabled())
+            _log.debug(format("Getting key asynchronously from Redis (key=%s)", key));
+
+        return _executor.submit(createGetCallable(key));
+    }
+
+    private Callable<byte[]> createGetCallable(final String key) {
+        return new RedisCommandCallable<byte[]>() {
             @Override protected byte[] execute(BinaryJedis jedis) throws Exception {
+                final HashField field = getHashField(key);
+                if (field != null) {
+                    try {
+                        return jedis.hget(field.key, field.field);
+                    } catch (JedisDataException e) {
+                        if (!isWrongType(e))
+                            throw e;
+                    }
+                }
                 return jedis.get(keyBytes(key));
             }
         };
-        
+    }
+
+    /**
+     * Reads the value with a get, the metadata is not provided. If the expiration shall be updated this is
+     * done with a separate touch.
+     */
+    @Override
+    public StorageItem getItem(final String key, final int touchExp) {
+        final byte[] value = get(key);
+        if (value != null && touchExp >= 0)
+            touch(key, touchExp);
+        return new StorageItem(value);
+    }
+
+    @Override
+    public long incr(final String key, final long by, final long def, final int exp) {
+        if (_log.isDebugEnabled())
+            _log.debug(format("Incrementing key in Redis (key=%s, by=%s, def=%s)", key, by, def));
+
+        Callable<Long> callable = new RedisCommandCallable<Long>() {
+            @Override protected Long execute(BinaryJedis jedis) throws Exception {
+                final byte[] defBytes = keyBytes(Long.toString(def));
+                final HashField field = getHashField(key);
+                if (field != null) {
+                    if (hset(jedis, field, exp, defBytes, true))
+                        return def;
+                    return jedis.hincrBy(field.key, field.field, by);
+                }
+                final byte[] kb = keyBytes(key);
+                if (jedis.setnx(kb, defBytes) == 1) {
+                    if (exp != 0)
+                        jedis.expire(kb, convertExp(exp));
+                    return def;
+                }
+                return jedis.incrBy(kb, by);
+            }
+        };
+
         // Execute callable synchronously since we need to wait for the result anyway
         try {
             return callable.call();
@@ -133,10 +297,46 @@ public class RedisStorageClient implements StorageClient {
             if (e instanceof RuntimeException)
                 throw (RuntimeException)e;
             else
-                throw new RuntimeException("Error getting key from Redis", e);
+                throw new RuntimeException("Error incrementing key in Redis", e);
         }
     }
-    
+
+    @Override
+    public Map<String, byte[]> getMulti(final Collection<String> keys) {
+        if (_log.isDebugEnabled())
+            _log.debug(format("Getting %d keys from Redis", keys.size()));
+
+        final List<String> keyList = new ArrayList<String>(keys);
+        Callable<List<byte[]>> callable = new RedisCommandCallable<List<byte[]>>() {
+            @Override protected List<byte[]> execute(BinaryJedis jedis) throws Exception {
+                if (_hashLayout)
+                    return getMultiHashFields(jedis, keyList);
+                final byte[][] kbs = new byte[keyList.size()][];
+                for (int i = 0; i < kbs.length; i++)
+                    kbs[i] = keyBytes(keyList.get(i));
+                return jedis.mget(kbs);
+            }
+        };
+
+        // Execute callable synchronously since we need to wait for the result anyway
+        final List<byte[]> values;
+        try {
+            values = keyList.isEmpty() ? Collections.<byte[]>emptyList() : callable.call();
+        }
+        catch (Exception e) {
+            if (e instanceof RuntimeException)
+                throw (RuntimeException)e;
+            else
+                throw new RuntimeException("Error getting keys from Redis", e);
+        }
+        final Map<String, byte[]> result = new HashMap<String, byte[]>();
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) != null)
+                result.put(keyList.get(i), values.get(i));
+        }
+        return result;
+    }
+
     @Override
     public Future<Boolean> delete(final String key) {
         if (_log.isDebugEnabled())
@@ -144,16 +344,149 @@ public class RedisStorageClient implements StorageClient {
 
         return _executor.submit(new RedisCommandCallable<Boolean>() {
             @Override protected Boolean execute(BinaryJedis jedis) throws Exception {
+                final HashField field = getHashField(key);
+                if (field != null && field.isData()) {
+                    // the validity field must not outlive the session data
+                    return Long.valueOf(1).equals(jedis.eval(DELETE_SCRIPT, Collections.singletonList(field.key),
+                            Collections.singletonList(DATA_FIELD)));
+                }
+                if (field != null) {
+                    try {
+                        return jedis.hdel(field.key, field.field) == 1;
+                    } catch (JedisDataException e) {
+                        if (!isWrongType(e))
+                            throw e;
+                    }
+                }
                 return jedis.del(keyBytes(key)) == 1;
             }
         });
     }
 
+    @Override
+    public Future<Lease> lease(final String key, final int exp) {
+        return Lease.fromAdd(add(key, exp, Lease.LEASED));
+    }
+
+    @Override
+    public Future<Boolean> touch(final String key, final int exp) {
+        if (_log.isDebugEnabled())
+            _log.debug(format("Touching key in Redis (key=%s, exp=%s)", key, exp));
+
+        return _executor.submit(new RedisCommandCallable<Boolean>() {
+            @Override protected Boolean execute(BinaryJedis jedis) throws Exception {
+                final HashField field = getHashField(key);
+                byte[] kb = keyBytes(key);
+                if (field != null) {
+                    try {
+                        if (!jedis.hexists(field.key, field.field))
+                            return false;
+                        // the expiration of the data field applies to the hash
+                        if (!field.isData() && jedis.hexists(field.key, DATA_FIELD))
+                            return true;
+                        kb = field.key;
+                    } catch (JedisDataException e) {
+                        if (!isWrongType(e))
+                            throw e;
+                    }
+                }
+                if (exp == 0)
+                    return jedis.exists(kb) && jedis.persist(kb) >= 0;
+                else
+                    return jedis.expire(kb, convertExp(exp)) == 1;
+            }
+        });
+    }
+
+    @Override
+    public Map<InetSocketAddress, Map<String, String>> getStats() {
+        // the stats of Redis are not used for node selection, as there's only a single node
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public int connect(long timeoutMillis) throws InterruptedException {
+        final Future<Boolean> result = _executor.submit(new RedisCommandCallable<Boolean>() {
+            @Override protected Boolean execute(BinaryJedis jedis) throws Exception {
+                return "PONG".equals(jedis.ping());
+            }
+        });
+        try {
+            return result.get(timeoutMillis, TimeUnit.MILLISECONDS) ? 1 : 0;
+        } catch (ExecutionException e) {
+            _log.info("Could not connect to Redis: " + e.getCause());
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            _log.info(format("Could not connect to Redis within %d millis", timeoutMillis));
+        }
+        return 0;
+    }
+
     @Override
     public void shutdown() {
         _pool.shutdown();
     }
+
+    @Override
+    public boolean shutdown(long timeoutMillis) throws InterruptedException {
+        _executor.shutdown();
+        final boolean result = _executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        _executor.shutdownNow();
+        _pool.shutdown();
+        return result;
+    }
     
+    /**
+     * Returns the hash field the given key is stored in with the hash layout, or <code>null</code> if the key
+     * is stored as plain key.
+     */
+    HashField getHashField(String key) {
+        if (!_hashLayout || key.startsWith(LOCK_PREFIX))
+            return null;
+        // validity:<key> and bak:<prefix>validity:<key> are stored next to <key> and bak:<key>
+        final int idx = key.indexOf(VALIDITY_PREFIX);
+        if (idx < 0)
+            return new HashField(keyBytes(key), DATA_FIELD);
+        final String hashKey = key.substring(idx + VALIDITY_PREFIX.length());
+        return new HashField(keyBytes(key.startsWith(BACKUP_PREFIX) ? BACKUP_PREFIX + hashKey : hashKey), VALIDITY_FIELD);
+    }
+
+    private static boolean hset(BinaryJedis jedis, HashField field, int exp, byte[] o, boolean add) {
+        final Object result = jedis.eval(HSET_SCRIPT, Collections.singletonList(field.key),
+                Arrays.asList(field.field, o, keyBytes(Integer.toString(exp == 0 ? 0 : convertExp(exp))), keyBytes(add ? "1" : "0"),
+                        DATA_FIELD));
+        return Long.valueOf(1).equals(result);
+    }
+
+    /**
+     * Determines if the given error is caused by a hash command on a key stored without the hash layout.
+     */
+    private static boolean isWrongType(JedisDataException e) {
+        return e.getMessage() != null && e.getMessage().startsWith("WRONGTYPE");
+    }
+
+    private List<byte[]> getMultiHashFields(BinaryJedis jedis, List<String> keys) {
+        final Pipeline pipeline = jedis.pipelined();
+        final List<Response<byte[]>> responses = new ArrayList<Response<byte[]>>(keys.size());
+        for (String key : keys) {
+            final HashField field = getHashField(key);
+            responses.add(field != null ? pipeline.hget(field.key, field.field) : pipeline.get(keyBytes(key)));
+        }
+        pipeline.sync();
+        final List<byte[]> result = new ArrayList<byte[]>(keys.size());
+        for (int i = 0; i < responses.size(); i++) {
+            try {
+                result.add(responses.get(i).get());
+            } catch (JedisDataException e) {
+                if (!isWrongType(e))
+                    throw e;
+                // stored without the hash layout
+                result.add(jedis.get(keyBytes(keys.get(i))));
+            }
+        }
+        return result;
+    }
+
     private static int convertExp(int exp) {
         if (exp <= 60*60*24*30) // thirty days
             return exp;
@@ -169,6 +502,20 @@ public class RedisStorageClient implements StorageClient {
         }
     }
     
+    static final class HashField {
+        final byte[] key;
+        final byte[] field;
+
+        HashField(byte[] key, byte[] field) {
+            this.key = key;
+            this.field = field;
+        }
+
+        boolean isData() {
+            return Arrays.equals(field, DATA_FIELD);
+        }
+    }
+
     private abstract class RedisCommandCallable<T> implements Callable<T> {
         @Override
         public T call() throws Exception {
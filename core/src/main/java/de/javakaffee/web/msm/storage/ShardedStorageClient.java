@@ -0,0 +1,196 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.storage;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Storage client that distributes the keys over several independent storage clients (shards), e.g.
+ * {@link MemcachedStorageClient}s with their own I/O thread and their own connection per memcached node, so that
+ * the I/O is spread across several threads and large session writes don't block small operations of other
+ * sessions on the same connection.
+ * <p>
+ * Keys are routed by a stable hash of the session id: all keys of a session (session data, validity info, lock
+ * and backup keys) end with the (prefixed) session id after the last <code>':'</code>, so that they're routed
+ * to the same shard and the order of the operations of a session is preserved.
+ * </p>
+ * <p>
+ * Optionally lock and validity info keys (<code>lock:</code> and <code>validity:</code>) are routed to a separate
+ * control client, so that these small operations are not queued behind large session writes.
+ * </p>
+ */
+public class ShardedStorageClient implements StorageClient {
+
+    private static final String LOCK_PREFIX = "lock:";
+    private static final String VALIDITY_PREFIX = "validity:";
+
+    private final StorageClient[] _shards;
+    private final StorageClient _control;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param shards the storage clients the keys are distributed over, must not be empty.
+     * @param control the storage client for lock and validity info keys, or <code>null</code> if these
+     *  keys shall be distributed over the shards as well.
+     */
+    public ShardedStorageClient(List<? extends StorageClient> shards, StorageClient control) {
+        if (shards == null || shards.isEmpty())
+            throw new IllegalArgumentException("At least one shard is required.");
+        _shards = shards.toArray(new StorageClient[shards.size()]);
+        _control = control;
+    }
+
+    /**
+     * Returns the storage client the given key is routed to.
+     */
+    StorageClient getClient(String key) {
+        if (_control != null && (key.startsWith(LOCK_PREFIX) || key.startsWith(VALIDITY_PREFIX)))
+            return _control;
+        return _shards[getShard(key, _shards.length)];
+    }
+
+    static int getShard(String key, int shards) {
+        final String sessionKey = key.substring(key.lastIndexOf(':') + 1);
+        return (sessionKey.hashCode() & Integer.MAX_VALUE) % shards;
+    }
+
+    @Override
+    public Future<Boolean> add(String key, int exp, byte[] o) {
+        return getClient(key).add(key, exp, o);
+    }
+
+    @Override
+    public Future<Boolean> set(String key, int exp, byte[] o) {
+        return getClient(key).set(key, exp, o);
+    }
+
+    @Override
+    public byte[] get(String key) {
+        return getClient(key).get(key);
+    }
+
+    @Override
+    public Future<byte[]> getAsync(String key) {
+        return getClient(key).getAsync(key);
+    }
+
+    @Override
+    public StorageItem getItem(String key, int touchExp) {
+        return getClient(key).getItem(key, touchExp);
+    }
+
+    @Override
+    public long incr(String key, long by, long def, int exp) {
+        return getClient(key).incr(key, by, def, exp);
+    }
+
+    @Override
+    public Map<String, byte[]> getMulti(Collection<String> keys) {
+        final Map<StorageClient, List<String>> keysByClient = new HashMap<StorageClient, List<String>>();
+        for (String key : keys) {
+            final StorageClient client = getClient(key);
+            List<String> clientKeys = keysByClient.get(client);
+            if (clientKeys == null) {
+                clientKeys = new ArrayList<String>();
+                keysByClient.put(client, clientKeys);
+            }
+            clientKeys.add(key);
+        }
+        if (keysByClient.size() == 1) {
+            final Map.Entry<StorageClient, List<String>> entry = keysByClient.entrySet().iterator().next();
+            return entry.getKey().getMulti(entry.getValue());
+        }
+        final Map<String, byte[]> result = new HashMap<String, byte[]>(keys.size() * 2);
+        for (Map.Entry<StorageClient, List<String>> entry : keysByClient.entrySet()) {
+            result.putAll(entry.getKey().getMulti(entry.getValue()));
+        }
+        return result;
+    }
+
+    @Override
+    public Future<Boolean> delete(String key) {
+        return getClient(key).delete(key);
+    }
+
+    @Override
+    public Future<Lease> lease(String key, int exp) {
+        return getClient(key).lease(key, exp);
+    }
+
+    @Override
+    public Future<Boolean> touch(String key, int exp) {
+        return getClient(key).touch(key, exp);
+    }
+
+    @Override
+    public Map<InetSocketAddress, Map<String, String>> getStats() {
+        // all shards are connected to the same nodes
+        return _shards[0].getStats();
+    }
+
+    @Override
+    public int connect(long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        int result = Integer.MAX_VALUE;
+        for (StorageClient client : getClients()) {
+            result = Math.min(result, client.connect(Math.max(0, deadline - System.currentTimeMillis())));
+        }
+        return result;
+    }
+
+    @Override
+    public void shutdown() {
+        for (StorageClient client : getClients()) {
+            client.shutdown();
+        }
+    }
+
+    @Override
+    public boolean shutdown(long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        boolean result = true;
+        for (StorageClient client : getClients()) {
+            result &= client.shutdown(Math.max(0, deadline - System.currentTimeMillis()));
+        }
+        return result;
+    }
+
+    /**
+     * The number of shards (without the control client).
+     */
+    public int getShardCount() {
+        return _shards.length;
+    }
+
+    private List<StorageClient> getClients() {
+        final List<StorageClient> result = new ArrayList<StorageClient>(_shards.length + 1);
+        for (StorageClient shard : _shards) {
+            result.add(shard);
+        }
+        if (_control != null)
+            result.add(_control);
+        return result;
+    }
+
+}
@@ -16,6 +16,9 @@
  */
 package de.javakaffee.web.msm.storage;
 
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.Future;
 
 /**
@@ -78,6 +81,38 @@ public interface StorageClient {
      */
     byte[] get(String key);
 
+    /**
+     * Gets an object by key asynchronously, so that the caller can decide how long to wait for the result.
+     * 
+     * @param key object key
+     * 
+     * @return a future representing the processing of this operation, the value of the future is the object bytes
+     *         or <code>null</code> if an object with the given key does not exist
+     */
+    Future<byte[]> getAsync(String key);
+
+    /**
+     * Gets an object by key together with the metadata of the item (CAS, remaining time to live, time since the
+     * last access) as far as the underlying implementation provides it, and optionally updates the expiration of
+     * the item in the same operation (touch on read) if the underlying implementation supports it.
+     * 
+     * @param key object key
+     * @param touchExp the new expiration as defined for {@link #set(String, int, byte[])}, or a negative value to
+     *        leave the expiration unchanged
+     * 
+     * @return the item, its value is <code>null</code> if an object with the given key does not exist
+     */
+    StorageItem getItem(String key, int touchExp);
+
+    /**
+     * Gets the objects for the given keys, with as few roundtrips as the underlying implementation supports.
+     * 
+     * @param keys the object keys
+     * 
+     * @return the object bytes by key, keys that do not exist are not contained
+     */
+    Map<String, byte[]> getMulti(Collection<String> keys);
+
     /**
      * Deletes the given key from the cache.
      * The operation is performed asynchronously if the underlying implementation supports it.
@@ -90,8 +125,71 @@ public interface StorageClient {
      */
     Future<Boolean> delete(String key);
 
+    /**
+     * Takes the lease of the given key, e.g. to lock a resource: the lease is won by exactly one requester and held
+     * until the key is deleted or expires. For memcached's meta protocol this is a single <code>mg</code> that
+     * reports whether the lease was won or is held by another requester, and whether the item was marked stale.
+     * The operation is performed asynchronously if the underlying implementation supports it.
+     * 
+     * @param key object key
+     * @param exp expiration of the lease, as defined for {@link #set(String, int, byte[])}
+     * 
+     * @return a future representing the processing of this operation.
+     */
+    Future<Lease> lease(String key, int exp);
+
+    /**
+     * Updates the expiration of the given key without transferring its value.
+     * The operation is performed asynchronously if the underlying implementation supports it.
+     * 
+     * @param key object key
+     * @param exp object expiration, as defined for {@link #set(String, int, byte[])}
+     * 
+     * @return a future representing the processing of this operation. The boolean value indicates whether the key
+     *         existed and its expiration was updated.
+     */
+    Future<Boolean> touch(String key, int exp);
+
+    /**
+     * Increments the numeric value of the given key, if the key does not exist it's created with the given
+     * default value. The value is stored as decimal string, like memcached does for <code>incr</code>.
+     * 
+     * @param key object key
+     * @param by the amount to increment by
+     * @param def the value of the key if it does not exist yet
+     * @param exp object expiration if the key is created, as defined for {@link #set(String, int, byte[])}
+     * 
+     * @return the new value, or <code>-1</code> if the value could not be incremented (e.g. because it's not numeric)
+     */
+    long incr(String key, long by, long def, int exp);
+
+    /**
+     * Gets the statistics of the storage nodes, for memcached the result of the <code>stats</code> command.
+     * 
+     * @return the statistics by node address, empty if the underlying implementation does not provide statistics
+     */
+    Map<InetSocketAddress, Map<String, String>> getStats();
+
+    /**
+     * Waits until the connections to the storage nodes are established, so that a new client
+     * can serve requests without connection delays.
+     * 
+     * @param timeoutMillis the max time to wait in millis.
+     * @return the number of connected nodes.
+     */
+    int connect(long timeoutMillis) throws InterruptedException;
+
    /**
      * Shuts this client down immediately.
      */
     void shutdown();
+
+    /**
+     * Shuts this client down gracefully: pending operations are completed, if this takes longer
+     * than the given timeout the client is shut down immediately.
+     * 
+     * @param timeoutMillis the max time to wait for pending operations in millis.
+     * @return <code>true</code> if all pending operations were completed.
+     */
+    boolean shutdown(long timeoutMillis) throws InterruptedException;
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.storage;
+
+/**
+ * An object read by {@link StorageClient#getItem(String, int)} together with the metadata of the item, as far as
+ * the underlying implementation provides it: with the memcached meta protocol all of it is returned by a single
+ * <code>mg</code>, other implementations only return the value.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public final class StorageItem {
+
+    /** Signals that a numeric property is not provided by the storage. */
+    public static final long UNKNOWN = -2;
+
+    private final byte[] _value;
+    private final long _cas;
+    private final long _ttl;
+    private final long _lastAccess;
+
+    /**
+     * Creates an item with the given value without metadata.
+     */
+    public StorageItem(byte[] value) {
+        this(value, UNKNOWN, UNKNOWN, UNKNOWN);
+    }
+
+    public StorageItem(byte[] value, long cas, long ttl, long lastAccess) {
+        _value = value;
+        _cas = cas;
+        _ttl = ttl;
+        _lastAccess = lastAccess;
+    }
+
+    /**
+     * The object bytes, or <code>null</code> if an object with the key does not exist.
+     */
+    public byte[] getValue() {
+        return _value;
+    }
+
+    /**
+     * The CAS value of the item, or {@link #UNKNOWN}.
+     */
+    public long getCas() {
+        return _cas;
+    }
+
+    /**
+     * The remaining time to live in seconds (after a touch on read the new one), <code>-1</code> if the item does not
+     * expire, or {@link #UNKNOWN}.
+     */
+    public long getTtl() {
+        return _ttl;
+    }
+
+    /**
+     * The seconds since the item was accessed before this read, or {@link #UNKNOWN}.
+     */
+    public long getLastAccess() {
+        return _lastAccess;
+    }
+
+    /**
+     * Returns a copy of this item with the given value, e.g. for an assembled or unescaped value.
+     */
+    StorageItem withValue(byte[] value) {
+        return new StorageItem(value, _cas, _ttl, _lastAccess);
+    }
+
+    @Override
+    public String toString() {
+        return "StorageItem [value=" + (_value != null ? _value.length + " bytes" : "null") + ", cas=" + _cas
+                + ", ttl=" + _ttl + ", lastAccess=" + _lastAccess + "]";
+    }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test the {@link ClassDescriptorDictionary} and its use by the {@link JavaSerializationTranscoder}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class ClassDescriptorDictionaryTest {
+
+    private ConcurrentMap<String, byte[]> _data;
+    private SharedStorage _storage;
+
+    @BeforeMethod
+    public void setUp() {
+        _data = new ConcurrentHashMap<String, byte[]>();
+        _storage = new MapSharedStorage( _data );
+    }
+
+    @Test
+    public void testIdsAreSharedBetweenDictionaries() throws Exception {
+        final ClassDescriptorDictionary dictionary1 = new ClassDescriptorDictionary( _storage );
+        final ClassDescriptorDictionary dictionary2 = new ClassDescriptorDictionary( _storage );
+
+        final ObjectStreamClass personDesc = ObjectStreamClass.lookup( Person.class );
+        assertEquals( dictionary1.getOrAssignId( personDesc ), Integer.valueOf( 0 ) );
+        assertEquals( dictionary2.getOrAssignId( ObjectStreamClass.lookup( ArrayList.class ) ), Integer.valueOf( 1 ) );
+        // dictionary2 finds the id assigned by dictionary1 via the digest
+        assertEquals( dictionary2.getOrAssignId( personDesc ), Integer.valueOf( 0 ) );
+
+        final ObjectStreamClass read = dictionary2.getDescriptor( 0 );
+        assertEquals( read.getName(), Person.class.getName() );
+        assertEquals( read.getSerialVersionUID(), personDesc.getSerialVersionUID() );
+        assertEquals( read.getFields().length, personDesc.getFields().length );
+        assertNull( dictionary2.getDescriptor( 2 ) );
+    }
+
+    @Test
+    public void testIdsAreNotReusedAfterEviction() throws Exception {
+        final ClassDescriptorDictionary dictionary1 = new ClassDescriptorDictionary( _storage );
+        assertEquals( dictionary1.getOrAssignId( ObjectStreamClass.lookup( Person.class ) ), Integer.valueOf( 0 ) );
+        _data.remove( "msmJavaClass_0" );
+
+        final ClassDescriptorDictionary dictionary2 = new ClassDescriptorDictionary( _storage );
+        assertEquals( dictionary2.getOrAssignId( ObjectStreamClass.lookup( ArrayList.class ) ), Integer.valueOf( 1 ) );
+        // the digest of the evicted descriptor is ignored
+        assertEquals( dictionary2.getOrAssignId( ObjectStreamClass.lookup( Person.class ) ), Integer.valueOf( 2 ) );
+        assertNull( dictionary2.getDescriptor( 0 ) );
+    }
+
+    @Test
+    public void testEvictedDescriptorsAreReseeded() throws Exception {
+        final ClassDescriptorDictionary dictionary1 = new ClassDescriptorDictionary( _storage );
+        final ObjectStreamClass personDesc = ObjectStreamClass.lookup( Person.class );
+        assertEquals( dictionary1.getOrAssignId( personDesc ), Integer.valueOf( 0 ) );
+        final byte[] data = _data.remove( "msmJavaClass_0" );
+
+        // the tomcat that knows the descriptor re-seeds it when it uses it
+        assertEquals( dictionary1.getOrAssignId( personDesc ), Integer.valueOf( 0 ) );
+        assertEquals( _data.get( "msmJavaClass_0" ), data );
+        assertEquals( new ClassDescriptorDictionary( _storage ).getDescriptor( 0 ).getName(), Person.class.getName() );
+    }
+
+    @Test
+    public void testLoadReadsAllDescriptorsAndReseeds() throws Exception {
+        final ClassDescriptorDictionary dictionary1 = new ClassDescriptorDictionary( _storage );
+        assertEquals( dictionary1.getOrAssignId( ObjectStreamClass.lookup( Person.class ) ), Integer.valueOf( 0 ) );
+        assertEquals( dictionary1.getOrAssignId( ObjectStreamClass.lookup( ArrayList.class ) ), Integer.valueOf( 1 ) );
+
+        final ClassDescriptorDictionary dictionary2 = new ClassDescriptorDictionary( _storage );
+        assertEquals( dictionary2.load(), 2 );
+        final byte[] data = _data.remove( "msmJavaClass_1" );
+        assertEquals( dictionary2.getDescriptor( 1 ).getName(), ArrayList.class.getName() );
+        // e.g. after a restart of a memcached node
+        assertEquals( dictionary2.load(), 2 );
+        assertEquals( _data.get( "msmJavaClass_1" ), data );
+    }
+
+    @Test
+    public void testUnavailableStorage() {
+        final ClassDescriptorDictionary dictionary = new ClassDescriptorDictionary( new MapSharedStorage( _data ) {
+            @Override
+            public byte[] putIfAbsent( final String name, final byte[] data ) {
+                return null;
+            }
+        } );
+        assertNull( dictionary.getOrAssignId( ObjectStreamClass.lookup( Person.class ) ) );
+    }
+
+    @Test
+    public void testTranscoderWritesDescriptorIds() {
+        final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        final List<Person> persons = new ArrayList<Person>();
+        persons.add( new Person( "foo", 42 ) );
+        persons.add( new Person( "bar", 23 ) );
+        attributes.put( "persons", persons );
+        final MemcachedBackupSession session = new MemcachedBackupSession();
+
+        final byte[] plain = new JavaSerializationTranscoder().serializeAttributes( session, attributes );
+        final byte[] withIds = new JavaSerializationTranscoder( null, new ClassDescriptorDictionary( _storage ) )
+            .serializeAttributes( session, attributes );
+        assertTrue( withIds.length < plain.length, "Expected " + withIds.length + " < " + plain.length );
+
+        // another tomcat must resolve the descriptors from the storage
+        final JavaSerializationTranscoder other = new JavaSerializationTranscoder( null, new ClassDescriptorDictionary( _storage ) );
+        assertEquals( other.deserializeAttributes( withIds ), attributes );
+        // data without ids is still readable
+        assertEquals( other.deserializeAttributes( plain ), attributes );
+    }
+
+    @Test( expectedExceptions = TranscoderDeserializationException.class )
+    public void testDictionaryDataRequiresDictionary() {
+        final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        attributes.put( "person", new Person( "foo", 42 ) );
+        final byte[] withIds = new JavaSerializationTranscoder( null, new ClassDescriptorDictionary( _storage ) )
+            .serializeAttributes( new MemcachedBackupSession(), attributes );
+        new JavaSerializationTranscoder().deserializeAttributes( withIds );
+    }
+
+    static class MapSharedStorage extends SharedStorage {
+
+        private final ConcurrentMap<String, byte[]> _data;
+
+        MapSharedStorage( final ConcurrentMap<String, byte[]> data ) {
+            super( null );
+            _data = data;
+        }
+
+        @Override
+        public byte[] get( final String name ) {
+            return _data.get( name );
+        }
+
+        @Override
+        public byte[] putIfAbsent( final String name, final byte[] data ) {
+            final byte[] existing = _data.putIfAbsent( name, data );
+            return existing != null ? existing : data;
+        }
+
+        @Override
+        public synchronized long incrementCounter( final String name, final long initial ) {
+            final byte[] value = _data.get( name );
+            final long result = value != null ? Long.parseLong( new String( value ) ) + 1 : initial;
+            _data.put( name, Long.toString( result ).getBytes() );
+            return result;
+        }
+
+        @Override
+        public long getCounter( final String name ) {
+            final byte[] value = _data.get( name );
+            return value != null ? Long.parseLong( new String( value ) ) : -1;
+        }
+
+        @Override
+        public Map<String, byte[]> getMulti( final Collection<String> names ) {
+            final Map<String, byte[]> result = new HashMap<String, byte[]>();
+            for ( final String name : names ) {
+                final byte[] value = _data.get( name );
+                if ( value != null ) {
+                    result.put( name, value );
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int reseed( final Map<String, byte[]> entries ) {
+            int result = 0;
+            for ( final Map.Entry<String, byte[]> entry : entries.entrySet() ) {
+                if ( _data.putIfAbsent( entry.getKey(), entry.getValue() ) == null ) {
+                    result++;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void execute( final Runnable task ) {
+            task.run();
+        }
+
+    }
+
+    static class Person implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final String name;
+        final int age;
+        Person( final String name, final int age ) {
+            this.name = name;
+            this.age = age;
+        }
+        @Override
+        public boolean equals( final Object obj ) {
+            return obj instanceof Person && ( (Person) obj ).name.equals( name ) && ( (Person) obj ).age == age;
+        }
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + age;
+        }
+    }
+
+}
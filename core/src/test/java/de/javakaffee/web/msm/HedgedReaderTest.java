@@ -0,0 +1,128 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.javakaffee.web.msm.HedgedReader.HedgedRead;
+
+/**
+ * Test the {@link HedgedReader}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class HedgedReaderTest {
+
+    private ExecutorService _executor;
+    private Statistics _statistics;
+    private HedgedReader _cut;
+
+    @BeforeMethod
+    public void setUp() {
+        _executor = Executors.newCachedThreadPool();
+        _statistics = Statistics.create();
+        _cut = new HedgedReader( _statistics, 100 );
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        _executor.shutdownNow();
+    }
+
+    @Test
+    public void testFastPrimaryIsNotHedged() throws Exception {
+        for ( int i = 0; i < HedgedReader.LATENCY_SAMPLES; i++ ) {
+            _cut.registerLatency( 50 );
+        }
+        assertEquals( _cut.getThreshold(), 50 );
+        assertEquals( _cut.read( answer( "primary", 0 ), hedged( "backup", 0 ), 1000 ), "primary" );
+        assertEquals( _statistics.getHedgedReads(), 0 );
+    }
+
+    @Test
+    public void testSlowPrimaryIsHedged() throws Exception {
+        assertEquals( _cut.read( answer( "primary", 500 ), hedged( "backup", 0 ), 1000 ), "backup" );
+        assertEquals( _statistics.getHedgedReads(), 1 );
+        assertEquals( _statistics.getHedgedReadsWon(), 1 );
+    }
+
+    @Test
+    public void testPrimaryIsTakenIfHedgedReadHasNoAnswer() throws Exception {
+        assertEquals( _cut.read( answer( "primary", 100 ), hedged( null, 0 ), 1000 ), "primary" );
+        assertEquals( _statistics.getHedgedReads(), 1 );
+        assertEquals( _statistics.getHedgedReadsWon(), 0 );
+        assertNull( _cut.read( answer( null, 100 ), hedged( "backup", 300 ), 1000 ) );
+    }
+
+    @Test
+    public void testHedgedReadIsTakenIfPrimaryFails() throws Exception {
+        final Future<String> failing = _executor.submit( new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                Thread.sleep( 50 );
+                throw new IllegalStateException( "failed" );
+            }
+        } );
+        assertEquals( _cut.read( failing, hedged( "backup", 100 ), 1000 ), "backup" );
+    }
+
+    @Test
+    public void testHedgedReadsAreLimited() throws Exception {
+        _cut = new HedgedReader( _statistics, 50 );
+        _cut.read( answer( "primary", 20 ), hedged( "backup", 0 ), 1000 );
+        _cut.read( answer( "primary", 20 ), hedged( "backup", 0 ), 1000 );
+        assertEquals( _statistics.getHedgedReads(), 1 );
+    }
+
+    @Test
+    public void testThresholdIsAdapted() {
+        for ( int i = 0; i < HedgedReader.LATENCY_SAMPLES; i++ ) {
+            _cut.registerLatency( i < HedgedReader.LATENCY_SAMPLES / 2 ? 1 : 10 );
+        }
+        assertEquals( _cut.getThreshold(), 10 );
+    }
+
+    private Future<String> answer( final String result, final long delay ) {
+        return _executor.submit( new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                Thread.sleep( delay );
+                return result;
+            }
+        } );
+    }
+
+    private HedgedRead<String> hedged( final String result, final long delay ) {
+        return new HedgedRead<String>() {
+            @Override
+            public Future<String> issue() {
+                return answer( result, delay );
+            }
+        };
+    }
+
+}
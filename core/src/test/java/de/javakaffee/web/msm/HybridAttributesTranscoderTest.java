@@ -0,0 +1,206 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.javakaffee.web.msm.BuiltinAttributeCodec.Input;
+import de.javakaffee.web.msm.BuiltinAttributeCodec.Output;
+import de.javakaffee.web.msm.HybridAttributesTranscoder.Codec;
+
+/**
+ * Test the {@link HybridAttributesTranscoder} and the {@link BuiltinAttributeCodec}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class HybridAttributesTranscoderTest {
+
+    private MemcachedBackupSession _session;
+    private SessionAttributesTranscoder _delegate;
+    private SessionAttributesTranscoder _java;
+
+    @BeforeMethod
+    public void setUp() {
+        _session = mock( MemcachedBackupSession.class );
+        _delegate = spy( new JavaSerializationTranscoder() );
+        _java = spy( new JavaSerializationTranscoder() );
+    }
+
+    @Test
+    public void testBuiltinCodecRoundtrip() {
+        final Object[] values = new Object[] { "foo", "f\u00f6\u00f6 \u20ac", "", Boolean.TRUE, Boolean.FALSE,
+                Byte.valueOf( (byte) -1 ), Short.valueOf( Short.MIN_VALUE ), Integer.valueOf( 42 ),
+                Integer.valueOf( Integer.MIN_VALUE ), Long.valueOf( Long.MAX_VALUE ), Long.valueOf( -1 ),
+                Float.valueOf( 1.5f ), Double.valueOf( Math.PI ), Character.valueOf( '\u20ac' ), new Date( 123456789 ),
+                new ArrayList<Object>( Arrays.asList( "a", Integer.valueOf( 1 ), null ) ),
+                new LinkedList<Object>( Arrays.asList( "b", Long.valueOf( 2 ) ) ),
+                new HashSet<Object>( Arrays.asList( "c", "d" ) ),
+                new LinkedHashSet<Object>( Arrays.asList( "e", "f" ) ) };
+        for ( final Object value : values ) {
+            final Output out = new Output( 1 );
+            assertTrue( BuiltinAttributeCodec.write( out, value ), "Not written: " + value );
+            final byte[] data = out.toByteArray();
+            final Object actual = BuiltinAttributeCodec.read( new Input( data, 0, data.length ) );
+            assertEquals( actual, value );
+            assertEquals( actual.getClass(), value.getClass() );
+        }
+
+        final Output out = new Output( 1 );
+        BuiltinAttributeCodec.write( out, new byte[] { 1, 2, 3 } );
+        final byte[] data = out.toByteArray();
+        assertTrue( Arrays.equals( (byte[]) BuiltinAttributeCodec.read( new Input( data, 0, data.length ) ), new byte[] { 1, 2, 3 } ) );
+    }
+
+    @Test
+    public void testBuiltinCodecRejectsUnsupportedValues() {
+        final ArrayList<Object> large = new ArrayList<Object>();
+        for ( int i = 0; i <= BuiltinAttributeCodec.MAX_COLLECTION_SIZE; i++ ) {
+            large.add( Integer.valueOf( i ) );
+        }
+        final Object[] values = new Object[] { new BigDecimal( 1 ), new Timestamp( 1 ), large,
+                new ArrayList<Object>( Arrays.asList( new BigDecimal( 1 ) ) ),
+                new ArrayList<Object>( Arrays.asList( new ArrayList<Object>() ) ),
+                Collections.singletonList( "foo" ) };
+        for ( final Object value : values ) {
+            assertFalse( BuiltinAttributeCodec.write( new Output( 1 ), value ), "Written: " + value );
+        }
+    }
+
+    @Test
+    public void testSimpleAttributesDontUseTranscoder() {
+        final HybridAttributesTranscoder transcoder = new HybridAttributesTranscoder( _delegate, _java, null );
+        final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        attributes.put( "userId", Long.valueOf( 4711 ) );
+        attributes.put( "loggedIn", Boolean.TRUE );
+
+        final byte[] data = transcoder.serializeAttributes( _session, attributes );
+        assertTrue( HybridAttributesTranscoder.isHybrid( data ) );
+        assertEquals( transcoder.deserializeAttributes( data ), attributes );
+        verify( _delegate, never() ).serializeAttributes( any( MemcachedBackupSession.class ), any( ConcurrentMap.class ) );
+        verify( _delegate, never() ).deserializeAttributes( any( byte[].class ) );
+    }
+
+    @Test
+    public void testMixedAttributesRoundtrip() {
+        final Map<String, Codec> routing = HybridAttributesTranscoder.parseRouting( "name=java, amount=transcoder, id=builtin" );
+        final HybridAttributesTranscoder transcoder = new HybridAttributesTranscoder( _delegate, _java, routing );
+        final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        attributes.put( "id", "foo" );
+        attributes.put( "name", "bar" );
+        attributes.put( "amount", Integer.valueOf( 1 ) );
+        attributes.put( "total", new BigDecimal( "12.5" ) );
+
+        final byte[] data = transcoder.serializeAttributes( _session, attributes );
+        assertEquals( transcoder.deserializeAttributes( data ), attributes );
+        verify( _delegate ).serializeAttributes( any( MemcachedBackupSession.class ), any( ConcurrentMap.class ) );
+        verify( _java ).serializeAttributes( any( MemcachedBackupSession.class ), any( ConcurrentMap.class ) );
+    }
+
+    @Test
+    public void testNotHybridDataIsPassedToDelegate() {
+        final HybridAttributesTranscoder transcoder = new HybridAttributesTranscoder( _delegate, _java, null );
+        final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        attributes.put( "foo", "bar" );
+        final byte[] data = _delegate.serializeAttributes( _session, attributes );
+
+        assertEquals( transcoder.deserializeAttributes( data ), attributes );
+    }
+
+    /**
+     * With encoding disabled attributes are written by the configured transcoder, but data in the hybrid format
+     * (e.g. written by another node that has it enabled) is still read.
+     */
+    @Test
+    public void testDecodesHybridFormatIfEncodingIsDisabled() {
+        final HybridAttributesTranscoder transcoder = new HybridAttributesTranscoder( _delegate, _java, null, false );
+        final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        attributes.put( "foo", "bar" );
+        attributes.put( "total", new BigDecimal( "12.5" ) );
+
+        final byte[] data = transcoder.serializeAttributes( _session, attributes );
+        assertFalse( HybridAttributesTranscoder.isHybrid( data ) );
+        assertEquals( transcoder.deserializeAttributes( data ), attributes );
+
+        final byte[] hybridData = new HybridAttributesTranscoder( _delegate, _java, null ).serializeAttributes( _session, attributes );
+        assertTrue( HybridAttributesTranscoder.isHybrid( hybridData ) );
+        assertEquals( transcoder.deserializeAttributes( hybridData ), attributes );
+    }
+
+    @Test
+    public void testWithLazyAttributesTranscoder() {
+        final LazyAttributesTranscoder transcoder = new LazyAttributesTranscoder(
+                new HybridAttributesTranscoder( _delegate, _java, null ), true );
+        final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        attributes.put( "foo", "bar" );
+        attributes.put( "total", new BigDecimal( "12.5" ) );
+
+        final byte[] data = transcoder.serializeAttributes( _session, attributes );
+        assertEquals( transcoder.deserializeAttributes( data ), attributes );
+    }
+
+    /**
+     * Test that the bytes don't depend on the iteration order of the attributes map, otherwise an unmodified
+     * session would look modified and would be stored again.
+     */
+    @Test
+    public void testBuiltinAttributesAreWrittenInSameOrder() {
+        final HybridAttributesTranscoder transcoder = new HybridAttributesTranscoder( _delegate, _java, null );
+        final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        final ConcurrentMap<String, Object> reversed = new ConcurrentHashMap<String, Object>( 1024 );
+        for ( int i = 0; i < 50; i++ ) {
+            attributes.put( "attr" + i, Integer.valueOf( i ) );
+            reversed.put( "attr" + ( 49 - i ), Integer.valueOf( 49 - i ) );
+        }
+
+        assertTrue( Arrays.equals( transcoder.serializeAttributes( _session, attributes ),
+                transcoder.serializeAttributes( _session, reversed ) ) );
+    }
+
+    @Test( expectedExceptions = IllegalArgumentException.class )
+    public void testParseRoutingInvalidCodec() {
+        HybridAttributesTranscoder.parseRouting( "foo=kryo" );
+    }
+
+    @Test( expectedExceptions = IllegalArgumentException.class )
+    public void testParseRoutingInvalidEntry() {
+        HybridAttributesTranscoder.parseRouting( "foo" );
+    }
+
+}
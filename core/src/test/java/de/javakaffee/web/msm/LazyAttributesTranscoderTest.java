@@ -0,0 +1,145 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test the {@link LazyAttributesTranscoder} and the {@link LazyAttributesMap}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class LazyAttributesTranscoderTest {
+
+    private MemcachedBackupSession _session;
+    private JavaSerializationTranscoder _delegate;
+
+    @BeforeMethod
+    public void setUp() {
+        _session = mock( MemcachedBackupSession.class );
+        _delegate = new JavaSerializationTranscoder();
+    }
+
+    @Test
+    public void testRoundtrip() {
+        final LazyAttributesTranscoder transcoder = new LazyAttributesTranscoder( _delegate, true );
+        final ConcurrentMap<String, Object> attributes = createAttributes();
+
+        final byte[] data = transcoder.serializeAttributes( _session, attributes );
+        assertTrue( LazyAttributesTranscoder.isFramed( data ) );
+
+        final ConcurrentMap<String, Object> deserialized = transcoder.deserializeAttributes( data );
+        assertEquals( deserialized, attributes );
+    }
+
+    @Test
+    public void testValuesAreDeserializedOnAccess() {
+        final LazyAttributesTranscoder transcoder = new LazyAttributesTranscoder( _delegate, true );
+        final byte[] data = transcoder.serializeAttributes( _session, createAttributes() );
+
+        final LazyAttributesMap deserialized = (LazyAttributesMap) transcoder.deserializeAttributes( data );
+        assertEquals( deserialized.size(), 3 );
+        assertTrue( deserialized.containsKey( "foo" ) );
+        assertEquals( deserialized.getNumSerializedValues(), 3 );
+
+        assertEquals( deserialized.get( "foo" ), "bar" );
+        assertEquals( deserialized.getNumSerializedValues(), 2 );
+
+        deserialized.put( "baz", Integer.valueOf( 42 ) );
+        assertEquals( deserialized.getNumSerializedValues(), 1 );
+
+        assertEquals( deserialized.filter( Pattern.compile( "d.*" ) ).getNumSerializedValues(), 1 );
+    }
+
+    @Test
+    public void testActivationListenersOnly() {
+        final LazyAttributesTranscoder transcoder = new LazyAttributesTranscoder( _delegate, true );
+        final byte[] data = transcoder.serializeAttributes( _session, createAttributes() );
+
+        final LazyAttributesMap deserialized = (LazyAttributesMap) transcoder.deserializeAttributes( data );
+        LazyAttributesMap.setActivationListenersOnly( true );
+        try {
+            assertNull( deserialized.get( "foo" ) );
+        } finally {
+            LazyAttributesMap.setActivationListenersOnly( false );
+        }
+        assertEquals( deserialized.getNumSerializedValues(), 3 );
+        assertEquals( deserialized.get( "foo" ), "bar" );
+    }
+
+    @Test
+    public void testUnmodifiedAttributesProduceSameData() {
+        final LazyAttributesTranscoder transcoder = new LazyAttributesTranscoder( _delegate, true );
+        final byte[] data = transcoder.serializeAttributes( _session, createAttributes() );
+
+        final ConcurrentMap<String, Object> deserialized = transcoder.deserializeAttributes( data );
+        assertTrue( Arrays.equals( transcoder.serializeAttributes( _session, deserialized ), data ) );
+
+        deserialized.get( "foo" );
+        assertTrue( Arrays.equals( transcoder.serializeAttributes( _session, deserialized ), data ) );
+
+        deserialized.put( "foo", "changed" );
+        assertFalse( Arrays.equals( transcoder.serializeAttributes( _session, deserialized ), data ) );
+    }
+
+    @Test
+    public void testNotFramedDataIsPassedToDelegate() {
+        final LazyAttributesTranscoder transcoder = new LazyAttributesTranscoder( _delegate, true );
+        final ConcurrentMap<String, Object> attributes = createAttributes();
+        final byte[] data = _delegate.serializeAttributes( _session, attributes );
+        assertFalse( LazyAttributesTranscoder.isFramed( data ) );
+
+        final ConcurrentMap<String, Object> deserialized = transcoder.deserializeAttributes( data );
+        assertFalse( deserialized instanceof LazyAttributesMap );
+        assertEquals( deserialized, attributes );
+    }
+
+    @Test
+    public void testFramedDataIsReadEagerlyIfNotLazy() {
+        final ConcurrentMap<String, Object> attributes = createAttributes();
+        final byte[] data = new LazyAttributesTranscoder( _delegate, true ).serializeAttributes( _session, attributes );
+
+        final LazyAttributesTranscoder transcoder = new LazyAttributesTranscoder( _delegate, false );
+        final ConcurrentMap<String, Object> deserialized = transcoder.deserializeAttributes( data );
+        assertFalse( deserialized instanceof LazyAttributesMap );
+        assertEquals( deserialized, attributes );
+
+        assertFalse( LazyAttributesTranscoder.isFramed( transcoder.serializeAttributes( _session, deserialized ) ) );
+    }
+
+    private static ConcurrentMap<String, Object> createAttributes() {
+        final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        attributes.put( "foo", "bar" );
+        attributes.put( "baz", Integer.valueOf( 1 ) );
+        attributes.put( "date", new Date( 1000 ) );
+        return attributes;
+    }
+
+}
@@ -252,6 +252,36 @@ public class MemcachedNodesManagerTest {
 		assertTrue(cut.isNodeAvailable("n2"));
 	}
 
+    @Test
+    public void testDrainingNodes() {
+        final MemcachedNodesManager cut = createFor( "n1:localhost:11211,n2:localhost:11212,n3:localhost:11213", null, null, _mcc );
+        cut.setDrainingNodes( "n1 n2" );
+        assertTrue(cut.isNodeDraining("n1"));
+        assertTrue(cut.isSessionOnDrainingNode("foo-n2"));
+        assertFalse(cut.isSessionOnDrainingNode("foo-n3"));
+        // draining nodes are still available, but not used for new sessions, migrated sessions or backups
+        assertTrue(cut.isNodeAvailable("n1"));
+        for ( int i = 0; i < 20; i++ ) {
+            assertEquals(cut.createSessionId("foo"), "foo-n3");
+        }
+        assertEquals(cut.getMigrationNodeId("n1"), "n3");
+        assertEquals(cut.getNextAvailableNodeId("n1"), "n3");
+
+        cut.setDrainingNodes( null );
+        assertFalse(cut.isSessionOnDrainingNode("foo-n2"));
+        assertEquals(cut.getNextAvailableNodeId("n1"), "n2");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDrainingNodesMustNotIncludeAllPrimaryNodes() {
+        createFor( "n1:localhost:11211,n2:localhost:11212", null, null, _mcc ).setDrainingNodes( "n1,n2" );
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDrainingNodesMustBePrimaryNodes() {
+        createFor( "n1:localhost:11211,n2:localhost:11212,n3:localhost:11213", "n3", null, _mcc ).setDrainingNodes( "n3" );
+    }
+
     @Test
     public void testIsCouchbaseBucketConfig() {
         assertTrue(createFor("http://10.10.0.1:8091/pools", null, null, _mcc ).isCouchbaseBucketConfig());
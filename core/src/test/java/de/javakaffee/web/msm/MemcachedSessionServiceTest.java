@@ -39,7 +39,9 @@ import java.util.concurrent.TimeoutException;
 import javax.annotation.Nonnull;
 
 import de.javakaffee.web.msm.storage.MemcachedStorageClient;
+import de.javakaffee.web.msm.storage.StorageClient;
 import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.GetFuture;
 import net.spy.memcached.internal.OperationFuture;
 import net.spy.memcached.transcoders.Transcoder;
 
@@ -48,6 +50,7 @@ import org.apache.catalina.LifecycleException;
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.core.StandardContext;
 import org.mockito.ArgumentCaptor;
+import org.mockito.stubbing.OngoingStubbing;
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
@@ -55,6 +58,7 @@ import org.testng.annotations.Test;
 
 import de.javakaffee.web.msm.BackupSessionTask.BackupResult;
 import de.javakaffee.web.msm.LockingStrategy.LockingMode;
+import de.javakaffee.web.msm.MemcachedSessionService.LockStatus;
 import de.javakaffee.web.msm.MemcachedSessionService.SessionManager;
 import de.javakaffee.web.msm.integration.TestUtils;
 import de.javakaffee.web.msm.integration.TestUtils.SessionAffinityMode;
@@ -117,33 +121,30 @@ public abstract class MemcachedSessionServiceTest {
 
     @Test
     public void testConfigurationFormatMemcachedNodesFeature44() throws LifecycleException {
-        _service.setMemcachedNodes( "n1:127.0.0.1:11211" );
+        _service.setMemcachedNodesInternal( "n1:127.0.0.1:11211", null );
         _service.startInternal(new MemcachedStorageClient(_memcachedMock));
         Assert.assertEquals( _service.getNodeIds(), Arrays.asList( "n1" ) );
 
-        _service.setMemcachedNodes( "n1:127.0.0.1:11211 n2:127.0.0.1:11212" );
+        _service.setMemcachedNodesInternal( "n1:127.0.0.1:11211 n2:127.0.0.1:11212", null );
         _service.startInternal(new MemcachedStorageClient(_memcachedMock));
         Assert.assertEquals( _service.getNodeIds(), Arrays.asList( "n1", "n2" ) );
 
-        _service.setMemcachedNodes( "n1:127.0.0.1:11211,n2:127.0.0.1:11212" );
+        _service.setMemcachedNodesInternal( "n1:127.0.0.1:11211,n2:127.0.0.1:11212", null );
         _service.startInternal(new MemcachedStorageClient(_memcachedMock));
         Assert.assertEquals( _service.getNodeIds(), Arrays.asList( "n1", "n2" ) );
     }
 
     @Test
     public void testConfigurationFormatFailoverNodesFeature44() throws LifecycleException {
-        _service.setMemcachedNodes( "n1:127.0.0.1:11211 n2:127.0.0.1:11212" );
-        _service.setFailoverNodes( "n1" );
+        _service.setMemcachedNodesInternal( "n1:127.0.0.1:11211 n2:127.0.0.1:11212", "n1" );
         _service.startInternal(new MemcachedStorageClient(_memcachedMock));
         Assert.assertEquals( _service.getFailoverNodeIds(), Arrays.asList( "n1" ) );
 
-        _service.setMemcachedNodes( "n1:127.0.0.1:11211 n2:127.0.0.1:11212 n3:127.0.0.1:11213" );
-        _service.setFailoverNodes( "n1 n2" );
+        _service.setMemcachedNodesInternal( "n1:127.0.0.1:11211 n2:127.0.0.1:11212 n3:127.0.0.1:11213", "n1 n2" );
         _service.startInternal(new MemcachedStorageClient(_memcachedMock));
         Assert.assertEquals( _service.getFailoverNodeIds(), Arrays.asList( "n1", "n2" ) );
 
-        _service.setMemcachedNodes( "n1:127.0.0.1:11211 n2:127.0.0.1:11212 n3:127.0.0.1:11213" );
-        _service.setFailoverNodes( "n1,n2" );
+        _service.setMemcachedNodesInternal( "n1:127.0.0.1:11211 n2:127.0.0.1:11212 n3:127.0.0.1:11213", "n1,n2" );
         _service.startInternal(new MemcachedStorageClient(_memcachedMock));
         Assert.assertEquals( _service.getFailoverNodeIds(), Arrays.asList( "n1", "n2" ) );
     }
@@ -154,14 +155,14 @@ public abstract class MemcachedSessionServiceTest {
      */
     @Test
     public void testConfigurationFormatMemcachedNodesFeature105() throws LifecycleException {
-        _service.setMemcachedNodes( "127.0.0.1:11211" );
+        _service.setMemcachedNodesInternal( "127.0.0.1:11211", null );
         _service.startInternal(new MemcachedStorageClient(_memcachedMock));
         assertEquals(_service.getMemcachedNodesManager().getCountNodes(), 1);
         assertEquals(_service.getMemcachedNodesManager().isEncodeNodeIdInSessionId(), false);
         assertEquals(_service.getMemcachedNodesManager().isValidForMemcached("123456"), true);
         _service.shutdown();
 
-        _service.setMemcachedNodes( "n1:127.0.0.1:11211" );
+        _service.setMemcachedNodesInternal( "n1:127.0.0.1:11211", null );
         _service.startInternal(new MemcachedStorageClient(_memcachedMock));
         assertEquals(_service.getMemcachedNodesManager().getCountNodes(), 1);
         assertEquals(_service.getMemcachedNodesManager().isEncodeNodeIdInSessionId(), true);
@@ -175,7 +176,7 @@ public abstract class MemcachedSessionServiceTest {
      */
     @Test
     public void testBackupSessionFailureWithoutMemcachedNodeIdConfigured105() throws Exception {
-        _service.setMemcachedNodes( "127.0.0.1:11211" );
+        _service.setMemcachedNodesInternal( "127.0.0.1:11211", null );
         _service.setSessionBackupAsync(false);
         _service.startInternal(new MemcachedStorageClient(_memcachedMock));
 
@@ -360,7 +361,7 @@ public abstract class MemcachedSessionServiceTest {
         _service.setStickyInternal( stickyness.isSticky() );
         if ( !stickyness.isSticky() ) {
             _service.setLockingMode( LockingMode.NONE, null, false );
-            _service.setMemcachedNodes( "n1:127.0.0.1:11211 n2:127.0.0.1:11212" ); // for backup support
+            _service.setMemcachedNodesInternal( "n1:127.0.0.1:11211 n2:127.0.0.1:11212", null ); // for backup support
             _service.startInternal(new MemcachedStorageClient(_memcachedMock)); // we must put in our mock again
         }
 
@@ -397,6 +398,37 @@ public abstract class MemcachedSessionServiceTest {
         }
     }
 
+    /**
+     * Test that a lock operation that timed out is cancelled, that the lock is deleted if it was added
+     * nevertheless and that the lock is acquired by a retry within the lock timeout.
+     */
+    @SuppressWarnings( "unchecked" )
+    @Test
+    public void testLockOperationTimeoutDeletesLockAndRetries() throws Exception {
+        _service.setStickyInternal( false );
+        _service.setLockingMode( LockingMode.ALL, null, false );
+        _service.setAdaptiveOperationTimeout( true );
+        _service.startInternal( new MemcachedStorageClient( _memcachedMock ) );
+
+        final String sessionId = "someSession-n1";
+        final String lockKey = new SessionIdFormat().createLockName( sessionId );
+
+        // the first add times out but was executed by memcached
+        final OperationFuture<Boolean> timedOutMock = mock( OperationFuture.class );
+        when( timedOutMock.get( anyLong(), any( TimeUnit.class ) ) ).thenThrow( new TimeoutException() );
+        when( timedOutMock.cancel( anyBoolean() ) ).thenReturn( false );
+        when( timedOutMock.get() ).thenReturn( Boolean.TRUE );
+        final OperationFuture<Boolean> lockedMock = mock( OperationFuture.class );
+        when( lockedMock.get( anyLong(), any( TimeUnit.class ) ) ).thenReturn( Boolean.TRUE );
+        when( _memcachedMock.add( eq( lockKey ), anyInt(), any(), any( Transcoder.class ) ) ).thenReturn( timedOutMock, lockedMock );
+
+        assertEquals( _service.getLockingStrategy().lock( sessionId ), LockStatus.LOCKED );
+
+        verify( timedOutMock ).cancel( false );
+        verify( _memcachedMock, times( 1 ) ).delete( eq( lockKey ) );
+        verify( _memcachedMock, times( 2 ) ).add( eq( lockKey ), anyInt(), any(), any( Transcoder.class ) );
+    }
+
     /**
      * Test that non-sticky sessions with a timeout of 0 or less that have not been loaded by a request
      * the validity info is stored in memcached with unlimited
@@ -412,7 +444,7 @@ public abstract class MemcachedSessionServiceTest {
 
         _service.setStickyInternal( false );
         _service.setLockingMode( LockingMode.NONE, null, false );
-        _service.setMemcachedNodes( "n1:127.0.0.1:11211 n2:127.0.0.1:11212" ); // for backup support
+        _service.setMemcachedNodesInternal( "n1:127.0.0.1:11211 n2:127.0.0.1:11212", null ); // for backup support
         _service.startInternal(new MemcachedStorageClient(_memcachedMock)); // we must put in our mock again
 
         final String sessionId = "someSessionNotLoaded-n1";
@@ -421,6 +453,9 @@ public abstract class MemcachedSessionServiceTest {
         final String validityKey = new SessionIdFormat().createValidityInfoKeyName( sessionId );
         final byte[] validityData = encode( -1, System.currentTimeMillis(), System.currentTimeMillis() );
         when( _memcachedMock.get( eq( validityKey ), any ( Transcoder.class) ) ).thenReturn( validityData );
+        // the backup has the version of the session, so that it's touched
+        final String backupValidityKey = new SessionIdFormat().createBackupKey( validityKey );
+        when( _memcachedMock.get( eq( backupValidityKey ), any ( Transcoder.class) ) ).thenReturn( validityData );
 
         // stub session (backup) ping
         @SuppressWarnings( "unchecked" )
@@ -429,6 +464,12 @@ public abstract class MemcachedSessionServiceTest {
         when( futureMock.get( anyInt(), any( TimeUnit.class ) ) ).thenReturn( Boolean.FALSE );
         when( _memcachedMock.add( any( String.class ), anyInt(), any(), any( Transcoder.class ) ) ).thenReturn( futureMock );
 
+        // stub session backup touch
+        @SuppressWarnings( "unchecked" )
+        final OperationFuture<Boolean> touchFutureMock = mock( OperationFuture.class );
+        when( touchFutureMock.get( anyLong(), any( TimeUnit.class ) ) ).thenReturn( Boolean.TRUE );
+        when( _memcachedMock.touch( any( String.class ), anyInt() ) ).thenReturn( touchFutureMock );
+
         _service.backupSession( sessionId, false, "unused" ).get();
 
         // update validity info
@@ -444,12 +485,12 @@ public abstract class MemcachedSessionServiceTest {
         // ping session
         verify( _memcachedMock, times( 1 ) ).add( eq( sessionId ), anyInt(), any(), any( Transcoder.class ) );
 
-        // ping session backup
+        // touch session backup
         final String backupSessionKey = new SessionIdFormat().createBackupKey( sessionId );
-        verify( _memcachedMock, times( 1 ) ).add( eq( backupSessionKey ), anyInt(), any(), any( Transcoder.class ) );
+        verify( _memcachedMock, times( 1 ) ).touch( eq( backupSessionKey ), anyInt() );
+        verify( _memcachedMock, never() ).set( eq( backupSessionKey ), anyInt(), any(), any( Transcoder.class ) );
 
         // update validity backup
-        final String backupValidityKey = new SessionIdFormat().createBackupKey( validityKey );
         verify( _memcachedMock, times( 1 ) ).set( eq( backupValidityKey ), eq( 0 ), any(), any( Transcoder.class ) );
     }
 
@@ -547,7 +588,7 @@ public abstract class MemcachedSessionServiceTest {
 
     @Test
     public void testSessionsRefCountHandlingIssue111() throws Exception {
-        _service.setSticky(false);
+        _service.setStickyInternal(false);
         _service.setLockingMode(LockingMode.ALL.name());
 
         final TranscoderService transcoderService = new TranscoderService(new JavaSerializationTranscoder());
@@ -654,4 +695,141 @@ public abstract class MemcachedSessionServiceTest {
         verify( _memcachedMock, times( 0 ) ).get( eq( validityKey ) );
     }
 
+    /**
+     * Test that a session id is only rejected by the missing sessions filter if it was not found repeatedly,
+     * a single miss might be transient.
+     */
+    @Test
+    public void testMissingSessionIsRejectedAfterRepeatedMisses() throws Exception {
+        _service.setMissingSessionsFilterCapacity( 100 );
+        _service.startInternal( new MemcachedStorageClient( _memcachedMock ) );
+
+        final String sessionId = "missing-n1";
+        assertNull( _service.findSession( sessionId ) );
+        verify( _memcachedMock, times( 1 ) ).get( eq( sessionId ), any( Transcoder.class ) );
+
+        // wait until the session id is removed from the invalid sessions cache
+        Thread.sleep( 600 );
+        assertNull( _service.findSession( sessionId ) );
+        verify( _memcachedMock, times( 2 ) ).get( eq( sessionId ), any( Transcoder.class ) );
+
+        Thread.sleep( 600 );
+        assertNull( _service.findSession( sessionId ) );
+        verify( _memcachedMock, times( 2 ) ).get( eq( sessionId ), any( Transcoder.class ) );
+    }
+
+    /**
+     * Test that a client that exceeded the max storage misses can still load sessions known to exist.
+     */
+    @Test
+    public void testStorageMissLimitDoesNotRejectKnownSessions() throws Exception {
+        _service.setStickyInternal( false );
+        _service.setLockingMode( LockingMode.NONE, null, false );
+        _service.setMaxStorageMissesPerClient( 1 );
+        final TranscoderService transcoderService = new TranscoderService( new JavaSerializationTranscoder() );
+        _service.setTranscoderService( transcoderService );
+        _service.startInternal( new MemcachedStorageClient( _memcachedMock ) );
+
+        final Request requestMock = mock( Request.class );
+        when( requestMock.getNote( eq( RequestTrackingContextValve.INVOKED ) ) ).thenReturn( Boolean.TRUE );
+        when( requestMock.getRemoteAddr() ).thenReturn( "10.0.0.1" );
+        _service.getTrackingHostValve().storeRequestThreadLocal( requestMock );
+
+        final MemcachedBackupSession session = _service.createSession( null );
+        _service.backupSession( session.getId(), false, "unused" ).get();
+        assertFalse( _service.getManager().getSessionsInternal().containsKey( session.getId() ) );
+
+        assertNull( _service.findSession( "unknown1-n1" ) );
+        assertNull( _service.findSession( "unknown2-n1" ) );
+        verify( _memcachedMock, never() ).get( eq( "unknown2-n1" ), any( Transcoder.class ) );
+
+        when( _memcachedMock.get( eq( session.getId() ), any( Transcoder.class ) ) ).thenReturn( transcoderService.serialize( session ) );
+        assertNotNull( _service.findSession( session.getId() ) );
+    }
+
+    /**
+     * Test that a hedged read of the secondary backup is only used if the backup is not older than the primary session.
+     */
+    @SuppressWarnings( "unchecked" )
+    @Test
+    public void testBackupIsReadOnlyWithVersionOfPrimarySession() throws Exception {
+        _service.setMemcachedNodesInternal( "n1:127.0.0.1:11211,n2:127.0.0.1:11212", null );
+        _service.setStickyInternal( false );
+        _service.setLockingMode( LockingMode.NONE, null, false );
+        _service.startInternal( new MemcachedStorageClient( _memcachedMock ) );
+
+        final String sessionId = "foo-n1";
+        final SessionIdFormat sessionIdFormat = new SessionIdFormat();
+        final String validityKey = sessionIdFormat.createValidityInfoKeyName( sessionId );
+        final long now = System.currentTimeMillis();
+        final byte[] data = new byte[] { 1 };
+        mockAsyncGet( sessionIdFormat.createBackupKey( validityKey ) ).thenReturn( encode( 60, now, now, 1 ) );
+        mockAsyncGet( sessionIdFormat.createBackupKey( sessionId ) ).thenReturn( data );
+
+        mockAsyncGet( validityKey ).thenReturn( encode( 60, now, now, 1 ) );
+        assertSame( _service.readBackup( sessionId ).get( 100, TimeUnit.MILLISECONDS ).data, data );
+
+        // e.g. the replication of version 2 is still pending
+        mockAsyncGet( validityKey ).thenReturn( encode( 60, now, now, 2 ) );
+        assertNull( _service.readBackup( sessionId ).get( 100, TimeUnit.MILLISECONDS ) );
+
+        // the version of the primary session is not known
+        mockAsyncGet( validityKey ).thenReturn( null );
+        assertNull( _service.readBackup( sessionId ).get( 100, TimeUnit.MILLISECONDS ) );
+
+        // the validity info of the primary session is not read within the deadline of the hedged read
+        mockAsyncGet( validityKey ).thenThrow( new TimeoutException() );
+        try {
+            _service.readBackup( sessionId ).get( 100, TimeUnit.MILLISECONDS );
+            fail( "The read of the backup should time out." );
+        } catch ( final TimeoutException e ) {
+            // expected
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private OngoingStubbing<Object> mockAsyncGet( final String key ) throws Exception {
+        final GetFuture<Object> future = mock( GetFuture.class );
+        when( _memcachedMock.asyncGet( eq( key ), any( Transcoder.class ) ) ).thenReturn( future );
+        return when( future.get( anyLong(), any( TimeUnit.class ) ) );
+    }
+
+    /**
+     * Test that the shared storage uses the current storage client, e.g. after the memcached nodes config
+     * was reloaded.
+     */
+    @Test
+    public void testSharedStorageUsesCurrentStorageClient() throws Exception {
+        final SharedStorage sharedStorage = _service.getSharedStorage();
+
+        final StorageClient storage = mock( StorageClient.class );
+        final byte[] data = new byte[] { 42 };
+        when( storage.get( anyString() ) ).thenReturn( data );
+        _service.setStorageClient( storage );
+
+        assertSame( sharedStorage.get( "foo" ), data );
+    }
+
+    /**
+     * Test that the memcached nodes config is not reloaded if the new storage client cannot connect to
+     * all nodes, then the former storage client and nodes are kept.
+     */
+    @Test
+    public void testReloadIsAbortedIfNewStorageClientCannotConnect() throws Exception {
+        final StorageClient storage = _service.getStorageClient();
+        final MemcachedNodesManager memcachedNodesManager = _service.getMemcachedNodesManager();
+        _service.setOperationTimeout( 100 );
+
+        try {
+            _service.setMemcachedNodes( "n1:127.0.0.1:1" );
+            fail( "The reload should have been aborted." );
+        } catch ( final IllegalStateException e ) {
+            // expected
+        }
+
+        assertSame( _service.getStorageClient(), storage );
+        assertSame( _service.getMemcachedNodesManager(), memcachedNodesManager );
+        assertEquals( _service.getMemcachedNodes(), "n1:127.0.0.1:11211" );
+    }
+
 }
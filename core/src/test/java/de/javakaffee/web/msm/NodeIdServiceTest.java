@@ -22,7 +22,9 @@ import static org.testng.Assert.assertNull;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -185,6 +187,25 @@ public class NodeIdServiceTest {
         assertEquals( nodeId3, actual, "The second failover node is not chosen" );
     }
 
+    /**
+     * Test load aware node selection: with power of two choices the most loaded node
+     * must never be chosen.
+     */
+    @Test
+    public final void testGetMemcachedNodeId_LoadAware() {
+        final NodeIdService cut = new NodeIdService( createNodeAvailabilityCache(),
+                NodeIdList.create( "n1", "n2", "n3" ), null );
+        final NodeLoadTracker nodeLoadTracker = new NodeLoadTracker( NodeLoadTracker.parseWeights( "n1:2" ) );
+        nodeLoadTracker.registerLatency( "n3", 100 );
+        cut.setNodeLoadTracker( nodeLoadTracker );
+
+        final Set<String> chosen = new HashSet<String>();
+        for ( int i = 0; i < 100; i++ ) {
+            chosen.add( cut.getMemcachedNodeId() );
+        }
+        assertEquals( chosen, new HashSet<String>( Arrays.asList( "n1", "n2" ) ) );
+    }
+
     private NodeAvailabilityCache<String> createNodeAvailabilityCache( final String ... unavailableNodes ) {
         final List<String> unavailable = unavailableNodes != null ? Arrays.asList( unavailableNodes ) : null;
         return new NodeAvailabilityCache<String>( 10, 100, new DummyCacheLoader( unavailable ) );
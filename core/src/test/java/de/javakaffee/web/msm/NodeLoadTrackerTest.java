@@ -0,0 +1,101 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test the {@link NodeLoadTracker}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class NodeLoadTrackerTest {
+
+    @Test
+    public void testParseWeights() {
+        final Map<String, Double> weights = NodeLoadTracker.parseWeights( "n1:2, n2:0.5" );
+        assertEquals( weights.size(), 2 );
+        assertEquals( weights.get( "n1" ), 2d );
+        assertEquals( weights.get( "n2" ), 0.5d );
+        assertTrue( NodeLoadTracker.parseWeights( null ).isEmpty() );
+    }
+
+    @Test( expectedExceptions = IllegalArgumentException.class )
+    public void testParseInvalidWeights() {
+        NodeLoadTracker.parseWeights( "n1:foo" );
+    }
+
+    @Test
+    public void testLoadIsDividedByWeight() {
+        final NodeLoadTracker cut = new NodeLoadTracker( NodeLoadTracker.parseWeights( "n1:2" ) );
+        assertEquals( cut.getLoad( "n1" ), 0.5d );
+        assertEquals( cut.getLoad( "n2" ), 1d );
+    }
+
+    @Test
+    public void testLatency() {
+        final NodeLoadTracker cut = new NodeLoadTracker( new HashMap<String, Double>() );
+        cut.registerLatency( "n1", 10 );
+        assertEquals( cut.getLoad( "n1" ), 1 + NodeLoadTracker.LATENCY_ALPHA * 10, 0.0001 );
+    }
+
+    @Test
+    public void testStats() {
+        final NodeLoadTracker cut = new NodeLoadTracker( new HashMap<String, Double>() );
+        cut.updateStats( "n1", createStats( 50, 100, 0 ), 1000 );
+        assertEquals( cut.getLoad( "n1" ), 1.5d, 0.0001 );
+        // 10 evictions in 10 seconds
+        cut.updateStats( "n1", createStats( 50, 100, 10 ), 11000 );
+        assertEquals( cut.getLoad( "n1" ), 3d, 0.0001 );
+    }
+
+    @Test
+    public void testLatencyOfNodeWithoutRequestsDecays() {
+        final NodeLoadTracker cut = new NodeLoadTracker( new HashMap<String, Double>() );
+        for ( int i = 0; i < 100; i++ ) {
+            cut.registerLatency( "n1", 500 );
+            cut.registerLatency( "n2", 10 );
+        }
+        cut.updateStats( "n1", createStats( 0, 100, 0 ), 1000 );
+        cut.updateStats( "n2", createStats( 0, 100, 0 ), 1000 );
+        final double load = cut.getLoad( "n1" );
+
+        // n1 gets no requests anymore, while n2 still does
+        for ( int i = 1; i <= 50; i++ ) {
+            cut.registerLatency( "n2", 10 );
+            cut.updateStats( "n1", createStats( 0, 100, 0 ), 1000 + i * 10000 );
+            cut.updateStats( "n2", createStats( 0, 100, 0 ), 1000 + i * 10000 );
+        }
+        assertTrue( cut.getLoad( "n1" ) < load );
+        assertEquals( cut.getLoad( "n1" ), cut.getLoad( "n2" ), 0.1 );
+    }
+
+    private static Map<String, String> createStats( final long bytes, final long limit, final long evictions ) {
+        final Map<String, String> result = new HashMap<String, String>();
+        result.put( "bytes", String.valueOf( bytes ) );
+        result.put( "limit_maxbytes", String.valueOf( limit ) );
+        result.put( "evictions", String.valueOf( evictions ) );
+        return result;
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static de.javakaffee.web.msm.NodeTimeoutController.OPEN_DURATION;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.javakaffee.web.msm.NodeTimeoutController.State;
+
+/**
+ * Test the {@link NodeTimeoutController}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class NodeTimeoutControllerTest {
+
+    private Statistics _statistics;
+    private NodeTimeoutController _cut;
+
+    @BeforeMethod
+    public void setUp() {
+        _statistics = Statistics.create();
+        _cut = new NodeTimeoutController( 10, 1000, 3, _statistics );
+    }
+
+    @Test
+    public void testTimeoutIsDerivedFromLatencies() {
+        assertEquals( _cut.getTimeout( "n1" ), 1000 );
+        for ( int i = 0; i < NodeTimeoutController.MIN_SAMPLES - 1; i++ ) {
+            _cut.onSuccess( "n1", 30 );
+        }
+        assertEquals( _cut.getTimeout( "n1" ), 1000, "Not enough samples yet" );
+        _cut.onSuccess( "n1", 30 );
+        assertEquals( _cut.getTimeout( "n1" ), 30 * NodeTimeoutController.TIMEOUT_FACTOR );
+        assertEquals( _cut.getTimeout( "n2" ), 1000 );
+    }
+
+    @Test
+    public void testTimeoutIsBetweenMinAndMax() {
+        for ( int i = 0; i < NodeTimeoutController.SAMPLES; i++ ) {
+            _cut.onSuccess( "n1", 1 );
+            _cut.onSuccess( "n2", 5000 );
+        }
+        assertEquals( _cut.getTimeout( "n1" ), 10 );
+        assertEquals( _cut.getTimeout( "n2" ), 1000 );
+    }
+
+    /**
+     * Test that the latencies are a sliding window of the latest {@link NodeTimeoutController#SAMPLES} latencies
+     * that wraps around any number of times.
+     */
+    @Test
+    public void testTimeoutFollowsLatestLatenciesAfterManyOperations() {
+        for ( int i = 0; i < 100 * NodeTimeoutController.SAMPLES + 7; i++ ) {
+            _cut.onSuccess( "n1", 300 );
+        }
+        assertEquals( _cut.getTimeout( "n1" ), 300 * NodeTimeoutController.TIMEOUT_FACTOR );
+        // the timeout is recomputed every SAMPLES / 8 operations
+        for ( int i = 0; i < NodeTimeoutController.SAMPLES + NodeTimeoutController.SAMPLES / 8; i++ ) {
+            _cut.onSuccess( "n1", 20 );
+        }
+        assertEquals( _cut.getTimeout( "n1" ), 20 * NodeTimeoutController.TIMEOUT_FACTOR );
+    }
+
+    @Test
+    public void testCircuitBreakerOpensAfterConsecutiveTimeouts() {
+        assertFalse( _cut.onTimeout( "n1", 0 ) );
+        assertFalse( _cut.onTimeout( "n1", 0 ) );
+        _cut.onSuccess( "n1", 10 );
+        assertFalse( _cut.onTimeout( "n1", 0 ) );
+        assertFalse( _cut.onTimeout( "n1", 0 ) );
+        assertTrue( _cut.allowRequest( "n1", 0 ) );
+
+        assertTrue( _cut.onTimeout( "n1", 0 ) );
+        assertEquals( _cut.getState( "n1" ), State.OPEN );
+        assertFalse( _cut.allowRequest( "n1", 1 ) );
+        assertTrue( _cut.allowRequest( "n2", 1 ) );
+        assertEquals( _statistics.getCircuitBreakerOpenings(), 1 );
+    }
+
+    /**
+     * Timeouts below the max timeout back off the timeout and don't count as failures of the circuit breaker.
+     */
+    @Test
+    public void testTimeoutIsBackedOffBeforeCircuitBreakerOpens() {
+        for ( int i = 0; i < NodeTimeoutController.MIN_SAMPLES; i++ ) {
+            _cut.onSuccess( "n1", 100 );
+        }
+        assertEquals( _cut.getTimeout( "n1" ), 200 );
+
+        assertFalse( _cut.onTimeout( "n1", 0 ) );
+        assertEquals( _cut.getTimeout( "n1" ), 400 );
+        assertFalse( _cut.onTimeout( "n1", 0 ) );
+        assertEquals( _cut.getTimeout( "n1" ), 800 );
+        assertFalse( _cut.onTimeout( "n1", 0 ) );
+        assertEquals( _cut.getTimeout( "n1" ), 1000 );
+        assertEquals( _cut.getState( "n1" ), State.CLOSED );
+
+        assertFalse( _cut.onTimeout( "n1", 0 ) );
+        assertFalse( _cut.onTimeout( "n1", 0 ) );
+        assertTrue( _cut.onTimeout( "n1", 0 ) );
+        assertEquals( _cut.getState( "n1" ), State.OPEN );
+    }
+
+    /**
+     * Timed out operations are sampled with the timeout as latency, so that the timeout derived from
+     * the latencies doesn't drop below the latencies of the timed out operations.
+     */
+    @Test
+    public void testTimeoutsAreSampled() {
+        for ( int i = 0; i < NodeTimeoutController.MIN_SAMPLES; i++ ) {
+            _cut.onSuccess( "n1", 100 );
+        }
+        _cut.onTimeout( "n1", 0 );
+        assertEquals( _cut.getTimeout( "n1" ), 400 );
+        // the timeout sample (200 ms) is the p99, so the timeout stays above it
+        _cut.onSuccess( "n1", 100 );
+        assertEquals( _cut.getTimeout( "n1" ), 400 );
+    }
+
+    @Test
+    public void testHalfOpenAllowsSingleTrialRequest() {
+        openCircuitBreaker( 0 );
+
+        assertTrue( _cut.allowRequest( "n1", OPEN_DURATION ) );
+        assertEquals( _cut.getState( "n1" ), State.HALF_OPEN );
+        assertFalse( _cut.allowRequest( "n1", OPEN_DURATION + 1 ) );
+
+        assertTrue( _cut.onSuccess( "n1", 10 ) );
+        assertEquals( _cut.getState( "n1" ), State.CLOSED );
+        assertTrue( _cut.allowRequest( "n1", OPEN_DURATION + 2 ) );
+    }
+
+    @Test
+    public void testFailedTrialRequestReopensCircuitBreaker() {
+        openCircuitBreaker( 0 );
+
+        assertTrue( _cut.allowRequest( "n1", OPEN_DURATION ) );
+        assertTrue( _cut.onTimeout( "n1", OPEN_DURATION + 100 ) );
+        assertEquals( _cut.getState( "n1" ), State.OPEN );
+        assertFalse( _cut.allowRequest( "n1", 2 * OPEN_DURATION ) );
+        assertTrue( _cut.allowRequest( "n1", 2 * OPEN_DURATION + 100 ) );
+        assertEquals( _statistics.getCircuitBreakerOpenings(), 2 );
+    }
+
+    @Test
+    public void testInfo() {
+        _cut.onSuccess( "n2", 10 );
+        openCircuitBreaker( 0 );
+        final String[] info = _cut.getInfo();
+        assertEquals( info.length, 2 );
+        assertEquals( info[0], "n1: timeout 1000 ms, OPEN" );
+        assertEquals( info[1], "n2: timeout 1000 ms, CLOSED" );
+    }
+
+    private void openCircuitBreaker( final long now ) {
+        for ( int i = 0; i < 3; i++ ) {
+            _cut.onTimeout( "n1", now );
+        }
+        assertEquals( _cut.getState( "n1" ), State.OPEN );
+    }
+
+}
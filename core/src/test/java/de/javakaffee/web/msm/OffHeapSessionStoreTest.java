@@ -0,0 +1,83 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test the {@link OffHeapSessionStore}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class OffHeapSessionStoreTest {
+
+    @Test
+    public void testPutAndTakeAcrossArenas() {
+        final Statistics statistics = Statistics.create();
+        // 10 blocks of 16 bytes in arenas of 4 blocks
+        final OffHeapSessionStore cut = new OffHeapSessionStore( 160, 16, 64, statistics );
+        final byte[] data = createData( 100 );
+        assertTrue( cut.put( "foo", data, Long.MAX_VALUE ) );
+        assertEquals( cut.getSizeInBytes(), 100 );
+        assertEquals( statistics.getOffHeapSessionBytes(), 100 );
+
+        assertEquals( cut.take( "foo" ), data );
+        assertNull( cut.take( "foo" ) );
+        assertEquals( cut.getSizeInBytes(), 0 );
+        assertEquals( statistics.getOffHeapSessionBytes(), 0 );
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyStoredSessions() {
+        final Statistics statistics = Statistics.create();
+        final OffHeapSessionStore cut = new OffHeapSessionStore( 160, 16, 64, statistics );
+        assertTrue( cut.put( "s1", createData( 64 ), Long.MAX_VALUE ) );
+        assertTrue( cut.put( "s2", createData( 48 ), Long.MAX_VALUE ) );
+        assertTrue( cut.put( "s3", createData( 60 ), Long.MAX_VALUE ) );
+        assertEquals( statistics.getOffHeapSessionEvictions(), 1 );
+        assertEquals( cut.size(), 2 );
+        assertNull( cut.take( "s1" ) );
+        assertEquals( cut.take( "s2" ), createData( 48 ) );
+        assertEquals( cut.take( "s3" ), createData( 60 ) );
+
+        assertFalse( cut.put( "tooBig", createData( 161 ), Long.MAX_VALUE ) );
+    }
+
+    @Test
+    public void testRemoveExpired() {
+        final OffHeapSessionStore cut = new OffHeapSessionStore( 160, 16, 64, Statistics.create() );
+        cut.put( "s1", createData( 10 ), 1000 );
+        cut.put( "s2", createData( 10 ), 2000 );
+        assertEquals( cut.removeExpired( 1500 ), 1 );
+        assertNull( cut.take( "s1" ) );
+        assertEquals( cut.size(), 1 );
+    }
+
+    private static byte[] createData( final int size ) {
+        final byte[] result = new byte[size];
+        for ( int i = 0; i < size; i++ ) {
+            result[i] = (byte) ( i * 31 + size );
+        }
+        return result;
+    }
+
+}
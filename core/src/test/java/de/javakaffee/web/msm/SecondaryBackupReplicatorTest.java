@@ -0,0 +1,215 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static de.javakaffee.web.msm.SessionValidityInfo.encode;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.javakaffee.web.msm.BackupSessionService.SimpleFuture;
+import de.javakaffee.web.msm.BackupSessionService.SynchronousExecutorService;
+import de.javakaffee.web.msm.MemcachedNodesManager.StorageClientCallback;
+import de.javakaffee.web.msm.storage.StorageClient;
+
+/**
+ * Test the {@link SecondaryBackupReplicator}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class SecondaryBackupReplicatorTest {
+
+    private static final String SESSION_ID = "foo-n1";
+    private static final String BACKUP_KEY = "bak:foo-n1";
+    private static final String BACKUP_VALIDITY_KEY = "bak:validity:foo-n1";
+    /** The max inactive interval plus the refresh interval (a quarter of it). */
+    private static final int DATA_EXPIRATION = 75;
+
+    private StorageClient _storage;
+    private Statistics _statistics;
+    private ExecutorService _executor;
+    private SecondaryBackupReplicator _cut;
+
+    @BeforeMethod
+    public void setUp() {
+        _storage = mock( StorageClient.class );
+        when( _storage.set( anyString(), anyInt(), any( byte[].class ) ) ).thenReturn( new SimpleFuture<Boolean>( true ) );
+        when( _storage.touch( anyString(), anyInt() ) ).thenReturn( new SimpleFuture<Boolean>( true ) );
+        final MemcachedNodesManager memcachedNodesManager = MemcachedNodesManager.createFor( "n1:localhost:11211,n2:localhost:11212",
+                null, StorageKeyFormat.EMPTY, mock( StorageClientCallback.class ) );
+        _statistics = Statistics.create();
+        _executor = new SynchronousExecutorService();
+        _cut = new SecondaryBackupReplicator( _storage, memcachedNodesManager, _statistics, _executor, 1000, 10 );
+    }
+
+    @Test
+    public void testReplicateModifiedSession() {
+        final byte[] data = new byte[] { 1 };
+        final byte[] validityData = encode( 60, 1, 2, 1 );
+        _cut.replicate( SESSION_ID, data, validityData, 60 );
+
+        verify( _storage ).set( BACKUP_KEY, DATA_EXPIRATION, data );
+        verify( _storage ).set( BACKUP_VALIDITY_KEY, 60, validityData );
+        assertEquals( _statistics.getSecondaryBackupsReplicated(), 1 );
+        assertEquals( _cut.getQueueSize(), 0 );
+
+        // the data of a replicated backup does not have to be refreshed, but its validity info is updated
+        final byte[] accessedValidityData = encode( 60, 2, 3, 1 );
+        assertEquals( _cut.refresh( SESSION_ID, accessedValidityData, 60 ), false );
+        verify( _storage, never() ).touch( anyString(), anyInt() );
+        verify( _storage ).set( BACKUP_VALIDITY_KEY, 60, accessedValidityData );
+        verify( _storage, never() ).get( anyString() );
+    }
+
+    @Test
+    public void testRefreshIsRateLimited() {
+        final byte[] validityData = encode( 60, 1, 2, 1 );
+        when( _storage.get( BACKUP_VALIDITY_KEY ) ).thenReturn( validityData );
+        assertEquals( _cut.refresh( SESSION_ID, validityData, 60 ), true );
+        assertEquals( _cut.refresh( SESSION_ID, validityData, 60 ), false );
+
+        verify( _storage, times( 1 ) ).touch( BACKUP_KEY, DATA_EXPIRATION );
+        // the validity info is stored on each access
+        verify( _storage, times( 2 ) ).set( BACKUP_VALIDITY_KEY, 60, validityData );
+        verify( _storage, never() ).set( eq( BACKUP_KEY ), anyInt(), any( byte[].class ) );
+        assertEquals( _statistics.getSecondaryBackupsRefreshed(), 1 );
+    }
+
+    @Test
+    public void testRefreshReseedsMissingBackup() {
+        final byte[] data = new byte[] { 1 };
+        when( _storage.touch( anyString(), anyInt() ) ).thenReturn( new SimpleFuture<Boolean>( false ) );
+        when( _storage.get( SESSION_ID ) ).thenReturn( data );
+
+        _cut.refresh( SESSION_ID, encode( 60, 1, 2, 1 ), 60 );
+
+        verify( _storage ).set( BACKUP_KEY, DATA_EXPIRATION, data );
+        assertEquals( _statistics.getSecondaryBackupsRepaired(), 1 );
+    }
+
+    @Test
+    public void testRefreshReseedsBackupWithOtherVersion() {
+        final byte[] data = new byte[] { 2 };
+        when( _storage.get( SESSION_ID ) ).thenReturn( data );
+        // e.g. the replication of version 2 was dropped from the queue
+        when( _storage.get( BACKUP_VALIDITY_KEY ) ).thenReturn( encode( 60, 1, 2, 1 ) );
+
+        final byte[] validityData = encode( 60, 1, 3, 2 );
+        _cut.refresh( SESSION_ID, validityData, 60 );
+
+        verify( _storage, never() ).touch( anyString(), anyInt() );
+        verify( _storage ).set( BACKUP_KEY, DATA_EXPIRATION, data );
+        verify( _storage ).set( BACKUP_VALIDITY_KEY, 60, validityData );
+        assertEquals( _statistics.getSecondaryBackupsRepaired(), 1 );
+    }
+
+    @Test
+    public void testValidityInfoIsNotStoredIfDataCouldNotBeStored() {
+        final byte[] validityData = encode( 60, 1, 2, 1 );
+        when( _storage.set( eq( BACKUP_KEY ), anyInt(), any( byte[].class ) ) ).thenReturn( new SimpleFuture<Boolean>( false ) );
+        _cut.replicate( SESSION_ID, new byte[] { 1 }, validityData, 60 );
+        verify( _storage, never() ).set( eq( BACKUP_VALIDITY_KEY ), anyInt(), any( byte[].class ) );
+
+        // the version was not replicated, so the refresh must not write its validity info
+        _cut.refresh( SESSION_ID, encode( 60, 1, 3, 1 ), 60 );
+        verify( _storage, never() ).touch( anyString(), anyInt() );
+        verify( _storage, never() ).set( eq( BACKUP_VALIDITY_KEY ), anyInt(), any( byte[].class ) );
+    }
+
+    @Test
+    public void testCoalesceReplicationsWhileInFlight() {
+        final byte[] data1 = new byte[] { 1 };
+        final byte[] data2 = new byte[] { 2 };
+        final byte[] data3 = new byte[] { 3 };
+        when( _storage.set( eq( BACKUP_KEY ), anyInt(), eq( data1 ) ) ).thenAnswer( new Answer<Future<Boolean>>() {
+            @Override
+            public Future<Boolean> answer( final InvocationOnMock invocation ) {
+                // the session is modified while the first version is written
+                _cut.replicate( SESSION_ID, data2, encode( 60, 1, 2, 2 ), 60 );
+                _cut.replicate( SESSION_ID, data3, encode( 60, 1, 2, 3 ), 60 );
+                return new SimpleFuture<Boolean>( true );
+            }
+        } );
+
+        _cut.replicate( SESSION_ID, data1, encode( 60, 1, 2, 1 ), 60 );
+
+        verify( _storage ).set( BACKUP_KEY, DATA_EXPIRATION, data1 );
+        verify( _storage, never() ).set( BACKUP_KEY, DATA_EXPIRATION, data2 );
+        verify( _storage ).set( BACKUP_KEY, DATA_EXPIRATION, data3 );
+        assertEquals( _statistics.getSecondaryBackupsReplicated(), 2 );
+        assertEquals( _statistics.getSecondaryBackupsCoalesced(), 1 );
+        assertEquals( _cut.getQueueSize(), 0 );
+    }
+
+    @Test
+    public void testVerifyReseedsOutdatedBackup() {
+        final byte[] data = new byte[] { 1 };
+        when( _storage.get( SESSION_ID ) ).thenReturn( data );
+        when( _storage.get( BACKUP_VALIDITY_KEY ) ).thenReturn( encode( 60, 1, 2, 1 ) );
+
+        // same version: nothing to do
+        _cut.verify( SESSION_ID, encode( 60, 1, 2, 1 ), 1, 60 );
+        verify( _storage, never() ).set( anyString(), anyInt(), any( byte[].class ) );
+
+        final byte[] validityData = encode( 60, 1, 2, 2 );
+        _cut.verify( SESSION_ID, validityData, 2, 60 );
+        verify( _storage ).set( BACKUP_KEY, DATA_EXPIRATION, data );
+        verify( _storage ).set( BACKUP_VALIDITY_KEY, 60, validityData );
+        assertEquals( _statistics.getSecondaryBackupsRepaired(), 1 );
+
+        // each version is verified only once
+        _cut.verify( SESSION_ID, validityData, 2, 60 );
+        verify( _storage, times( 2 ) ).get( BACKUP_VALIDITY_KEY );
+    }
+
+    @Test
+    public void testQueueIsBounded() {
+        final SecondaryBackupReplicator cut = new SecondaryBackupReplicator( _storage,
+                MemcachedNodesManager.createFor( "n1:localhost:11211,n2:localhost:11212", null, StorageKeyFormat.EMPTY,
+                        mock( StorageClientCallback.class ) ), _statistics, _executor, 1000, 1 );
+        when( _storage.set( eq( BACKUP_KEY ), anyInt(), any( byte[].class ) ) ).thenAnswer( new Answer<Future<Boolean>>() {
+            @Override
+            public Future<Boolean> answer( final InvocationOnMock invocation ) {
+                // other sessions are queued while this one is in flight, but only one replication fits into the queue
+                for ( int i = 0; i < 3; i++ ) {
+                    cut.replicate( SESSION_ID, new byte[] { 2 }, encode( 60, 1, 2, 2 ), 60 );
+                    cut.replicate( "bar" + i + "-n1", new byte[] { 3 }, encode( 60, 1, 2, 1 ), 60 );
+                }
+                return new SimpleFuture<Boolean>( true );
+            }
+        } );
+        cut.replicate( SESSION_ID, new byte[] { 1 }, encode( 60, 1, 2, 1 ), 60 );
+        assertEquals( cut.getQueueSize(), 0 );
+        assertEquals( _statistics.getSecondaryBackupsDropped(), 3 );
+    }
+
+}
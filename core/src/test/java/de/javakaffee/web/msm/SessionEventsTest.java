@@ -0,0 +1,47 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+
+import org.testng.annotations.Test;
+
+import de.javakaffee.web.msm.SessionEvents.SessionEvent;
+
+/**
+ * Test the {@link SessionEvents}, the events emitted to the Flight Recorder are tested in the jfr-events module.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class SessionEventsTest {
+
+    @Test
+    public void testDisabledEventsDoNothing() {
+        final SessionEvent event = SessionEvents.DISABLED.beginEvent( SessionEvents.Type.BACKUP );
+        assertSame( event, SessionEvents.NO_EVENT );
+        assertSame( event.session( "foo-n1" ).bytes( 42 ).result( "SUCCESS" ), event );
+        event.commit();
+    }
+
+    @Test
+    public void testEventsAreDisabledWithoutFlightRecorderModule() {
+        assertFalse( SessionEvents.isFlightRecorderAvailable() );
+        assertSame( SessionEvents.begin( SessionEvents.Type.LOAD ), SessionEvents.NO_EVENT );
+    }
+
+}
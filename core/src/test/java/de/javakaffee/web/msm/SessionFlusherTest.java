@@ -0,0 +1,130 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+
+import org.apache.catalina.Session;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.javakaffee.web.msm.BackupSessionService.SimpleFuture;
+import de.javakaffee.web.msm.MemcachedNodesManager.StorageClientCallback;
+import de.javakaffee.web.msm.storage.StorageClient;
+
+/**
+ * Test the {@link SessionFlusher}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class SessionFlusherTest {
+
+    private TranscoderService _transcoderService;
+    private StorageClient _storage;
+    private Statistics _statistics;
+    private SessionFlusher _cut;
+
+    @BeforeMethod
+    public void setUp() {
+        _transcoderService = mock( TranscoderService.class );
+        when( _transcoderService.serializeAttributes( any( MemcachedBackupSession.class ), any( ConcurrentMap.class ) ) ).thenAnswer(
+                new Answer<byte[]>() {
+                    @Override
+                    public byte[] answer( final InvocationOnMock invocation ) {
+                        return ( (MemcachedBackupSession) invocation.getArguments()[0] ).getIdInternal().getBytes();
+                    }
+                } );
+        when( _transcoderService.serialize( any( MemcachedBackupSession.class ), any( byte[].class ) ) ).thenAnswer(
+                new Answer<byte[]>() {
+                    @Override
+                    public byte[] answer( final InvocationOnMock invocation ) {
+                        return (byte[]) invocation.getArguments()[1];
+                    }
+                } );
+        _storage = mock( StorageClient.class );
+        when( _storage.set( anyString(), anyInt(), any( byte[].class ) ) ).thenAnswer( new Answer<Future<Boolean>>() {
+            @Override
+            public Future<Boolean> answer( final InvocationOnMock invocation ) {
+                return new SimpleFuture<Boolean>( !( (String) invocation.getArguments()[0] ).startsWith( "failing" ) );
+            }
+        } );
+        final MemcachedNodesManager memcachedNodesManager = MemcachedNodesManager.createFor( "localhost:11211", null,
+                StorageKeyFormat.EMPTY, mock( StorageClientCallback.class ) );
+        _statistics = Statistics.create();
+        _cut = new SessionFlusher( _transcoderService, _storage, memcachedNodesManager, _statistics, 2 );
+    }
+
+    @Test
+    public void testFlushModifiedAndAccessedSessions() throws Exception {
+        final MemcachedBackupSession modified = createSession( "modified" );
+        final MemcachedBackupSession unchanged = createSession( "unchanged" );
+        unchanged.setDataHashCode( Arrays.hashCode( "unchanged".getBytes() ) );
+        final MemcachedBackupSession accessed = createSession( "accessed" );
+        accessed.setDataHashCode( Arrays.hashCode( "accessed".getBytes() ) );
+        accessed.setLastBackupTime( -1 );
+        final MemcachedBackupSession failing = createSession( "failing" );
+        final MemcachedBackupSession running = createSession( "running" );
+        running.setBackupRunning( true );
+
+        final SessionFlusher.Result result = _cut.flush( new Session[] { modified, unchanged, accessed, failing, running }, 1000 );
+        assertEquals( result.getSessions(), 5 );
+        assertEquals( result.getFlushed(), 2 );
+        assertEquals( result.getFailed(), 1 );
+        assertFalse( result.isTimedOut() );
+
+        verify( _storage ).set( eq( "modified" ), anyInt(), any( byte[].class ) );
+        verify( _storage ).set( eq( "accessed" ), anyInt(), any( byte[].class ) );
+        verify( _storage, never() ).set( eq( "unchanged" ), anyInt(), any( byte[].class ) );
+        verify( _storage, never() ).set( eq( "running" ), anyInt(), any( byte[].class ) );
+        assertEquals( modified.getDataHashCode(), Arrays.hashCode( "modified".getBytes() ) );
+        assertEquals( failing.getDataHashCode(), 0 );
+
+        assertEquals( _statistics.getShutdownFlushSessionsFlushed(), 2 );
+        assertEquals( _statistics.getShutdownFlushSessionsFailed(), 1 );
+    }
+
+    private static MemcachedBackupSession createSession( final String id ) {
+        final MemcachedBackupSession result = new MemcachedBackupSession() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            public ConcurrentMap<String, Object> getAttributesFiltered() {
+                return new ConcurrentHashMap<String, Object>();
+            }
+        };
+        result.setValid( true );
+        result.setIdInternal( id );
+        result.setMaxInactiveInterval( 600 );
+        return result;
+    }
+
+}
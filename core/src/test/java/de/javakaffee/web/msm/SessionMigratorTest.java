@@ -0,0 +1,134 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static de.javakaffee.web.msm.SessionValidityInfo.encode;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.javakaffee.web.msm.BackupSessionService.SimpleFuture;
+import de.javakaffee.web.msm.MemcachedNodesManager.StorageClientCallback;
+import de.javakaffee.web.msm.storage.StorageClient;
+
+/**
+ * Test the {@link SessionMigrator}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class SessionMigratorTest {
+
+    private static final String SESSION_ID = "foo-n1";
+    private static final String NEW_SESSION_ID = "foo-n2";
+
+    private StorageClient _storage;
+    private MemcachedNodesManager _memcachedNodesManager;
+    private Statistics _statistics;
+
+    @BeforeMethod
+    public void setUp() {
+        _storage = mock( StorageClient.class );
+        when( _storage.set( anyString(), anyInt(), any( byte[].class ) ) ).thenReturn( new SimpleFuture<Boolean>( true ) );
+        _memcachedNodesManager = MemcachedNodesManager.createFor( "n1:localhost:11211,n2:localhost:11212",
+                null, StorageKeyFormat.EMPTY, mock( StorageClientCallback.class ) );
+        _memcachedNodesManager.setDrainingNodes( "n1" );
+        _statistics = Statistics.create();
+    }
+
+    @Test
+    public void testMigrateNonStickySession() {
+        final SessionMigrator cut = new SessionMigrator( _storage, _memcachedNodesManager, _statistics, false, 0, 1000, 10 );
+        final byte[] data = new byte[] { 1 };
+        final byte[] validityData = encode( 60, 1, 2, 2 );
+        when( _storage.get( SESSION_ID ) ).thenReturn( data );
+        when( _storage.get( "validity:" + SESSION_ID ) ).thenReturn( validityData );
+
+        assertTrue( cut.migrate( SESSION_ID, 2, 120 ) );
+
+        verify( _storage ).set( NEW_SESSION_ID, 120, data );
+        verify( _storage ).set( "validity:" + NEW_SESSION_ID, 60, validityData );
+        verify( _storage ).set( "migrated:" + SESSION_ID, 120, SessionMigrator.encodeMigration( NEW_SESSION_ID, 2 ) );
+        assertEquals( _statistics.getSessionsMigrated(), 1 );
+        assertTrue( cut.isMigrated( SESSION_ID ) );
+        assertTrue( cut.isMigratedSessionId( NEW_SESSION_ID ) );
+        assertEquals( cut.getMigratedSessionId( SESSION_ID, 2 ), NEW_SESSION_ID );
+
+        // the session was modified after it was migrated
+        assertNull( cut.getMigratedSessionId( SESSION_ID, 3 ) );
+        assertFalse( cut.isMigrated( SESSION_ID ) );
+    }
+
+    /**
+     * Test that a session migrated by another tomcat is found via the mapping stored in memcached.
+     */
+    @Test
+    public void testFindSessionMigratedByOtherTomcat() {
+        final SessionMigrator cut = new SessionMigrator( _storage, _memcachedNodesManager, _statistics, false, 0, 1000, 10 );
+        assertFalse( cut.isMigrated( SESSION_ID ) );
+
+        when( _storage.get( "migrated:" + SESSION_ID ) ).thenReturn( SessionMigrator.encodeMigration( NEW_SESSION_ID, 2 ) );
+
+        assertTrue( cut.isMigrated( SESSION_ID ) );
+        assertEquals( cut.getMigratedSessionId( SESSION_ID, 2 ), NEW_SESSION_ID );
+        assertTrue( cut.isMigratedSessionId( NEW_SESSION_ID ) );
+        assertNull( cut.getMigratedSessionId( SESSION_ID, 3 ) );
+    }
+
+    @Test
+    public void testDoNotMigrateModifiedSession() {
+        final SessionMigrator cut = new SessionMigrator( _storage, _memcachedNodesManager, _statistics, false, 0, 1000, 10 );
+        when( _storage.get( SESSION_ID ) ).thenReturn( new byte[] { 1 } );
+        when( _storage.get( "validity:" + SESSION_ID ) ).thenReturn( encode( 60, 1, 2, 3 ) );
+
+        assertFalse( cut.migrate( SESSION_ID, 2, 120 ) );
+
+        verify( _storage, never() ).set( anyString(), anyInt(), any( byte[].class ) );
+        assertFalse( cut.isMigrated( SESSION_ID ) );
+    }
+
+    @Test
+    public void testMigrateRegisteredSessionsInBackground() throws InterruptedException {
+        final SessionMigrator cut = new SessionMigrator( _storage, _memcachedNodesManager, _statistics, true, 0, 1000, 10 );
+        final byte[] data = new byte[] { 1 };
+        when( _storage.get( SESSION_ID ) ).thenReturn( data );
+
+        // sessions that are not stored on a draining node are ignored
+        cut.register( "bar-n2", 0, 60 );
+        cut.register( SESSION_ID, 0, 60 );
+
+        final long timeout = System.currentTimeMillis() + 2000;
+        while ( !cut.isMigrated( SESSION_ID ) && System.currentTimeMillis() < timeout ) {
+            Thread.sleep( 10 );
+        }
+        verify( _storage ).set( NEW_SESSION_ID, 60, data );
+        assertEquals( _statistics.getSessionsMigrated(), 1 );
+        assertEquals( cut.getQueueSize(), 0 );
+        cut.stop();
+    }
+
+}
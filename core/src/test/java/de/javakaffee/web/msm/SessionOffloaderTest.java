@@ -0,0 +1,98 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.apache.catalina.Session;
+import org.testng.annotations.Test;
+
+/**
+ * Test the {@link SessionOffloader}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class SessionOffloaderTest {
+
+    private static final long NOW = 1000000;
+
+    @Test
+    public void testSelectIdleSessions() {
+        final SessionOffloader cut = new SessionOffloader( 60, 0 );
+        final MemcachedBackupSession idle = createSession( "idle", NOW - 61000, 100 );
+        final MemcachedBackupSession active = createSession( "active", NOW - 10000, 100 );
+        final MemcachedBackupSession notStored = createSession( "notStored", NOW - 61000, 0 );
+        final MemcachedBackupSession invalid = createSession( "invalid", NOW - 61000, 100 );
+        invalid.setValid( false );
+
+        assertEquals( cut.selectSessions( new Session[] { idle, active, notStored, invalid }, NOW, 0 ), asList( idle ) );
+    }
+
+    @Test
+    public void testSelectLeastRecentlyAccessedSessionsIfHeapBudgetIsExceeded() {
+        final SessionOffloader cut = new SessionOffloader( 0, 250 );
+        final MemcachedBackupSession s1 = createSession( "s1", NOW - 3000, 100 );
+        final MemcachedBackupSession s2 = createSession( "s2", NOW - 2000, 100 );
+        final MemcachedBackupSession s3 = createSession( "s3", NOW - 1000, 100 );
+        final MemcachedBackupSession current = createSession( "current", NOW - 10, 100 );
+
+        assertEquals( cut.selectSessions( new Session[] { s3, current, s1, s2 }, NOW, 500 ), asList( s1, s2 ) );
+        assertEquals( cut.selectSessions( new Session[] { s3, s2 }, NOW, 500 ), Collections.emptyList() );
+    }
+
+    @Test
+    public void testStubs() {
+        final SessionOffloader cut = new SessionOffloader( 60, 0 );
+        final MemcachedBackupSession session = createSession( "foo", NOW - 61000, 100 );
+        session.setMaxInactiveInterval( 120 );
+        cut.offloaded( session, "n1" );
+        assertTrue( cut.isOffloaded( "foo" ) );
+        assertEquals( cut.size(), 1 );
+
+        assertEquals( cut.expireStubs( NOW ), 0 );
+        assertEquals( cut.expireStubs( NOW + 60000 ), 1 );
+        assertFalse( cut.isOffloaded( "foo" ) );
+
+        cut.offloaded( session, "n1" );
+        final SessionOffloader.Stub stub = cut.remove( "foo" );
+        assertEquals( stub.getMemcachedNodeId(), "n1" );
+        assertEquals( stub.getLastAccessedTime(), NOW - 61000 );
+        assertNull( cut.remove( "foo" ) );
+    }
+
+    private static MemcachedBackupSession createSession( final String id, final long accessedTime, final int dataSize ) {
+        final MemcachedBackupSession result = new MemcachedBackupSession() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            public long getThisAccessedTimeInternal() {
+                return accessedTime;
+            }
+        };
+        result.setValid( true );
+        result.setIdInternal( id );
+        result.setDataHashCode( dataSize > 0 ? 42 : 0 );
+        result.setDataSize( dataSize );
+        return result;
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.catalina.Session;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.javakaffee.web.msm.MemcachedNodesManager.StorageClientCallback;
+import de.javakaffee.web.msm.storage.StorageClient;
+
+/**
+ * Test the {@link SessionWarmup}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class SessionWarmupTest {
+
+    private ConcurrentMap<String, byte[]> _sharedData;
+    private Map<String, byte[]> _sessions;
+    private StorageClient _storage;
+    private MemcachedNodesManager _memcachedNodesManager;
+    private Statistics _statistics;
+
+    @BeforeMethod
+    @SuppressWarnings( "unchecked" )
+    public void setUp() {
+        _sharedData = new ConcurrentHashMap<String, byte[]>();
+        _sessions = new HashMap<String, byte[]>();
+        _storage = mock( StorageClient.class );
+        when( _storage.getMulti( anyCollectionOf( String.class ) ) ).thenAnswer( new Answer<Map<String, byte[]>>() {
+            @Override
+            public Map<String, byte[]> answer( final InvocationOnMock invocation ) {
+                final Map<String, byte[]> result = new HashMap<String, byte[]>();
+                for ( final String key : (Collection<String>) invocation.getArguments()[0] ) {
+                    if ( _sessions.containsKey( key ) ) {
+                        result.put( key, _sessions.get( key ) );
+                    }
+                }
+                return result;
+            }
+        } );
+        _memcachedNodesManager = MemcachedNodesManager.createFor( "localhost:11211", null, StorageKeyFormat.EMPTY,
+                mock( StorageClientCallback.class ) );
+        _statistics = Statistics.create();
+    }
+
+    @Test
+    public void testRecordAndPrefetchSessions() throws Exception {
+        final SessionWarmup cut = new SessionWarmup( new MapSharedStorage( _sharedData ), _storage, _memcachedNodesManager,
+                _statistics, 2, 0, 1024 );
+        final Session[] sessions = new Session[] { createSession( "s1", 1000 ), createSession( "s2", 3000 ), createSession( "s3", 2000 ) };
+        assertEquals( cut.recordSessions( "tomcat.1", sessions, 60 ), 2 );
+        assertEquals( new String( _sharedData.get( SessionWarmup.NAME_PREFIX + "tomcat_1" ), "UTF-8" ), "s2\ns3" );
+
+        _sessions.put( "s2", new byte[] { 2 } );
+        cut.prefetch( "tomcat.1" );
+        assertTrue( _sharedData.isEmpty() );
+        assertEquals( cut.size(), 1 );
+        assertEquals( _statistics.getWarmupSessionsRecorded(), 2 );
+        assertEquals( _statistics.getWarmupSessionsPrefetched(), 1 );
+
+        assertEquals( cut.take( "s2" ), new byte[] { 2 } );
+        assertNull( cut.take( "s2" ) );
+        assertNull( cut.take( "s3" ) );
+    }
+
+    @Test
+    public void testStagedBytesAreBounded() throws Exception {
+        final SessionWarmup cut = new SessionWarmup( new MapSharedStorage( _sharedData ), _storage, _memcachedNodesManager,
+                _statistics, 10, 0, 15 );
+        cut.recordSessions( null, new Session[] { createSession( "s1", 1000 ), createSession( "s2", 2000 ) }, 60 );
+        _sessions.put( "s1", new byte[10] );
+        _sessions.put( "s2", new byte[10] );
+        cut.prefetch( null );
+        assertEquals( cut.size(), 1 );
+    }
+
+    @Test
+    public void testExpireStaged() throws Exception {
+        final SessionWarmup cut = new SessionWarmup( new MapSharedStorage( _sharedData ), _storage, _memcachedNodesManager,
+                _statistics, 10, 0, 1024 );
+        cut.recordSessions( null, new Session[] { createSession( "s1", 1000 ) }, 60 );
+        _sessions.put( "s1", new byte[] { 1 } );
+        cut.start( null, 0 );
+        final long timeout = System.currentTimeMillis() + 5000;
+        while ( cut.size() == 0 && System.currentTimeMillis() < timeout ) {
+            Thread.sleep( 10 );
+        }
+        assertEquals( cut.size(), 1 );
+        Thread.sleep( 50 );
+        cut.expireStaged( System.currentTimeMillis() + 1 );
+        assertEquals( cut.size(), 0 );
+        assertFalse( _sharedData.containsKey( SessionWarmup.NAME_PREFIX ) );
+    }
+
+    @Test
+    public void testPrefetchUsesStorageSetAfterReload() throws Exception {
+        final SessionWarmup cut = new SessionWarmup( new MapSharedStorage( _sharedData ), mock( StorageClient.class ),
+                _memcachedNodesManager, _statistics, 10, 0, 1024 );
+        cut.recordSessions( null, new Session[] { createSession( "s1", 1000 ) }, 60 );
+        _sessions.put( "s1", new byte[] { 1 } );
+        cut.setStorage( _storage, _memcachedNodesManager );
+        cut.prefetch( null );
+        assertEquals( cut.take( "s1" ), new byte[] { 1 } );
+    }
+
+    private static MemcachedBackupSession createSession( final String id, final long accessedTime ) {
+        final MemcachedBackupSession result = new MemcachedBackupSession() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            public long getThisAccessedTimeInternal() {
+                return accessedTime;
+            }
+        };
+        result.setValid( true );
+        result.setIdInternal( id );
+        result.setDataHashCode( 42 );
+        return result;
+    }
+
+    static class MapSharedStorage extends SharedStorage {
+
+        private final ConcurrentMap<String, byte[]> _data;
+
+        MapSharedStorage( final ConcurrentMap<String, byte[]> data ) {
+            super( null );
+            _data = data;
+        }
+
+        @Override
+        public byte[] get( final String name ) {
+            return _data.get( name );
+        }
+
+        @Override
+        public void set( final String name, final byte[] data, final int expiration ) {
+            _data.put( name, data );
+        }
+
+        @Override
+        public void delete( final String name ) {
+            _data.remove( name );
+        }
+
+    }
+
+}
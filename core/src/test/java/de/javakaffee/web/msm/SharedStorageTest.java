@@ -0,0 +1,273 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.javakaffee.web.msm.MemcachedNodesManager.StorageClientCallback;
+import de.javakaffee.web.msm.storage.Lease;
+import de.javakaffee.web.msm.storage.StorageClient;
+import de.javakaffee.web.msm.storage.StorageItem;
+
+/**
+ * Test the {@link SharedStorage} with two memcached nodes.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class SharedStorageTest {
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private MapStorageClient _storage;
+    private SharedStorage _cut;
+
+    @BeforeMethod
+    public void setUp() {
+        _storage = new MapStorageClient();
+        final MemcachedNodesManager memcachedNodesManager = MemcachedNodesManager.createFor(
+                "n1:localhost:11211,n2:localhost:11212", null, StorageKeyFormat.EMPTY, mock( StorageClientCallback.class ) );
+        final MemcachedSessionService service = mock( MemcachedSessionService.class );
+        when( service.getStorageClient() ).thenReturn( _storage );
+        when( service.getMemcachedNodesManager() ).thenReturn( memcachedNodesManager );
+        when( service.getOperationTimeout() ).thenReturn( 1000L );
+        _cut = new SharedStorage( service );
+    }
+
+    @Test
+    public void testAssignedIdsAreStoredOnAllNodes() {
+        assertEquals( _cut.assignId( "dict_", bytes( "a" ), 0 ), 0 );
+        assertEquals( _cut.assignId( "dict_", bytes( "b" ), 0 ), 1 );
+        assertEquals( _cut.getLastId( "dict_" ), 1 );
+        assertEquals( _storage._data.get( "dict_1-n1" ), bytes( "b" ) );
+        assertEquals( _storage._data.get( "dict_1-n2" ), bytes( "b" ) );
+    }
+
+    @Test
+    public void testIdsAreNotReusedAfterEviction() {
+        assertEquals( _cut.assignId( "dict_", bytes( "a" ), 0 ), 0 );
+        _storage.removeAll( "dict_0-" );
+        assertEquals( _cut.assignId( "dict_", bytes( "b" ), 0 ), 1 );
+    }
+
+    @Test
+    public void testIdsAreNotReusedIfNodeRestartedEmpty() {
+        assertEquals( _cut.assignId( "dict_", bytes( "a" ), 0 ), 0 );
+        assertEquals( _cut.assignId( "dict_", bytes( "b" ), 0 ), 1 );
+        _storage.removeAll( "-n1" );
+        assertEquals( _cut.assignId( "dict_", bytes( "c" ), 0 ), 2 );
+        assertEquals( _cut.get( "dict_1" ), bytes( "b" ) );
+    }
+
+    @Test
+    public void testIdsTakenOnAnyNodeAreSkipped() {
+        // e.g. the counter was evicted on all nodes and the first node lost the entry of id 0
+        _storage._data.put( "dict_0-n2", bytes( "a" ) );
+        assertEquals( _cut.assignId( "dict_", bytes( "b" ), 0 ), 1 );
+        // the first node got the data that was already stored for this id
+        assertEquals( _storage._data.get( "dict_0-n1" ), bytes( "a" ) );
+    }
+
+    @Test
+    public void testNoIdIsAssignedIfNodeIsNotAvailable() {
+        _storage._unavailableSuffix = "-n2";
+        assertEquals( _cut.assignId( "dict_", bytes( "a" ), 0 ), -1 );
+        assertNull( _cut.putIfAbsent( "foo", bytes( "a" ) ) );
+    }
+
+    @Test
+    public void testGetMultiReadsAllNodesAtOnce() {
+        _storage._data.put( "dict_0-n2", bytes( "a" ) );
+        _storage._data.put( "dict_1-n1", bytes( "b" ) );
+        _storage._data.put( "dict_1-n2", bytes( "b" ) );
+
+        final Map<String, byte[]> result = _cut.getMulti( Arrays.asList( "dict_0", "dict_1", "dict_2" ) );
+
+        assertEquals( result.size(), 2 );
+        assertEquals( result.get( "dict_0" ), bytes( "a" ) );
+        assertEquals( result.get( "dict_1" ), bytes( "b" ) );
+        assertEquals( _storage._getMultiCalls, 1 );
+    }
+
+    @Test
+    public void testReseedAddsMissingEntries() {
+        assertEquals( _cut.assignId( "dict_", bytes( "a" ), 0 ), 0 );
+        assertEquals( _cut.assignId( "dict_", bytes( "b" ), 0 ), 1 );
+        _storage.removeAll( "dict_0-n1" );
+        _storage.removeAll( "dict_1-" );
+        // data stored concurrently with another id is not overwritten
+        _storage._data.put( "dict_2-n1", bytes( "x" ) );
+
+        final Map<String, byte[]> entries = new HashMap<String, byte[]>();
+        entries.put( "dict_0", bytes( "a" ) );
+        entries.put( "dict_1", bytes( "b" ) );
+        entries.put( "dict_2", bytes( "c" ) );
+        assertEquals( _cut.reseed( entries ), 3 );
+
+        assertEquals( _storage._data.get( "dict_0-n1" ), bytes( "a" ) );
+        assertEquals( _storage._data.get( "dict_1-n1" ), bytes( "b" ) );
+        assertEquals( _storage._data.get( "dict_1-n2" ), bytes( "b" ) );
+        assertEquals( _storage._data.get( "dict_2-n1" ), bytes( "x" ) );
+        assertEquals( _cut.reseed( entries ), 0 );
+    }
+
+    private static byte[] bytes( final String value ) {
+        return value.getBytes( UTF_8 );
+    }
+
+    /**
+     * A storage client that stores data in a map, the keys of all nodes are stored in the same map.
+     */
+    static class MapStorageClient implements StorageClient {
+
+        final ConcurrentMap<String, byte[]> _data = new ConcurrentHashMap<String, byte[]>();
+        volatile String _unavailableSuffix;
+        int _getMultiCalls;
+
+        void removeAll( final String keyPart ) {
+            for ( final String key : new HashSet<String>( _data.keySet() ) ) {
+                if ( key.contains( keyPart ) ) {
+                    _data.remove( key );
+                }
+            }
+        }
+
+        private void checkAvailable( final String key ) {
+            if ( _unavailableSuffix != null && key.endsWith( _unavailableSuffix ) ) {
+                throw new IllegalStateException( "Node of " + key + " not available" );
+            }
+        }
+
+        @Override
+        public Future<Boolean> add( final String key, final int exp, final byte[] o ) {
+            checkAvailable( key );
+            return completed( _data.putIfAbsent( key, o ) == null );
+        }
+
+        @Override
+        public Future<Boolean> set( final String key, final int exp, final byte[] o ) {
+            checkAvailable( key );
+            _data.put( key, o );
+            return completed( true );
+        }
+
+        @Override
+        public byte[] get( final String key ) {
+            checkAvailable( key );
+            return _data.get( key );
+        }
+
+        @Override
+        public Future<byte[]> getAsync( final String key ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public StorageItem getItem( final String key, final int touchExp ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, byte[]> getMulti( final Collection<String> keys ) {
+            _getMultiCalls++;
+            final Map<String, byte[]> result = new HashMap<String, byte[]>();
+            for ( final String key : keys ) {
+                checkAvailable( key );
+                final byte[] value = _data.get( key );
+                if ( value != null ) {
+                    result.put( key, value );
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public synchronized long incr( final String key, final long by, final long def, final int exp ) {
+            checkAvailable( key );
+            final byte[] value = _data.get( key );
+            final long result = value != null ? Long.parseLong( new String( value, UTF_8 ) ) + by : def;
+            _data.put( key, bytes( Long.toString( result ) ) );
+            return result;
+        }
+
+        @Override
+        public Future<Boolean> delete( final String key ) {
+            checkAvailable( key );
+            return completed( _data.remove( key ) != null );
+        }
+
+        @Override
+        public Future<Lease> lease( final String key, final int exp ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Future<Boolean> touch( final String key, final int exp ) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<InetSocketAddress, Map<String, String>> getStats() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int connect( final long timeoutMillis ) {
+            return 2;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public boolean shutdown( final long timeoutMillis ) {
+            return true;
+        }
+
+        private static Future<Boolean> completed( final boolean result ) {
+            final FutureTask<Boolean> future = new FutureTask<Boolean>( new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return result;
+                }
+            } );
+            future.run();
+            return future;
+        }
+
+    }
+
+}
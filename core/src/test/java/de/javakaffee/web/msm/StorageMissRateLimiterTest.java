@@ -0,0 +1,54 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test the {@link StorageMissRateLimiter}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class StorageMissRateLimiterTest {
+
+    @Test
+    public void testClientIsLimitedAfterMaxMisses() {
+        final StorageMissRateLimiter cut = new StorageMissRateLimiter( 3 );
+        assertFalse( cut.isLimited( "1.2.3.4" ) );
+        cut.registerMiss( "1.2.3.4" );
+        cut.registerMiss( "1.2.3.4" );
+        assertFalse( cut.isLimited( "1.2.3.4" ) );
+        cut.registerMiss( "1.2.3.4" );
+        assertTrue( cut.isLimited( "1.2.3.4" ) );
+        assertFalse( cut.isLimited( "5.6.7.8" ) );
+    }
+
+    @Test
+    public void testClientIsUnlimitedAfterRefill() throws InterruptedException {
+        final StorageMissRateLimiter cut = new StorageMissRateLimiter( 10 );
+        for ( int i = 0; i < 10; i++ ) {
+            cut.registerMiss( "1.2.3.4" );
+        }
+        assertTrue( cut.isLimited( "1.2.3.4" ) );
+        Thread.sleep( 200 );
+        assertFalse( cut.isLimited( "1.2.3.4" ) );
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import net.spy.memcached.MemcachedNode;
+
+import org.testng.annotations.Test;
+
+import de.javakaffee.web.msm.MemcachedNodesManager.StorageClientCallback;
+
+/**
+ * Test the {@link SuffixBasedNodeLocator}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class SuffixBasedNodeLocatorTest {
+
+    @Test
+    public void testUpdateLocatorWithAddedAndRemovedNodes() {
+        final MemcachedNodesManager memcachedNodesManager = MemcachedNodesManager.createFor(
+                "n1:localhost:11211,n2:localhost:11212,n3:localhost:11213", null, StorageKeyFormat.EMPTY,
+                mock( StorageClientCallback.class ) );
+        final MemcachedNode node1 = createNode( 11211 );
+        final MemcachedNode node2 = createNode( 11212 );
+        final MemcachedNode node3 = createNode( 11213 );
+        final SuffixBasedNodeLocator cut = new SuffixBasedNodeLocator( Arrays.asList( node1, node2 ), memcachedNodesManager,
+                memcachedNodesManager.getSessionIdFormat() );
+        assertSame( cut.getPrimary( "foo-n2" ), node2 );
+
+        // n3 is added, n2 is removed, the unknown node is ignored
+        cut.updateLocator( Arrays.asList( node1, node3, createNode( 11214 ) ) );
+
+        assertEquals( cut.getAll().size(), 2 );
+        assertSame( cut.getPrimary( "foo-n1" ), node1 );
+        assertSame( cut.getPrimary( "foo-n3" ), node3 );
+        assertEquals( cut.getReadonlyCopy().getAll().size(), 2 );
+        try {
+            cut.getPrimary( "foo-n2" );
+            throw new AssertionError( "Expected IllegalArgumentException for removed node." );
+        } catch ( final IllegalArgumentException e ) {
+            // expected
+        }
+    }
+
+    private static MemcachedNode createNode( final int port ) {
+        final MemcachedNode result = mock( MemcachedNode.class );
+        when( result.getSocketAddress() ).thenReturn( new InetSocketAddress( "localhost", port ) );
+        return result;
+    }
+
+}
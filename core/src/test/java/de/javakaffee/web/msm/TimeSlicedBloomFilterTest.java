@@ -0,0 +1,107 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test the {@link TimeSlicedBloomFilter}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class TimeSlicedBloomFilterTest {
+
+    @Test
+    public void testPutAndMightContain() {
+        final TimeSlicedBloomFilter cut = new TimeSlicedBloomFilter( 1000, 60000 );
+        for ( int i = 0; i < 1000; i++ ) {
+            cut.put( "session-" + i );
+        }
+        for ( int i = 0; i < 1000; i++ ) {
+            assertTrue( cut.mightContain( "session-" + i ) );
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        final TimeSlicedBloomFilter cut = new TimeSlicedBloomFilter( 1000, 0.01, 2, 60000 );
+        for ( int i = 0; i < 1000; i++ ) {
+            cut.put( "session-" + i );
+        }
+        int falsePositives = 0;
+        for ( int i = 0; i < 10000; i++ ) {
+            if ( cut.mightContain( "other-" + i ) ) {
+                falsePositives++;
+            }
+        }
+        // expected is 1% for the slice, allow some variance
+        assertTrue( falsePositives < 300, "Too many false positives: " + falsePositives );
+    }
+
+    /**
+     * Adding many more keys than expected (e.g. random session ids sent by an attacker) must not
+     * saturate the filter, instead full slices are rotated early.
+     */
+    @Test
+    public void testFalsePositiveRateIsBoundedWhenOverfilled() {
+        final TimeSlicedBloomFilter cut = new TimeSlicedBloomFilter( 1000, 0.01, 4, 60000 );
+        for ( int i = 0; i < 100000; i++ ) {
+            cut.put( "session-" + i );
+        }
+        // the latest keys are remembered
+        for ( int i = 99000; i < 100000; i++ ) {
+            assertTrue( cut.mightContain( "session-" + i ) );
+        }
+        int falsePositives = 0;
+        for ( int i = 0; i < 10000; i++ ) {
+            if ( cut.mightContain( "other-" + i ) ) {
+                falsePositives++;
+            }
+        }
+        // expected is at most 1% per slice, so at most ~4% for all slices
+        assertTrue( falsePositives < 600, "Too many false positives: " + falsePositives );
+    }
+
+    @Test
+    public void testKeysExpire() throws InterruptedException {
+        final TimeSlicedBloomFilter cut = new TimeSlicedBloomFilter( 100, 0.001, 2, 200 );
+        cut.put( "foo" );
+        assertTrue( cut.mightContain( "foo" ) );
+        Thread.sleep( 250 );
+        assertFalse( cut.mightContain( "foo" ) );
+    }
+
+    @Test
+    public void testKeysSurviveRotationOfCurrentSlice() throws InterruptedException {
+        final TimeSlicedBloomFilter cut = new TimeSlicedBloomFilter( 100, 0.001, 4, 400 );
+        cut.put( "foo" );
+        Thread.sleep( 150 );
+        assertTrue( cut.mightContain( "foo" ) );
+    }
+
+    @Test
+    public void testClear() {
+        final TimeSlicedBloomFilter cut = new TimeSlicedBloomFilter( 100, 60000 );
+        cut.put( "foo" );
+        cut.clear();
+        assertFalse( cut.mightContain( "foo" ) );
+    }
+
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.storage;
+
+import static org.testng.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test the {@link ChunkedStorageClient} backed by a {@link MetaProtocolStorageClient}
+ * and the {@link FakeMetaProtocolServer}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class ChunkedStorageClientTest {
+
+    private FakeMetaProtocolServer _server;
+    private MetaProtocolStorageClient _storage;
+    private ChunkedStorageClient _cut;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        _server = new FakeMetaProtocolServer();
+        _server.setMaxItemSize(100);
+        final InetSocketAddress address = _server.getAddress();
+        _storage = new MetaProtocolStorageClient(Collections.singletonList(address), new MetaProtocolStorageClient.KeyLocator() {
+            @Override
+            public InetSocketAddress getAddress(String key) {
+                return address;
+            }
+        }, 1000);
+        _cut = new ChunkedStorageClient(_storage, 64, 1000);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        _cut.shutdown();
+        _server.stop();
+    }
+
+    @Test
+    public void testSmallValuesAreStoredAsIs() throws Exception {
+        final byte[] data = createData(64, 1);
+        assertTrue(_cut.set("foo-n1", 60, data).get());
+        assertEquals(_server.getValue("foo-n1"), data);
+        assertEquals(_cut.get("foo-n1"), data);
+    }
+
+    @Test
+    public void testLargeValuesAreStoredInParts() throws Exception {
+        final byte[] data = createData(200, 1);
+        try {
+            _storage.set("foo-n1", 60, data).get();
+            fail("The fake server should reject items larger than 100 bytes.");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof ItemTooLargeException, "Unexpected cause " + e.getCause());
+        }
+
+        assertTrue(_cut.set("foo-n1", 60, data).get());
+
+        final ChunkedStorageClient.Index index = ChunkedStorageClient.Index.decode(_server.getValue("foo-n1"));
+        assertNotNull(index);
+        final List<String> partKeys = index.getPartKeys("foo-n1");
+        assertEquals(partKeys.size(), 4);
+        assertEquals(_server.getValue(partKeys.get(3)).length, 8);
+        assertEquals(_cut.get("foo-n1"), data);
+
+        _cut.set("bar-n1", 60, createData(10, 2)).get();
+        final Map<String, byte[]> multi = _cut.getMulti(Arrays.asList("foo-n1", "bar-n1", "baz-n1"));
+        assertEquals(multi.size(), 2);
+        assertEquals(multi.get("foo-n1"), data);
+        assertEquals(multi.get("bar-n1"), createData(10, 2));
+    }
+
+    @Test
+    public void testBackupKeyPartsKeepBackupPrefix() throws Exception {
+        final List<String> partKeys = new ChunkedStorageClient.Index(255, 100, 64, 0).getPartKeys("bak:foo-n1");
+        assertEquals(partKeys, Arrays.asList("bak:chunk:ff:0:foo-n1", "bak:chunk:ff:1:foo-n1"));
+    }
+
+    @Test
+    public void testReplacedPartsExpireAndCorruptValuesAreNotReturned() throws Exception {
+        _cut.set("foo-n1", 600, createData(200, 1)).get();
+        final List<String> formerPartKeys = ChunkedStorageClient.Index.decode(_server.getValue("foo-n1")).getPartKeys("foo-n1");
+
+        final byte[] data = createData(150, 2);
+        _cut.set("foo-n1", 600, data).get();
+        assertEquals(_cut.get("foo-n1"), data);
+        // the parts of the former version are still readable for a short time
+        // the no-op sent by connect is replied after the touches of the former parts
+        _storage.connect(1000);
+        assertTrue(_server.getTtl(formerPartKeys.get(0)) <= 10);
+
+        final List<String> partKeys = ChunkedStorageClient.Index.decode(_server.getValue("foo-n1")).getPartKeys("foo-n1");
+        _storage.set(partKeys.get(1), 600, createData(64, 3)).get();
+        assertNull(_cut.get("foo-n1"));
+    }
+
+    @Test
+    public void testValuesThatLookLikeAnIndexAreNotDecoded() throws Exception {
+        final byte[] data = new ChunkedStorageClient.Index(1, 200, 64, 0).encode();
+        assertTrue(_cut.set("foo-n1", 60, data).get());
+        assertNull(ChunkedStorageClient.Index.decode(_server.getValue("foo-n1")));
+        assertEquals(_cut.get("foo-n1"), data);
+        assertEquals(_cut.getAsync("foo-n1").get(), data);
+        assertEquals(_cut.getMulti(Arrays.asList("foo-n1")).get("foo-n1"), data);
+
+        // values that start with the escape marker itself are escaped as well
+        final byte[] escaped = _server.getValue("foo-n1");
+        assertTrue(_cut.add("bar-n1", 60, escaped).get());
+        assertEquals(_cut.get("bar-n1"), escaped);
+    }
+
+    @Test
+    public void testTouchOfUnknownKeyTouchesParts() throws Exception {
+        assertTrue(_cut.set("foo-n1", 60, createData(200, 1)).get());
+        final List<String> partKeys = ChunkedStorageClient.Index.decode(_server.getValue("foo-n1")).getPartKeys("foo-n1");
+
+        // another client (e.g. of another tomcat) does not know the parts
+        final ChunkedStorageClient other = new ChunkedStorageClient(_storage, 64, 1000);
+        assertTrue(other.touch("foo-n1", 600).get());
+        // the no-op sent by connect is replied after the touches of the parts
+        _storage.connect(1000);
+        for (String partKey : partKeys) {
+            assertTrue(_server.getTtl(partKey) > 60, "Part " + partKey + " was not touched");
+        }
+    }
+
+    @Test
+    public void testGetItemAssemblesAndTouchesParts() throws Exception {
+        final byte[] data = createData(200, 1);
+        assertTrue(_cut.set("foo-n1", 60, data).get());
+        final List<String> partKeys = ChunkedStorageClient.Index.decode(_server.getValue("foo-n1")).getPartKeys("foo-n1");
+
+        final StorageItem item = _cut.getItem("foo-n1", 600);
+        assertEquals(item.getValue(), data);
+        assertEquals(item.getTtl(), 600);
+        _storage.connect(1000);
+        for (String partKey : partKeys) {
+            assertTrue(_server.getTtl(partKey) > 60, "Part " + partKey + " was not touched");
+        }
+    }
+
+    private static byte[] createData(final int size, final int seed) {
+        final byte[] result = new byte[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = (byte) (i * seed);
+        }
+        return result;
+    }
+
+}
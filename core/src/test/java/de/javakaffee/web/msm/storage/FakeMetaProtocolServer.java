@@ -0,0 +1,363 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process memcached server that supports the subset of the meta protocol used by the
+ * {@link MetaProtocolStorageClient}: <code>mg</code> (flags <code>v</code>, <code>T</code>, <code>c</code>,
+ * <code>t</code>, <code>l</code> and <code>N</code> with the win flags <code>W</code>/<code>Z</code>), <code>ms</code>
+ * (flags <code>T</code>, <code>ME</code>), <code>md</code>, <code>ma</code> (flags <code>N</code>, <code>J</code>,
+ * <code>D</code>, <code>v</code>), <code>mn</code>, the flags <code>q</code> and <code>O</code>, and
+ * <code>stats</code>.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class FakeMetaProtocolServer {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final ServerSocket _serverSocket;
+    private final Map<String, Item> _items = new ConcurrentHashMap<String, Item>();
+    private final List<Socket> _sockets = new CopyOnWriteArrayList<Socket>();
+    private final Map<String, AtomicInteger> _commands = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicInteger _replies = new AtomicInteger();
+    private final AtomicInteger _nextCas = new AtomicInteger();
+    private volatile int _maxItemSize = Integer.MAX_VALUE;
+
+    public FakeMetaProtocolServer() throws IOException {
+        _serverSocket = new ServerSocket(0, 50, InetAddress.getByName("localhost"));
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "fake-meta-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress("localhost", _serverSocket.getLocalPort());
+    }
+
+    /**
+     * The number of commands of the given type (e.g. <code>mn</code>) received.
+     */
+    public int getCommands(String command) {
+        final AtomicInteger result = _commands.get(command);
+        return result != null ? result.get() : 0;
+    }
+
+    /**
+     * The number of reply lines sent (without values and stats lines).
+     */
+    public int getReplies() {
+        return _replies.get();
+    }
+
+    /**
+     * Sets the max size of values, larger values are rejected like memcached does.
+     */
+    public void setMaxItemSize(int maxItemSize) {
+        _maxItemSize = maxItemSize;
+    }
+
+    public byte[] getValue(String key) {
+        final Item item = getItem(key);
+        return item != null ? item.value : null;
+    }
+
+    /**
+     * The remaining time to live in seconds, or <code>-1</code> if the item does not expire.
+     */
+    public int getTtl(String key) {
+        return getTtl(getItem(key));
+    }
+
+    private static int getTtl(Item item) {
+        return item == null || item.expiresAt == 0 ? -1 : (int) ((item.expiresAt - System.currentTimeMillis() + 999) / 1000);
+    }
+
+    /**
+     * Sets the time of the last access of the given item, to simulate an item that was not accessed for a while.
+     */
+    public void setAccessedAt(String key, long accessedAt) {
+        getItem(key).accessedAt = accessedAt;
+    }
+
+    /**
+     * Closes the connections of all clients, the server still accepts new connections.
+     */
+    public void closeConnections() throws IOException {
+        for (Socket socket : _sockets) {
+            socket.close();
+        }
+        _sockets.clear();
+    }
+
+    public void stop() throws IOException {
+        _serverSocket.close();
+        closeConnections();
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                final Socket socket = _serverSocket.accept();
+                _sockets.add(socket);
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "fake-meta-server-connection");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            // stopped
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            String line;
+            while ((line = readLine(in)) != null) {
+                final String[] tokens = line.split(" ");
+                countCommand(tokens[0]);
+                handle(tokens, in, out);
+                if (in.available() == 0)
+                    out.flush();
+            }
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    private synchronized void countCommand(String command) {
+        AtomicInteger count = _commands.get(command);
+        if (count == null) {
+            count = new AtomicInteger();
+            _commands.put(command, count);
+        }
+        count.incrementAndGet();
+    }
+
+    private void handle(String[] tokens, DataInputStream in, OutputStream out) throws IOException {
+        final String command = tokens[0];
+        if ("mg".equals(command)) {
+            final StringBuilder flags = new StringBuilder();
+            Item item;
+            synchronized (_items) {
+                item = getItem(tokens[1]);
+                final String autoVivify = getFlag(tokens, 2, "N");
+                if (item == null && autoVivify != null) {
+                    // like memcached, the requester that created the item wins, others get Z until it's replaced
+                    item = new Item(new byte[0], toExpiresAt(Integer.parseInt(autoVivify)));
+                    item.vivified = true;
+                    _items.put(tokens[1], item);
+                    flags.append(" W");
+                } else if (item != null && item.vivified) {
+                    flags.append(" Z");
+                }
+            }
+            if (item == null) {
+                if (!hasFlag(tokens, 2, "q"))
+                    reply(out, "EN", tokens, 2);
+                return;
+            }
+            final String ttl = getFlag(tokens, 2, "T");
+            if (ttl != null)
+                item.expiresAt = toExpiresAt(Integer.parseInt(ttl));
+            if (hasFlag(tokens, 2, "c"))
+                flags.append(" c").append(item.cas);
+            if (hasFlag(tokens, 2, "t"))
+                flags.append(" t").append(getTtl(item));
+            if (hasFlag(tokens, 2, "l"))
+                flags.append(" l").append((System.currentTimeMillis() - item.accessedAt) / 1000);
+            item.accessedAt = System.currentTimeMillis();
+            if (hasFlag(tokens, 2, "v")) {
+                reply(out, "VA " + item.value.length + flags, tokens, 2);
+                out.write(item.value);
+                out.write(new byte[] { '\r', '\n' });
+            } else {
+                reply(out, "HD" + flags, tokens, 2);
+            }
+        } else if ("ms".equals(command)) {
+            final byte[] value = new byte[Integer.parseInt(tokens[2])];
+            in.readFully(value);
+            readLine(in);
+            if (value.length > _maxItemSize) {
+                replyError(out, "SERVER_ERROR object too large for cache");
+                return;
+            }
+            final String ttl = getFlag(tokens, 3, "T");
+            if ("E".equals(getFlag(tokens, 3, "M")) && getItem(tokens[1]) != null) {
+                reply(out, "NS", tokens, 3);
+                return;
+            }
+            _items.put(tokens[1], new Item(value, ttl != null ? toExpiresAt(Integer.parseInt(ttl)) : 0));
+            if (!hasFlag(tokens, 3, "q"))
+                reply(out, "HD", tokens, 3);
+        } else if ("md".equals(command)) {
+            if (getItem(tokens[1]) == null || _items.remove(tokens[1]) == null) {
+                reply(out, "NF", tokens, 2);
+            } else if (!hasFlag(tokens, 2, "q")) {
+                reply(out, "HD", tokens, 2);
+            }
+        } else if ("ma".equals(command)) {
+            final long value;
+            synchronized (_items) {
+                final Item item = getItem(tokens[1]);
+                final String autoVivify = getFlag(tokens, 2, "N");
+                if (item == null && autoVivify == null) {
+                    reply(out, "NF", tokens, 2);
+                    return;
+                }
+                if (item == null) {
+                    final String initial = getFlag(tokens, 2, "J");
+                    value = initial != null ? Long.parseLong(initial) : 0;
+                    _items.put(tokens[1], new Item(Long.toString(value).getBytes(ASCII), toExpiresAt(Integer.parseInt(autoVivify))));
+                } else {
+                    final long current;
+                    try {
+                        current = Long.parseLong(new String(item.value, ASCII));
+                    } catch (NumberFormatException e) {
+                        replyError(out, "CLIENT_ERROR cannot increment or decrement non-numeric value");
+                        return;
+                    }
+                    final String delta = getFlag(tokens, 2, "D");
+                    value = current + (delta != null ? Long.parseLong(delta) : 1);
+                    _items.put(tokens[1], new Item(Long.toString(value).getBytes(ASCII), item.expiresAt));
+                }
+            }
+            if (hasFlag(tokens, 2, "v")) {
+                final byte[] bytes = Long.toString(value).getBytes(ASCII);
+                reply(out, "VA " + bytes.length, tokens, 2);
+                out.write(bytes);
+                out.write(new byte[] { '\r', '\n' });
+            } else {
+                reply(out, "HD", tokens, 2);
+            }
+        } else if ("mn".equals(command)) {
+            reply(out, "MN", tokens, 1);
+        } else if ("stats".equals(command)) {
+            write(out, "STAT curr_items " + _items.size());
+            write(out, "STAT version 1.6.0-fake");
+            reply(out, "END", tokens, tokens.length);
+        } else {
+            replyError(out, "ERROR");
+        }
+    }
+
+    private Item getItem(String key) {
+        final Item item = _items.get(key);
+        if (item != null && item.expiresAt != 0 && item.expiresAt <= System.currentTimeMillis()) {
+            _items.remove(key);
+            return null;
+        }
+        return item;
+    }
+
+    private static long toExpiresAt(int exp) {
+        if (exp == 0)
+            return 0;
+        return exp <= 60 * 60 * 24 * 30 ? System.currentTimeMillis() + exp * 1000L : exp * 1000L;
+    }
+
+    private void reply(OutputStream out, String reply, String[] tokens, int flagsStart) throws IOException {
+        final String opaque = getFlag(tokens, flagsStart, "O");
+        write(out, opaque != null ? reply + " O" + opaque : reply);
+        _replies.incrementAndGet();
+    }
+
+    /**
+     * Like memcached, errors are replied without the flags of the command (e.g. the opaque token).
+     */
+    private void replyError(OutputStream out, String reply) throws IOException {
+        write(out, reply);
+        _replies.incrementAndGet();
+    }
+
+    private static void write(OutputStream out, String line) throws IOException {
+        out.write((line + "\r\n").getBytes(ASCII));
+    }
+
+    private static boolean hasFlag(String[] tokens, int flagsStart, String flag) {
+        for (int i = flagsStart; i < tokens.length; i++) {
+            if (tokens[i].equals(flag))
+                return true;
+        }
+        return false;
+    }
+
+    private static String getFlag(String[] tokens, int flagsStart, String flag) {
+        for (int i = flagsStart; i < tokens.length; i++) {
+            if (tokens[i].startsWith(flag))
+                return tokens[i].substring(flag.length());
+        }
+        return null;
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0)
+                return null;
+            if (b != '\r')
+                line.write(b);
+        }
+        return new String(line.toByteArray(), ASCII);
+    }
+
+    private final class Item {
+
+        final byte[] value;
+        final long cas = _nextCas.incrementAndGet();
+        volatile long expiresAt;
+        volatile long accessedAt = System.currentTimeMillis();
+        /** created by a get with the vivify flag, i.e. the win flag was handed out */
+        volatile boolean vivified;
+
+        Item(byte[] value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.storage;
+
+import static org.testng.Assert.*;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test the {@link MetaProtocolStorageClient} against the {@link FakeMetaProtocolServer}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class MetaProtocolStorageClientTest {
+
+    private FakeMetaProtocolServer _server;
+    private MetaProtocolStorageClient _client;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        _server = new FakeMetaProtocolServer();
+        final InetSocketAddress address = _server.getAddress();
+        _client = new MetaProtocolStorageClient(Collections.singletonList(address), new MetaProtocolStorageClient.KeyLocator() {
+            @Override
+            public InetSocketAddress getAddress(String key) {
+                return address;
+            }
+        }, 1000);
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        _client.shutdown();
+        _server.stop();
+    }
+
+    @Test
+    public void testSetGetTouchDelete() throws Exception {
+        final byte[] data = new byte[] { 1, 2, 3 };
+        assertTrue(_client.set("foo-n1", 60, data).get());
+        assertEquals(_client.get("foo-n1"), data);
+        assertEquals(_server.getTtl("foo-n1"), 60);
+
+        assertTrue(_client.touch("foo-n1", 120).get());
+        assertEquals(_server.getTtl("foo-n1"), 120);
+        assertFalse(_client.touch("bar-n1", 120).get());
+
+        assertTrue(_client.delete("foo-n1").get());
+        assertNull(_client.get("foo-n1"));
+        assertFalse(_client.delete("foo-n1").get());
+    }
+
+    @Test
+    public void testQuietWritesOnlyReplyFailures() throws Exception {
+        assertTrue(_client.add("lock:foo-n1", 5, new byte[] { 0 }).get());
+
+        final Future<Boolean> set1 = _client.set("foo-n1", 60, new byte[] { 1 });
+        final Future<Boolean> add = _client.add("lock:foo-n1", 5, new byte[] { 0 });
+        final Future<Boolean> set2 = _client.set("bar-n1", 60, new byte[] { 2 });
+
+        assertTrue(set1.get());
+        assertFalse(add.get());
+        assertTrue(set2.get());
+        assertEquals(_server.getValue("bar-n1"), new byte[] { 2 });
+        // memcached only replied the failed add and the no-ops terminating the quiet writes
+        assertEquals(_server.getReplies(), _server.getCommands("mn") + 1);
+    }
+
+    @Test
+    public void testFailedQuietWriteInBatch() throws Exception {
+        _server.setMaxItemSize(2);
+
+        final Future<Boolean> set1 = _client.set("foo-n1", 60, new byte[] { 1 });
+        final Future<Boolean> tooLarge = _client.set("bar-n1", 60, new byte[] { 1, 2, 3 });
+        final Future<Boolean> set2 = _client.set("baz-n1", 60, new byte[] { 2 });
+
+        try {
+            tooLarge.get();
+            fail("The write of a too large value must fail.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ItemTooLargeException, "Unexpected cause " + e.getCause());
+        }
+        assertNull(_server.getValue("bar-n1"));
+        // the error does not tell which write failed, other writes of the batch either fail or were stored
+        assertStoredOrFailed(set1, "foo-n1", new byte[] { 1 });
+        assertStoredOrFailed(set2, "baz-n1", new byte[] { 2 });
+
+        assertTrue(_client.set("foo-n1", 60, new byte[] { 3 }).get());
+        assertEquals(_client.get("foo-n1"), new byte[] { 3 });
+    }
+
+    private void assertStoredOrFailed(Future<Boolean> set, String key, byte[] value) throws InterruptedException {
+        try {
+            assertTrue(set.get());
+            assertEquals(_server.getValue(key), value);
+        } catch (ExecutionException e) {
+            // failed together with the failed write
+        }
+    }
+
+    @Test
+    public void testGetItemReturnsMetadataAndTouches() throws Exception {
+        final byte[] data = new byte[] { 1, 2, 3 };
+        assertTrue(_client.set("foo-n1", 60, data).get());
+        _server.setAccessedAt("foo-n1", System.currentTimeMillis() - 5000);
+        final int commands = _server.getCommands("mg");
+
+        final StorageItem item = _client.getItem("foo-n1", 120);
+
+        assertEquals(item.getValue(), data);
+        assertTrue(item.getCas() > 0, "Unexpected cas " + item.getCas());
+        assertEquals(item.getTtl(), 120);
+        assertEquals(item.getLastAccess(), 5);
+        assertEquals(_server.getTtl("foo-n1"), 120);
+        // value, metadata and touch with a single mg
+        assertEquals(_server.getCommands("mg"), commands + 1);
+
+        final StorageItem untouched = _client.getItem("foo-n1", -1);
+        assertEquals(untouched.getCas(), item.getCas());
+        assertEquals(untouched.getLastAccess(), 0);
+        assertEquals(_server.getTtl("foo-n1"), 120);
+
+        assertNull(_client.getItem("bar-n1", 120).getValue());
+    }
+
+    @Test
+    public void testLeaseIsWonOnlyOnce() throws Exception {
+        final Lease lease = _client.lease("lock:foo-n1", 5).get();
+        assertTrue(lease.isWon());
+        assertFalse(lease.isStale());
+        assertEquals(lease.getTtl(), 5);
+
+        final Lease other = _client.lease("lock:foo-n1", 5).get();
+        assertFalse(other.isWon());
+        // the lease is also respected by adds
+        assertFalse(_client.add("lock:foo-n1", 5, new byte[] { 0 }).get());
+
+        assertTrue(_client.delete("lock:foo-n1").get());
+        assertTrue(_client.lease("lock:foo-n1", 5).get().isWon());
+    }
+
+    @Test
+    public void testIncr() throws Exception {
+        assertEquals(_client.incr("counter", 1, 5, 0), 5);
+        assertEquals(_client.incr("counter", 1, 5, 0), 6);
+        assertEquals(_client.get("counter"), "6".getBytes("US-ASCII"));
+        assertEquals(_server.getTtl("counter"), -1);
+    }
+
+    @Test
+    public void testGetMultiReturnsOnlyHits() throws Exception {
+        _client.set("foo-n1", 60, new byte[] { 1 }).get();
+        _client.set("bar-n1", 60, new byte[] { 2 }).get();
+
+        final Map<String, byte[]> result = _client.getMulti(Arrays.asList("foo-n1", "baz-n1", "bar-n1"));
+
+        assertEquals(result.size(), 2);
+        assertEquals(result.get("foo-n1"), new byte[] { 1 });
+        assertEquals(result.get("bar-n1"), new byte[] { 2 });
+        assertEquals(_server.getCommands("mg"), 3);
+    }
+
+    @Test
+    public void testStatsAndReconnect() throws Exception {
+        assertEquals(_client.connect(1000), 1);
+        _client.set("foo-n1", 60, new byte[] { 1 }).get();
+        final Map<String, String> stats = _client.getStats().get(_server.getAddress());
+        assertEquals(stats.get("curr_items"), "1");
+
+        _server.closeConnections();
+
+        final long timeout = System.currentTimeMillis() + 3000;
+        byte[] value = null;
+        while (value == null && System.currentTimeMillis() < timeout) {
+            try {
+                value = _client.get("foo-n1");
+            } catch (RuntimeException e) {
+                Thread.sleep(50);
+            }
+        }
+        assertEquals(value, new byte[] { 1 });
+    }
+
+}
@@ -22,8 +22,11 @@ import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
 
 import org.testng.annotations.*;
+import redis.clients.jedis.BinaryJedis;
 import redis.embedded.RedisServer;
 
 /**
@@ -149,6 +152,114 @@ public class RedisStorageClientTest {
         client.shutdown();
     }
 
+    @Test
+    public void testHashLayout() throws Exception {
+        RedisStorageClient client = new RedisStorageClient("redis://localhost:" + redisPort, 1000, true);
+        BinaryJedis jedis = new BinaryJedis("localhost", redisPort);
+        try {
+            assertTrue(client.set("prefix_foo-n1", 100, toBytes("data")).get());
+            assertTrue(client.set("validity:prefix_foo-n1", 10, toBytes("validity")).get());
+            assertTrue(client.set("bak:prefix_validity:prefix_foo-n1", 10, toBytes("backup validity")).get());
+            assertTrue(client.add("lock:prefix_foo-n1", 5, toBytes("lock")).get());
+            assertFalse(client.add("validity:prefix_foo-n1", 10, toBytes("other")).get());
+
+            // the validity info is stored in the hash of the session, locks are plain keys
+            assertEquals(jedis.type(toBytes("prefix_foo-n1")), "hash");
+            assertEquals(jedis.hkeys(toBytes("prefix_foo-n1")).size(), 2);
+            assertFalse(jedis.exists(toBytes("validity:prefix_foo-n1")));
+            assertEquals(jedis.type(toBytes("bak:prefix_foo-n1")), "hash");
+            assertEquals(jedis.type(toBytes("lock:prefix_foo-n1")), "string");
+            // the shorter expiration of the validity info does not shorten the expiration of the session data
+            assertTrue(jedis.ttl(toBytes("prefix_foo-n1")) > 10);
+
+            assertEquals(toString(client.get("prefix_foo-n1")), "data");
+            assertEquals(toString(client.get("validity:prefix_foo-n1")), "validity");
+            assertEquals(toString(client.get("bak:prefix_validity:prefix_foo-n1")), "backup validity");
+            final Map<String, byte[]> multi = client.getMulti(Arrays.asList("prefix_foo-n1", "validity:prefix_foo-n1", "prefix_bar-n1"));
+            assertEquals(multi.size(), 2);
+            assertEquals(toString(multi.get("validity:prefix_foo-n1")), "validity");
+
+            // the expiration of the hash is the expiration of the session data
+            assertTrue(client.touch("validity:prefix_foo-n1", 200).get());
+            assertTrue(jedis.ttl(toBytes("prefix_foo-n1")) <= 100);
+            assertTrue(client.touch("prefix_foo-n1", 200).get());
+            assertTrue(jedis.ttl(toBytes("prefix_foo-n1")) > 100);
+            assertTrue(client.set("prefix_foo-n1", 50, toBytes("data")).get());
+            assertTrue(jedis.ttl(toBytes("prefix_foo-n1")) <= 50);
+
+            // deleting the session data deletes the validity info as well
+            assertTrue(client.delete("prefix_foo-n1").get());
+            assertNull(client.get("prefix_foo-n1"));
+            assertNull(client.get("validity:prefix_foo-n1"));
+            assertFalse(jedis.exists(toBytes("prefix_foo-n1")));
+            assertFalse(client.touch("prefix_foo-n1", 200).get());
+            assertFalse(client.delete("prefix_foo-n1").get());
+
+            // without session data the expiration of the validity info applies
+            assertTrue(client.set("validity:prefix_foo-n1", 10, toBytes("validity")).get());
+            assertTrue(jedis.ttl(toBytes("prefix_foo-n1")) <= 10);
+            assertTrue(client.delete("validity:prefix_foo-n1").get());
+            assertFalse(jedis.exists(toBytes("prefix_foo-n1")));
+        } finally {
+            jedis.close();
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void testIncr() throws Exception {
+        RedisStorageClient client = createClient();
+        RedisStorageClient hashClient = new RedisStorageClient("redis://localhost:" + redisPort, 1000, true);
+        try {
+            assertEquals(client.incr("counter", 1, 5, 0), 5);
+            assertEquals(client.incr("counter", 1, 5, 0), 6);
+            assertEquals(toString(client.get("counter")), "6");
+
+            assertEquals(hashClient.incr("hashCounter", 1, 5, 0), 5);
+            assertEquals(hashClient.incr("hashCounter", 1, 5, 0), 6);
+            assertEquals(toString(hashClient.get("hashCounter")), "6");
+        } finally {
+            client.shutdown();
+            hashClient.shutdown();
+        }
+    }
+
+    /**
+     * Test that keys stored without the hash layout are still available with the hash layout.
+     */
+    @Test
+    public void testHashLayoutReadsAndConvertsPlainKeys() throws Exception {
+        RedisStorageClient plainClient = new RedisStorageClient("redis://localhost:" + redisPort, 1000, false);
+        RedisStorageClient client = new RedisStorageClient("redis://localhost:" + redisPort, 1000, true);
+        BinaryJedis jedis = new BinaryJedis("localhost", redisPort);
+        try {
+            assertTrue(plainClient.set("prefix_plain-n1", 100, toBytes("data")).get());
+            assertTrue(plainClient.set("validity:prefix_plain-n1", 100, toBytes("validity")).get());
+            assertTrue(plainClient.set("prefix_other-n1", 100, toBytes("other")).get());
+
+            assertEquals(toString(client.get("prefix_plain-n1")), "data");
+            assertEquals(toString(client.get("validity:prefix_plain-n1")), "validity");
+            final Map<String, byte[]> multi = client.getMulti(Arrays.asList("prefix_plain-n1", "prefix_other-n1"));
+            assertEquals(toString(multi.get("prefix_other-n1")), "other");
+            assertTrue(client.touch("prefix_other-n1", 200).get());
+            assertTrue(jedis.ttl(toBytes("prefix_other-n1")) > 100);
+
+            // writing the validity info keeps the session data
+            assertTrue(client.set("validity:prefix_plain-n1", 10, toBytes("new validity")).get());
+            assertEquals(jedis.type(toBytes("prefix_plain-n1")), "hash");
+            assertTrue(jedis.ttl(toBytes("prefix_plain-n1")) > 10);
+            assertEquals(toString(client.get("prefix_plain-n1")), "data");
+            assertEquals(toString(client.get("validity:prefix_plain-n1")), "new validity");
+
+            assertTrue(client.delete("prefix_other-n1").get());
+            assertFalse(jedis.exists(toBytes("prefix_other-n1")));
+        } finally {
+            jedis.close();
+            client.shutdown();
+            plainClient.shutdown();
+        }
+    }
+
     @Test
     public void testCreateUri01() throws Exception {
         RedisStorageClient client = createClient();
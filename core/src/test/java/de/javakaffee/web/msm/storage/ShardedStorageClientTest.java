@@ -0,0 +1,102 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.storage;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test the {@link ShardedStorageClient}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class ShardedStorageClientTest {
+
+    @Test
+    public void testKeysOfSessionAreRoutedToSameShard() {
+        final StorageClient[] shards = { mock(StorageClient.class), mock(StorageClient.class), mock(StorageClient.class) };
+        final ShardedStorageClient cut = new ShardedStorageClient(Arrays.asList(shards), null);
+
+        final Set<StorageClient> used = new HashSet<StorageClient>();
+        for (int i = 0; i < 100; i++) {
+            final String sessionId = "session" + i + "-n1";
+            final StorageClient client = cut.getClient("prefix_" + sessionId);
+            assertSame(cut.getClient("lock:prefix_" + sessionId), client);
+            assertSame(cut.getClient("validity:prefix_" + sessionId), client);
+            assertSame(cut.getClient("bak:prefix_" + sessionId), client);
+            assertSame(cut.getClient("bak:prefix_validity:prefix_" + sessionId), client);
+            used.add(client);
+        }
+        assertEquals(used.size(), 3);
+    }
+
+    @Test
+    public void testLockAndValidityKeysAreRoutedToControlClient() {
+        final StorageClient shard = mock(StorageClient.class);
+        final StorageClient control = mock(StorageClient.class);
+        final ShardedStorageClient cut = new ShardedStorageClient(Collections.singletonList(shard), control);
+
+        assertSame(cut.getClient("foo-n1"), shard);
+        assertSame(cut.getClient("bak:foo-n1"), shard);
+        assertSame(cut.getClient("lock:foo-n1"), control);
+        assertSame(cut.getClient("validity:foo-n1"), control);
+    }
+
+    @Test
+    public void testGetMultiMergesResultsOfShards() {
+        final StorageClient shard1 = mock(StorageClient.class);
+        final StorageClient shard2 = mock(StorageClient.class);
+        final ShardedStorageClient cut = new ShardedStorageClient(Arrays.asList(shard1, shard2), null);
+        final String key1 = findKey(cut, shard1);
+        final String key2 = findKey(cut, shard2);
+        when(shard1.getMulti(Collections.singletonList(key1))).thenReturn(Collections.singletonMap(key1, new byte[] { 1 }));
+        when(shard2.getMulti(Collections.singletonList(key2))).thenReturn(Collections.singletonMap(key2, new byte[] { 2 }));
+
+        final Map<String, byte[]> result = cut.getMulti(Arrays.asList(key1, key2));
+
+        assertEquals(result.size(), 2);
+        assertEquals(result.get(key1), new byte[] { 1 });
+        assertEquals(result.get(key2), new byte[] { 2 });
+    }
+
+    @Test
+    public void testShutdownAllClients() {
+        final StorageClient shard = mock(StorageClient.class);
+        final StorageClient control = mock(StorageClient.class);
+        new ShardedStorageClient(Collections.singletonList(shard), control).shutdown();
+        verify(shard).shutdown();
+        verify(control).shutdown();
+    }
+
+    private static String findKey(final ShardedStorageClient cut, final StorageClient shard) {
+        for (int i = 0;; i++) {
+            if (cut.getClient("foo" + i) == shard)
+                return "foo" + i;
+        }
+    }
+
+}
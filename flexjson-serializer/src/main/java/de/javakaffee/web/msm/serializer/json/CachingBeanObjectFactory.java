@@ -0,0 +1,60 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.serializer.json;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import flexjson.factories.BeanObjectFactory;
+
+/**
+ * A {@link BeanObjectFactory} that caches the no-arg constructor per class. flexjson's own factory looks
+ * up the constructor and makes it accessible for every object that is deserialized.
+ * <p>
+ * The cache is shared by all threads using the {@link JSONTranscoder}, property metadata is already
+ * cached by flexjson's <code>BeanAnalyzer</code> and the serializer's transformer map.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+final class CachingBeanObjectFactory extends BeanObjectFactory {
+
+    private final ConcurrentMap<Class<?>, Constructor<?>> _constructors = new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+    @SuppressWarnings( "rawtypes" )
+    @Override
+    protected Object instantiate( final Class clazz ) throws IllegalAccessException, InvocationTargetException,
+        InstantiationException, NoSuchMethodException {
+        Constructor<?> constructor = _constructors.get( clazz );
+        if ( constructor == null ) {
+            constructor = clazz.getDeclaredConstructor();
+            constructor.setAccessible( true );
+            _constructors.put( clazz, constructor );
+        }
+        return constructor.newInstance();
+    }
+
+    /**
+     * Returns the number of classes whose constructor is cached.
+     */
+    int size() {
+        return _constructors.size();
+    }
+
+}
@@ -14,11 +14,10 @@
 package de.javakaffee.web.msm.serializer.json;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.Closeable;
-import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.Map;
+import java.nio.charset.Charset;
+import java.nio.charset.MalformedInputException;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -37,6 +36,15 @@ import flexjson.JSONSerializer;
 /**
  * A {@link net.spy.memcached.transcoders.Transcoder} that serializes catalina
  * {@link StandardSession}s in json, using <a href="http://flexjson.sourceforge.net/">FLEXJSON</a>
+ * <p>
+ * The json is encoded with the charset given to the constructor, UTF-8 by default. With UTF-8 the json is
+ * written directly into pooled byte buffers and read directly from the byte array, without creating an
+ * intermediate {@link String}. Data that is not valid UTF-8 was written by an older version with a platform
+ * charset other than UTF-8 and is read with the platform charset.
+ * </p>
+ * <p>
+ * The no-arg constructors of deserialized classes are cached, see {@link CachingBeanObjectFactory}.
+ * </p>
  *
  * @author <a href="mailto:moresandeep@gmail.com">Sandeep More</a>
  */
@@ -44,16 +52,53 @@ public class JSONTranscoder implements SessionAttributesTranscoder {
 
     private static final Log LOG = LogFactory.getLog(JSONTranscoder.class);
 
+	/**
+	 * Buffers that grew beyond this size are not returned to the pool.
+	 */
+	static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+
+	private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
 	private final JSONSerializer serializer;
 	private final JSONDeserializer<ConcurrentMap<String, Object>> deserializer;
+	private final CachingBeanObjectFactory beanFactory;
+	private final ArrayBlockingQueue<Utf8OutputHandler> buffers;
+	private final Charset charset;
+	private final boolean utf8;
 
 	/**
 	 * Constructor
 	 * @param manager
 	 */
 	public JSONTranscoder(final Manager manager) {
+		this(manager, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructor
+	 * @param manager
+	 * @param bufferPoolSize the max number of output buffers kept for reuse, e.g. the number of backup threads.
+	 */
+	public JSONTranscoder(final Manager manager, final int bufferPoolSize) {
+		this(manager, bufferPoolSize, UTF8);
+	}
+
+	/**
+	 * Constructor
+	 * @param manager
+	 * @param bufferPoolSize the max number of output buffers kept for reuse, e.g. the number of backup threads.
+	 * @param charset the charset the json is encoded with, e.g. the platform charset of nodes running an older
+	 *  version during a rolling upgrade.
+	 */
+	public JSONTranscoder(final Manager manager, final int bufferPoolSize, final Charset charset) {
 		serializer = new JSONSerializer();
-		deserializer = new JSONDeserializer<ConcurrentMap<String, Object>>();
+		beanFactory = new CachingBeanObjectFactory();
+		deserializer = new JSONDeserializer<ConcurrentMap<String, Object>>().use(Object.class, beanFactory);
+		buffers = new ArrayBlockingQueue<Utf8OutputHandler>(Math.max(1, bufferPoolSize));
+		this.charset = charset;
+		utf8 = UTF8.equals(charset);
 		if (LOG.isDebugEnabled()) {
 		    LOG.debug("Initialized json serializer");
 		}
@@ -67,11 +112,22 @@ public class JSONTranscoder implements SessionAttributesTranscoder {
 	 */
 	@Override
 	public ConcurrentMap<String, Object> deserializeAttributes(final byte[] in) {
-		final InputStreamReader inputStream = new InputStreamReader( new ByteArrayInputStream( in ) );
 		if (LOG.isDebugEnabled()) {
 		    LOG.debug("deserialize the stream");
 		}
 		try {
+			if (utf8) {
+				try {
+					return deserializer.deserializeInto(new Utf8ByteArrayReader(in), new ConcurrentHashMap<String, Object>());
+				} catch (final RuntimeException e) {
+					if (!isMalformedInput(e)) {
+						throw e;
+					}
+				}
+			}
+			// written with the configured charset, or not valid UTF-8 and therefore written by an
+			// older version with the platform charset. Like before, malformed input is replaced.
+			final InputStreamReader inputStream = new InputStreamReader( new ByteArrayInputStream( in ), utf8 ? Charset.defaultCharset() : charset );
 			return deserializer.deserializeInto(inputStream, new ConcurrentHashMap<String, Object>());
 		} catch( final RuntimeException e) {
 			LOG.warn("Caught Exception deserializing JSON "+e);
@@ -79,6 +135,15 @@ public class JSONTranscoder implements SessionAttributesTranscoder {
 		}
 	}
 
+	private static boolean isMalformedInput(final Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof MalformedInputException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/* (non-Javadoc)
 	 * @see de.javakaffee.web.msm.SessionAttributesTranscoder#serializeAttributes(de.javakaffee.web.msm.MemcachedBackupSession, java.util.Map)
 	 */
@@ -87,34 +152,61 @@ public class JSONTranscoder implements SessionAttributesTranscoder {
 		if (attributes == null) {
         	throw new NullPointerException();
         }
+        if (!utf8) {
+        	return serializeWithCharset(attributes);
+        }
 
-        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        Utf8OutputHandler out = buffers.poll();
+        if (out == null) {
+        	out = new Utf8OutputHandler(INITIAL_BUFFER_SIZE);
+        }
         try {
         	// This performs a deep serialization of the target instance.
-            // It's serialized to a string as flexjson doesn't like writing to
-            // an OutputStreamWriter: it throws the exception "Stepping back two steps is not supported".
+            // It's not serialized to an OutputStreamWriter as flexjson doesn't like that:
+            // it throws the exception "Stepping back two steps is not supported".
             // See https://github.com/moresandeep/memcached-session-manager/commit/db2faaa0a846e16d65ac0b14819689c67bf92c68#commitcomment-512505
-        	final String serResult = serializer.deepSerialize(attributes);
+        	serializer.deepSerialize(attributes, out);
+        	final byte[] result = out.toByteArray();
         	if (LOG.isDebugEnabled()) {
-        	    LOG.debug("JSON Serialised object: " + serResult);
+        	    LOG.debug("JSON Serialised object: " + new String(result, UTF8));
         	}
-        	return serResult.getBytes(); // converts to bytes
+        	return result;
         } catch (final Exception e) {
         	LOG.warn("Caught Exception deserializing JSON " + e);
         	throw new IllegalArgumentException();
         } finally {
-        	close(bos);
+        	if (out.capacity() <= MAX_POOLED_BUFFER_SIZE) {
+        		out.reset();
+        		buffers.offer(out);
+        	}
         }
 	}
 
-	private void close(final Closeable stream) {
-		if(stream != null) {
-			try {
-				stream.close();
-			} catch( final IOException e) {
-				LOG.warn("JSON Transcoder Failed to close the stream: " + e);
+	private byte[] serializeWithCharset(final ConcurrentMap<String, Object> attributes) {
+		try {
+			final String serResult = serializer.deepSerialize(attributes);
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("JSON Serialised object: " + serResult);
 			}
+			return serResult.getBytes(charset); // converts to bytes
+		} catch (final Exception e) {
+			LOG.warn("Caught Exception deserializing JSON " + e);
+			throw new IllegalArgumentException();
 		}
 	}
 
+	/**
+	 * Returns the number of buffers available for reuse.
+	 */
+	int getPooledBuffers() {
+		return buffers.size();
+	}
+
+	/**
+	 * Returns the number of classes whose constructor is cached.
+	 */
+	int getCachedConstructors() {
+		return beanFactory.size();
+	}
+
 }
\ No newline at end of file
@@ -13,7 +13,7 @@
  */
 package de.javakaffee.web.msm.serializer.json;
 
-import org.apache.catalina.Manager;
+import java.nio.charset.Charset;
 
 import de.javakaffee.web.msm.SessionAttributesTranscoder;
 import de.javakaffee.web.msm.TranscoderFactory;
@@ -27,6 +27,12 @@ import de.javakaffee.web.msm.MemcachedSessionService.SessionManager;
  *
  */
 public class JSONTranscoderFactory implements TranscoderFactory{
+
+	/**
+	 * The charset the json is encoded with, UTF-8 by default. During a rolling upgrade from a version
+	 * that used the platform charset this must be set to that charset if it's not UTF-8.
+	 */
+	public static final String PROP_CHARSET = "msm.json.charset";
 	
 	private JSONTranscoder transcoder;
 	
@@ -35,9 +41,11 @@ public class JSONTranscoderFactory implements TranscoderFactory{
 		return getTranscoder(manager);
 	}
 	
-	private JSONTranscoder getTranscoder (final Manager manager) {
+	private JSONTranscoder getTranscoder (final SessionManager manager) {
 		if(transcoder == null){
-			transcoder = new JSONTranscoder(manager);
+			final String charset = System.getProperty(PROP_CHARSET);
+			transcoder = new JSONTranscoder(manager, manager.getMemcachedSessionService().getBackupThreadCount(),
+					charset != null ? Charset.forName(charset) : JSONTranscoder.UTF8);
 		}
 		return transcoder;
 	}
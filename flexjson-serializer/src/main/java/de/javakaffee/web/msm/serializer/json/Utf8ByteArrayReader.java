@@ -0,0 +1,117 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.serializer.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.MalformedInputException;
+
+/**
+ * A {@link Reader} that decodes UTF-8 directly from a byte array. In contrast to an
+ * {@link java.io.InputStreamReader} it's not synchronized and has no decoder/buffering overhead
+ * for the char by char reads done by flexjson's tokenizer.
+ * Malformed input, including overlong encodings and encoded surrogates that the JDK's UTF-8 decoder
+ * does not accept either, is reported with a {@link MalformedInputException}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+final class Utf8ByteArrayReader extends Reader {
+
+    private final byte[] _data;
+    private int _position;
+    private char _lowSurrogate;
+
+    Utf8ByteArrayReader( final byte[] data ) {
+        _data = data;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if ( _lowSurrogate != 0 ) {
+            final char result = _lowSurrogate;
+            _lowSurrogate = 0;
+            return result;
+        }
+        if ( _position >= _data.length ) {
+            return -1;
+        }
+        final int b = _data[_position++];
+        if ( b >= 0 ) {
+            return b;
+        }
+        if ( ( b & 0xe0 ) == 0xc0 ) {
+            final int c = ( ( b & 0x1f ) << 6 ) | continuation();
+            if ( c < 0x80 ) {
+                throw new MalformedInputException( 2 );
+            }
+            return c;
+        }
+        if ( ( b & 0xf0 ) == 0xe0 ) {
+            final int c = ( ( b & 0x0f ) << 12 ) | ( continuation() << 6 ) | continuation();
+            if ( c < 0x800 || ( c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE ) ) {
+                throw new MalformedInputException( 3 );
+            }
+            return c;
+        }
+        if ( ( b & 0xf8 ) == 0xf0 ) {
+            final int codePoint = ( ( b & 0x07 ) << 18 ) | ( continuation() << 12 ) | ( continuation() << 6 ) | continuation();
+            if ( codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT || codePoint > Character.MAX_CODE_POINT ) {
+                throw new MalformedInputException( 4 );
+            }
+            _lowSurrogate = lowSurrogate( codePoint );
+            return highSurrogate( codePoint );
+        }
+        throw new MalformedInputException( 1 );
+    }
+
+    private int continuation() throws MalformedInputException {
+        if ( _position >= _data.length || ( _data[_position] & 0xc0 ) != 0x80 ) {
+            throw new MalformedInputException( 1 );
+        }
+        return _data[_position++] & 0x3f;
+    }
+
+    private static char highSurrogate( final int codePoint ) {
+        return (char) ( ( codePoint >>> 10 ) + ( Character.MIN_HIGH_SURROGATE - ( Character.MIN_SUPPLEMENTARY_CODE_POINT >>> 10 ) ) );
+    }
+
+    private static char lowSurrogate( final int codePoint ) {
+        return (char) ( ( codePoint & 0x3ff ) + Character.MIN_LOW_SURROGATE );
+    }
+
+    @Override
+    public int read( final char[] cbuf, final int off, final int len ) throws IOException {
+        if ( len == 0 ) {
+            return 0;
+        }
+        int i = 0;
+        while ( i < len ) {
+            final int c = read();
+            if ( c < 0 ) {
+                break;
+            }
+            cbuf[off + i++] = (char) c;
+        }
+        return i == 0 ? -1 : i;
+    }
+
+    @Override
+    public void close() {
+        // nothing to do
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.serializer.json;
+
+import java.util.Arrays;
+
+import flexjson.OutputHandler;
+
+/**
+ * An {@link OutputHandler} that encodes the json written by flexjson directly as UTF-8 into
+ * a growable byte buffer, so that no intermediate {@link String} of the whole json is created.
+ * The handler can be reused via {@link #reset()}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+final class Utf8OutputHandler implements OutputHandler {
+
+    private byte[] _buf;
+    private int _count;
+    private char _highSurrogate;
+
+    Utf8OutputHandler( final int size ) {
+        _buf = new byte[size];
+    }
+
+    @Override
+    public OutputHandler write( final String value ) {
+        encode( value, 0, value.length() );
+        return this;
+    }
+
+    @Override
+    public int write( final String value, final int start, final int end, final String append ) {
+        encode( value, start, end );
+        encode( append, 0, append.length() );
+        return end + 1;
+    }
+
+    @Override
+    public int write( final String value, final int start, final int end ) {
+        encode( value, start, end );
+        return end;
+    }
+
+    private void encode( final String value, final int start, final int end ) {
+        // worst case are 3 bytes per char (surrogate pairs need 4 bytes for 2 chars), plus a replaced
+        // high surrogate of a former write
+        ensureCapacity( _count + ( end - start ) * 3 + 3 );
+        final byte[] buf = _buf;
+        int count = _count;
+        for ( int i = start; i < end; i++ ) {
+            final char c = value.charAt( i );
+            if ( _highSurrogate != 0 && !Character.isLowSurrogate( c ) ) {
+                count = writeReplacement( buf, count );
+                _highSurrogate = 0;
+            }
+            if ( c < 0x80 ) {
+                buf[count++] = (byte) c;
+            } else if ( c < 0x800 ) {
+                buf[count++] = (byte) ( 0xc0 | ( c >> 6 ) );
+                buf[count++] = (byte) ( 0x80 | ( c & 0x3f ) );
+            } else if ( Character.isHighSurrogate( c ) ) {
+                _highSurrogate = c;
+            } else if ( Character.isLowSurrogate( c ) ) {
+                if ( _highSurrogate == 0 ) {
+                    count = writeReplacement( buf, count );
+                    continue;
+                }
+                final int codePoint = Character.toCodePoint( _highSurrogate, c );
+                _highSurrogate = 0;
+                buf[count++] = (byte) ( 0xf0 | ( codePoint >> 18 ) );
+                buf[count++] = (byte) ( 0x80 | ( ( codePoint >> 12 ) & 0x3f ) );
+                buf[count++] = (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3f ) );
+                buf[count++] = (byte) ( 0x80 | ( codePoint & 0x3f ) );
+            } else {
+                buf[count++] = (byte) ( 0xe0 | ( c >> 12 ) );
+                buf[count++] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3f ) );
+                buf[count++] = (byte) ( 0x80 | ( c & 0x3f ) );
+            }
+        }
+        _count = count;
+    }
+
+    /**
+     * Writes the replacement character U+FFFD for an unpaired surrogate, which can't be encoded as UTF-8.
+     */
+    private static int writeReplacement( final byte[] buf, int count ) {
+        buf[count++] = (byte) 0xef;
+        buf[count++] = (byte) 0xbf;
+        buf[count++] = (byte) 0xbd;
+        return count;
+    }
+
+    private void ensureCapacity( final int minCapacity ) {
+        if ( minCapacity > _buf.length ) {
+            _buf = Arrays.copyOf( _buf, Math.max( _buf.length * 2, minCapacity ) );
+        }
+    }
+
+    byte[] toByteArray() {
+        if ( _highSurrogate != 0 ) {
+            ensureCapacity( _count + 3 );
+            _count = writeReplacement( _buf, _count );
+            _highSurrogate = 0;
+        }
+        return Arrays.copyOf( _buf, _count );
+    }
+
+    int capacity() {
+        return _buf.length;
+    }
+
+    void reset() {
+        _count = 0;
+        _highSurrogate = 0;
+    }
+
+}
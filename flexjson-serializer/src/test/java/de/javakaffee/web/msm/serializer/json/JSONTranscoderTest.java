@@ -14,8 +14,11 @@
 package de.javakaffee.web.msm.serializer.json;
 
 import java.io.Serializable;
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.nio.charset.MalformedInputException;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -27,6 +30,7 @@ import org.testng.annotations.Test;
 import de.javakaffee.web.msm.MemcachedBackupSession;
 import de.javakaffee.web.msm.MemcachedBackupSessionManager;
 import de.javakaffee.web.msm.serializer.json.JSONTranscoderTest.Person.Gender;
+import flexjson.JSONSerializer;
 
 /**
  * Test for {@link JSONTranscoder}
@@ -59,6 +63,124 @@ public class JSONTranscoderTest {
 
 	}
 
+	@Test
+	public void testUtf8WireCompatibility() throws Exception {
+		final MemcachedBackupSessionManager manager = new MemcachedBackupSessionManager();
+		manager.setContainer( new StandardContext() );
+		final JSONTranscoder transcoder = new JSONTranscoder( manager, 1 );
+
+		final MemcachedBackupSession session = manager.createEmptySession();
+		session.setValid( true );
+		session.setAttribute( "person1", createPerson( "f\u00f6\u00f6 \u20ac \ud83d\ude00", Gender.MALE, "foo.bar@example.org" ) );
+		session.setAttribute( "text", "\"quoted\"\n</script>" );
+
+		final byte[] json = transcoder.serializeAttributes( session, session.getAttributesInternal() );
+		Assert.assertEquals( json, new JSONSerializer().deepSerialize( session.getAttributesInternal() ).getBytes( "UTF-8" ) );
+		Assert.assertEquals( transcoder.getPooledBuffers(), 1 );
+		// the pooled buffer is reused
+		Assert.assertEquals( transcoder.serializeAttributes( session, session.getAttributesInternal() ), json );
+
+		assertEquals( transcoder.deserializeAttributes( json ), session.getAttributesInternal() );
+	}
+
+	@Test
+	public void testUnpairedSurrogatesAreReplaced() throws Exception {
+		final MemcachedBackupSessionManager manager = new MemcachedBackupSessionManager();
+		manager.setContainer( new StandardContext() );
+		final JSONTranscoder transcoder = new JSONTranscoder( manager, 1 );
+
+		final MemcachedBackupSession session = manager.createEmptySession();
+		session.setValid( true );
+		session.setAttribute( "text", "a\ud83db\ude00c\ud83d" );
+
+		final byte[] json = transcoder.serializeAttributes( session, session.getAttributesInternal() );
+		Assert.assertEquals( transcoder.deserializeAttributes( json ).get( "text" ), "a\ufffdb\ufffdc\ufffd" );
+	}
+
+	@Test
+	public void testMalformedUtf8IsRejected() throws Exception {
+		// overlong '/', overlong NUL, encoded high surrogate
+		final byte[][] malformed = { { (byte) 0xc0, (byte) 0xaf }, { (byte) 0xe0, (byte) 0x80, (byte) 0x80 },
+				{ (byte) 0xed, (byte) 0xa0, (byte) 0x80 } };
+		for ( final byte[] bytes : malformed ) {
+			try {
+				new Utf8ByteArrayReader( bytes ).read();
+				Assert.fail( "Expected MalformedInputException" );
+			} catch ( final MalformedInputException e ) {
+				// expected
+			}
+		}
+		Assert.assertEquals( read( new byte[] { (byte) 0xc3, (byte) 0xb6, (byte) 0xe2, (byte) 0x82, (byte) 0xac,
+				(byte) 0xf0, (byte) 0x9f, (byte) 0x98, (byte) 0x80 } ), "\u00f6\u20ac\ud83d\ude00" );
+	}
+
+	@Test
+	public void testMalformedUtf8IsReplacedLikeBefore() throws Exception {
+		final MemcachedBackupSessionManager manager = new MemcachedBackupSessionManager();
+		manager.setContainer( new StandardContext() );
+		final JSONTranscoder transcoder = new JSONTranscoder( manager );
+
+		final byte[] json = { '{', '"', 't', '"', ':', '"', 'a', (byte) 0xc0, (byte) 0xaf, 'b', (byte) 0xed, (byte) 0xa0, (byte) 0x80, '"', '}' };
+		final Map<String, Object> readValue = transcoder.deserializeAttributes( json );
+		Assert.assertEquals( readValue.get( "t" ), new String( json, 6, 7, Charset.defaultCharset() ) );
+	}
+
+	@Test
+	public void testConfiguredCharset() throws Exception {
+		final MemcachedBackupSessionManager manager = new MemcachedBackupSessionManager();
+		manager.setContainer( new StandardContext() );
+		final Charset latin1 = Charset.forName( "ISO-8859-1" );
+		final JSONTranscoder transcoder = new JSONTranscoder( manager, 1, latin1 );
+
+		final MemcachedBackupSession session = manager.createEmptySession();
+		session.setValid( true );
+		session.setAttribute( "text", "f\u00f6" );
+
+		final byte[] json = transcoder.serializeAttributes( session, session.getAttributesInternal() );
+		Assert.assertEquals( json, "{\"text\":\"f\u00f6\"}".getBytes( latin1 ) );
+		Assert.assertEquals( transcoder.deserializeAttributes( json ).get( "text" ), "f\u00f6" );
+	}
+
+	@Test
+	public void testConstructorsAreCached() throws Exception {
+		final MemcachedBackupSessionManager manager = new MemcachedBackupSessionManager();
+		manager.setContainer( new StandardContext() );
+		final JSONTranscoder transcoder = new JSONTranscoder( manager, 1 );
+
+		final MemcachedBackupSession session = manager.createEmptySession();
+		session.setValid( true );
+		session.setAttribute( "person1", createPerson( "foo bar", Gender.MALE, "foo.bar@example.org" ) );
+		session.setAttribute( "person2", createPerson( "bar baz", Gender.FEMALE, "bar.baz@example.org" ) );
+
+		final byte[] json = transcoder.serializeAttributes( session, session.getAttributesInternal() );
+		assertEquals( transcoder.deserializeAttributes( json ), session.getAttributesInternal() );
+		final int cached = transcoder.getCachedConstructors();
+		Assert.assertTrue( cached >= 2, "Person and Email should be cached, got " + cached );
+		assertEquals( transcoder.deserializeAttributes( json ), session.getAttributesInternal() );
+		Assert.assertEquals( transcoder.getCachedConstructors(), cached );
+	}
+
+	@Test
+	public void testReadLatin1Data() throws Exception {
+		final MemcachedBackupSessionManager manager = new MemcachedBackupSessionManager();
+		manager.setContainer( new StandardContext() );
+		final JSONTranscoder transcoder = new JSONTranscoder( manager );
+
+		// not valid UTF-8, is read with the platform charset
+		final byte[] latin1 = "{\"text\":\"f\u00f6\"}".getBytes( "ISO-8859-1" );
+		final Map<String, Object> readValue = transcoder.deserializeAttributes( latin1 );
+		Assert.assertEquals( readValue.get( "text" ), new String( "f\u00f6".getBytes( "ISO-8859-1" ) ) );
+	}
+
+	private static String read( final byte[] bytes ) throws IOException {
+		final Utf8ByteArrayReader reader = new Utf8ByteArrayReader( bytes );
+		final StringBuilder sb = new StringBuilder();
+		for ( int c = reader.read(); c >= 0; c = reader.read() ) {
+			sb.append( (char) c );
+		}
+		return sb.toString();
+	}
+
 	private Person createPerson( final String name, final Gender gender, final String... emailAddresses ) {
         final Person person = new Person();
         person.setName( name );
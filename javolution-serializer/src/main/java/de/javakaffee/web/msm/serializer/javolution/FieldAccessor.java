@@ -0,0 +1,424 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.serializer.javolution;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Reads and writes the value of a field. Accessors are created once per field by the {@link ReflectionFormat}
+ * of the class and use {@link MethodHandle}s adapted to the type of the field, that are invoked exactly,
+ * so that fields are accessed without the access checks and boxing of {@link Field#get(Object)}/{@link Field#set(Object, Object)}.
+ * As with reflection the types are checked: accessing a field with the accessor method of another type or
+ * setting a value of the wrong type fails with an {@link IllegalArgumentException}.
+ * If a method handle can't be created for a field or the system property <code>msm.javolution.methodHandleAccessors</code>
+ * is set to <code>false</code> the field is accessed via reflection.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public abstract class FieldAccessor {
+
+    private static final Log LOG = LogFactory.getLog( FieldAccessor.class );
+
+    public static final String PROP_METHOD_HANDLE_ACCESSORS = "msm.javolution.methodHandleAccessors";
+
+    protected final Field _field;
+
+    protected FieldAccessor( final Field field ) {
+        _field = field;
+    }
+
+    /**
+     * Creates the accessor for the given field.
+     */
+    public static FieldAccessor create( final Field field ) {
+        if ( !"false".equals( System.getProperty( PROP_METHOD_HANDLE_ACCESSORS ) ) ) {
+            try {
+                return new MethodHandleFieldAccessor( field );
+            } catch ( final Exception e ) {
+                LOG.info( "Could not create method handles for field " + field + ", using reflection: " + e );
+            }
+        }
+        return new ReflectionFieldAccessor( field );
+    }
+
+    public Field getField() {
+        return _field;
+    }
+
+    public String getName() {
+        return _field.getName();
+    }
+
+    public abstract Object get( Object obj ) throws IllegalAccessException;
+    public abstract boolean getBoolean( Object obj ) throws IllegalAccessException;
+    public abstract byte getByte( Object obj ) throws IllegalAccessException;
+    public abstract char getChar( Object obj ) throws IllegalAccessException;
+    public abstract short getShort( Object obj ) throws IllegalAccessException;
+    public abstract int getInt( Object obj ) throws IllegalAccessException;
+    public abstract long getLong( Object obj ) throws IllegalAccessException;
+    public abstract float getFloat( Object obj ) throws IllegalAccessException;
+    public abstract double getDouble( Object obj ) throws IllegalAccessException;
+
+    public abstract void set( Object obj, Object value ) throws IllegalAccessException;
+    public abstract void setBoolean( Object obj, boolean value ) throws IllegalAccessException;
+    public abstract void setByte( Object obj, byte value ) throws IllegalAccessException;
+    public abstract void setChar( Object obj, char value ) throws IllegalAccessException;
+    public abstract void setShort( Object obj, short value ) throws IllegalAccessException;
+    public abstract void setInt( Object obj, int value ) throws IllegalAccessException;
+    public abstract void setLong( Object obj, long value ) throws IllegalAccessException;
+    public abstract void setFloat( Object obj, float value ) throws IllegalAccessException;
+    public abstract void setDouble( Object obj, double value ) throws IllegalAccessException;
+
+    /**
+     * Accesses fields via {@link MethodHandle}s. The getter and setter are adapted to take the object as
+     * {@link Object} (cast to the declaring class, so that a wrong object fails with a {@link ClassCastException})
+     * and to get/set the value as the type of the field (primitive) or as {@link Object} (cast to the type of the field).
+     * The <code>get</code>/<code>set</code> handles box/unbox primitive values like {@link Field#get(Object)}/{@link Field#set(Object, Object)}.
+     */
+    static final class MethodHandleFieldAccessor extends FieldAccessor {
+
+        private final Class<?> _type;
+        private final MethodHandle _getter;
+        private final MethodHandle _setter;
+        private final MethodHandle _objectGetter;
+        private final MethodHandle _objectSetter;
+
+        MethodHandleFieldAccessor( final Field field ) throws IllegalAccessException {
+            super( field );
+            field.setAccessible( true );
+            _type = field.getType();
+            final Class<?> valueType = _type.isPrimitive() ? _type : Object.class;
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            final MethodHandle getter = lookup.unreflectGetter( field );
+            final MethodHandle setter = lookup.unreflectSetter( field );
+            _getter = getter.asType( MethodType.methodType( valueType, Object.class ) );
+            _setter = setter.asType( MethodType.methodType( void.class, Object.class, valueType ) );
+            _objectGetter = getter.asType( MethodType.methodType( Object.class, Object.class ) );
+            _objectSetter = setter.asType( MethodType.methodType( void.class, Object.class, Object.class ) );
+        }
+
+        private void checkType( final Class<?> type ) {
+            if ( _type != type ) {
+                throw new IllegalArgumentException( "Field " + _field + " is not of type " + type.getName() );
+            }
+        }
+
+        private RuntimeException rethrow( final Throwable e ) {
+            if ( e instanceof ClassCastException ) {
+                return new IllegalArgumentException( "Can not access " + _field + ": " + e.getMessage(), e );
+            }
+            if ( e instanceof RuntimeException ) {
+                return (RuntimeException) e;
+            }
+            if ( e instanceof Error ) {
+                throw (Error) e;
+            }
+            return new IllegalStateException( e );
+        }
+
+        @Override
+        public Object get( final Object obj ) {
+            try {
+                return (Object) _objectGetter.invokeExact( obj );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public boolean getBoolean( final Object obj ) {
+            checkType( boolean.class );
+            try {
+                return (boolean) _getter.invokeExact( obj );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public byte getByte( final Object obj ) {
+            checkType( byte.class );
+            try {
+                return (byte) _getter.invokeExact( obj );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public char getChar( final Object obj ) {
+            checkType( char.class );
+            try {
+                return (char) _getter.invokeExact( obj );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public short getShort( final Object obj ) {
+            checkType( short.class );
+            try {
+                return (short) _getter.invokeExact( obj );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public int getInt( final Object obj ) {
+            checkType( int.class );
+            try {
+                return (int) _getter.invokeExact( obj );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public long getLong( final Object obj ) {
+            checkType( long.class );
+            try {
+                return (long) _getter.invokeExact( obj );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public float getFloat( final Object obj ) {
+            checkType( float.class );
+            try {
+                return (float) _getter.invokeExact( obj );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public double getDouble( final Object obj ) {
+            checkType( double.class );
+            try {
+                return (double) _getter.invokeExact( obj );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public void set( final Object obj, final Object value ) {
+            if ( value == null && _type.isPrimitive() ) {
+                throw new IllegalArgumentException( "Can not set primitive field " + _field + " to null" );
+            }
+            try {
+                _objectSetter.invokeExact( obj, value );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public void setBoolean( final Object obj, final boolean value ) {
+            checkType( boolean.class );
+            try {
+                _setter.invokeExact( obj, value );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public void setByte( final Object obj, final byte value ) {
+            checkType( byte.class );
+            try {
+                _setter.invokeExact( obj, value );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public void setChar( final Object obj, final char value ) {
+            checkType( char.class );
+            try {
+                _setter.invokeExact( obj, value );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public void setShort( final Object obj, final short value ) {
+            checkType( short.class );
+            try {
+                _setter.invokeExact( obj, value );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public void setInt( final Object obj, final int value ) {
+            checkType( int.class );
+            try {
+                _setter.invokeExact( obj, value );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public void setLong( final Object obj, final long value ) {
+            checkType( long.class );
+            try {
+                _setter.invokeExact( obj, value );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public void setFloat( final Object obj, final float value ) {
+            checkType( float.class );
+            try {
+                _setter.invokeExact( obj, value );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+        @Override
+        public void setDouble( final Object obj, final double value ) {
+            checkType( double.class );
+            try {
+                _setter.invokeExact( obj, value );
+            } catch ( final Throwable e ) {
+                throw rethrow( e );
+            }
+        }
+
+    }
+
+    /**
+     * Accesses fields via reflection, the field must be accessible.
+     */
+    static final class ReflectionFieldAccessor extends FieldAccessor {
+
+        ReflectionFieldAccessor( final Field field ) {
+            super( field );
+            field.setAccessible( true );
+        }
+
+        @Override
+        public Object get( final Object obj ) throws IllegalAccessException {
+            return _field.get( obj );
+        }
+
+        @Override
+        public boolean getBoolean( final Object obj ) throws IllegalAccessException {
+            return _field.getBoolean( obj );
+        }
+
+        @Override
+        public byte getByte( final Object obj ) throws IllegalAccessException {
+            return _field.getByte( obj );
+        }
+
+        @Override
+        public char getChar( final Object obj ) throws IllegalAccessException {
+            return _field.getChar( obj );
+        }
+
+        @Override
+        public short getShort( final Object obj ) throws IllegalAccessException {
+            return _field.getShort( obj );
+        }
+
+        @Override
+        public int getInt( final Object obj ) throws IllegalAccessException {
+            return _field.getInt( obj );
+        }
+
+        @Override
+        public long getLong( final Object obj ) throws IllegalAccessException {
+            return _field.getLong( obj );
+        }
+
+        @Override
+        public float getFloat( final Object obj ) throws IllegalAccessException {
+            return _field.getFloat( obj );
+        }
+
+        @Override
+        public double getDouble( final Object obj ) throws IllegalAccessException {
+            return _field.getDouble( obj );
+        }
+
+        @Override
+        public void set( final Object obj, final Object value ) throws IllegalAccessException {
+            _field.set( obj, value );
+        }
+
+        @Override
+        public void setBoolean( final Object obj, final boolean value ) throws IllegalAccessException {
+            _field.setBoolean( obj, value );
+        }
+
+        @Override
+        public void setByte( final Object obj, final byte value ) throws IllegalAccessException {
+            _field.setByte( obj, value );
+        }
+
+        @Override
+        public void setChar( final Object obj, final char value ) throws IllegalAccessException {
+            _field.setChar( obj, value );
+        }
+
+        @Override
+        public void setShort( final Object obj, final short value ) throws IllegalAccessException {
+            _field.setShort( obj, value );
+        }
+
+        @Override
+        public void setInt( final Object obj, final int value ) throws IllegalAccessException {
+            _field.setInt( obj, value );
+        }
+
+        @Override
+        public void setLong( final Object obj, final long value ) throws IllegalAccessException {
+            _field.setLong( obj, value );
+        }
+
+        @Override
+        public void setFloat( final Object obj, final float value ) throws IllegalAccessException {
+            _field.setFloat( obj, value );
+        }
+
+        @Override
+        public void setDouble( final Object obj, final double value ) throws IllegalAccessException {
+            _field.setDouble( obj, value );
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.serializer.javolution;
+
+import javolution.xml.XMLFormat;
+import javolution.xml.XMLReferenceResolver;
+import javolution.xml.stream.XMLStreamConstants;
+import javolution.xml.stream.XMLStreamException;
+
+/**
+ * The {@link XMLReferenceResolver} used for reading, configured with the reference attributes
+ * of the {@link JavolutionTranscoder}.
+ * <p>
+ * Formats of proxies (see {@link ReflectionBinding.XMLJdkProxyFormat} and {@link CGLibProxyFormat}) read their
+ * child elements already in <code>newInstance</code>, so that the reader is not positioned at the start element
+ * anymore when javolution creates the reference for the new object. These formats are not referenceable (they have
+ * no id attribute), therefore no reference is created for them instead of failing with "Not a start element".
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+class InputReferenceResolver extends XMLReferenceResolver {
+
+    InputReferenceResolver() {
+        setIdentifierAttribute( JavolutionTranscoder.REFERENCE_ATTRIBUTE_ID );
+        setReferenceAttribute( JavolutionTranscoder.REFERENCE_ATTRIBUTE_REF_ID );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void createReference( final Object obj, final XMLFormat.InputElement xml ) throws XMLStreamException {
+        if ( xml.getStreamReader().getEventType() == XMLStreamConstants.START_ELEMENT ) {
+            super.createReference( obj, xml );
+        }
+    }
+
+}
@@ -167,10 +167,7 @@ public class JavolutionTranscoder implements SessionAttributesTranscoder {
         try {
             final ByteArrayInputStream bis = new ByteArrayInputStream( in );
             reader = XMLObjectReader.newInstance( bis );
-            final XMLReferenceResolver xmlReferenceResolver = new XMLReferenceResolver();
-            xmlReferenceResolver.setIdentifierAttribute( REFERENCE_ATTRIBUTE_ID );
-            xmlReferenceResolver.setReferenceAttribute( REFERENCE_ATTRIBUTE_REF_ID );
-            reader.setReferenceResolver( xmlReferenceResolver );
+            reader.setReferenceResolver( new InputReferenceResolver() );
             reader.setBinding( _xmlBinding );
             if ( !reader.hasNext() ) {
                 throw new IllegalStateException( "reader has no input" );
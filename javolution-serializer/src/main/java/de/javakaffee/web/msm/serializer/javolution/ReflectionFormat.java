@@ -67,8 +67,8 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
 
     private final Constructor<T> _constructor;
     private final AttributeHandler[] _attributes;
-    private final Field[] _elements;
-    private final Map<String, Field> _attributesMap;
+    private final FieldAccessor[] _elements;
+    private final Map<String, FieldAccessor> _attributesMap;
 
     /**
      * Creates a new instance for the provided class.
@@ -94,12 +94,12 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
         final AttributesAndElements fields = allFields( clazz );
 
         _attributes = fields.attributes.toArray( new AttributeHandler[fields.attributes.size()] );
-        _elements = fields.elements.toArray( new Field[fields.elements.size()] );
+        _elements = fields.elements.toArray( new FieldAccessor[fields.elements.size()] );
 
         // no concurrency support required here, as we'll only read from the map
-        _attributesMap = new HashMap<String, Field>( _attributes.length + 1 );
+        _attributesMap = new HashMap<String, FieldAccessor>( _attributes.length + 1 );
         for ( final AttributeHandler attribute : _attributes ) {
-            _attributesMap.put( attribute._field.getName(), attribute._field );
+            _attributesMap.put( attribute._name, attribute._accessor );
         }
     }
 
@@ -124,17 +124,16 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
     }
 
     /**
-     * A helper class to collect fields that are serialized as elements and
-     * fields (or {@link AttributeHandler}s for fields) that are serialized
-     * as attributes.
+     * A helper class to collect accessors for fields that are serialized as elements and
+     * {@link AttributeHandler}s for fields that are serialized as attributes.
      */
     static class AttributesAndElements {
         private final Collection<AttributeHandler> attributes;
-        private final Collection<Field> elements;
+        private final Collection<FieldAccessor> elements;
 
         AttributesAndElements() {
             attributes = new ArrayList<AttributeHandler>();
-            elements = new ArrayList<Field>();
+            elements = new ArrayList<FieldAccessor>();
         }
 
         void add( final Field field ) {
@@ -174,7 +173,7 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
                 }
 
             } else {
-                elements.add( field );
+                elements.add( FieldAccessor.create( field ) );
             }
         }
     }
@@ -215,7 +214,7 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
         for ( int i = 0; i < attributes.getLength(); i++ ) {
             final CharArray name = attributes.getLocalName( i );
             if ( !name.equals( "class" ) && !name.equals( JavolutionTranscoder.REFERENCE_ATTRIBUTE_ID ) ) {
-                final Field field = _attributesMap.get( name.toString() );
+                final FieldAccessor field = _attributesMap.get( name.toString() );
                 if ( field != null ) {
                     setFieldFromAttribute( obj, field, input );
                 } else {
@@ -226,12 +225,12 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
     }
 
     private void readElements( final javolution.xml.XMLFormat.InputElement input, final T obj ) {
-        for ( final Field field : _elements ) {
+        for ( final FieldAccessor field : _elements ) {
             try {
                 final Object value = input.get( field.getName() );
                 field.set( obj, value );
             } catch ( final Exception e ) {
-                LOG.error( "Could not set field value for field " + field, e );
+                LOG.error( "Could not set field value for field " + field.getField(), e );
             }
         }
     }
@@ -256,7 +255,7 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
     }
 
     private void writeElements( final T obj, final javolution.xml.XMLFormat.OutputElement output ) {
-        for ( final Field field : _elements ) {
+        for ( final FieldAccessor field : _elements ) {
             try {
                 final Object object = field.get( obj );
                 if ( object != null ) {
@@ -269,10 +268,12 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
     }
 
     static abstract class AttributeHandler {
-        protected final Field _field;
+        protected final FieldAccessor _accessor;
+        protected final String _name;
 
         public AttributeHandler( final Field field ) {
-            _field = field;
+            _accessor = FieldAccessor.create( field );
+            _name = field.getName();
         }
 
         abstract void writeAttribute( final Object obj, final XMLFormat.OutputElement output ) throws IllegalArgumentException,
@@ -287,7 +288,7 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
         @Override
         void writeAttribute( final Object obj, final XMLFormat.OutputElement output ) throws IllegalArgumentException,
             XMLStreamException, IllegalAccessException {
-            output.setAttribute( _field.getName(), _field.getBoolean( obj ) );
+            output.setAttribute( _name, _accessor.getBoolean( obj ) );
         }
     }
 
@@ -299,7 +300,7 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
         @Override
         void writeAttribute( final Object obj, final XMLFormat.OutputElement output ) throws IllegalArgumentException,
             XMLStreamException, IllegalAccessException {
-            output.setAttribute( _field.getName(), _field.getInt( obj ) );
+            output.setAttribute( _name, _accessor.getInt( obj ) );
         }
     }
 
@@ -311,7 +312,7 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
         @Override
         void writeAttribute( final Object obj, final XMLFormat.OutputElement output ) throws IllegalArgumentException,
             XMLStreamException, IllegalAccessException {
-            output.setAttribute( _field.getName(), _field.getLong( obj ) );
+            output.setAttribute( _name, _accessor.getLong( obj ) );
         }
     }
 
@@ -323,7 +324,7 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
         @Override
         void writeAttribute( final Object obj, final XMLFormat.OutputElement output ) throws IllegalArgumentException,
             XMLStreamException, IllegalAccessException {
-            output.setAttribute( _field.getName(), _field.getFloat( obj ) );
+            output.setAttribute( _name, _accessor.getFloat( obj ) );
         }
     }
 
@@ -335,7 +336,7 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
         @Override
         void writeAttribute( final Object obj, final XMLFormat.OutputElement output ) throws IllegalArgumentException,
             XMLStreamException, IllegalAccessException {
-            output.setAttribute( _field.getName(), _field.getDouble( obj ) );
+            output.setAttribute( _name, _accessor.getDouble( obj ) );
         }
     }
 
@@ -347,7 +348,7 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
         @Override
         void writeAttribute( final Object obj, final XMLFormat.OutputElement output ) throws IllegalArgumentException,
             XMLStreamException, IllegalAccessException {
-            output.setAttribute( _field.getName(), _field.getByte( obj ) );
+            output.setAttribute( _name, _accessor.getByte( obj ) );
         }
     }
 
@@ -359,7 +360,7 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
         @Override
         void writeAttribute( final Object obj, final XMLFormat.OutputElement output ) throws IllegalArgumentException,
             XMLStreamException, IllegalAccessException {
-            output.setAttribute( _field.getName(), _field.getChar( obj ) );
+            output.setAttribute( _name, _accessor.getChar( obj ) );
         }
     }
 
@@ -371,7 +372,7 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
         @Override
         void writeAttribute( final Object obj, final XMLFormat.OutputElement output ) throws IllegalArgumentException,
             XMLStreamException, IllegalAccessException {
-            output.setAttribute( _field.getName(), _field.getShort( obj ) );
+            output.setAttribute( _name, _accessor.getShort( obj ) );
         }
     }
 
@@ -383,7 +384,7 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
         @Override
         void writeAttribute( final Object obj, final XMLFormat.OutputElement output ) throws IllegalArgumentException,
             XMLStreamException, IllegalAccessException {
-            final Object object = _field.get( obj );
+            final Object object = _accessor.get( obj );
             if ( object != null ) {
                 add( object, output );
             }
@@ -399,7 +400,7 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
 
         @Override
         void add( final Object object, final OutputElement output ) throws XMLStreamException {
-            output.setAttribute( _field.getName(), object.toString() );
+            output.setAttribute( _name, object.toString() );
         }
     }
 
@@ -410,17 +411,17 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
 
         @Override
         void add( final Object object, final OutputElement output ) throws XMLStreamException {
-            output.setAttribute( _field.getName(), ( (Enum<?>) object ).name() );
+            output.setAttribute( _name, ( (Enum<?>) object ).name() );
         }
     }
 
     @edu.umd.cs.findbugs.annotations.SuppressWarnings( "REC_CATCH_EXCEPTION" )
-    private void setFieldFromAttribute( final T obj, final Field field, final javolution.xml.XMLFormat.InputElement input ) {
+    private void setFieldFromAttribute( final T obj, final FieldAccessor field, final javolution.xml.XMLFormat.InputElement input ) {
 
         try {
 
             final String fieldName = field.getName();
-            final Class<?> fieldType = field.getType();
+            final Class<?> fieldType = field.getField().getType();
             if ( fieldType.isPrimitive() ) {
 
                 if ( fieldType == boolean.class ) {
@@ -485,7 +486,7 @@ public class ReflectionFormat<T> extends XMLFormat<T> {
 
         } catch ( final Exception e ) {
             try {
-                LOG.error( "Caught exception when trying to set field ("+ field +") from attribute ("+ input.getAttribute( field.getName() )+").", e );
+                LOG.error( "Caught exception when trying to set field ("+ field.getField() +") from attribute ("+ input.getAttribute( field.getName() )+").", e );
             } catch ( final XMLStreamException e1 ) {
                 // fail silently
             }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.serializer.javolution;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.javakaffee.web.msm.serializer.javolution.TestClasses.MyContainer;
+import de.javakaffee.web.msm.serializer.javolution.TestClasses.Person.Gender;
+
+/**
+ * Compares the {@link JavolutionTranscoder} using method handle field accessors with the
+ * {@link JavolutionTranscoder} using reflection to access fields (see {@link FieldAccessor}).
+ * Run with <code>mvn -Pjavolution-serializer -pl javolution-serializer test-compile exec:java
+ * -Dexec.classpathScope=test -Dexec.mainClass=de.javakaffee.web.msm.serializer.javolution.FieldAccessorBenchmark</code>.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class FieldAccessorBenchmark {
+
+    @Param( { "true", "false" } )
+    public String methodHandleAccessors;
+
+    private JavolutionTranscoder _transcoder;
+    private ConcurrentMap<String, Object> _attributes;
+    private byte[] _serialized;
+
+    @Setup( Level.Trial )
+    public void setup() {
+        // accessors are created when the transcoder creates the format for a class
+        System.setProperty( FieldAccessor.PROP_METHOD_HANDLE_ACCESSORS, methodHandleAccessors );
+        _transcoder = new JavolutionTranscoder( Thread.currentThread().getContextClassLoader(), false );
+        _attributes = new ConcurrentHashMap<String, Object>();
+        _attributes.put( "container", new MyContainer() );
+        for ( int i = 0; i < 10; i++ ) {
+            _attributes.put( "person" + i, TestClasses.createPerson( "foo bar " + i, Gender.FEMALE, 42, "foo" + i + "@example.org" ) );
+        }
+        _serialized = _transcoder.serializeAttributes( null, _attributes );
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return _transcoder.serializeAttributes( null, _attributes );
+    }
+
+    @Benchmark
+    public ConcurrentMap<String, Object> deserialize() {
+        return _transcoder.deserializeAttributes( _serialized );
+    }
+
+    public static void main( final String[] args ) throws RunnerException {
+        new Runner( new OptionsBuilder().include( FieldAccessorBenchmark.class.getSimpleName() ).build() ).run();
+    }
+
+}
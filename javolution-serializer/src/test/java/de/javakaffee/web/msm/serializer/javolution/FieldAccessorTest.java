@@ -0,0 +1,129 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.serializer.javolution;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import de.javakaffee.web.msm.serializer.javolution.FieldAccessor.MethodHandleFieldAccessor;
+import de.javakaffee.web.msm.serializer.javolution.FieldAccessor.ReflectionFieldAccessor;
+
+/**
+ * Test for {@link FieldAccessor}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class FieldAccessorTest {
+
+    @AfterMethod
+    public void afterMethod() {
+        System.clearProperty( FieldAccessor.PROP_METHOD_HANDLE_ACCESSORS );
+    }
+
+    @DataProvider( name = "methodHandleAccessorsProvider" )
+    public Object[][] methodHandleAccessorsProvider() {
+        return new Object[][] { { true }, { false } };
+    }
+
+    @Test
+    public void testCreateUsesMethodHandlesUnlessDisabled() throws Exception {
+        assertTrue( FieldAccessor.create( Fields.class.getDeclaredField( "_int" ) ) instanceof MethodHandleFieldAccessor );
+        System.setProperty( FieldAccessor.PROP_METHOD_HANDLE_ACCESSORS, "false" );
+        assertTrue( FieldAccessor.create( Fields.class.getDeclaredField( "_int" ) ) instanceof ReflectionFieldAccessor );
+    }
+
+    @Test( dataProvider = "methodHandleAccessorsProvider" )
+    public void testGetAndSet( final boolean methodHandleAccessors ) throws Exception {
+        System.setProperty( FieldAccessor.PROP_METHOD_HANDLE_ACCESSORS, String.valueOf( methodHandleAccessors ) );
+        final Fields fields = new Fields();
+
+        accessor( "_boolean" ).setBoolean( fields, true );
+        accessor( "_byte" ).setByte( fields, (byte) 1 );
+        accessor( "_char" ).setChar( fields, 'c' );
+        accessor( "_short" ).setShort( fields, (short) 2 );
+        accessor( "_int" ).setInt( fields, 3 );
+        accessor( "_long" ).setLong( fields, 4 );
+        accessor( "_float" ).setFloat( fields, 5.5f );
+        accessor( "_double" ).setDouble( fields, 6.5 );
+        accessor( "_string" ).set( fields, "foo" );
+
+        assertEquals( accessor( "_boolean" ).getBoolean( fields ), true );
+        assertEquals( accessor( "_byte" ).getByte( fields ), (byte) 1 );
+        assertEquals( accessor( "_char" ).getChar( fields ), 'c' );
+        assertEquals( accessor( "_short" ).getShort( fields ), (short) 2 );
+        assertEquals( accessor( "_int" ).getInt( fields ), 3 );
+        assertEquals( accessor( "_long" ).getLong( fields ), 4 );
+        assertEquals( accessor( "_float" ).getFloat( fields ), 5.5f );
+        assertEquals( accessor( "_double" ).getDouble( fields ), 6.5 );
+        assertEquals( accessor( "_string" ).get( fields ), "foo" );
+
+        // the generic accessors box/unbox primitive values
+        assertEquals( accessor( "_int" ).get( fields ), Integer.valueOf( 3 ) );
+        accessor( "_int" ).set( fields, Integer.valueOf( 7 ) );
+        assertEquals( fields._int, 7 );
+
+        accessor( "_string" ).set( fields, null );
+        assertNull( fields._string );
+    }
+
+    @Test( dataProvider = "methodHandleAccessorsProvider", expectedExceptions = IllegalArgumentException.class )
+    public void testPrimitiveAccessorOfOtherTypeIsRejected( final boolean methodHandleAccessors ) throws Exception {
+        System.setProperty( FieldAccessor.PROP_METHOD_HANDLE_ACCESSORS, String.valueOf( methodHandleAccessors ) );
+        accessor( "_int" ).setLong( new Fields(), 1 );
+    }
+
+    @Test( dataProvider = "methodHandleAccessorsProvider", expectedExceptions = IllegalArgumentException.class )
+    public void testValueOfWrongTypeIsRejected( final boolean methodHandleAccessors ) throws Exception {
+        System.setProperty( FieldAccessor.PROP_METHOD_HANDLE_ACCESSORS, String.valueOf( methodHandleAccessors ) );
+        accessor( "_string" ).set( new Fields(), Integer.valueOf( 1 ) );
+    }
+
+    @Test( dataProvider = "methodHandleAccessorsProvider", expectedExceptions = IllegalArgumentException.class )
+    public void testNullForPrimitiveIsRejected( final boolean methodHandleAccessors ) throws Exception {
+        System.setProperty( FieldAccessor.PROP_METHOD_HANDLE_ACCESSORS, String.valueOf( methodHandleAccessors ) );
+        accessor( "_int" ).set( new Fields(), null );
+    }
+
+    @Test( dataProvider = "methodHandleAccessorsProvider", expectedExceptions = IllegalArgumentException.class )
+    public void testObjectOfWrongClassIsRejected( final boolean methodHandleAccessors ) throws Exception {
+        System.setProperty( FieldAccessor.PROP_METHOD_HANDLE_ACCESSORS, String.valueOf( methodHandleAccessors ) );
+        accessor( "_int" ).getInt( "not a Fields instance" );
+    }
+
+    private static FieldAccessor accessor( final String name ) throws NoSuchFieldException {
+        return FieldAccessor.create( Fields.class.getDeclaredField( name ) );
+    }
+
+    @SuppressWarnings( "unused" )
+    private static class Fields {
+        private boolean _boolean;
+        private byte _byte;
+        private char _char;
+        private short _short;
+        private int _int;
+        private long _long;
+        private float _float;
+        private double _double;
+        private String _string;
+    }
+
+}
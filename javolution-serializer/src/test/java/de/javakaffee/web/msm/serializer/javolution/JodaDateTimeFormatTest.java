@@ -137,10 +137,7 @@ public class JodaDateTimeFormatTest {
         try {
             final ByteArrayInputStream bis = new ByteArrayInputStream( in );
             reader = XMLObjectReader.newInstance( bis );
-            final XMLReferenceResolver xmlReferenceResolver = new XMLReferenceResolver();
-            xmlReferenceResolver.setIdentifierAttribute( JavolutionTranscoder.REFERENCE_ATTRIBUTE_ID );
-            xmlReferenceResolver.setReferenceAttribute( JavolutionTranscoder.REFERENCE_ATTRIBUTE_REF_ID );
-            reader.setReferenceResolver( xmlReferenceResolver );
+            reader.setReferenceResolver( new InputReferenceResolver() );
             reader.setBinding( binding );
             if ( !reader.hasNext() ) {
                 throw new IllegalStateException( "reader has no input" );
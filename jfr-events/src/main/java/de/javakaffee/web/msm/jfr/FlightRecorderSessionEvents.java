@@ -0,0 +1,212 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import de.javakaffee.web.msm.SessionEvents;
+import de.javakaffee.web.msm.SessionIdFormat;
+
+/**
+ * The {@link SessionEvents} emitted to the JDK Flight Recorder. This class must only be loaded if the
+ * Flight Recorder API is available, it's loaded by name by {@link SessionEvents} if this module is in the
+ * classpath of the session manager. It's compiled for Java 8 as the session manager must still run on older JVMs.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class FlightRecorderSessionEvents extends SessionEvents {
+
+    private static final String CATEGORY = "Memcached Session Manager";
+    private static final SessionIdFormat SESSION_ID_FORMAT = new SessionIdFormat();
+
+    private final EventType[] _types;
+    private final EventType _nodeAvailabilityType = EventType.getEventType( NodeAvailabilityEvent.class );
+    private final EventType _relocationType = EventType.getEventType( RelocationEvent.class );
+
+    public FlightRecorderSessionEvents() {
+        _types = new EventType[Type.values().length];
+        _types[Type.LOAD.ordinal()] = EventType.getEventType( LoadEvent.class );
+        _types[Type.DESERIALIZATION.ordinal()] = EventType.getEventType( DeserializationEvent.class );
+        _types[Type.SERIALIZATION.ordinal()] = EventType.getEventType( SerializationEvent.class );
+        _types[Type.BACKUP.ordinal()] = EventType.getEventType( BackupEvent.class );
+        _types[Type.LOCK_ACQUISITION.ordinal()] = EventType.getEventType( LockAcquisitionEvent.class );
+        _types[Type.LOCK_WAIT.ordinal()] = EventType.getEventType( LockWaitEvent.class );
+        _types[Type.LOCK_RELEASE.ordinal()] = EventType.getEventType( LockReleaseEvent.class );
+    }
+
+    @Override
+    protected SessionEvent beginEvent( final Type type ) {
+        if ( !_types[type.ordinal()].isEnabled() ) {
+            return NO_EVENT;
+        }
+        final AbstractSessionEvent result = createEvent( type );
+        result.begin();
+        return result;
+    }
+
+    private static AbstractSessionEvent createEvent( final Type type ) {
+        switch ( type ) {
+            case LOAD: return new LoadEvent();
+            case DESERIALIZATION: return new DeserializationEvent();
+            case SERIALIZATION: return new SerializationEvent();
+            case BACKUP: return new BackupEvent();
+            case LOCK_ACQUISITION: return new LockAcquisitionEvent();
+            case LOCK_WAIT: return new LockWaitEvent();
+            case LOCK_RELEASE: return new LockReleaseEvent();
+            default: throw new IllegalArgumentException( "Unknown type " + type );
+        }
+    }
+
+    @Override
+    protected void onNodeAvailabilityChanged( final String nodeId, final boolean available ) {
+        if ( _nodeAvailabilityType.isEnabled() ) {
+            final NodeAvailabilityEvent event = new NodeAvailabilityEvent();
+            event.nodeId = nodeId;
+            event.available = available;
+            event.commit();
+        }
+    }
+
+    @Override
+    protected void onSessionRelocated( final String sessionId, final String newSessionId ) {
+        if ( _relocationType.isEnabled() ) {
+            final RelocationEvent event = new RelocationEvent();
+            event.sessionIdHash = sessionId.hashCode();
+            event.previousNodeId = SESSION_ID_FORMAT.extractMemcachedId( sessionId );
+            event.nodeId = SESSION_ID_FORMAT.extractMemcachedId( newSessionId );
+            event.commit();
+        }
+    }
+
+    @Category( CATEGORY )
+    abstract static class AbstractSessionEvent extends Event implements SessionEvent {
+
+        @Label( "Session Id Hash" )
+        @Description( "The hash code of the session id" )
+        int sessionIdHash;
+
+        @Label( "Node Id" )
+        @Description( "The memcached node of the session" )
+        String nodeId;
+
+        @Label( "Bytes" )
+        @DataAmount
+        long bytes;
+
+        @Label( "Result" )
+        String result;
+
+        @Override
+        public SessionEvent session( final String sessionId ) {
+            sessionIdHash = sessionId.hashCode();
+            nodeId = SESSION_ID_FORMAT.extractMemcachedId( sessionId );
+            return this;
+        }
+
+        @Override
+        public SessionEvent bytes( final long bytes ) {
+            this.bytes = bytes;
+            return this;
+        }
+
+        @Override
+        public SessionEvent result( final String result ) {
+            this.result = result;
+            return this;
+        }
+
+    }
+
+    @Name( "de.javakaffee.msm.SessionLoad" )
+    @Label( "Session Load" )
+    @Description( "The session data is read from memcached" )
+    static class LoadEvent extends AbstractSessionEvent {
+    }
+
+    @Name( "de.javakaffee.msm.SessionDeserialization" )
+    @Label( "Session Deserialization" )
+    static class DeserializationEvent extends AbstractSessionEvent {
+    }
+
+    @Name( "de.javakaffee.msm.SessionSerialization" )
+    @Label( "Session Serialization" )
+    @Description( "The session attributes are serialized" )
+    static class SerializationEvent extends AbstractSessionEvent {
+    }
+
+    @Name( "de.javakaffee.msm.SessionBackup" )
+    @Label( "Session Backup" )
+    @Description( "The session is stored in memcached, the result is SUCCESS, SKIPPED or FAILURE" )
+    static class BackupEvent extends AbstractSessionEvent {
+    }
+
+    @Name( "de.javakaffee.msm.LockAcquisition" )
+    @Label( "Session Lock Acquisition" )
+    @Description( "The lock of a non-sticky session is acquired, including waits for other requests" )
+    static class LockAcquisitionEvent extends AbstractSessionEvent {
+    }
+
+    @Name( "de.javakaffee.msm.LockWait" )
+    @Label( "Session Lock Wait" )
+    @Description( "A wait for the lock of a session that's held by another request" )
+    static class LockWaitEvent extends AbstractSessionEvent {
+    }
+
+    @Name( "de.javakaffee.msm.LockRelease" )
+    @Label( "Session Lock Release" )
+    static class LockReleaseEvent extends AbstractSessionEvent {
+    }
+
+    @Name( "de.javakaffee.msm.NodeAvailability" )
+    @Label( "Memcached Node Availability Change" )
+    @Description( "A memcached node was marked as available or unavailable" )
+    @Category( CATEGORY )
+    static class NodeAvailabilityEvent extends Event {
+
+        @Label( "Node Id" )
+        String nodeId;
+
+        @Label( "Available" )
+        boolean available;
+
+    }
+
+    @Name( "de.javakaffee.msm.SessionRelocation" )
+    @Label( "Session Relocation" )
+    @Description( "A session is relocated to another memcached node because its node is not available" )
+    @Category( CATEGORY )
+    static class RelocationEvent extends Event {
+
+        @Label( "Session Id Hash" )
+        @Description( "The hash code of the former session id" )
+        int sessionIdHash;
+
+        @Label( "Previous Node Id" )
+        String previousNodeId;
+
+        @Label( "Node Id" )
+        String nodeId;
+
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.jfr;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.testng.annotations.Test;
+
+import de.javakaffee.web.msm.SessionEvents;
+
+/**
+ * Test the {@link FlightRecorderSessionEvents}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class FlightRecorderSessionEventsTest {
+
+    @Test
+    public void testEventsAreRecorded() throws Exception {
+        assertTrue( SessionEvents.isFlightRecorderAvailable() );
+
+        final Recording recording = new Recording();
+        recording.enable( "de.javakaffee.msm.SessionBackup" );
+        recording.enable( "de.javakaffee.msm.NodeAvailability" );
+        recording.enable( "de.javakaffee.msm.SessionRelocation" );
+        recording.start();
+        SessionEvents.begin( SessionEvents.Type.BACKUP ).session( "foo-n1" ).bytes( 42 ).result( "SUCCESS" ).commit();
+        SessionEvents.nodeAvailabilityChanged( "n1", false );
+        SessionEvents.sessionRelocated( "foo-n1", "foo-n2" );
+        recording.stop();
+
+        final File file = File.createTempFile( "msm", ".jfr" );
+        try {
+            recording.dump( file.toPath() );
+            final Map<String, RecordedEvent> events = new HashMap<String, RecordedEvent>();
+            final List<RecordedEvent> recorded = RecordingFile.readAllEvents( file.toPath() );
+            for ( final RecordedEvent event : recorded ) {
+                events.put( event.getEventType().getName(), event );
+            }
+
+            final RecordedEvent backup = events.get( "de.javakaffee.msm.SessionBackup" );
+            assertEquals( backup.getInt( "sessionIdHash" ), "foo-n1".hashCode() );
+            assertEquals( backup.getString( "nodeId" ), "n1" );
+            assertEquals( backup.getLong( "bytes" ), 42 );
+            assertEquals( backup.getString( "result" ), "SUCCESS" );
+
+            final RecordedEvent nodeAvailability = events.get( "de.javakaffee.msm.NodeAvailability" );
+            assertEquals( nodeAvailability.getString( "nodeId" ), "n1" );
+            assertTrue( !nodeAvailability.getBoolean( "available" ) );
+
+            final RecordedEvent relocation = events.get( "de.javakaffee.msm.SessionRelocation" );
+            assertEquals( relocation.getString( "previousNodeId" ), "n1" );
+            assertEquals( relocation.getString( "nodeId" ), "n2" );
+        } finally {
+            recording.close();
+            file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.serializer.kryo;
+
+import java.lang.reflect.Proxy;
+
+import javax.annotation.Nonnull;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Registration;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.DefaultClassResolver;
+
+/**
+ * A {@link com.esotericsoftware.kryo.ClassResolver} that registers classes not registered explicitly
+ * with the id from the {@link KryoClassDictionary} (plus {@link #ID_OFFSET}), so that kryo writes a varint
+ * instead of the class name. Ids read that are not yet registered are resolved via the dictionary, reading an id
+ * that's not found in the dictionary fails.
+ * If no id can be assigned (e.g. because the storage is not available) the class name is written as usual.
+ * <p>
+ * New ids are only assigned synchronously when a class is written. If kryo registers a class in other situations
+ * (e.g. when a class name is read), only a locally known id is used; otherwise the id is assigned in the
+ * background and the class is not registered yet, so that the storage is not accessed while deserializing.
+ * </p>
+ * <p>
+ * Note that all tomcats of a webapp must use the class dictionary, tomcats without the
+ * dictionary can't read data written with dictionary ids.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class DictionaryClassResolver extends DefaultClassResolver {
+
+    /**
+     * The offset of dictionary ids to kryo registration ids, so that they don't clash
+     * with explicit registrations.
+     */
+    public static final int ID_OFFSET = 1000;
+
+    private final KryoClassDictionary _dictionary;
+    private boolean _writingClass;
+
+    public DictionaryClassResolver( @Nonnull final KryoClassDictionary dictionary ) {
+        _dictionary = dictionary;
+    }
+
+    @Override
+    @SuppressWarnings( "rawtypes" )
+    public Registration registerImplicit( final Class type ) {
+        if ( isDictionaryCandidate( type ) ) {
+            Integer id = _dictionary.getId( type.getName() );
+            if ( id == null && _writingClass ) {
+                id = _dictionary.getOrAssignId( type.getName() );
+            }
+            if ( id != null ) {
+                return register( new Registration( type, kryo.getDefaultSerializer( type ), ID_OFFSET + id ) );
+            }
+            if ( !_writingClass ) {
+                // not registered, so that the class is registered with its id once it's assigned
+                _dictionary.assignIdAsync( type.getName() );
+                return new Registration( type, kryo.getDefaultSerializer( type ), NAME );
+            }
+        }
+        return super.registerImplicit( type );
+    }
+
+    @Override
+    @SuppressWarnings( "rawtypes" )
+    public Registration writeClass( final Output output, final Class type ) {
+        final boolean writingClass = _writingClass;
+        _writingClass = true;
+        try {
+            return super.writeClass( output, type );
+        } finally {
+            _writingClass = writingClass;
+        }
+    }
+
+    @Override
+    public Registration readClass( final Input input ) {
+        // peek the class id to register dictionary classes not known so far
+        final int position = input.position();
+        final int classId = input.readVarInt( true ) - 2;
+        input.setPosition( position );
+        if ( classId >= ID_OFFSET && idToRegistration.get( classId ) == null ) {
+            registerFromDictionary( classId );
+        }
+        return super.readClass( input );
+    }
+
+    private void registerFromDictionary( final int classId ) {
+        final String className = _dictionary.getClassName( classId - ID_OFFSET );
+        if ( className == null ) {
+            // ids are never reused, so the id must not be interpreted as another class
+            throw new KryoException( "Class id " + ( classId - ID_OFFSET ) + " not found in class dictionary"
+                    + " (evicted or storage not available)." );
+        }
+        try {
+            final Class<?> type = Class.forName( className, false, kryo.getClassLoader() );
+            register( new Registration( type, kryo.getDefaultSerializer( type ), classId ) );
+        } catch ( final ClassNotFoundException e ) {
+            throw new KryoException( "Unable to find class " + className + " of class id " + ( classId - ID_OFFSET ), e );
+        }
+    }
+
+    /**
+     * Determines if the given class can be registered via the dictionary, which is not the case
+     * for classes whose names are generated at runtime (proxies, lambdas, cglib classes).
+     */
+    static boolean isDictionaryCandidate( final Class<?> type ) {
+        return !Proxy.isProxyClass( type ) && type.getName().indexOf( "$$" ) < 0;
+    }
+
+}
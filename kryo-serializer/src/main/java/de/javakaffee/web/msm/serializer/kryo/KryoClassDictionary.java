@@ -0,0 +1,303 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.serializer.kryo;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+import de.javakaffee.web.msm.SharedStorage;
+
+/**
+ * A dictionary of class names and ids, that's shared by all tomcats of a webapp (via the {@link SharedStorage}),
+ * so that kryo can write the id of a class instead of its name (see {@link DictionaryClassResolver}).
+ * <p>
+ * Ids are assigned on first use of a class via {@link SharedStorage#assignId(String, byte[], long)}: they're
+ * taken from a counter and never reused, so that an id is never bound to another class, also not after
+ * the entry of an id was evicted. Ids that are not known locally (assigned by another tomcat) are read from
+ * the storage when they're encountered.
+ * </p>
+ * <p>
+ * Entries can still be evicted, then data using their ids can only be read by tomcats that know them locally.
+ * Therefore the locally known entries are re-seeded (added where they're missing) when the dictionary is loaded,
+ * and in the background when an id is not found in the storage or while locally known ids are used.
+ * </p>
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class KryoClassDictionary {
+
+    private static final Log LOG = LogFactory.getLog( KryoClassDictionary.class );
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+    private static final String KEY_PREFIX = "msmKryoClass_";
+    private static final long RETRY_AFTER_FAILURE_MILLIS = 10000;
+    private static final long RESEED_INTERVAL_MILLIS = 60000;
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private final SharedStorage _storage;
+    private final ConcurrentMap<String, Integer> _ids = new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentMap<Integer, String> _classNames = new ConcurrentHashMap<Integer, String>();
+    private final ConcurrentMap<String, FutureTask<Integer>> _assignments = new ConcurrentHashMap<String, FutureTask<Integer>>();
+    private final AtomicInteger _maxId = new AtomicInteger( -1 );
+    private final AtomicLong _lastReseed = new AtomicLong();
+    private volatile long _unavailableUntil;
+
+    /**
+     * Creates a new dictionary.
+     *
+     * @param storage the storage the class ids are read from and written to.
+     */
+    public KryoClassDictionary( @Nonnull final SharedStorage storage ) {
+        _storage = storage;
+    }
+
+    /**
+     * Loads the ids assigned so far from the storage and re-seeds the locally known ids that are missing.
+     *
+     * @return the number of ids loaded.
+     */
+    public int load() {
+        final long lastId = _storage.getLastId( KEY_PREFIX );
+        int missing = 0;
+        if ( lastId >= 0 ) {
+            missing = loadIds( 0, (int) Math.min( lastId, Integer.MAX_VALUE ) );
+        } else {
+            // ids assigned without counter (or the counter was lost)
+            for ( int from = 0; loadIds( from, from + LOAD_BATCH_SIZE - 1 ) < LOAD_BATCH_SIZE; from += LOAD_BATCH_SIZE ) {
+            }
+        }
+        if ( missing > 0 ) {
+            LOG.warn( "Loaded " + _classNames.size() + " class ids, " + missing + " ids were not found"
+                    + " (evicted or not available), sessions using them can't be read." );
+        } else {
+            LOG.info( "Loaded " + _classNames.size() + " class ids." );
+        }
+        reseed();
+        return _classNames.size();
+    }
+
+    /**
+     * Reads the given range of ids that are not known locally, with one multi get per {@link #LOAD_BATCH_SIZE} ids.
+     *
+     * @return the number of ids that were not found.
+     */
+    private int loadIds( final int from, final int to ) {
+        int missing = 0;
+        for ( int batchFrom = from; batchFrom <= to && batchFrom >= 0; batchFrom += LOAD_BATCH_SIZE ) {
+            final int batchTo = (int) Math.min( (long) batchFrom + LOAD_BATCH_SIZE - 1, to );
+            final List<String> names = new ArrayList<String>( batchTo - batchFrom + 1 );
+            for ( int id = batchFrom; id <= batchTo; id++ ) {
+                if ( !_classNames.containsKey( id ) ) {
+                    names.add( KEY_PREFIX + id );
+                }
+            }
+            if ( names.isEmpty() ) {
+                continue;
+            }
+            final Map<String, byte[]> data = _storage.getMulti( names );
+            for ( final Map.Entry<String, byte[]> entry : data.entrySet() ) {
+                put( Integer.parseInt( entry.getKey().substring( KEY_PREFIX.length() ) ), new String( entry.getValue(), UTF_8 ) );
+            }
+            missing += names.size() - data.size();
+        }
+        return missing;
+    }
+
+    /**
+     * Adds the locally known ids to the storage where they're missing (e.g. evicted), so that other
+     * tomcats can still read data using these ids.
+     *
+     * @return the number of re-seeded ids, or <code>-1</code> if the storage is not available.
+     */
+    int reseed() {
+        _lastReseed.set( System.currentTimeMillis() );
+        final Map<String, byte[]> entries = new HashMap<String, byte[]>( _classNames.size() * 2 );
+        for ( final Map.Entry<Integer, String> entry : _classNames.entrySet() ) {
+            entries.put( KEY_PREFIX + entry.getKey(), entry.getValue().getBytes( UTF_8 ) );
+        }
+        return _storage.reseed( entries );
+    }
+
+    /**
+     * Re-seeds the locally known ids in the background, when an id was not found in the storage or a locally
+     * known id is used. This is done at most every {@link #RESEED_INTERVAL_MILLIS}.
+     */
+    private void reseedInBackground() {
+        final long lastReseed = _lastReseed.get();
+        if ( System.currentTimeMillis() - lastReseed < RESEED_INTERVAL_MILLIS
+                || !_lastReseed.compareAndSet( lastReseed, System.currentTimeMillis() ) ) {
+            return;
+        }
+        _storage.execute( new Runnable() {
+            @Override
+            public void run() {
+                reseed();
+            }
+        } );
+    }
+
+    /**
+     * Returns the locally known id of the given class name, without accessing the storage.
+     *
+     * @param className the class name.
+     * @return the id or <code>null</code> if no id is known locally.
+     */
+    @CheckForNull
+    public Integer getId( @Nonnull final String className ) {
+        return _ids.get( className );
+    }
+
+    /**
+     * Assigns an id to the given class name in the background, if it's not known locally.
+     * This is used where the storage must not be accessed synchronously (e.g. while deserializing).
+     *
+     * @param className the class name.
+     */
+    public void assignIdAsync( @Nonnull final String className ) {
+        if ( _ids.containsKey( className ) || _assignments.containsKey( className )
+                || System.currentTimeMillis() < _unavailableUntil ) {
+            return;
+        }
+        _storage.execute( new Runnable() {
+            @Override
+            public void run() {
+                getOrAssignId( className );
+            }
+        } );
+    }
+
+    /**
+     * Returns the id of the given class name, if necessary a new id is assigned.
+     *
+     * @param className the class name.
+     * @return the id or <code>null</code> if no id could be assigned because the storage is not available.
+     */
+    @CheckForNull
+    public Integer getOrAssignId( @Nonnull final String className ) {
+        final Integer result = _ids.get( className );
+        if ( result != null ) {
+            reseedInBackground();
+            return result;
+        }
+        if ( System.currentTimeMillis() < _unavailableUntil ) {
+            return null;
+        }
+        // a class is assigned by one thread only, without blocking the assignment of other classes
+        final FutureTask<Integer> task = new FutureTask<Integer>( new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return assignId( className );
+            }
+        } );
+        final FutureTask<Integer> running = _assignments.putIfAbsent( className, task );
+        if ( running == null ) {
+            try {
+                task.run();
+            } finally {
+                _assignments.remove( className, task );
+            }
+        }
+        try {
+            return ( running != null ? running : task ).get();
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch ( final ExecutionException e ) {
+            LOG.warn( "Could not assign an id for class " + className, e.getCause() );
+            return null;
+        }
+    }
+
+    private Integer assignId( final String className ) {
+        Integer result = _ids.get( className );
+        if ( result != null ) {
+            return result;
+        }
+        // another tomcat might have assigned an id for this class in the meantime
+        final long lastId = _storage.getLastId( KEY_PREFIX );
+        if ( lastId > _maxId.get() ) {
+            loadIds( _maxId.get() + 1, (int) Math.min( lastId, Integer.MAX_VALUE ) );
+        }
+        result = _ids.get( className );
+        if ( result != null ) {
+            return result;
+        }
+        final long id = _storage.assignId( KEY_PREFIX, className.getBytes( UTF_8 ), _maxId.get() + 1 );
+        if ( id < 0 || id > Integer.MAX_VALUE ) {
+            LOG.warn( "Could not assign an id for class " + className + ", the storage seems not to be available." );
+            _unavailableUntil = System.currentTimeMillis() + RETRY_AFTER_FAILURE_MILLIS;
+            return null;
+        }
+        put( (int) id, className );
+        return (int) id;
+    }
+
+    /**
+     * Returns the class name for the given id, if it's not known locally it's read from the storage.
+     * If it's not found the locally known ids are re-seeded in the background.
+     *
+     * @param id the class id
+     * @return the class name or <code>null</code> if the id is not assigned.
+     */
+    @CheckForNull
+    public String getClassName( final int id ) {
+        String result = _classNames.get( id );
+        if ( result == null ) {
+            final byte[] data = _storage.get( KEY_PREFIX + id );
+            if ( data != null ) {
+                result = new String( data, UTF_8 );
+                put( id, result );
+            } else {
+                reseedInBackground();
+            }
+        }
+        return result;
+    }
+
+    private void put( final int id, final String className ) {
+        _classNames.put( id, className );
+        // a class might have several ids (if assigned concurrently by different tomcats), the first one is used
+        _ids.putIfAbsent( className, id );
+        int maxId;
+        while ( id > ( maxId = _maxId.get() ) && !_maxId.compareAndSet( maxId, id ) ) {
+        }
+    }
+
+    /**
+     * The number of locally known class ids.
+     */
+    public int size() {
+        return _classNames.size();
+    }
+
+}
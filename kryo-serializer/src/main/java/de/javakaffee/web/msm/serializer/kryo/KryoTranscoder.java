@@ -21,6 +21,7 @@ import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.pool.KryoFactory;
 import com.esotericsoftware.kryo.pool.KryoPool;
+import com.esotericsoftware.kryo.util.FastestStreamFactory;
 import de.javakaffee.kryoserializers.*;
 import de.javakaffee.web.msm.MemcachedBackupSession;
 import de.javakaffee.web.msm.SessionAttributesTranscoder;
@@ -51,12 +52,18 @@ public class KryoTranscoder implements SessionAttributesTranscoder {
     public static final int DEFAULT_INITIAL_BUFFER_SIZE = 100 * 1024;
     public static final int DEFAULT_MAX_BUFFER_SIZE = 2000 * 1024;
     public static final String DEFAULT_SERIALIZER_FACTORY_CLASS = DefaultFieldSerializerFactory.class.getName();
+
+    private static final String OUTPUT_KEY = KryoTranscoder.class.getName() + ".output";
+    private static final String INPUT_KEY = KryoTranscoder.class.getName() + ".input";
+    private static final byte[] EMPTY_BUFFER = new byte[0];
     
     private final KryoPool _kryoPool;
 
+    private final ClassLoader _classLoader;
     private final int _initialBufferSize;
     private final int _maxBufferSize;
     private final KryoDefaultSerializerFactory _defaultSerializerFactory;
+    private final boolean _highThroughput;
 
     public KryoTranscoder() {
         this( null, null, false );
@@ -70,10 +77,50 @@ public class KryoTranscoder implements SessionAttributesTranscoder {
     public KryoTranscoder( final ClassLoader classLoader, final String[] customConverterClassNames,
             final boolean copyCollectionsForSerialization, final int initialBufferSize, final int maxBufferSize,
             final String defaultSerializerFactoryClass ) {
+        this( classLoader, customConverterClassNames, copyCollectionsForSerialization, initialBufferSize, maxBufferSize,
+                defaultSerializerFactoryClass, null );
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param classDictionary if not <code>null</code>, classes not registered explicitly are written with
+     *  their id from this dictionary instead of their name (see {@link DictionaryClassResolver}).
+     */
+    public KryoTranscoder( final ClassLoader classLoader, final String[] customConverterClassNames,
+            final boolean copyCollectionsForSerialization, final int initialBufferSize, final int maxBufferSize,
+            final String defaultSerializerFactoryClass, final KryoClassDictionary classDictionary ) {
+        this( classLoader, customConverterClassNames, copyCollectionsForSerialization, initialBufferSize, maxBufferSize,
+                defaultSerializerFactoryClass, classDictionary, false, 0 );
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param classDictionary if not <code>null</code>, classes not registered explicitly are written with
+     *  their id from this dictionary instead of their name (see {@link DictionaryClassResolver}).
+     * @param highThroughput if <code>true</code>, kryo uses unsafe streams (see {@link FastestStreamFactory}),
+     *  streams and their buffers are reused per kryo instance and kryo instances are kept in a bounded
+     *  {@link StripedKryoPool} instead of a pool of soft references. Data written in this mode can only be read
+     *  in this mode and vice versa.
+     * @param poolSize the number of stripes of the {@link StripedKryoPool} (only used in high throughput mode),
+     *  e.g. the number of backup threads.
+     */
+    public KryoTranscoder( final ClassLoader classLoader, final String[] customConverterClassNames,
+            final boolean copyCollectionsForSerialization, final int initialBufferSize, final int maxBufferSize,
+            final String defaultSerializerFactoryClass, final KryoClassDictionary classDictionary,
+            final boolean highThroughput, final int poolSize ) {
         LOG.info( "Starting with initialBufferSize " + initialBufferSize + ", maxBufferSize " + maxBufferSize +
-                " and defaultSerializerFactory " + defaultSerializerFactoryClass );
-        final KryoFactory kryoFactory = createKryoFactory(classLoader, customConverterClassNames, copyCollectionsForSerialization);
-        _kryoPool = new KryoPool.Builder(kryoFactory).softReferences().build();
+                ", defaultSerializerFactory " + defaultSerializerFactoryClass + ", class dictionary " +
+                ( classDictionary != null ? "enabled" : "disabled" ) +
+                ( highThroughput ? " and high throughput mode with pool size " + poolSize : "" ) );
+        final KryoFactory kryoFactory = createKryoFactory(classLoader, customConverterClassNames, copyCollectionsForSerialization,
+                classDictionary, highThroughput);
+        _kryoPool = highThroughput
+            ? new StripedKryoPool(kryoFactory, poolSize)
+            : new KryoPool.Builder(kryoFactory).softReferences().build();
+        _classLoader = classLoader;
+        _highThroughput = highThroughput;
         _initialBufferSize = initialBufferSize;
         _maxBufferSize = maxBufferSize;
         _defaultSerializerFactory = loadDefaultSerializerFactory( classLoader, defaultSerializerFactoryClass );
@@ -92,7 +139,9 @@ public class KryoTranscoder implements SessionAttributesTranscoder {
 
     private KryoFactory createKryoFactory(final ClassLoader classLoader,
                                           final String[] customConverterClassNames,
-                                          final boolean copyCollectionsForSerialization) {
+                                          final boolean copyCollectionsForSerialization,
+                                          final KryoClassDictionary classDictionary,
+                                          final boolean highThroughput) {
         return new KryoFactory() {
             @Override
             public Kryo create() {
@@ -104,6 +153,13 @@ public class KryoTranscoder implements SessionAttributesTranscoder {
                     }
                 }.withInstantiatorStrategy(new Kryo.DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
 
+                if ( classDictionary != null ) {
+                    kryoBuilder = kryoBuilder.withClassResolver(new DictionaryClassResolver(classDictionary));
+                }
+                if ( highThroughput ) {
+                    kryoBuilder = kryoBuilder.withStreamFactory(new FastestStreamFactory());
+                }
+
                 final List<KryoBuilderConfiguration> builderConfigs = load(KryoBuilderConfiguration.class, customConverterClassNames, classLoader);
                 for(KryoBuilderConfiguration config : builderConfigs) {
                     kryoBuilder = config.configure(kryoBuilder);
@@ -211,12 +267,17 @@ public class KryoTranscoder implements SessionAttributesTranscoder {
         final Kryo kryo = _kryoPool.borrow();
         Input in = null;
         try {
-            in = kryo.getStreamFactory().getInput(data);
+            in = _highThroughput ? getReusableInput(kryo, data) : kryo.getStreamFactory().getInput(data);
             return kryo.readObject(in, ConcurrentHashMap.class);
         } catch ( final RuntimeException e ) {
             throw new TranscoderDeserializationException( e );
         } finally {
-            closeSilently(in);
+            if ( !_highThroughput ) {
+                closeSilently(in);
+            } else if ( in != null ) {
+                // don't keep a reference to the data
+                in.setBuffer(EMPTY_BUFFER);
+            }
             kryo.reset();   // to be safe
             _kryoPool.release(kryo);
         }
@@ -233,18 +294,77 @@ public class KryoTranscoder implements SessionAttributesTranscoder {
             /**
              * Creates an ObjectStream with an initial buffer size of 50KB and a maximum size of 1000KB.
              */
-            out = kryo.getStreamFactory().getOutput(_initialBufferSize, _maxBufferSize);
+            out = _highThroughput ? getReusableOutput(kryo) : kryo.getStreamFactory().getOutput(_initialBufferSize, _maxBufferSize);
             kryo.writeObject(out, attributes);
             return out.toBytes();
         } catch ( final RuntimeException e ) {
             throw new TranscoderDeserializationException( e );
         } finally {
-            closeSilently(out);
+            if ( !_highThroughput ) {
+                closeSilently(out);
+            }
             kryo.reset();   // to be safe
             _kryoPool.release(kryo);
         }
     }
 
+    private Input getReusableInput( final Kryo kryo, final byte[] data ) {
+        Input result = (Input) kryo.getContext().get( INPUT_KEY );
+        if ( result == null ) {
+            result = kryo.getStreamFactory().getInput( data );
+            kryo.getContext().put( INPUT_KEY, result );
+        } else {
+            result.setBuffer( data );
+        }
+        return result;
+    }
+
+    /**
+     * Returns the output kept by the given kryo instance, a new one is created if the buffer of the current one
+     * has grown beyond the initial buffer size so that large buffers are not kept.
+     */
+    private Output getReusableOutput( final Kryo kryo ) {
+        Output result = (Output) kryo.getContext().get( OUTPUT_KEY );
+        if ( result == null || result.getBuffer().length > _initialBufferSize ) {
+            result = kryo.getStreamFactory().getOutput( _initialBufferSize, _maxBufferSize );
+            kryo.getContext().put( OUTPUT_KEY, result );
+        } else {
+            result.clear();
+        }
+        return result;
+    }
+
+    /**
+     * Creates the kryo instances of the {@link StripedKryoPool} (in high throughput mode) and resolves the
+     * serializers of the given classes, so that this is not done while serving requests.
+     *
+     * @param hotClassNames the classes to register and resolve serializers for, may be <code>null</code>.
+     */
+    public void prewarm( final String[] hotClassNames ) {
+        if ( !( _kryoPool instanceof StripedKryoPool ) ) {
+            return;
+        }
+        final List<Class<?>> hotClasses = new ArrayList<Class<?>>();
+        if ( hotClassNames != null ) {
+            final ClassLoader loader = _classLoader != null ? _classLoader : Thread.currentThread().getContextClassLoader();
+            for ( final String className : hotClassNames ) {
+                try {
+                    hotClasses.add( Class.forName( className.trim(), false, loader ) );
+                } catch ( final ClassNotFoundException e ) {
+                    LOG.warn( "Could not load hot class " + className + " for prewarming." );
+                }
+            }
+        }
+        final Kryo[] kryos = ( (StripedKryoPool) _kryoPool ).prewarm();
+        for ( final Kryo kryo : kryos ) {
+            for ( final Class<?> clazz : hotClasses ) {
+                kryo.getRegistration( clazz );
+            }
+            getReusableOutput( kryo );
+        }
+        LOG.info( "Prewarmed " + kryos.length + " kryo instances with " + hotClasses.size() + " hot classes." );
+    }
+
     public KryoPool getKryoPool() {
         return _kryoPool;
     }
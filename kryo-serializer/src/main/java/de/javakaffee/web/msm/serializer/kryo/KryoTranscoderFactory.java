@@ -34,6 +34,23 @@ public class KryoTranscoderFactory implements TranscoderFactory {
     public static final String PROP_INIT_BUFFER_SIZE = "msm.kryo.bufferSize.initial";
     public static final String PROP_ENV_MAX_BUFFER_SIZE = "msm.kryo.bufferSize.max";
     public static final String PROP_ENV_DEFAULT_FACTORY = "msm.kryo.defaultSerializerFactory";
+    /**
+     * If set to <code>true</code>, classes are written with ids from a class dictionary shared
+     * by all tomcats (see {@link KryoClassDictionary}) instead of their names.
+     * This must be enabled on all tomcats of a webapp.
+     */
+    public static final String PROP_CLASS_DICTIONARY = "msm.kryo.classDictionary";
+    /**
+     * If set to <code>true</code>, kryo runs in high throughput mode: with unsafe streams, reused buffers and
+     * a bounded pool of kryo instances that's prewarmed on startup (see {@link KryoTranscoder}).
+     * This must be enabled on all tomcats of a webapp.
+     */
+    public static final String PROP_HIGH_THROUGHPUT = "msm.kryo.highThroughput";
+    /**
+     * A comma separated list of classes whose serializers are resolved when kryo instances are
+     * prewarmed (only in high throughput mode).
+     */
+    public static final String PROP_HOT_CLASSES = "msm.kryo.hotClasses";
 
     private boolean _copyCollectionsForSerialization;
     private String[] _customConverterClassNames;
@@ -44,26 +61,39 @@ public class KryoTranscoderFactory implements TranscoderFactory {
      */
     @Override
     public SessionAttributesTranscoder createTranscoder( final SessionManager manager ) {
-        return getTranscoder( manager.getContainerClassLoader() );
+        final KryoClassDictionary classDictionary = Boolean.getBoolean( PROP_CLASS_DICTIONARY )
+            ? new KryoClassDictionary( manager.getMemcachedSessionService().getSharedStorage() )
+            : null;
+        return getTranscoder( manager.getContainerClassLoader(), classDictionary,
+                manager.getMemcachedSessionService().getBackupThreadCount() );
     }
 
     protected SessionAttributesTranscoder createTranscoder( final ClassLoader loader ) {
-        return getTranscoder( loader );
+        return getTranscoder( loader, null, Runtime.getRuntime().availableProcessors() );
     }
 
     /**
      * Gets/creates a single instance of {@link KryoTranscoder}.
      *
      * @param classLoader the class loader of the web app container/context.
+     * @param classDictionary the class dictionary to use, may be <code>null</code>.
+     * @param poolSize the size of the kryo pool in high throughput mode.
      * @return for all invocations the same instance of {@link KryoTranscoder}.
      */
-    private KryoTranscoder getTranscoder( final ClassLoader classLoader ) {
+    private KryoTranscoder getTranscoder( final ClassLoader classLoader, final KryoClassDictionary classDictionary,
+            final int poolSize ) {
         if ( _transcoder == null ) {
+            if ( classDictionary != null ) {
+                classDictionary.load();
+            }
             final int initialBufferSize = getSysPropValue( PROP_INIT_BUFFER_SIZE, KryoTranscoder.DEFAULT_INITIAL_BUFFER_SIZE );
             final int maxBufferSize = getSysPropValue( PROP_ENV_MAX_BUFFER_SIZE, KryoTranscoder.DEFAULT_MAX_BUFFER_SIZE );
             final String defaultSerializerFactory = getSysPropValue( PROP_ENV_DEFAULT_FACTORY, KryoTranscoder.DEFAULT_SERIALIZER_FACTORY_CLASS );
             _transcoder = new KryoTranscoder( classLoader, _customConverterClassNames, _copyCollectionsForSerialization,
-                    initialBufferSize, maxBufferSize, defaultSerializerFactory );
+                    initialBufferSize, maxBufferSize, defaultSerializerFactory, classDictionary,
+                    Boolean.getBoolean( PROP_HIGH_THROUGHPUT ), Math.max( 1, poolSize ) );
+            final String hotClasses = getSysPropValue( PROP_HOT_CLASSES, (String) null );
+            _transcoder.prewarm( hotClasses != null ? hotClasses.split( ",\\s*" ) : null );
         }
         return _transcoder;
     }
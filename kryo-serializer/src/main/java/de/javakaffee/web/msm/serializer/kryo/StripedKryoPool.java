@@ -0,0 +1,124 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.serializer.kryo;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+import javax.annotation.Nonnull;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.pool.KryoCallback;
+import com.esotericsoftware.kryo.pool.KryoFactory;
+import com.esotericsoftware.kryo.pool.KryoPool;
+
+/**
+ * A {@link KryoPool} that keeps a bounded number of kryo instances (strongly referenced, so that
+ * they're not collected and rebuilt under memory pressure) in several stripes, to reduce contention
+ * between threads. A thread borrows from the stripe selected by its thread id and steals from other
+ * stripes if its stripe is empty; a new instance is only created if all stripes are empty. Instances
+ * released when the stripes are full are dropped.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class StripedKryoPool implements KryoPool {
+
+    static final int INSTANCES_PER_STRIPE = 4;
+
+    private final KryoFactory _factory;
+    private final ArrayBlockingQueue<Kryo>[] _stripes;
+
+    /**
+     * Creates a new pool.
+     *
+     * @param factory the factory to create new instances.
+     * @param numStripes the number of stripes, e.g. the number of threads expected to use the pool concurrently.
+     */
+    @SuppressWarnings( "unchecked" )
+    public StripedKryoPool( @Nonnull final KryoFactory factory, final int numStripes ) {
+        if ( numStripes < 1 ) {
+            throw new IllegalArgumentException( "The numStripes must be > 0, but was " + numStripes );
+        }
+        _factory = factory;
+        _stripes = new ArrayBlockingQueue[numStripes];
+        for ( int i = 0; i < numStripes; i++ ) {
+            _stripes[i] = new ArrayBlockingQueue<Kryo>( INSTANCES_PER_STRIPE );
+        }
+    }
+
+    /**
+     * Creates one instance per stripe, so that first requests don't have to create kryo instances.
+     *
+     * @return the created instances, that are already released to this pool.
+     */
+    @Nonnull
+    public Kryo[] prewarm() {
+        final Kryo[] result = new Kryo[_stripes.length];
+        for ( int i = 0; i < _stripes.length; i++ ) {
+            result[i] = _factory.create();
+            _stripes[i].offer( result[i] );
+        }
+        return result;
+    }
+
+    @Override
+    public Kryo borrow() {
+        final int start = getStripe();
+        for ( int i = 0; i < _stripes.length; i++ ) {
+            final Kryo result = _stripes[( start + i ) % _stripes.length].poll();
+            if ( result != null ) {
+                return result;
+            }
+        }
+        return _factory.create();
+    }
+
+    @Override
+    public void release( final Kryo kryo ) {
+        final int start = getStripe();
+        for ( int i = 0; i < _stripes.length; i++ ) {
+            if ( _stripes[( start + i ) % _stripes.length].offer( kryo ) ) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public <T> T run( final KryoCallback<T> callback ) {
+        final Kryo kryo = borrow();
+        try {
+            return callback.execute( kryo );
+        } finally {
+            release( kryo );
+        }
+    }
+
+    /**
+     * The number of pooled instances.
+     */
+    int size() {
+        int result = 0;
+        for ( final ArrayBlockingQueue<Kryo> stripe : _stripes ) {
+            result += stripe.size();
+        }
+        return result;
+    }
+
+    private int getStripe() {
+        return (int) ( Thread.currentThread().getId() % _stripes.length );
+    }
+
+}
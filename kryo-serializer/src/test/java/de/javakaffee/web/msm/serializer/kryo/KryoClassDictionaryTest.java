@@ -0,0 +1,256 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.serializer.kryo;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import de.javakaffee.web.msm.MemcachedBackupSession;
+import de.javakaffee.web.msm.SharedStorage;
+import de.javakaffee.web.msm.TranscoderDeserializationException;
+
+/**
+ * Test the {@link KryoClassDictionary} and the {@link DictionaryClassResolver}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class KryoClassDictionaryTest {
+
+    private Map<String, byte[]> _data;
+    private MapSharedStorage _storage;
+
+    @BeforeMethod
+    public void setUp() {
+        _data = new ConcurrentHashMap<String, byte[]>();
+        _storage = new MapSharedStorage( _data );
+    }
+
+    @Test
+    public void testIdsAreSharedBetweenDictionaries() {
+        final KryoClassDictionary dictionary1 = new KryoClassDictionary( _storage );
+        final KryoClassDictionary dictionary2 = new KryoClassDictionary( _storage );
+
+        assertEquals( dictionary1.getOrAssignId( "foo.Bar" ), Integer.valueOf( 0 ) );
+        assertEquals( dictionary2.getOrAssignId( "foo.Baz" ), Integer.valueOf( 1 ) );
+        assertEquals( dictionary2.getOrAssignId( "foo.Bar" ), Integer.valueOf( 0 ) );
+        assertEquals( dictionary1.getClassName( 1 ), "foo.Baz" );
+        assertNull( dictionary1.getClassName( 2 ) );
+
+        final KryoClassDictionary dictionary3 = new KryoClassDictionary( _storage );
+        assertEquals( dictionary3.load(), 2 );
+        assertEquals( dictionary3.getOrAssignId( "foo.Qux" ), Integer.valueOf( 2 ) );
+    }
+
+    @Test
+    public void testIdsAreNotReusedAfterEviction() {
+        final KryoClassDictionary dictionary1 = new KryoClassDictionary( _storage );
+        assertEquals( dictionary1.getOrAssignId( "foo.Bar" ), Integer.valueOf( 0 ) );
+        _data.remove( "msmKryoClass_0" );
+
+        final KryoClassDictionary dictionary2 = new KryoClassDictionary( _storage );
+        assertEquals( dictionary2.load(), 0 );
+        assertEquals( dictionary2.getOrAssignId( "foo.Baz" ), Integer.valueOf( 1 ) );
+    }
+
+    @Test
+    public void testEvictedIdsAreReseeded() {
+        final KryoClassDictionary dictionary1 = new KryoClassDictionary( _storage );
+        assertEquals( dictionary1.getOrAssignId( "foo.Bar" ), Integer.valueOf( 0 ) );
+        _data.remove( "msmKryoClass_0" );
+
+        // a miss of another id re-seeds the locally known ids in the background
+        assertNull( dictionary1.getClassName( 1 ) );
+        assertNull( _data.get( "msmKryoClass_0" ) );
+        _storage.runTasks();
+        assertEquals( new KryoClassDictionary( _storage ).getClassName( 0 ), "foo.Bar" );
+
+        // e.g. after a restart of a memcached node
+        _data.remove( "msmKryoClass_0" );
+        assertEquals( dictionary1.load(), 1 );
+        assertEquals( new KryoClassDictionary( _storage ).getClassName( 0 ), "foo.Bar" );
+    }
+
+    @Test
+    public void testLoadReadsIdsWithoutCounter() {
+        final KryoClassDictionary dictionary1 = new KryoClassDictionary( _storage );
+        assertEquals( dictionary1.getOrAssignId( "foo.Bar" ), Integer.valueOf( 0 ) );
+        assertEquals( dictionary1.getOrAssignId( "foo.Baz" ), Integer.valueOf( 1 ) );
+        _data.remove( "msmKryoClass_lastId" );
+
+        assertEquals( new KryoClassDictionary( _storage ).load(), 2 );
+    }
+
+    @Test
+    public void testDeserializationDoesNotAssignIds() {
+        final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        attributes.put( "person", new Person( "foo" ) );
+        final byte[] withNames = createTranscoder( null ).serializeAttributes( new MemcachedBackupSession(), attributes );
+
+        final KryoClassDictionary dictionary = new KryoClassDictionary( _storage );
+        final KryoTranscoder transcoder = createTranscoder( dictionary );
+        assertEquals( ( (Person) transcoder.deserializeAttributes( withNames ).get( "person" ) ).name, "foo" );
+        assertEquals( _storage._counterIncrements.get(), 0 );
+        assertNull( dictionary.getId( Person.class.getName() ) );
+
+        // the id is assigned in the background and used for writing
+        _storage.runTasks();
+        assertNotNull( dictionary.getId( Person.class.getName() ) );
+        final byte[] withIds = transcoder.serializeAttributes( new MemcachedBackupSession(), attributes );
+        assertTrue( withIds.length < withNames.length, "Expected " + withIds.length + " < " + withNames.length );
+    }
+
+    @Test
+    public void testUnavailableStorage() {
+        final KryoClassDictionary dictionary = new KryoClassDictionary( new MapSharedStorage( _data ) {
+            @Override
+            public byte[] putIfAbsent( final String name, final byte[] data ) {
+                return null;
+            }
+        } );
+        assertNull( dictionary.getOrAssignId( "foo.Bar" ) );
+    }
+
+    @Test
+    public void testTranscoderWritesClassIds() {
+        final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        attributes.put( "person", new Person( "foo" ) );
+        final MemcachedBackupSession session = new MemcachedBackupSession();
+
+        final byte[] withNames = createTranscoder( null ).serializeAttributes( session, attributes );
+        final byte[] withIds = createTranscoder( new KryoClassDictionary( _storage ) ).serializeAttributes( session, attributes );
+        assertTrue( withIds.length < withNames.length, "Expected " + withIds.length + " < " + withNames.length );
+
+        // another tomcat must resolve the class id from the storage
+        final KryoTranscoder other = createTranscoder( new KryoClassDictionary( _storage ) );
+        assertEquals( ( (Person) other.deserializeAttributes( withIds ).get( "person" ) ).name, "foo" );
+        // data without ids is still readable
+        assertEquals( ( (Person) other.deserializeAttributes( withNames ).get( "person" ) ).name, "foo" );
+    }
+
+    @Test( expectedExceptions = TranscoderDeserializationException.class )
+    public void testMissingClassIdFailsDeserialization() {
+        final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        attributes.put( "person", new Person( "foo" ) );
+        final byte[] withIds = createTranscoder( new KryoClassDictionary( _storage ) )
+                .serializeAttributes( new MemcachedBackupSession(), attributes );
+        _data.clear();
+        createTranscoder( new KryoClassDictionary( _storage ) ).deserializeAttributes( withIds );
+    }
+
+    private KryoTranscoder createTranscoder( final KryoClassDictionary dictionary ) {
+        return new KryoTranscoder( getClass().getClassLoader(), null, false, KryoTranscoder.DEFAULT_INITIAL_BUFFER_SIZE,
+                KryoTranscoder.DEFAULT_MAX_BUFFER_SIZE, KryoTranscoder.DEFAULT_SERIALIZER_FACTORY_CLASS, dictionary );
+    }
+
+    static class MapSharedStorage extends SharedStorage {
+
+        private final Map<String, byte[]> _data;
+        private final Queue<Runnable> _tasks = new ConcurrentLinkedQueue<Runnable>();
+        final AtomicInteger _counterIncrements = new AtomicInteger();
+
+        MapSharedStorage( final Map<String, byte[]> data ) {
+            super( null );
+            _data = data;
+        }
+
+        @Override
+        public byte[] get( final String name ) {
+            return _data.get( name );
+        }
+
+        @Override
+        public byte[] putIfAbsent( final String name, final byte[] data ) {
+            final byte[] existing = ( (ConcurrentHashMap<String, byte[]>) _data ).putIfAbsent( name, data );
+            return existing != null ? existing : data;
+        }
+
+        @Override
+        public synchronized long incrementCounter( final String name, final long initial ) {
+            _counterIncrements.incrementAndGet();
+            final byte[] value = _data.get( name );
+            final long result = value != null ? Long.parseLong( new String( value ) ) + 1 : initial;
+            _data.put( name, Long.toString( result ).getBytes() );
+            return result;
+        }
+
+        @Override
+        public long getCounter( final String name ) {
+            final byte[] value = _data.get( name );
+            return value != null ? Long.parseLong( new String( value ) ) : -1;
+        }
+
+        @Override
+        public Map<String, byte[]> getMulti( final Collection<String> names ) {
+            final Map<String, byte[]> result = new HashMap<String, byte[]>();
+            for ( final String name : names ) {
+                final byte[] value = _data.get( name );
+                if ( value != null ) {
+                    result.put( name, value );
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public int reseed( final Map<String, byte[]> entries ) {
+            int result = 0;
+            for ( final Map.Entry<String, byte[]> entry : entries.entrySet() ) {
+                if ( ( (ConcurrentHashMap<String, byte[]>) _data ).putIfAbsent( entry.getKey(), entry.getValue() ) == null ) {
+                    result++;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void execute( final Runnable task ) {
+            _tasks.add( task );
+        }
+
+        void runTasks() {
+            Runnable task;
+            while ( ( task = _tasks.poll() ) != null ) {
+                task.run();
+            }
+        }
+
+    }
+
+    static class Person implements Serializable {
+        private static final long serialVersionUID = 1L;
+        String name;
+        Person( final String name ) {
+            this.name = name;
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.serializer.kryo;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.pool.KryoFactory;
+
+import de.javakaffee.web.msm.MemcachedBackupSession;
+
+/**
+ * Test the high throughput mode of the {@link KryoTranscoder} and the {@link StripedKryoPool}.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class KryoTranscoderHighThroughputTest {
+
+    @Test
+    public void testRoundtrip() {
+        final KryoTranscoder transcoder = new KryoTranscoder( getClass().getClassLoader(), null, false, 64,
+                KryoTranscoder.DEFAULT_MAX_BUFFER_SIZE, KryoTranscoder.DEFAULT_SERIALIZER_FACTORY_CLASS, null, true, 2 );
+        transcoder.prewarm( new String[] { ArrayList.class.getName(), "not.existing.Class" } );
+
+        final MemcachedBackupSession session = new MemcachedBackupSession();
+        for ( int i = 0; i < 3; i++ ) {
+            final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+            attributes.put( "date", new Date( i ) );
+            final List<String> list = new ArrayList<String>();
+            // the last run exceeds the initial buffer size
+            for ( int j = 0; j < i * 50; j++ ) {
+                list.add( "item" + j );
+            }
+            attributes.put( "list", list );
+            final byte[] data = transcoder.serializeAttributes( session, attributes );
+            assertEquals( transcoder.deserializeAttributes( data ), attributes );
+        }
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        final AtomicInteger created = new AtomicInteger();
+        final StripedKryoPool pool = new StripedKryoPool( new KryoFactory() {
+            @Override
+            public Kryo create() {
+                created.incrementAndGet();
+                return new Kryo();
+            }
+        }, 2 );
+
+        final Kryo[] prewarmed = pool.prewarm();
+        assertEquals( prewarmed.length, 2 );
+        assertEquals( pool.size(), 2 );
+
+        final Kryo kryo = pool.borrow();
+        assertTrue( kryo == prewarmed[0] || kryo == prewarmed[1] );
+        pool.release( kryo );
+        assertSame( pool.borrow(), kryo );
+        pool.release( kryo );
+
+        final List<Kryo> borrowed = new ArrayList<Kryo>();
+        for ( int i = 0; i < 3 * StripedKryoPool.INSTANCES_PER_STRIPE; i++ ) {
+            borrowed.add( pool.borrow() );
+        }
+        assertEquals( created.get(), 3 * StripedKryoPool.INSTANCES_PER_STRIPE );
+        assertNotSame( borrowed.get( 0 ), borrowed.get( 1 ) );
+        for ( final Kryo k : borrowed ) {
+            pool.release( k );
+        }
+        assertEquals( pool.size(), 2 * StripedKryoPool.INSTANCES_PER_STRIPE );
+    }
+
+}
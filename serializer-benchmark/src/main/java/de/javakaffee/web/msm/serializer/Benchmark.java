@@ -102,7 +102,7 @@ serialized size is 70122 bytes.
         System.out.println( toCSV( "Kryo", kryoSerStats, kryoDeSerStats ) );
     }
 
-    private static String toCSV( final String name, final Stats serStats, final Stats deSerStats ) {
+    static String toCSV( final String name, final Stats serStats, final Stats deSerStats ) {
         return  name + "," + serStats.size +","+ minAvgMax( serStats ) + "," + minAvgMax( deSerStats );
     }
 
@@ -110,13 +110,13 @@ serialized size is 70122 bytes.
         return stats.min +","+ stats.avg +","+ stats.max;
     }
 
-    private static void recover() throws InterruptedException {
+    static void recover() throws InterruptedException {
         Thread.sleep( 200 );
         System.gc();
         Thread.sleep( 200 );
     }
 
-    private static void benchmark( final MemcachedBackupSessionManager manager, final SessionAttributesTranscoder transcoder,
+    static void benchmark( final MemcachedBackupSessionManager manager, final SessionAttributesTranscoder transcoder,
             final Stats serializationStats,
             final Stats deserializationStats,
             final int rounds, final int countPersons, final int nodesPerEdge ) throws InterruptedException {
@@ -154,7 +154,7 @@ serialized size is 70122 bytes.
         
     }
 
-    private static void warmup( final MemcachedBackupSessionManager manager, final SessionAttributesTranscoder transcoder,
+    static void warmup( final MemcachedBackupSessionManager manager, final SessionAttributesTranscoder transcoder,
             final int loops, final int countPersons, final int nodesPerEdge )
         throws InterruptedException {
         
@@ -174,7 +174,7 @@ serialized size is 70122 bytes.
 
     }
 
-    private static MemcachedBackupSession createSession( final MemcachedBackupSessionManager manager, final String id,
+    static MemcachedBackupSession createSession( final MemcachedBackupSessionManager manager, final String id,
             final int countPersons, final int countNodesPerEdge ) {
         final MemcachedBackupSession session = manager.createEmptySession();
         session.setId( id );
@@ -227,7 +227,7 @@ serialized size is 70122 bytes.
         return persons;
     }
     
-    private static MemcachedBackupSessionManager createManager() {
+    static MemcachedBackupSessionManager createManager() {
         final MemcachedBackupSessionManager manager = new MemcachedBackupSessionManager();
 
         final StandardContext container = new StandardContext();
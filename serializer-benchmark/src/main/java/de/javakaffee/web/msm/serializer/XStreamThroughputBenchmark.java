@@ -0,0 +1,133 @@
+/*
+ * Copyright 2026 Martin Grotzke
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an &quot;AS IS&quot; BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.javakaffee.web.msm.serializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.javakaffee.web.msm.MemcachedBackupSession;
+import de.javakaffee.web.msm.MemcachedBackupSessionManager;
+import de.javakaffee.web.msm.serializer.TestClasses.Person;
+import de.javakaffee.web.msm.serializer.xstream.XStreamTranscoder;
+
+/**
+ * Measures the throughput of the {@link XStreamTranscoder} used concurrently by as many threads
+ * as the backup thread pool has by default (the number of processors), comparing the default
+ * transcoder with the production mode (pooled buffers, prewarmed) with xml and binary driver.
+ *
+ * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
+ */
+public class XStreamThroughputBenchmark {
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int ROUNDS_PER_THREAD = 200;
+
+    public static void main( final String[] args ) throws Exception {
+
+        final MemcachedBackupSessionManager manager = Benchmark.createManager();
+        final MemcachedBackupSession session = Benchmark.createSession( manager, "123456789abcdefghijk987654321", 100, 3 );
+
+        final XStreamTranscoder plain = new XStreamTranscoder( manager );
+        final XStreamTranscoder pooled = new XStreamTranscoder( manager, false, THREADS );
+        pooled.prewarm( new String[] { Person.class.getName() } );
+        final XStreamTranscoder binary = new XStreamTranscoder( manager, true, THREADS );
+        binary.prewarm( new String[] { Person.class.getName() } );
+
+        final ExecutorService executor = Executors.newFixedThreadPool( THREADS );
+        try {
+            // warmup
+            run( executor, plain, session );
+            run( executor, pooled, session );
+            run( executor, binary, session );
+            Benchmark.recover();
+
+            System.out.println( "Mode,Threads,Size,Ser/s,Deser/s" );
+            System.out.println( run( executor, plain, session ).toCSV( "XStream" ) );
+            Benchmark.recover();
+            System.out.println( run( executor, pooled, session ).toCSV( "XStream-Pooled" ) );
+            Benchmark.recover();
+            System.out.println( run( executor, binary, session ).toCSV( "XStream-Pooled-Binary" ) );
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Result run( final ExecutorService executor, final XStreamTranscoder transcoder,
+            final MemcachedBackupSession session ) throws Exception {
+        final byte[] data = transcoder.serializeAttributes( session, session.getAttributesInternal() );
+
+        final long serStart = System.currentTimeMillis();
+        execute( executor, new Callable<Void>() {
+            @Override
+            public Void call() {
+                for ( int i = 0; i < ROUNDS_PER_THREAD; i++ ) {
+                    transcoder.serializeAttributes( session, session.getAttributesInternal() );
+                }
+                return null;
+            }
+        } );
+        final long serMillis = System.currentTimeMillis() - serStart;
+
+        final long deserStart = System.currentTimeMillis();
+        execute( executor, new Callable<Void>() {
+            @Override
+            public Void call() {
+                for ( int i = 0; i < ROUNDS_PER_THREAD; i++ ) {
+                    transcoder.deserializeAttributes( data );
+                }
+                return null;
+            }
+        } );
+        final long deserMillis = System.currentTimeMillis() - deserStart;
+
+        return new Result( data.length, serMillis, deserMillis );
+    }
+
+    private static void execute( final ExecutorService executor, final Callable<Void> task ) throws Exception {
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>( THREADS );
+        for ( int i = 0; i < THREADS; i++ ) {
+            futures.add( executor.submit( task ) );
+        }
+        for ( final Future<Void> future : futures ) {
+            future.get();
+        }
+    }
+
+    static class Result {
+
+        final int size;
+        final long serMillis;
+        final long deserMillis;
+
+        Result( final int size, final long serMillis, final long deserMillis ) {
+            this.size = size;
+            this.serMillis = serMillis;
+            this.deserMillis = deserMillis;
+        }
+
+        String toCSV( final String name ) {
+            final long ops = THREADS * ROUNDS_PER_THREAD * 1000L;
+            return name + "," + THREADS + "," + size + "," + ops / Math.max( 1, serMillis ) + "," + ops / Math.max( 1, deserMillis );
+        }
+
+    }
+
+}
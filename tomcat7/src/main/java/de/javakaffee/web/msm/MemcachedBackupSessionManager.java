@@ -462,9 +462,9 @@ public class MemcachedBackupSessionManager extends ManagerBase implements Lifecy
     }
 
     /**
-     * Specifies the memcached protocol to use, either "text" (default) or "binary".
+     * Specifies the memcached protocol to use, either "text" (default), "binary" or "meta".
      *
-     * @param memcachedProtocol one of "text" or "binary".
+     * @param memcachedProtocol one of "text", "binary" or "meta".
      */
     public void setMemcachedProtocol( final String memcachedProtocol ) {
         _msm.setMemcachedProtocol( memcachedProtocol );
@@ -548,6 +548,383 @@ public class MemcachedBackupSessionManager extends ManagerBase implements Lifecy
         _msm.setStorageKeyPrefix(storageKeyPrefix);
     }
 
+    /**
+     * Specifies, if java serialization shall write ids of class descriptors shared by all tomcats
+     * instead of the descriptors (default <code>false</code>).
+     *
+     * @see MemcachedSessionService#setJavaSerializationClassDictionary(boolean)
+     */
+    public void setJavaSerializationClassDictionary( final boolean javaSerializationClassDictionary ) {
+        _msm.setJavaSerializationClassDictionary( javaSerializationClassDictionary );
+    }
+
+    public boolean isJavaSerializationClassDictionary() {
+        return _msm.isJavaSerializationClassDictionary();
+    }
+
+    /**
+     * Specifies, if attributes with simple values (strings, boxed primitives, byte[], dates and small
+     * collections of these) shall be serialized with a builtin encoding instead of the configured transcoder.
+     *
+     * @see MemcachedSessionService#setHybridAttributesTranscoding(boolean)
+     */
+    public void setHybridAttributesTranscoding( final boolean hybridAttributesTranscoding ) {
+        _msm.setHybridAttributesTranscoding( hybridAttributesTranscoding );
+    }
+
+    public boolean isHybridAttributesTranscoding() {
+        return _msm.isHybridAttributesTranscoding();
+    }
+
+    /**
+     * Sets the codecs for specific attributes if hybrid attributes transcoding is enabled,
+     * as comma separated list of <code>name=codec</code> (codec is one of builtin, transcoder, java).
+     *
+     * @see MemcachedSessionService#setAttributeCodecRouting(String)
+     */
+    public void setAttributeCodecRouting( final String attributeCodecRouting ) {
+        _msm.setAttributeCodecRouting( attributeCodecRouting );
+    }
+
+    public String getAttributeCodecRouting() {
+        return _msm.getAttributeCodecRouting();
+    }
+
+    /**
+     * Specifies, if session attributes shall be deserialized only when they're accessed (default <code>false</code>).
+     *
+     * @see MemcachedSessionService#setLazyAttributesDeserialization(boolean)
+     */
+    public void setLazyAttributesDeserialization( final boolean lazyAttributesDeserialization ) {
+        _msm.setLazyAttributesDeserialization( lazyAttributesDeserialization );
+    }
+
+    public boolean isLazyAttributesDeserialization() {
+        return _msm.isLazyAttributesDeserialization();
+    }
+
+    /**
+     * Enables the missing sessions filter that remembers session ids not found in memcached,
+     * so that they're not looked up again. The capacity is the number of expected missing session ids
+     * per quarter of the missingSessionsFilterTtl, <code>0</code> (default) disables the filter.
+     *
+     * @see MemcachedSessionService#setMissingSessionsFilterCapacity(int)
+     */
+    public void setMissingSessionsFilterCapacity( final int missingSessionsFilterCapacity ) {
+        _msm.setMissingSessionsFilterCapacity( missingSessionsFilterCapacity );
+    }
+
+    public int getMissingSessionsFilterCapacity() {
+        return _msm.getMissingSessionsFilterCapacity();
+    }
+
+    /**
+     * The time in seconds that session ids not found in memcached are remembered (default <code>60</code>).
+     *
+     * @see MemcachedSessionService#setMissingSessionsFilterTtl(int)
+     */
+    public void setMissingSessionsFilterTtl( final int missingSessionsFilterTtl ) {
+        _msm.setMissingSessionsFilterTtl( missingSessionsFilterTtl );
+    }
+
+    public int getMissingSessionsFilterTtl() {
+        return _msm.getMissingSessionsFilterTtl();
+    }
+
+    /**
+     * The max number of storage misses per second a client may cause, <code>0</code> (default) disables the limit.
+     *
+     * @see MemcachedSessionService#setMaxStorageMissesPerClient(int)
+     */
+    public void setMaxStorageMissesPerClient( final int maxStorageMissesPerClient ) {
+        _msm.setMaxStorageMissesPerClient( maxStorageMissesPerClient );
+    }
+
+    public int getMaxStorageMissesPerClient() {
+        return _msm.getMaxStorageMissesPerClient();
+    }
+
+    /**
+     * The number of session ids expected to be created or loaded per quarter of the session timeout,
+     * these are exempt from the storage miss limit (default <code>10000</code>).
+     *
+     * @see MemcachedSessionService#setKnownSessionsFilterCapacity(int)
+     */
+    public void setKnownSessionsFilterCapacity( final int knownSessionsFilterCapacity ) {
+        _msm.setKnownSessionsFilterCapacity( knownSessionsFilterCapacity );
+    }
+
+    public int getKnownSessionsFilterCapacity() {
+        return _msm.getKnownSessionsFilterCapacity();
+    }
+
+    /**
+     * The time in seconds after that an idle session is offloaded (sticky mode only), <code>0</code> (default) disables offloading.
+     *
+     * @see MemcachedSessionService#setSessionOffloadIdleTime(int)
+     */
+    public void setSessionOffloadIdleTime( final int sessionOffloadIdleTime ) {
+        _msm.setSessionOffloadIdleTime( sessionOffloadIdleTime );
+    }
+
+    public int getSessionOffloadIdleTime() {
+        return _msm.getSessionOffloadIdleTime();
+    }
+
+    /**
+     * The max estimated heap in bytes used by the local sessions before the least recently accessed ones are
+     * offloaded (sticky mode only), <code>0</code> (default) disables the limit.
+     *
+     * @see MemcachedSessionService#setSessionOffloadHeapBudget(long)
+     */
+    public void setSessionOffloadHeapBudget( final long sessionOffloadHeapBudget ) {
+        _msm.setSessionOffloadHeapBudget( sessionOffloadHeapBudget );
+    }
+
+    public long getSessionOffloadHeapBudget() {
+        return _msm.getSessionOffloadHeapBudget();
+    }
+
+    /**
+     * The capacity in bytes of the off-heap memory used to keep offloaded sessions locally,
+     * <code>0</code> (default) disables this.
+     *
+     * @see MemcachedSessionService#setSessionOffHeapCapacity(long)
+     */
+    public void setSessionOffHeapCapacity( final long sessionOffHeapCapacity ) {
+        _msm.setSessionOffHeapCapacity( sessionOffHeapCapacity );
+    }
+
+    public long getSessionOffHeapCapacity() {
+        return _msm.getSessionOffHeapCapacity();
+    }
+
+    /**
+     * The max number of sessions recorded on stop and prefetched on start (sticky mode only),
+     * <code>0</code> (default) disables the session warm-up.
+     *
+     * @see MemcachedSessionService#setSessionWarmupMaxSessions(int)
+     */
+    public void setSessionWarmupMaxSessions( final int sessionWarmupMaxSessions ) {
+        _msm.setSessionWarmupMaxSessions( sessionWarmupMaxSessions );
+    }
+
+    public int getSessionWarmupMaxSessions() {
+        return _msm.getSessionWarmupMaxSessions();
+    }
+
+    /**
+     * The max number of sessions prefetched per second by the session warm-up (default <code>1000</code>).
+     *
+     * @see MemcachedSessionService#setSessionWarmupRate(int)
+     */
+    public void setSessionWarmupRate( final int sessionWarmupRate ) {
+        _msm.setSessionWarmupRate( sessionWarmupRate );
+    }
+
+    public int getSessionWarmupRate() {
+        return _msm.getSessionWarmupRate();
+    }
+
+    /**
+     * The max number of bytes of sessions prefetched by the session warm-up (default 64 MB).
+     *
+     * @see MemcachedSessionService#setSessionWarmupMaxBytes(long)
+     */
+    public void setSessionWarmupMaxBytes( final long sessionWarmupMaxBytes ) {
+        _msm.setSessionWarmupMaxBytes( sessionWarmupMaxBytes );
+    }
+
+    public long getSessionWarmupMaxBytes() {
+        return _msm.getSessionWarmupMaxBytes();
+    }
+
+    /**
+     * The max time in millis to wait for modified sessions being stored when tomcat is stopped in sticky mode
+     * (default 0, which disables the flush on shutdown).
+     *
+     * @see MemcachedSessionService#setShutdownFlushTimeout(long)
+     */
+    public void setShutdownFlushTimeout( final long shutdownFlushTimeout ) {
+        _msm.setShutdownFlushTimeout( shutdownFlushTimeout );
+    }
+
+    public long getShutdownFlushTimeout() {
+        return _msm.getShutdownFlushTimeout();
+    }
+
+    /**
+     * Specifies if new sessions shall be assigned to the less loaded of two randomly chosen memcached nodes
+     * (default false).
+     *
+     * @see MemcachedSessionService#setLoadAwareNodeSelection(boolean)
+     */
+    public void setLoadAwareNodeSelection( final boolean loadAwareNodeSelection ) {
+        _msm.setLoadAwareNodeSelection( loadAwareNodeSelection );
+    }
+
+    public boolean isLoadAwareNodeSelection() {
+        return _msm.isLoadAwareNodeSelection();
+    }
+
+    /**
+     * The weights of memcached nodes used for load aware node selection, e.g. <code>n1:2,n2:1</code>.
+     *
+     * @see MemcachedSessionService#setNodeWeights(String)
+     */
+    public void setNodeWeights( final String nodeWeights ) {
+        _msm.setNodeWeights( nodeWeights );
+    }
+
+    public String getNodeWeights() {
+        return _msm.getNodeWeights();
+    }
+
+    /**
+     * Specifies if reads of non-sticky sessions shall be hedged with a read of the secondary session backup
+     * (default false).
+     *
+     * @see MemcachedSessionService#setHedgedReads(boolean)
+     */
+    public void setHedgedReads( final boolean hedgedReads ) {
+        _msm.setHedgedReads( hedgedReads );
+    }
+
+    public boolean isHedgedReads() {
+        return _msm.isHedgedReads();
+    }
+
+    /**
+     * The max percentage of reads that are hedged (default 10).
+     *
+     * @see MemcachedSessionService#setHedgedReadsMaxPercent(int)
+     */
+    public void setHedgedReadsMaxPercent( final int hedgedReadsMaxPercent ) {
+        _msm.setHedgedReadsMaxPercent( hedgedReadsMaxPercent );
+    }
+
+    public int getHedgedReadsMaxPercent() {
+        return _msm.getHedgedReadsMaxPercent();
+    }
+
+    /**
+     * The ids of memcached nodes that are draining (being retired), separated by whitespace or comma.
+     *
+     * @see MemcachedSessionService#setDrainingNodes(String)
+     */
+    public void setDrainingNodes( final String drainingNodes ) {
+        _msm.setDrainingNodes( drainingNodes );
+    }
+
+    public String getDrainingNodes() {
+        return _msm.getDrainingNodes();
+    }
+
+    /**
+     * The max number of sessions per second that are migrated from draining nodes (default 100).
+     *
+     * @see MemcachedSessionService#setSessionMigrationRate(int)
+     */
+    public void setSessionMigrationRate( final int sessionMigrationRate ) {
+        _msm.setSessionMigrationRate( sessionMigrationRate );
+    }
+
+    public int getSessionMigrationRate() {
+        return _msm.getSessionMigrationRate();
+    }
+
+    /**
+     * The number of independent memcached clients/connections per node (default 1).
+     *
+     * @see MemcachedSessionService#setMemcachedConnectionsPerNode(int)
+     */
+    public void setMemcachedConnectionsPerNode( final int memcachedConnectionsPerNode ) {
+        _msm.setMemcachedConnectionsPerNode( memcachedConnectionsPerNode );
+    }
+
+    public int getMemcachedConnectionsPerNode() {
+        return _msm.getMemcachedConnectionsPerNode();
+    }
+
+    /**
+     * Specifies if locks and validity info shall use a separate memcached connection (default false).
+     *
+     * @see MemcachedSessionService#setMemcachedControlConnection(boolean)
+     */
+    public void setMemcachedControlConnection( final boolean memcachedControlConnection ) {
+        _msm.setMemcachedControlConnection( memcachedControlConnection );
+    }
+
+    public boolean isMemcachedControlConnection() {
+        return _msm.isMemcachedControlConnection();
+    }
+
+    /**
+     * Specifies if redis shall store the data and the validity info of a session in a single hash (default false).
+     *
+     * @see MemcachedSessionService#setRedisHashLayout(boolean)
+     */
+    public void setRedisHashLayout( final boolean redisHashLayout ) {
+        _msm.setRedisHashLayout( redisHashLayout );
+    }
+
+    public boolean isRedisHashLayout() {
+        return _msm.isRedisHashLayout();
+    }
+
+    /**
+     * Specifies the size in bytes above which sessions are stored in parts of this size (default 0, disabled).
+     *
+     * @see MemcachedSessionService#setStorageChunkSize(int)
+     */
+    public void setStorageChunkSize( final int storageChunkSize ) {
+        _msm.setStorageChunkSize( storageChunkSize );
+    }
+
+    public int getStorageChunkSize() {
+        return _msm.getStorageChunkSize();
+    }
+
+    /**
+     * Specifies if operation timeouts are derived from the latencies of each memcached node, with a circuit
+     * breaker per node (default false).
+     *
+     * @see MemcachedSessionService#setAdaptiveOperationTimeout(boolean)
+     */
+    public void setAdaptiveOperationTimeout( final boolean adaptiveOperationTimeout ) {
+        _msm.setAdaptiveOperationTimeout( adaptiveOperationTimeout );
+    }
+
+    public boolean isAdaptiveOperationTimeout() {
+        return _msm.isAdaptiveOperationTimeout();
+    }
+
+    /**
+     * The min timeout in millis of storage operations if adaptive operation timeouts are used (default 50).
+     *
+     * @see MemcachedSessionService#setMinOperationTimeout(long)
+     */
+    public void setMinOperationTimeout( final long minOperationTimeout ) {
+        _msm.setMinOperationTimeout( minOperationTimeout );
+    }
+
+    public long getMinOperationTimeout() {
+        return _msm.getMinOperationTimeout();
+    }
+
+    /**
+     * The number of consecutive timeouts after which the circuit breaker of a node opens (default 5).
+     *
+     * @see MemcachedSessionService#setCircuitBreakerThreshold(int)
+     */
+    public void setCircuitBreakerThreshold( final int circuitBreakerThreshold ) {
+        _msm.setCircuitBreakerThreshold( circuitBreakerThreshold );
+    }
+
+    public int getCircuitBreakerThreshold() {
+        return _msm.getCircuitBreakerThreshold();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -567,6 +944,8 @@ public class MemcachedBackupSessionManager extends ManagerBase implements Lifecy
 
         if ( _msm.isSticky() ) {
             _log.info( "Removing sessions from local session map." );
+            _msm.flushSessions();
+            _msm.recordSessionsForWarmup();
             for( final Session session : sessions.values() ) {
                 swapOut( (StandardSession) session );
             }
@@ -592,7 +971,7 @@ public class MemcachedBackupSessionManager extends ManagerBase implements Lifecy
      */
     @Override
     public void backgroundProcess() {
-        _msm.updateExpirationInMemcached();
+        _msm.backgroundProcess();
         super.backgroundProcess();
     }
 
@@ -855,6 +1234,231 @@ public class MemcachedBackupSessionManager extends ManagerBase implements Lifecy
         return _msm.getStatistics().getProbe( NON_STICKY_AFTER_DELETE_FROM_MEMCACHED ).getInfo();
     }
 
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getStorageLookupsRejected()
+     */
+    public long getMsmStatNumStorageLookupsRejected() {
+        return _msm.getStatistics().getStorageLookupsRejected();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getSessionsOffloaded()
+     */
+    public long getMsmStatNumSessionsOffloaded() {
+        return _msm.getStatistics().getSessionsOffloaded();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getSessionsRehydrated()
+     */
+    public long getMsmStatNumSessionsRehydrated() {
+        return _msm.getStatistics().getSessionsRehydrated();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getOffHeapSessionBytes()
+     */
+    public long getMsmStatOffHeapSessionBytes() {
+        return _msm.getStatistics().getOffHeapSessionBytes();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getOffHeapSessionHits()
+     */
+    public long getMsmStatNumOffHeapSessionHits() {
+        return _msm.getStatistics().getOffHeapSessionHits();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getOffHeapSessionMisses()
+     */
+    public long getMsmStatNumOffHeapSessionMisses() {
+        return _msm.getStatistics().getOffHeapSessionMisses();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getOffHeapSessionEvictions()
+     */
+    public long getMsmStatNumOffHeapSessionEvictions() {
+        return _msm.getStatistics().getOffHeapSessionEvictions();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getWarmupSessionsRecorded()
+     */
+    public long getMsmStatNumWarmupSessionsRecorded() {
+        return _msm.getStatistics().getWarmupSessionsRecorded();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getWarmupSessionsPrefetched()
+     */
+    public long getMsmStatNumWarmupSessionsPrefetched() {
+        return _msm.getStatistics().getWarmupSessionsPrefetched();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getWarmupSessionHits()
+     */
+    public long getMsmStatNumWarmupSessionHits() {
+        return _msm.getStatistics().getWarmupSessionHits();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getWarmupDuration()
+     */
+    public long getMsmStatWarmupDuration() {
+        return _msm.getStatistics().getWarmupDuration();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getShutdownFlushSessionsFlushed()
+     */
+    public long getMsmStatNumShutdownFlushSessionsFlushed() {
+        return _msm.getStatistics().getShutdownFlushSessionsFlushed();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getShutdownFlushSessionsFailed()
+     */
+    public long getMsmStatNumShutdownFlushSessionsFailed() {
+        return _msm.getStatistics().getShutdownFlushSessionsFailed();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getShutdownFlushDuration()
+     */
+    public long getMsmStatShutdownFlushDuration() {
+        return _msm.getStatistics().getShutdownFlushDuration();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getHedgedReads()
+     */
+    public long getMsmStatNumHedgedReads() {
+        return _msm.getStatistics().getHedgedReads();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getHedgedReadsWon()
+     */
+    public long getMsmStatNumHedgedReadsWon() {
+        return _msm.getStatistics().getHedgedReadsWon();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getSecondaryBackupsReplicated()
+     */
+    public long getMsmStatNumSecondaryBackupsReplicated() {
+        return _msm.getStatistics().getSecondaryBackupsReplicated();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getSecondaryBackupsRefreshed()
+     */
+    public long getMsmStatNumSecondaryBackupsRefreshed() {
+        return _msm.getStatistics().getSecondaryBackupsRefreshed();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getSecondaryBackupsCoalesced()
+     */
+    public long getMsmStatNumSecondaryBackupsCoalesced() {
+        return _msm.getStatistics().getSecondaryBackupsCoalesced();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getSecondaryBackupsDropped()
+     */
+    public long getMsmStatNumSecondaryBackupsDropped() {
+        return _msm.getStatistics().getSecondaryBackupsDropped();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getSecondaryBackupsRepaired()
+     */
+    public long getMsmStatNumSecondaryBackupsRepaired() {
+        return _msm.getStatistics().getSecondaryBackupsRepaired();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getSessionsMigrated()
+     */
+    public long getMsmStatNumSessionsMigrated() {
+        return _msm.getStatistics().getSessionsMigrated();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getSessionIdsChangedForMigration()
+     */
+    public long getMsmStatNumSessionIdsChangedForMigration() {
+        return _msm.getStatistics().getSessionIdsChangedForMigration();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getSessionMigrationsDropped()
+     */
+    public long getMsmStatNumSessionMigrationsDropped() {
+        return _msm.getStatistics().getSessionMigrationsDropped();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getSessionsRejectedAsTooLarge()
+     */
+    public long getMsmStatNumSessionsRejectedAsTooLarge() {
+        return _msm.getStatistics().getSessionsRejectedAsTooLarge();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getCircuitBreakerOpenings()
+     */
+    public long getMsmStatNumCircuitBreakerOpenings() {
+        return _msm.getStatistics().getCircuitBreakerOpenings();
+    }
+
+    /**
+     * @return
+     * @see de.javakaffee.web.msm.Statistics#getRequestsFailedFast()
+     */
+    public long getMsmStatNumRequestsFailedFast() {
+        return _msm.getStatistics().getRequestsFailedFast();
+    }
+
+    /**
+     * Returns a string array with the current operation timeout and circuit breaker state per memcached node,
+     * if adaptive operation timeouts are used.
+     * @return
+     */
+    public String[] getMsmStatNodeTimeoutInfo() {
+        return _msm.getNodeTimeoutInfo();
+    }
+
     // ---------------------------------------------------------------------------
 
     @Override
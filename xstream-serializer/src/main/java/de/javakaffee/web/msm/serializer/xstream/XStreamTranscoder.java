@@ -20,15 +20,24 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import javax.annotation.CheckForNull;
+
 import org.apache.catalina.Manager;
 import org.apache.catalina.session.StandardSession;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 
 import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.binary.BinaryStreamDriver;
 
 import de.javakaffee.web.msm.MemcachedBackupSession;
 import de.javakaffee.web.msm.SessionAttributesTranscoder;
@@ -37,6 +46,14 @@ import de.javakaffee.web.msm.TranscoderDeserializationException;
 /**
  * A {@link net.spy.memcached.transcoders.Transcoder} that serializes catalina
  * {@link StandardSession}s using <a href="http://xstream.codehaus.org/">XStream</a> (xml).
+ * <p>
+ * For production use the transcoder can be created with a pool of output buffers that are reused
+ * by concurrent serializations (e.g. from the backup thread pool), the XStream instance itself is threadsafe.
+ * Additionally the aliases and converters of frequently used classes can be resolved at startup
+ * via {@link #prewarm(String[])}, and the data can be written with XStream's {@link BinaryStreamDriver}
+ * instead of xml. Xml and binary data are both read regardless of the <code>binary</code> setting,
+ * as xml always starts with <code>'&lt;'</code>.
+ * </p>
  * 
  * @author <a href="mailto:martin.grotzke@javakaffee.de">Martin Grotzke</a>
  */
@@ -44,7 +61,21 @@ public class XStreamTranscoder implements SessionAttributesTranscoder {
 
     private static final Log LOG = LogFactory.getLog( XStreamTranscoder.class );
 
+    /**
+     * Buffers that grew beyond this size are not returned to the pool.
+     */
+    static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MIN_BUFFER_SIZE = 256;
+
+    private static final Class<?>[] DEFAULT_HOT_CLASSES = { ConcurrentHashMap.class, HashMap.class, ArrayList.class,
+        String.class, Integer.class, Long.class, Boolean.class, Date.class };
+
     private final XStream _xstream;
+    private final BinaryStreamDriver _binaryDriver = new BinaryStreamDriver();
+    private final boolean _binary;
+    private final ArrayBlockingQueue<PooledOutputStream> _buffers;
+    private volatile int _sizeHint = MIN_BUFFER_SIZE;
 
     /**
      * Constructor.
@@ -53,7 +84,55 @@ public class XStreamTranscoder implements SessionAttributesTranscoder {
      *            the manager
      */
     public XStreamTranscoder( final Manager manager ) {
+        this( manager, false, 0 );
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param manager
+     *            the manager
+     * @param binary
+     *            specifies if the binary driver shall be used for serialization instead of xml.
+     * @param bufferPoolSize
+     *            the max number of output buffers kept for reuse, e.g. the number of backup threads.
+     *            <code>0</code> disables reuse of buffers.
+     */
+    public XStreamTranscoder( final Manager manager, final boolean binary, final int bufferPoolSize ) {
         _xstream = new XStream();
+        _binary = binary;
+        _buffers = bufferPoolSize > 0 ? new ArrayBlockingQueue<PooledOutputStream>( bufferPoolSize ) : null;
+    }
+
+    /**
+     * Resolves the aliases and converters of some standard classes and the given classes,
+     * so that they're cached by XStream before the first session is serialized.
+     *
+     * @param hotClassNames the names of classes frequently stored in the session, may be <code>null</code>.
+     */
+    public void prewarm( @CheckForNull final String[] hotClassNames ) {
+        for ( final Class<?> clazz : DEFAULT_HOT_CLASSES ) {
+            prewarm( clazz );
+        }
+        if ( hotClassNames != null ) {
+            for ( final String className : hotClassNames ) {
+                try {
+                    prewarm( _xstream.getMapper().realClass( className ) );
+                } catch ( final RuntimeException e ) {
+                    LOG.warn( "Could not prewarm class " + className + ": " + e );
+                }
+            }
+        }
+        if ( _buffers != null ) {
+            while ( _buffers.offer( new PooledOutputStream( _sizeHint ) ) ) {
+                // fill the pool
+            }
+        }
+    }
+
+    private void prewarm( final Class<?> clazz ) {
+        _xstream.getMapper().serializedClass( clazz );
+        _xstream.getConverterLookup().lookupConverterForType( clazz );
     }
 
     /**
@@ -70,14 +149,35 @@ public class XStreamTranscoder implements SessionAttributesTranscoder {
             throw new NullPointerException( "Can't serialize null" );
         }
 
-        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final PooledOutputStream bos = borrowBuffer();
         try {
-            _xstream.toXML( object, bos );
-            return bos.toByteArray();
+            if ( _binary ) {
+                final HierarchicalStreamWriter writer = _binaryDriver.createWriter( bos );
+                _xstream.marshal( object, writer );
+                writer.flush();
+            } else {
+                _xstream.toXML( object, bos );
+            }
+            final byte[] result = bos.toByteArray();
+            // moving average so that new buffers mostly don't need to grow
+            _sizeHint = Math.max( MIN_BUFFER_SIZE, ( _sizeHint * 7 + result.length ) / 8 );
+            return result;
         } catch ( final Exception e ) {
             throw new IllegalArgumentException( "Non-serializable object", e );
         } finally {
-            closeSilently( bos );
+            releaseBuffer( bos );
+        }
+    }
+
+    private PooledOutputStream borrowBuffer() {
+        final PooledOutputStream result = _buffers != null ? _buffers.poll() : null;
+        return result != null ? result : new PooledOutputStream( _sizeHint );
+    }
+
+    private void releaseBuffer( final PooledOutputStream bos ) {
+        if ( _buffers != null && bos.capacity() <= MAX_POOLED_BUFFER_SIZE ) {
+            bos.reset();
+            _buffers.offer( bos );
         }
     }
 
@@ -92,8 +192,14 @@ public class XStreamTranscoder implements SessionAttributesTranscoder {
     public ConcurrentMap<String, Object> deserializeAttributes(final byte[] in ) {
         final ByteArrayInputStream bis = new ByteArrayInputStream( in );
         try {
+            final Object object;
+            if ( in.length > 0 && in[0] != '<' ) {
+                object = _xstream.unmarshal( _binaryDriver.createReader( bis ) );
+            } else {
+                object = _xstream.fromXML( bis );
+            }
             @SuppressWarnings( "unchecked" )
-            final ConcurrentMap<String, Object> result = (ConcurrentMap<String, Object>) _xstream.fromXML( bis );
+            final ConcurrentMap<String, Object> result = (ConcurrentMap<String, Object>) object;
             return result;
         } catch ( final RuntimeException e ) {
             LOG.warn( "Caught Exception decoding "+ in.length +" bytes of data", e );
@@ -103,6 +209,13 @@ public class XStreamTranscoder implements SessionAttributesTranscoder {
         }
     }
 
+    /**
+     * Returns the number of buffers available for reuse.
+     */
+    int getPooledBuffers() {
+        return _buffers != null ? _buffers.size() : 0;
+    }
+
     private void closeSilently( final Closeable stream ) {
         if ( stream != null ) {
             try {
@@ -113,4 +226,19 @@ public class XStreamTranscoder implements SessionAttributesTranscoder {
         }
     }
 
+    /**
+     * A {@link ByteArrayOutputStream} that exposes its capacity.
+     */
+    static final class PooledOutputStream extends ByteArrayOutputStream {
+
+        PooledOutputStream( final int size ) {
+            super( size );
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+
+    }
+
 }
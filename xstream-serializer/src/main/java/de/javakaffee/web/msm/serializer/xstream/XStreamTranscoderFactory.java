@@ -29,6 +29,23 @@ import de.javakaffee.web.msm.TranscoderFactory;
  */
 public class XStreamTranscoderFactory implements TranscoderFactory {
 
+    /**
+     * The system property to enable the production mode, where output buffers are reused and
+     * aliases/converters of frequently used classes are resolved at startup.
+     */
+    public static final String PROP_PRODUCTION_MODE = "msm.xstream.productionMode";
+
+    /**
+     * The system property to enable the binary driver instead of xml.
+     */
+    public static final String PROP_BINARY = "msm.xstream.binary";
+
+    /**
+     * The system property to specify a comma separated list of class names that
+     * are resolved at startup in production mode.
+     */
+    public static final String PROP_HOT_CLASSES = "msm.xstream.hotClasses";
+
     private XStreamTranscoder _transcoder;
 
     /**
@@ -36,12 +53,18 @@ public class XStreamTranscoderFactory implements TranscoderFactory {
      */
     @Override
     public SessionAttributesTranscoder createTranscoder( final SessionManager manager ) {
-        return getTranscoder( manager );
+        return getTranscoder( manager, manager.getMemcachedSessionService().getBackupThreadCount() );
     }
 
-    private XStreamTranscoder getTranscoder( final Manager manager ) {
+    private XStreamTranscoder getTranscoder( final Manager manager, final int backupThreadCount ) {
         if ( _transcoder == null ) {
-            _transcoder = new XStreamTranscoder( manager );
+            if ( Boolean.getBoolean( PROP_PRODUCTION_MODE ) ) {
+                _transcoder = new XStreamTranscoder( manager, Boolean.getBoolean( PROP_BINARY ), Math.max( 1, backupThreadCount ) );
+                final String hotClasses = System.getProperty( PROP_HOT_CLASSES );
+                _transcoder.prewarm( hotClasses != null && hotClasses.trim().length() > 0 ? hotClasses.split( ",\\s*" ) : null );
+            } else {
+                _transcoder = new XStreamTranscoder( manager, Boolean.getBoolean( PROP_BINARY ), 0 );
+            }
         }
         return _transcoder;
     }
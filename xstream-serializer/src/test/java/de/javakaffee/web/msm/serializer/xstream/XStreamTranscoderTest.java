@@ -73,6 +73,33 @@ public class XStreamTranscoderTest {
 
     }
 
+    @Test
+    public void testBinaryAndPooledBuffers() throws Exception {
+        final MemcachedBackupSessionManager manager = new MemcachedBackupSessionManager();
+        manager.setContainer( new StandardContext() );
+        final XStreamTranscoder xmlTranscoder = new XStreamTranscoder( manager );
+        final XStreamTranscoder transcoder = new XStreamTranscoder( manager, true, 2 );
+        transcoder.prewarm( new String[] { Person.class.getName(), "not.existing.Class" } );
+        Assert.assertEquals( transcoder.getPooledBuffers(), 2 );
+
+        final MemcachedBackupSession session = manager.createEmptySession();
+        session.setValid( true );
+        session.setAttribute( "person1", createPerson( "foo bar", Gender.MALE, "foo.bar@example.org", "foo.bar@example.com" ) );
+        session.setAttribute( "person2", createPerson( "bar baz", Gender.FEMALE, "bar.baz@example.org", "bar.baz@example.com" ) );
+
+        final byte[] xml = xmlTranscoder.serializeAttributes( session, session.getAttributesInternal() );
+        final byte[] binary = transcoder.serializeAttributes( session, session.getAttributesInternal() );
+        Assert.assertTrue( binary.length < xml.length, "Expected " + binary.length + " < " + xml.length );
+        Assert.assertEquals( transcoder.getPooledBuffers(), 2 );
+        // serializing again reuses the buffer
+        Assert.assertEquals( transcoder.serializeAttributes( session, session.getAttributesInternal() ), binary );
+
+        // xml and binary data are read by both transcoders
+        assertEquals( transcoder.deserializeAttributes( binary ), session.getAttributesInternal() );
+        assertEquals( transcoder.deserializeAttributes( xml ), session.getAttributesInternal() );
+        assertEquals( xmlTranscoder.deserializeAttributes( binary ), session.getAttributesInternal() );
+    }
+
     private Person createPerson( final String name, final Gender gender, final String... emailAddresses ) {
         final Person person = new Person();
         person.setName( name );